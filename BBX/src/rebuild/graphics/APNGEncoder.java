@@ -0,0 +1,452 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Vector;
+
+import rebuild.graphics.png.ChunkOutputStream;
+
+import net.rim.device.api.system.Bitmap;
+import net.rim.device.api.ui.XYRect;
+
+/**
+ * APNGEncoder writes a sequence of frames as an animated PNG (APNG). The first frame is written as the normal PNG image
+ * so viewers that don't support animation still show it. Every following frame is compared to the frame before it and
+ * only the rectangle that changed is written, so the size of the file and the time it takes to encode follow how much
+ * of the animation changes rather than the size of the frames.
+ * <p>
+ * All frames share one color type, bit depth and palette, picked from the colors of every frame. When the changed
+ * pixels of a frame are all opaque and the color type can hold a transparent pixel, the unchanged pixels inside the
+ * rectangle are written as transparent and the frame is blended over the previous one, which compresses better.
+ * </p>
+ * @since BBX 1.3.0
+ */
+public class APNGEncoder extends PNGEncoder
+{
+    /** Animation control chunk. */
+    protected static final byte ACTL[] = {97, 99, 84, 76};
+
+    /** Frame control chunk. */
+    protected static final byte FCTL[] = {102, 99, 84, 76};
+
+    /** Frame data chunk. */
+    protected static final byte FDAT[] = {102, 100, 65, 84};
+
+    /** The frame is left as it is before the next frame is rendered. */
+    protected static final int DISPOSE_OP_NONE = 0;
+
+    /** The frame replaces the pixels of the output buffer it covers. */
+    protected static final int BLEND_OP_SOURCE = 0;
+
+    /** The frame is composited over the pixels of the output buffer it covers. */
+    protected static final int BLEND_OP_OVER = 1;
+
+    /** The frames of the animation. */
+    private Vector frames;
+
+    /** The number of times the animation plays, 0 to play forever. */
+    protected int loopCount;
+
+    /** The sequence number of the next fcTL or fdAT chunk. */
+    private int sequence;
+
+    /** Can frames be blended over the previous frame with the color type being written? */
+    private boolean canBlend;
+
+    /** The frame being written, and the frame before it if the frame is blended over it. */
+    private Frame current, previous;
+
+    /** The stream the frame data of the frame being written goes to, if it isn't the first frame. */
+    private ChunkOutputStream frameData;
+
+
+    /**
+     * Class constructor
+     */
+    public APNGEncoder()
+    {
+        this(NO_ALPHA, FILTER_NONE, 0);
+    }
+
+    /**
+     * Class constructor specifying whether to encode alpha.
+     *
+     * @param encodeAlpha Encode the alpha channel? false=no; true=yes
+     */
+    public APNGEncoder(boolean encodeAlpha)
+    {
+        this(encodeAlpha, FILTER_NONE, 0);
+    }
+
+    /**
+     * Class constructor specifying whether to encode alpha, the filter to use and the compression level.
+     *
+     * @param encodeAlpha Encode the alpha channel? false=no; true=yes
+     * @param whichFilter 0=none, 1=sub, 2=up, 3=average, 4=paeth, 5=adaptive
+     * @param compLevel 0..9
+     */
+    public APNGEncoder(boolean encodeAlpha, int whichFilter, int compLevel)
+    {
+        super(null, encodeAlpha, whichFilter, compLevel);
+        frames = new Vector();
+    }
+
+    /**
+	 * Get the MIME type of the image encoder.
+	 * @return The MIME type of the image encoder.
+	 */
+    public String getMime()
+    {
+        return "image/apng";
+    }
+
+    /**
+     * Add a frame to the end of the animation. The first frame sets the size of the animation, every other frame
+     * must be the same size. The frame is not copied so it shouldn't be changed until the animation is encoded.
+     *
+     * @param frame The frame to add.
+     * @param delay How long the frame is shown, in milliseconds.
+     */
+    public void addFrame(Bitmap frame, int delay)
+    {
+        if (frame == null)
+        {
+            throw new NullPointerException("frame");
+        }
+        if (frames.isEmpty())
+        {
+            setImage(frame);
+        }
+        else
+        {
+            Bitmap first = ((Frame) frames.elementAt(0)).bitmap;
+            if (frame.getWidth() != first.getWidth() || frame.getHeight() != first.getHeight())
+            {
+                throw new IllegalArgumentException("frame size");
+            }
+        }
+        frames.addElement(new Frame(frame, Math.max(delay, 0)));
+    }
+
+    /**
+     * Remove all frames from the animation.
+     */
+    public void clearFrames()
+    {
+        frames.removeAllElements();
+        setImage(null);
+    }
+
+    /**
+     * Get the number of frames in the animation.
+     *
+     * @return The number of frames.
+     */
+    public int getFrameCount()
+    {
+        return frames.size();
+    }
+
+    /**
+     * Set the number of times the animation plays. Values less than zero are ignored.
+     *
+     * @param count The number of times to play the animation, 0 to play it forever.
+     */
+    public void setLoopCount(int count)
+    {
+        if (count >= 0)
+        {
+            this.loopCount = count;
+        }
+    }
+
+    /**
+     * Get the number of times the animation plays.
+     *
+     * @return The number of times the animation plays, 0 if it plays forever.
+     */
+    public int getLoopCount()
+    {
+        return loopCount;
+    }
+
+    /**
+     * Dithering isn't used for animations, the dither pattern would change in every frame and the whole frame would
+     * have to be written. This does nothing.
+     *
+     * @param dither Ignored.
+     */
+    public void setDither(boolean dither)
+    {
+    }
+
+    /**
+     * Writes the animation to a stream. Nothing is written if there are no frames.
+     *
+     * @param out The stream to write the animation to.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return true if no errors; false if there are no frames or there was a problem
+     */
+    protected boolean inEncode(OutputStream out, boolean encodeAlpha) throws IOException
+    {
+        if (frames.isEmpty())
+        {
+            return false;
+        }
+        return super.inEncode(out, encodeAlpha);
+    }
+
+    /**
+     * Find the changed region of every frame, then pick the color type and bit depth from the colors of those regions.
+     */
+    protected void selectFormat()
+    {
+        findRegions();
+        super.selectFormat();
+        canBlend = colorType == COLOR_TYPE_GRAY_ALPHA || colorType == COLOR_TYPE_RGB_ALPHA ||
+            (colorType == COLOR_TYPE_INDEXED && quantizer == null && palette.indexOf(0) >= 0);
+    }
+
+    /**
+     * Compare every frame to the frame before it to find the rectangle that changed.
+     */
+    private void findRegions()
+    {
+        int count = frames.size();
+        int[] prior = new int[width];
+        int[] pixels = new int[width];
+        Frame last = (Frame) frames.elementAt(0);
+        last.region = new XYRect(0, 0, width, height);
+        for (int i = 1; i < count; i++)
+        {
+            Frame frame = (Frame) frames.elementAt(i);
+            int minX = width;
+            int maxX = -1;
+            int minY = -1;
+            int maxY = -1;
+            boolean opaque = true;
+            for (int y = 0; y < height; y++)
+            {
+                last.bitmap.getARGB(prior, 0, width, 0, y, width, 1);
+                frame.bitmap.getARGB(pixels, 0, width, 0, y, width, 1);
+                for (int x = 0; x < width; x++)
+                {
+                    int argb = pixels[x];
+                    if (argb != prior[x])
+                    {
+                        if (x < minX)
+                        {
+                            minX = x;
+                        }
+                        if (x > maxX)
+                        {
+                            maxX = x;
+                        }
+                        if (minY < 0)
+                        {
+                            minY = y;
+                        }
+                        maxY = y;
+                        if ((argb >>> 24) != 0xff)
+                        {
+                            opaque = false;
+                        }
+                    }
+                }
+            }
+            if (maxY < 0)
+            {
+                /*
+                 * Nothing changed, a frame can't be empty so a single pixel is written
+                 */
+                frame.region = new XYRect(0, 0, 1, 1);
+                frame.opaque = false;
+            }
+            else
+            {
+                frame.region = new XYRect(minX, minY, maxX - minX + 1, maxY - minY + 1);
+                frame.opaque = opaque;
+            }
+            last = frame;
+        }
+    }
+
+    /**
+     * Get a frame of the animation and the region of it that changed.
+     *
+     * @param index The index of the frame.
+     * @param region Set to the region of the frame that changed.
+     * @return The frame.
+     */
+    protected Bitmap getFrame(int index, XYRect region)
+    {
+        Frame frame = (Frame) frames.elementAt(index);
+        region.set(frame.region);
+        return frame.bitmap;
+    }
+
+    /**
+     * Write the PNG "IHDR" chunk and the "acTL" chunk to the PNG stream.
+     */
+    protected void writeHeader() throws IOException
+    {
+        super.writeHeader();
+        bytePos = writeInt4(frames.size(), 0);
+        bytePos = writeInt4(loopCount, bytePos);
+        writeChunk(ACTL, dataBytes, 0, bytePos);
+    }
+
+    /**
+     * Write every frame of the animation to the PNG stream. Each frame is an "fcTL" chunk followed by the image data
+     * of the region of the frame that changed, the first frame is written as "IDAT" chunks and the others as
+     * "fdAT" chunks.
+     *
+     * @return true if no errors; false if error grabbing pixels
+     */
+    protected boolean writeImageData() throws IOException
+    {
+        int fullWidth = width;
+        int fullHeight = height;
+        int count = frames.size();
+        sequence = 0;
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                current = (Frame) frames.elementAt(i);
+                previous = (i > 0 && canBlend && current.opaque) ? (Frame) frames.elementAt(i - 1) : null;
+                width = current.region.width;
+                height = current.region.height;
+                writeFrameControl(current, (previous != null) ? BLEND_OP_OVER : BLEND_OP_SOURCE);
+                
+                frameData = null;
+                if (!super.writeImageData())
+                {
+                    return false;
+                }
+                if (frameData != null)
+                {
+                    sequence = frameData.getSequenceNumber();
+                }
+            }
+        }
+        finally
+        {
+            width = fullWidth;
+            height = fullHeight;
+            current = null;
+            previous = null;
+            frameData = null;
+        }
+        return true;
+    }
+
+    /**
+     * Write a PNG "fcTL" chunk to the PNG stream.
+     *
+     * @param frame The frame.
+     * @param blendOp The blend operation of the frame.
+     */
+    private void writeFrameControl(Frame frame, int blendOp) throws IOException
+    {
+        /*
+         * The delay is a fraction of a second with 16 bit parts, long delays lose precision
+         */
+        int delayNum = frame.delay;
+        int delayDen = 1000;
+        while (delayNum > 0xffff && delayDen > 1)
+        {
+            delayNum = (delayNum + 5) / 10;
+            delayDen /= 10;
+        }
+        
+        XYRect region = frame.region;
+        bytePos = writeInt4(sequence++, 0);
+        bytePos = writeInt4(region.width, bytePos);
+        bytePos = writeInt4(region.height, bytePos);
+        bytePos = writeInt4(region.x, bytePos);
+        bytePos = writeInt4(region.y, bytePos);
+        bytePos = writeInt2(Math.min(delayNum, 0xffff), bytePos);
+        bytePos = writeInt2(delayDen, bytePos);
+        bytePos = writeByte(DISPOSE_OP_NONE, bytePos);
+        bytePos = writeByte(blendOp, bytePos);
+        writeChunk(FCTL, dataBytes, 0, bytePos);
+    }
+
+    /**
+     * Get rows of the changed region of the frame being written. When the frame is blended over the previous
+     * frame, the pixels that didn't change are made transparent.
+     */
+    protected void getPixels(int[] pixels, int offset, int y, int rows)
+    {
+        XYRect region = current.region;
+        current.bitmap.getARGB(pixels, offset, width, region.x, region.y + y, width, rows);
+        if (previous != null)
+        {
+            //Bands call this at the same time when compressing on multiple threads, so the rows can't be kept in a field
+            int length = width * rows;
+            int[] prior = new int[length];
+            previous.bitmap.getARGB(prior, 0, width, region.x, region.y + y, width, rows);
+            for (int i = 0; i < length; i++)
+            {
+                if (pixels[offset + i] == prior[i])
+                {
+                    pixels[offset + i] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the stream the image data of the frame being written goes to.
+     *
+     * @return A stream that writes "IDAT" chunks for the first frame, "fdAT" chunks for the others.
+     */
+    protected ChunkOutputStream openImageData()
+    {
+        if (current == frames.firstElement())
+        {
+            return super.openImageData();
+        }
+        frameData = new ChunkOutputStream(pngStream, FDAT, idatSize, sequence);
+        return frameData;
+    }
+
+    /**
+     * A frame of the animation.
+     */
+    private static final class Frame
+    {
+        Bitmap bitmap;
+        int delay;
+        XYRect region;
+        boolean opaque;
+        
+        Frame(Bitmap bitmap, int delay)
+        {
+            this.bitmap = bitmap;
+            this.delay = delay;
+        }
+    }
+}
@@ -23,6 +23,7 @@
 package rebuild.graphics;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import net.rim.device.api.system.Bitmap;
 import net.rim.device.api.ui.XYRect;
@@ -136,6 +137,62 @@ public abstract class ImageEncoder
 	 */
 	protected abstract byte[] inEncode(boolean encodeAlpha) throws IOException;
 	
+	/**
+	 * Encode an image in a specific format, writing the encoded data to a stream as it is produced.
+	 * @param out The stream to write the encoded data to. The stream is not closed.
+	 * @param encodeAlpha True if alpha should be encoded.
+	 * @return <code>true</code> if the image was encoded, <code>false</code> if there is no image or an error occurred.
+	 * @throws IOException If an error occurs.
+	 * @since BBX 1.3.0
+	 */
+	public final boolean encode(OutputStream out, boolean encodeAlpha) throws IOException
+	{
+		if (out == null)
+		{
+			throw new NullPointerException("out");
+		}
+		if (image == null)
+        {
+            return false;
+        }
+        width = image.getWidth();
+        height = image.getHeight();
+        return inEncode(out, encodeAlpha);
+	}
+	
+	/**
+	 * Encode an image in a specific format, writing the encoded data to a stream as it is produced.
+	 * @param out The stream to write the encoded data to. The stream is not closed.
+	 * @return <code>true</code> if the image was encoded, <code>false</code> if there is no image or an error occurred.
+	 * @throws IOException If an error occurs.
+	 * @since BBX 1.3.0
+	 */
+	public final boolean encode(OutputStream out) throws IOException
+	{
+		return encode(out, encodeAlpha);
+	}
+	
+	/**
+	 * Encode an image in a specific format, writing the encoded data to a stream. The default implementation encodes 
+	 * the entire image into memory with {@link #inEncode(boolean)} and then writes it out, encoders that can produce 
+	 * their output incrementally should override this.
+	 * @param out The stream to write the encoded data to.
+	 * @param encodeAlpha True if alpha should be encoded.
+	 * @return <code>true</code> if the image was encoded, <code>false</code> if an error occurred.
+	 * @throws IOException If an error occurs.
+	 * @since BBX 1.3.0
+	 */
+	protected boolean inEncode(OutputStream out, boolean encodeAlpha) throws IOException
+	{
+		byte[] data = inEncode(encodeAlpha);
+		if (data == null)
+		{
+			return false;
+		}
+		out.write(data);
+		return true;
+	}
+	
 	/**
      * Set the image to be encoded.
      * @param image A Java Image object which uses the DirectColorModel.
@@ -26,10 +26,21 @@ package rebuild.graphics;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Vector;
+
+import rebuild.graphics.png.ChunkOutputStream;
+import rebuild.graphics.png.OctreeQuantizer;
+import rebuild.graphics.png.Palette;
+import rebuild.graphics.png.ScanlineFilter;
+import rebuild.util.checksum.Adler32;
+import rebuild.util.concurrent.Task;
+import rebuild.util.concurrent.WorkerPool;
+import rebuild.util.zip.Deflater;
 
-import net.rim.device.api.compress.ZLibOutputStream;
 import net.rim.device.api.system.Bitmap;
-import net.rim.device.api.util.CRC32;
+import net.rim.device.api.ui.XYRect;
 
 /**
  * PNGEncoder takes a Java Image object and creates a byte string which can be saved as a PNG file.
@@ -73,6 +84,16 @@ import net.rim.device.api.util.CRC32;
  * 08-Apr-2008 : Ported to BlackBerry (by Richard Puckett II)
  * 10-May-2009 : Modified so it fits a standard image encoder base class.
  * 24-Mar-2012 : Moved to new library.
+ * 17-Oct-2012 : Chunks are streamed straight to an OutputStream, image data is split into multiple IDAT chunks.
+ *               Added Average, Paeth and adaptive filtering, fixed Sub and Up filtering.
+ *               Added band-parallel compression.
+ *               Added indexed color output with color quantization.
+ *               Added automatic color type and bit depth reduction.
+ *               Buffers are reused between batches and encodes, the number of rows per batch can be set.
+ *               Added Adam7 interlacing.
+ *               The frames scanned for colors, the pixel source and the image data stream can be overridden, used by APNGEncoder.
+ *               Added compression strategies and a time budget, image data is compressed with rebuild.util.zip.Deflater.
+ *               Added an optimize mode that tries filter, compression level and strategy combinations and keeps the smallest.
  * 
  * @since BBX 1.0.1
  */
@@ -93,8 +114,26 @@ public class PNGEncoder extends ImageEncoder
     /** Constants for filter (UP) */
     public static final int FILTER_UP = 2;
 
+    /**
+     * Constants for filter (AVERAGE)
+     * @since BBX 1.3.0
+     */
+    public static final int FILTER_AVERAGE = 3;
+
+    /**
+     * Constants for filter (PAETH)
+     * @since BBX 1.3.0
+     */
+    public static final int FILTER_PAETH = 4;
+
     /** Constants for filter (LAST) */
-    public static final int FILTER_LAST = 2;
+    public static final int FILTER_LAST = 4;
+
+    /**
+     * Constants for filter (ADAPTIVE), picks the filter for each row that gives the minimum sum of absolute differences.
+     * @since BBX 1.3.0
+     */
+    public static final int FILTER_ADAPTIVE = 5;
     
     /** IHDR tag. */
     protected static final byte IHDR[] = {73, 72, 68, 82};
@@ -104,24 +143,195 @@ public class PNGEncoder extends ImageEncoder
     
     /** IEND tag. */
     protected static final byte IEND[] = {73, 69, 78, 68};
+    
+    /** PLTE tag. */
+    protected static final byte PLTE[] = {80, 76, 84, 69};
+    
+    /** tRNS tag. */
+    protected static final byte TRNS[] = {116, 82, 78, 83};
+    
+    /** Color type (GRAY) */
+    protected static final int COLOR_TYPE_GRAY = 0;
+    
+    /** Color type (RGB) */
+    protected static final int COLOR_TYPE_RGB = 2;
+    
+    /** Color type (INDEXED) */
+    protected static final int COLOR_TYPE_INDEXED = 3;
+    
+    /** Color type (GRAY with alpha) */
+    protected static final int COLOR_TYPE_GRAY_ALPHA = 4;
+    
+    /** Color type (RGB with alpha) */
+    protected static final int COLOR_TYPE_RGB_ALPHA = 6;
+    
+    /**
+     * Compression strategy that stores the image data without compressing it. This is the fastest strategy.
+     * @since BBX 1.3.0
+     */
+    public static final int STRATEGY_STORED = 0;
+    
+    /**
+     * Compression strategy that only Huffman codes the image data, without looking for repeated data.
+     * @since BBX 1.3.0
+     */
+    public static final int STRATEGY_HUFFMAN_ONLY = 1;
+    
+    /**
+     * Compression strategy that only looks for runs of the same byte. This works well on filtered images with large flat areas.
+     * @since BBX 1.3.0
+     */
+    public static final int STRATEGY_RLE = 2;
+    
+    /**
+     * Compression strategy that compresses with the compression level. This is the default.
+     * @since BBX 1.3.0
+     */
+    public static final int STRATEGY_DEFAULT = 3;
+    
+    /**
+     * Compression strategy that compresses as much as possible, ignoring the compression level. This is the slowest strategy.
+     * @since BBX 1.3.0
+     */
+    public static final int STRATEGY_BEST = 4;
+    
+    /**
+     * The default maximum number of bytes of compressed data in each IDAT chunk.
+     * @since BBX 1.3.0
+     */
+    public static final int DEFAULT_IDAT_SIZE = 32768;
+    
+    /** The number of bytes of filtered image data in each band when compressing on multiple threads. */
+    private static final int BAND_SIZE = 128 * 1024;
+
+    /** The size of the DEFLATE window, the amount of the previous band used as the dictionary of a band. */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    
+    /** The starting column, starting row, column step and row step of each Adam7 interlace pass. */
+    private static final int ADAM7[][] = {{0, 0, 8, 8}, {4, 0, 8, 8}, {0, 4, 4, 8}, {2, 0, 4, 4}, {0, 2, 2, 4}, {1, 0, 2, 2}, {0, 1, 1, 2}};
+
+    /** The single "pass" of an image that isn't interlaced. */
+    private static final int NO_INTERLACE[][] = {{0, 0, 1, 1}};
+    
+    /** The filters tried when optimizing, in the order they are tried. */
+    private static final int OPTIMIZE_FILTERS[] = {FILTER_ADAPTIVE, FILTER_NONE, FILTER_PAETH, FILTER_SUB, FILTER_UP, FILTER_AVERAGE};
 
-    /** The prior row. */
+    /**
+     * The compression strategy and level tried with each filter when optimizing, in the order they are tried.
+     * A level of 0 uses the level of the strategy.
+     */
+    private static final int OPTIMIZE_MODES[][] = {{STRATEGY_BEST, 0}, {STRATEGY_RLE, 0}, {STRATEGY_DEFAULT, 6}, {STRATEGY_DEFAULT, 4}, {STRATEGY_HUFFMAN_ONLY, 0}};
+    
+    /** The PNG signature. */
+    private static final byte SIGNATURE[] = {-119, 80, 78, 71, 13, 10, 26, 10};
+
+    /** The prior row, unfiltered. */
     protected byte[] priorRow;
 
-    /** The left bytes. */
-    protected byte[] leftBytes;
+    /** The current row, unfiltered. */
+    protected byte[] currentRow;
 
     /** The byte position. */
     protected int bytePos, maxPos;
 
-    /** The CRC value. */
-    protected int crcValue;
+    /**
+     * The stream the PNG is being written to.
+     * @since BBX 1.3.0
+     */
+    protected OutputStream pngStream;
+
+    /** The maximum size of an IDAT chunk. */
+    protected int idatSize;
+
+    /** The number of threads to compress the image data with. */
+    protected int threadCount;
+
+    /** The number of rows to filter and compress at a time, 0 to fit as many rows as possible in 32K. */
+    protected int rowsPerBatch;
+
+    /** The compression strategy. */
+    protected int strategy;
+
+    /** The number of milliseconds an encode should take, 0 if there is no limit. */
+    protected long timeBudget;
+
+    /** Try different filters, compression levels and strategies and keep the smallest image data? */
+    protected boolean optimize;
+
+    /** The maximum number of trial encodes when optimizing, 0 if there is no limit. */
+    protected int maxTrials;
+
+    /** The number of milliseconds the trial encodes can take when optimizing, 0 if there is no limit. */
+    protected long optimizeBudget;
+
+    /** The filter, compression level and strategy picked by the last optimized encode, -1 if there wasn't one. */
+    private int optimizedFilter = -1, optimizedLevel = -1, optimizedStrategy = -1;
+
+    /** The time the encode should be finished by, 0 if there is no limit. */
+    private long deadline;
+
+    /** The compression strategy in use, which is lowered when the encode falls behind the time budget. */
+    private int activeStrategy;
+
+    /** Scratch buffer for pixels, kept between encodes. */
+    private int[] pixelBuffer;
+
+    /** Scratch buffer for filtered scan lines, kept between encodes. */
+    private byte[] scanBuffer;
+
+    /** The compressor used when compressing on one thread, kept between encodes. */
+    private Deflater deflater;
 
     /** The filter type. */
     protected int filter;
 
-    /** The bytes-per-pixel. */
+    /** The bytes-per-pixel, at least 1. */
     protected int bytesPerPixel;
+
+    /** The bytes in an unfiltered row. */
+    protected int rowBytes;
+
+    /** The bits-per-pixel. */
+    private int bitsPerPixel;
+
+    /** Write an Adam7 interlaced image? */
+    protected boolean interlaced;
+
+    /** The interlace passes of the image being written, see {@link #ADAM7}. */
+    private int[][] passes;
+
+    /** The first row of image data of each pass, followed by the total number of rows of image data. */
+    private int[] passRows;
+
+    /** The number of bytes in an unfiltered row of each pass. */
+    private int[] passBytes;
+
+    /** Write an indexed color image? */
+    protected boolean indexed;
+
+    /** The maximum number of colors in the palette of an indexed color image. */
+    protected int maxColors;
+
+    /** Dither an indexed color image when it has more colors than the palette can hold? */
+    protected boolean dither;
+
+    /** Pick the smallest lossless color type and bit depth for the image? */
+    protected boolean reduceColors;
+
+    /** Make fully transparent pixels the same color? Only done for images that are explicitly indexed. */
+    private boolean clearTransparent;
+
+    /** The color type and bit depth of the image being written. */
+    protected int colorType, bitDepth;
+
+    /** The palette of the image being written, if it is an indexed color image. */
+    protected Palette palette;
+
+    /** The quantizer used to map colors to the palette, if the image has more colors than the palette can hold. */
+    protected OctreeQuantizer quantizer;
+
+    /** The palette index of every pixel, if the image is dithered. */
+    protected byte[] indexMap;
     
     /**
 	 * Get the MIME type of the image encoder.
@@ -166,7 +376,7 @@ public class PNGEncoder extends ImageEncoder
      *
      * @param image A Java Image object which uses the DirectColorModel
      * @param encodeAlpha Encode the alpha channel? false=no; true=yes
-     * @param whichFilter 0=none, 1=sub, 2=up
+     * @param whichFilter 0=none, 1=sub, 2=up, 3=average, 4=paeth, 5=adaptive
      */
     public PNGEncoder(Bitmap image, boolean encodeAlpha, int whichFilter)
     {
@@ -180,13 +390,18 @@ public class PNGEncoder extends ImageEncoder
      *
      * @param image A Java Image object
      * @param encodeAlpha Encode the alpha channel? false=no; true=yes
-     * @param whichFilter 0=none, 1=sub, 2=up
+     * @param whichFilter 0=none, 1=sub, 2=up, 3=average, 4=paeth, 5=adaptive
      * @param compLevel 0..9
      */
     public PNGEncoder(Bitmap image, boolean encodeAlpha, int whichFilter, int compLevel)
     {
     	super(image, encodeAlpha, compLevel);
         setFilter(whichFilter);
+        this.idatSize = DEFAULT_IDAT_SIZE;
+        this.threadCount = 1;
+        this.maxColors = 256;
+        this.reduceColors = true;
+        this.strategy = STRATEGY_DEFAULT;
         if (compLevel < 0 || compLevel > 9)
         {
         	super.compressionLevel = 0;
@@ -202,33 +417,52 @@ public class PNGEncoder extends ImageEncoder
      */
     protected byte[] inEncode(boolean encodeAlpha) throws IOException
     {
-        byte[]  pngIdBytes = {-119, 80, 78, 71, 13, 10, 26, 10};
-
-        /*
-         * start with an array that is big enough to hold all the pixels
-         * (plus filter bytes), and an extra 200 bytes for header info
-         */
-        dataBytes = new byte[((width + 1) * height * 3) + 200];
-
-        /*
-         * keep track of largest byte written to the array
-         */
-        maxPos = 0;
-
-        bytePos = writeBytes(pngIdBytes, 0);
-        
-        writeHeader();
+        //The compressed size isn't known, so start small and let the stream grow
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        if (inEncode(out, encodeAlpha))
+        {
+            return out.toByteArray();
+        }
+        return null;
+    }
 
-        if (writeImageData())
+    /**
+     * Writes the PNG equivalent of the current image to a stream, specifying whether to encode alpha or not.
+     * Each chunk is written as soon as it is complete so the encoded image is never held in memory.
+     *
+     * @param out The stream to write the PNG to.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return true if no errors; false if there was a problem
+     */
+    protected boolean inEncode(OutputStream out, boolean encodeAlpha) throws IOException
+    {
+        this.encodeAlpha = encodeAlpha;
+        pngStream = out;
+        deadline = (timeBudget > 0) ? System.currentTimeMillis() + timeBudget : 0;
+        activeStrategy = strategy;
+        optimizedFilter = optimizedLevel = optimizedStrategy = -1;
+        try
         {
+            pngStream.write(SIGNATURE);
+            
+            selectFormat();
+            writeHeader();
+            writePalette();
+            
+            if (!writeImageData())
+            {
+                return false;
+            }
             writeEnd();
-            dataBytes = resizeByteArray(dataBytes, maxPos);
+            return true;
         }
-        else
+        finally
         {
-        	dataBytes = null;
+            pngStream = null;
+            palette = null;
+            quantizer = null;
+            indexMap = null;
         }
-        return dataBytes;
     }
 
     /**
@@ -239,7 +473,7 @@ public class PNGEncoder extends ImageEncoder
     public void setFilter(int whichFilter)
     {
         this.filter = FILTER_NONE;
-        if (whichFilter <= FILTER_LAST)
+        if ((whichFilter >= FILTER_NONE && whichFilter <= FILTER_LAST) || whichFilter == FILTER_ADAPTIVE)
         {
             this.filter = whichFilter;
         }
@@ -268,307 +502,1267 @@ public class PNGEncoder extends ImageEncoder
     }
 
     /**
-     * Increase or decrease the length of a byte array.
+     * Set the compression strategy. Invalid strategies are ignored.
      *
-     * @param array The original array.
-     * @param newLength The length you wish the new array to have.
-     * @return Array of newly desired length. If shorter than the
-     *         original, the trailing elements are truncated.
+     * @param strategy One of {@link #STRATEGY_STORED}, {@link #STRATEGY_HUFFMAN_ONLY}, {@link #STRATEGY_RLE},
+     * {@link #STRATEGY_DEFAULT} or {@link #STRATEGY_BEST}.
+     * @since BBX 1.3.0
      */
-    protected byte[] resizeByteArray(byte[] array, int newLength)
+    public void setStrategy(int strategy)
     {
-        byte[]  newArray = new byte[newLength];
-        int oldLength = array.length;
-
-        System.arraycopy(array, 0, newArray, 0, Math.min(oldLength, newLength));
-        return newArray;
+        if (strategy >= STRATEGY_STORED && strategy <= STRATEGY_BEST)
+        {
+            this.strategy = strategy;
+        }
     }
 
     /**
-     * Write an array of bytes into the pngBytes array.
-     * Note: This routine has the side effect of updating
-     * maxPos, the largest element written in the array.
-     * The array is resized by 1000 bytes or the length
-     * of the data to be written, whichever is larger.
+     * Get the compression strategy.
      *
-     * @param data The data to be written into pngBytes.
-     * @param offset The starting point to write to.
-     * @return The next place to be written to in the pngBytes array.
+     * @return The compression strategy.
+     * @since BBX 1.3.0
      */
-    protected int writeBytes(byte[] data, int offset)
+    public int getStrategy()
     {
-        maxPos = Math.max(maxPos, offset + data.length);
-        if (data.length + offset > dataBytes.length)
-        {
-        	dataBytes = resizeByteArray(dataBytes, dataBytes.length + Math.max(1000, data.length));
-        }
-        System.arraycopy(data, 0, dataBytes, offset, data.length);
-        return offset + data.length;
+        return strategy;
     }
 
     /**
-     * Write an array of bytes into the pngBytes array, specifying number of bytes to write.
-     * Note: This routine has the side effect of updating
-     * maxPos, the largest element written in the array.
-     * The array is resized by 1000 bytes or the length
-     * of the data to be written, whichever is larger.
+     * Set how long an encode should take. While the image data is compressed the time the encode will take
+     * is estimated from the rows done so far, and if it would go over the budget the rest of the image is
+     * compressed with the next faster strategy. The strategies only go as low as {@link #STRATEGY_STORED},
+     * so the budget isn't guaranteed. Values less than zero are ignored.
      *
-     * @param data The data to be written into pngBytes.
-     * @param nBytes The number of bytes to be written.
-     * @param offset The starting point to write to.
-     * @return The next place to be written to in the pngBytes array.
+     * @param millis The time budget in milliseconds, 0 for no limit.
+     * @since BBX 1.3.0
      */
-    protected int writeBytes(byte[] data, int nBytes, int offset)
+    public void setTimeBudget(long millis)
     {
-        maxPos = Math.max(maxPos, offset + nBytes);
-        if (nBytes + offset > dataBytes.length)
+        if (millis >= 0)
         {
-        	dataBytes = resizeByteArray(dataBytes, dataBytes.length + Math.max(1000, nBytes));
+            this.timeBudget = millis;
         }
-        System.arraycopy(data, 0, dataBytes, offset, nBytes);
-        return offset + nBytes;
     }
 
     /**
-     * Write a two-byte integer into the pngBytes array at a given position.
+     * Get how long an encode should take.
      *
-     * @param n The integer to be written into pngBytes.
-     * @param offset The starting point to write to.
-     * @return The next place to be written to in the pngBytes array.
+     * @return The time budget in milliseconds, 0 if there is no limit.
+     * @since BBX 1.3.0
      */
-    protected int writeInt2(int n, int offset)
+    public long getTimeBudget()
     {
-        byte[] temp = {(byte) ((n >> 8) & 0xff), (byte) (n & 0xff)};
-        return writeBytes(temp, offset);
+        return timeBudget;
     }
 
     /**
-     * Write a four-byte integer into the pngBytes array at a given position.
+     * Set whether to search for the filter, compression level and compression strategy that give the smallest image.
+     * Every filter is tried with a number of compression settings, each combination is a trial encode of the image data,
+     * and only the smallest one is written. The trials are run on the threads set with {@link #setThreadCount(int)}.
+     * The settings that won can be read after the encode and given to other encoders of similar images so they don't
+     * have to search again.
      *
-     * @param n The integer to be written into pngBytes.
-     * @param offset The starting point to write to.
-     * @return The next place to be written to in the pngBytes array.
+     * @param optimize true to search for the smallest image.
+     * @see #setMaxTrials(int)
+     * @see #setOptimizeBudget(long)
+     * @see #getOptimizedFilter()
+     * @since BBX 1.3.0
      */
-    protected int writeInt4(int n, int offset)
+    public void setOptimize(boolean optimize)
     {
-        byte[] temp = {(byte) ((n >> 24) & 0xff), (byte) ((n >> 16) & 0xff), (byte) ((n >> 8) & 0xff), (byte) (n & 0xff)};
-        return writeBytes(temp, offset);
+        this.optimize = optimize;
     }
 
     /**
-     * Write a single byte into the pngBytes array at a given position.
+     * Get whether the filter, compression level and compression strategy that give the smallest image are searched for.
      *
-     * @param b The integer to be written into pngBytes.
-     * @param offset The starting point to write to.
-     * @return The next place to be written to in the pngBytes array.
+     * @return true if the smallest image is searched for.
+     * @since BBX 1.3.0
      */
-    protected int writeByte(int b, int offset)
+    public boolean getOptimize()
     {
-        byte[] temp = {(byte) b};
-        return writeBytes(temp, offset);
+        return optimize;
     }
 
     /**
-     * Write a PNG "IHDR" chunk into the pngBytes array.
+     * Set the maximum number of trial encodes made when optimizing. The most likely combinations are tried first,
+     * starting with every filter at the best compression. Values less than zero are ignored.
+     *
+     * @param trials The maximum number of trials, 0 to try every combination.
+     * @since BBX 1.3.0
      */
-    protected void writeHeader()
+    public void setMaxTrials(int trials)
     {
-        int startPos;
-
-        startPos = bytePos = writeInt4(13, bytePos);
-        bytePos = writeBytes(IHDR, bytePos);
-        width = image.getWidth();
-        height = image.getHeight();
-        bytePos = writeInt4(width, bytePos);
-        bytePos = writeInt4(height, bytePos);
-        bytePos = writeByte(8, bytePos); // bit depth
-        bytePos = writeByte((encodeAlpha) ? 6 : 2, bytePos); // direct model
-        bytePos = writeByte(0, bytePos); // compression method
-        bytePos = writeByte(0, bytePos); // filter method
-        bytePos = writeByte(0, bytePos); // no interlace
-        crcValue = CRC32.update(CRC32.INITIAL_VALUE, dataBytes, startPos, bytePos - startPos);
-        bytePos = writeInt4(crcValue, bytePos);
+        if (trials >= 0)
+        {
+            this.maxTrials = trials;
+        }
     }
 
     /**
-     * Perform "sub" filtering on the given row.
-     * Uses temporary array leftBytes to store the original values
-     * of the previous pixels.  The array is 16 bytes long, which
-     * will easily hold two-byte samples plus two-byte alpha.
+     * Get the maximum number of trial encodes made when optimizing.
      *
-     * @param pixels The array holding the scan lines being built
-     * @param startPos Starting position within pixels of bytes to be filtered.
-     * @param width Width of a scanline in pixels.
+     * @return The maximum number of trials, 0 if every combination is tried.
+     * @since BBX 1.3.0
      */
-    protected void filterSub(byte[] pixels, int startPos, int width)
+    public int getMaxTrials()
     {
-        int i;
-        int offset = bytesPerPixel;
-        int actualStart = startPos + offset;
-        int nBytes = width * bytesPerPixel;
-        int leftInsert = offset;
-        int leftExtract = 0;
+        return maxTrials;
+    }
 
-        for (i = actualStart; i < startPos + nBytes; i++)
+    /**
+     * Set the number of milliseconds the trial encodes can take when optimizing. Trials that haven't started
+     * when the budget runs out are skipped and trials that are running are stopped, except for the first trial
+     * which always finishes so there is something to write. The time budget also applies if it is shorter.
+     * Values less than zero are ignored.
+     *
+     * @param millis The number of milliseconds, 0 for no limit.
+     * @since BBX 1.3.0
+     */
+    public void setOptimizeBudget(long millis)
+    {
+        if (millis >= 0)
         {
-            leftBytes[leftInsert] =  pixels[i];
-            pixels[i] = (byte) ((pixels[i] - leftBytes[leftExtract]) % 256);
-            leftInsert = (leftInsert + 1) % 0x0f;
-            leftExtract = (leftExtract + 1) % 0x0f;
+            this.optimizeBudget = millis;
         }
     }
 
     /**
-     * Perform "up" filtering on the given row.
-     * Side effect: refills the prior row with current row
+     * Get the number of milliseconds the trial encodes can take when optimizing.
      *
-     * @param pixels The array holding the scan lines being built
-     * @param startPos Starting position within pixels of bytes to be filtered.
-     * @param width Width of a scanline in pixels.
+     * @return The number of milliseconds, 0 if there is no limit.
+     * @since BBX 1.3.0
      */
-    protected void filterUp(byte[] pixels, int startPos, int width)
+    public long getOptimizeBudget()
     {
-        int i, nBytes;
-        byte currentByte;
-
-        nBytes = width * bytesPerPixel;
-
-        for (i = 0; i < nBytes; i++)
-        {
-            currentByte = pixels[startPos + i];
-            pixels[startPos + i] = (byte) ((pixels[startPos  + i] - priorRow[i]) % 256);
-            priorRow[i] = currentByte;
-        }
+        return optimizeBudget;
     }
 
-//    protected int[] blur(int[] src, int width, int height) {
-//       int[] blurred = new int[width * height];
-//        int scanPos = 0;            // where we are in the scan lines
-//     
-//     int boxw = 2;
-//        double mul = 1.0 / (double) (boxw * 2 + 1);
-//          System.out.println("mul = " + mul);
-//          
-//     for (int y = 0; y < height; y++) {
-//           int redChannel = 0;
-//          int greenChannel = 0;
-//                int blueChannel = 0;
-//
-//              for (int x = 0; x < boxw; x++) {
-//                     redChannel += (src[scanPos] >> 16) & 0xff;
-//                           greenChannel += (src[scanPos] >> 8) & 0xff;
-//                          blueChannel += src[scanPos] & 0xff;
-//                  }
-//                    System.out.println("Primed redChannel (" + scanPos + ") = " + redChannel);
-//                   System.out.println("Primed greenChannel = " + greenChannel);
-//                 System.out.println("Primed blueChannel = " + blueChannel);
-//                   
-//             for (int x = 0; x < width; x++) {
-//                            if (x > boxw) {
-//                              redChannel -= (src[scanPos - boxw - 1] >> 16) & 0xff;
-//                                greenChannel -= (src[scanPos - boxw - 1] >> 8) & 0xff;
-//                               blueChannel -= src[scanPos - boxw - 1] & 0xff;
-//                       }
-//
-//                         if (x + boxw < width) {
-//                              redChannel += (src[scanPos + boxw] >> 16) & 0xff;
-//                                    greenChannel += (src[scanPos + boxw] >> 8) & 0xff;
-//                                   blueChannel += src[scanPos + boxw] & 0xff;
-//                           }
-//
-//                         blurred[scanPos] |= (new Double(redChannel / (boxw + 1)).byteValue() << 16);
-//                         blurred[scanPos] |= (new Double(greenChannel / (boxw + 1)).byteValue() << 8);
-//                        blurred[scanPos] |= new Double(blueChannel / (boxw + 1)).byteValue();
-//
-//                     if (encodeAlpha) {
-//                           blurred[scanPos] |= (src[scanPos] & 0xff000000);
-//                     }
-//                    
-//                     scanPos++;
-//                   }
-//            }       
-//     
-//     return blurred;
-//    }
+    /**
+     * Get the filter that gave the smallest image data in the last optimized encode.
+     *
+     * @return The filter, or -1 if the last encode wasn't optimized.
+     * @since BBX 1.3.0
+     */
+    public int getOptimizedFilter()
+    {
+        return optimizedFilter;
+    }
 
     /**
-     * Write the image data into the pngBytes array.
-     * This will write one or more PNG "IDAT" chunks. In order
-     * to conserve memory, this method grabs as many rows as will
-     * fit into 32K bytes, or the whole image; whichever is less.
+     * Get the compression level that gave the smallest image data in the last optimized encode.
+     * The level only matters with {@link #STRATEGY_DEFAULT}, for the other strategies this is the compression level the encoder had.
      *
+     * @return The compression level, or -1 if the last encode wasn't optimized.
+     * @since BBX 1.3.0
+     */
+    public int getOptimizedCompressionLevel()
+    {
+        return optimizedLevel;
+    }
+
+    /**
+     * Get the compression strategy that gave the smallest image data in the last optimized encode.
      *
-     * @return true if no errors; false if error grabbing pixels
+     * @return The compression strategy, or -1 if the last encode wasn't optimized.
+     * @since BBX 1.3.0
      */
-    protected boolean writeImageData() throws IOException
+    public int getOptimizedStrategy()
     {
-        int rowsLeft = height;  // number of rows remaining to write
-        int startRow = 0;       // starting row to process this time through
-        int nRows;              // how many rows to grab at a time
+        return optimizedStrategy;
+    }
 
-        byte[] scanLines;       // the scan lines to be compressed
-        int scanPos;            // where we are in the scan lines
-        int startPos;           // where this line's actual pixels start (used for filtering)
+    /**
+     * Set the maximum number of bytes of compressed image data to put in each IDAT chunk. Smaller chunks
+     * reduce the amount of memory needed while encoding, larger chunks reduce the overhead in the file.
+     * Values less than or equal to zero are ignored.
+     *
+     * @param size The maximum IDAT chunk size, in bytes.
+     * @since BBX 1.3.0
+     */
+    public void setIDATSize(int size)
+    {
+        if (size > 0)
+        {
+            this.idatSize = size;
+        }
+    }
 
-        byte[] compressedLines; // the resultant compressed lines
-        int nCompressed;        // how big is the compressed area?
-        
-        bytesPerPixel = (encodeAlpha) ? 4 : 3;
+    /**
+     * Get the maximum number of bytes of compressed image data that are put in each IDAT chunk.
+     *
+     * @return The maximum IDAT chunk size, in bytes.
+     * @since BBX 1.3.0
+     */
+    public int getIDATSize()
+    {
+        return idatSize;
+    }
 
-        ByteArrayOutputStream outBytes = new ByteArrayOutputStream(1024);
+    /**
+     * Set whether to write an indexed color image. When the image has no more colors than the maximum
+     * palette size the palette holds the exact colors, otherwise the colors are quantized. When alpha is
+     * encoded, transparency is written as a tRNS chunk and fully transparent pixels are treated as one color.
+     *
+     * @param indexed true to write an indexed color image, false to write a true color image.
+     * @since BBX 1.3.0
+     */
+    public void setIndexed(boolean indexed)
+    {
+        this.indexed = indexed;
+    }
 
-        ZLibOutputStream compBytes = new ZLibOutputStream(outBytes);
+    /**
+     * Get whether an indexed color image is written.
+     *
+     * @return true if an indexed color image is written.
+     * @since BBX 1.3.0
+     */
+    public boolean getIndexed()
+    {
+        return indexed;
+    }
+
+    /**
+     * Set the maximum number of colors in the palette of an indexed color image. Values outside of
+     * 2 to 256 are ignored.
+     *
+     * @param colors The maximum number of colors.
+     * @since BBX 1.3.0
+     */
+    public void setMaxColors(int colors)
+    {
+        if (colors >= 2 && colors <= 256)
+        {
+            this.maxColors = colors;
+        }
+    }
+
+    /**
+     * Get the maximum number of colors in the palette of an indexed color image.
+     *
+     * @return The maximum number of colors.
+     * @since BBX 1.3.0
+     */
+    public int getMaxColors()
+    {
+        return maxColors;
+    }
+
+    /**
+     * Set whether to use Floyd-Steinberg dithering when the colors of an indexed color image are quantized.
+     *
+     * @param dither true to dither.
+     * @since BBX 1.3.0
+     */
+    public void setDither(boolean dither)
+    {
+        this.dither = dither;
+    }
+
+    /**
+     * Get whether Floyd-Steinberg dithering is used when the colors of an indexed color image are quantized.
+     *
+     * @return true if dithering is used.
+     * @since BBX 1.3.0
+     */
+    public boolean getDither()
+    {
+        return dither;
+    }
+
+    /**
+     * Set whether the image is checked before it is written to find the smallest color type and bit depth that
+     * can hold it without loss. Alpha is dropped if every pixel is opaque, grayscale is used if every pixel is
+     * gray, and a palette is used if the image has no more than 256 colors. This is on by default.
+     *
+     * @param reduce true to reduce the color type and bit depth.
+     * @since BBX 1.3.0
+     */
+    public void setReduceColors(boolean reduce)
+    {
+        this.reduceColors = reduce;
+    }
+
+    /**
+     * Get whether the color type and bit depth of the image are reduced when possible.
+     *
+     * @return true if the color type and bit depth are reduced.
+     * @since BBX 1.3.0
+     */
+    public boolean getReduceColors()
+    {
+        return reduceColors;
+    }
+
+    /**
+     * Set whether to write an Adam7 interlaced image, which can be shown progressively as it is loaded.
+     * Interlaced images usually compress a little worse. The passes are built from the rows of the
+     * image as they are written, no copy of the image is made.
+     *
+     * @param interlaced true to write an interlaced image.
+     * @since BBX 1.3.0
+     */
+    public void setInterlaced(boolean interlaced)
+    {
+        this.interlaced = interlaced;
+    }
+
+    /**
+     * Get whether an Adam7 interlaced image is written.
+     *
+     * @return true if an interlaced image is written.
+     * @since BBX 1.3.0
+     */
+    public boolean getInterlaced()
+    {
+        return interlaced;
+    }
+
+    /**
+     * Set the number of rows that are read, filtered and compressed at a time. More rows means fewer calls
+     * to the image and the compressor, but larger buffers. Values less than zero are ignored.
+     *
+     * @param rows The number of rows per batch, 0 to fit as many rows as possible in 32K.
+     * @since BBX 1.3.0
+     */
+    public void setRowsPerBatch(int rows)
+    {
+        if (rows >= 0)
+        {
+            this.rowsPerBatch = rows;
+        }
+    }
+
+    /**
+     * Get the number of rows that are read, filtered and compressed at a time.
+     *
+     * @return The number of rows per batch, 0 if as many rows as possible are fit in 32K.
+     * @since BBX 1.3.0
+     */
+    public int getRowsPerBatch()
+    {
+        return rowsPerBatch;
+    }
+
+    /**
+     * Get the pixel scratch buffer, making sure it is at least a given size. The buffer is kept between encodes.
+     *
+     * @param size The minimum size of the buffer.
+     * @return The pixel buffer.
+     * @since BBX 1.3.0
+     */
+    protected int[] getPixelBuffer(int size)
+    {
+        if (pixelBuffer == null || pixelBuffer.length < size)
+        {
+            pixelBuffer = new int[size];
+        }
+        return pixelBuffer;
+    }
+
+    /**
+     * Get the scan line scratch buffer, making sure it is at least a given size. The buffer is kept between encodes.
+     *
+     * @param size The minimum size of the buffer.
+     * @return The scan line buffer.
+     * @since BBX 1.3.0
+     */
+    protected byte[] getScanBuffer(int size)
+    {
+        if (scanBuffer == null || scanBuffer.length < size)
+        {
+            scanBuffer = new byte[size];
+        }
+        return scanBuffer;
+    }
+
+    /**
+     * Make sure the pngBytes array can hold a given number of bytes, keeping its contents.
+     * The array is resized by 1000 bytes or the needed amount, whichever is larger.
+     *
+     * @param length The number of bytes the array has to hold.
+     * @since BBX 1.3.0
+     */
+    protected void ensureCapacity(int length)
+    {
+        if (dataBytes == null)
+        {
+            dataBytes = new byte[Math.max(1000, length)];
+        }
+        else if (length > dataBytes.length)
+        {
+            dataBytes = resizeByteArray(dataBytes, dataBytes.length + Math.max(1000, length - dataBytes.length));
+        }
+    }
+
+    /**
+     * Set the number of threads used to compress the image data. When more than one thread is used the image
+     * is split into bands of rows that are filtered and compressed independently, each band using the end of the
+     * previous band as its dictionary so the compression ratio stays close to that of a single thread.
+     * Values less than one are ignored.
+     *
+     * @param count The number of threads, 1 to compress on the calling thread.
+     * @since BBX 1.3.0
+     */
+    public void setThreadCount(int count)
+    {
+        if (count >= 1)
+        {
+            this.threadCount = count;
+        }
+    }
+
+    /**
+     * Get the number of threads used to compress the image data.
+     *
+     * @return The number of threads.
+     * @since BBX 1.3.0
+     */
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+
+    /**
+     * Write a complete chunk to the PNG stream.
+     *
+     * @param type The chunk type.
+     * @param data The chunk data.
+     * @param offset The offset in the chunk data.
+     * @param length The length of the chunk data.
+     * @since BBX 1.3.0
+     */
+    protected void writeChunk(byte[] type, byte[] data, int offset, int length) throws IOException
+    {
+        ChunkOutputStream.writeChunk(pngStream, type, data, offset, length);
+    }
+
+    /**
+     * Increase or decrease the length of a byte array.
+     *
+     * @param array The original array.
+     * @param newLength The length you wish the new array to have.
+     * @return Array of newly desired length. If shorter than the
+     *         original, the trailing elements are truncated.
+     */
+    protected byte[] resizeByteArray(byte[] array, int newLength)
+    {
+        byte[]  newArray = new byte[newLength];
+        int oldLength = array.length;
+
+        System.arraycopy(array, 0, newArray, 0, Math.min(oldLength, newLength));
+        return newArray;
+    }
+
+    /**
+     * Write an array of bytes into the pngBytes array.
+     * Note: This routine has the side effect of updating
+     * maxPos, the largest element written in the array.
+     * The array is resized by 1000 bytes or the length
+     * of the data to be written, whichever is larger.
+     *
+     * @param data The data to be written into pngBytes.
+     * @param offset The starting point to write to.
+     * @return The next place to be written to in the pngBytes array.
+     */
+    protected int writeBytes(byte[] data, int offset)
+    {
+        maxPos = Math.max(maxPos, offset + data.length);
+        ensureCapacity(offset + data.length);
+        System.arraycopy(data, 0, dataBytes, offset, data.length);
+        return offset + data.length;
+    }
+
+    /**
+     * Write an array of bytes into the pngBytes array, specifying number of bytes to write.
+     * Note: This routine has the side effect of updating
+     * maxPos, the largest element written in the array.
+     * The array is resized by 1000 bytes or the length
+     * of the data to be written, whichever is larger.
+     *
+     * @param data The data to be written into pngBytes.
+     * @param nBytes The number of bytes to be written.
+     * @param offset The starting point to write to.
+     * @return The next place to be written to in the pngBytes array.
+     */
+    protected int writeBytes(byte[] data, int nBytes, int offset)
+    {
+        maxPos = Math.max(maxPos, offset + nBytes);
+        ensureCapacity(offset + nBytes);
+        System.arraycopy(data, 0, dataBytes, offset, nBytes);
+        return offset + nBytes;
+    }
+
+    /**
+     * Write a two-byte integer into the pngBytes array at a given position.
+     *
+     * @param n The integer to be written into pngBytes.
+     * @param offset The starting point to write to.
+     * @return The next place to be written to in the pngBytes array.
+     */
+    protected int writeInt2(int n, int offset)
+    {
+        maxPos = Math.max(maxPos, offset + 2);
+        ensureCapacity(offset + 2);
+        dataBytes[offset] = (byte) ((n >> 8) & 0xff);
+        dataBytes[offset + 1] = (byte) (n & 0xff);
+        return offset + 2;
+    }
+
+    /**
+     * Write a four-byte integer into the pngBytes array at a given position.
+     *
+     * @param n The integer to be written into pngBytes.
+     * @param offset The starting point to write to.
+     * @return The next place to be written to in the pngBytes array.
+     */
+    protected int writeInt4(int n, int offset)
+    {
+        maxPos = Math.max(maxPos, offset + 4);
+        ensureCapacity(offset + 4);
+        dataBytes[offset] = (byte) ((n >> 24) & 0xff);
+        dataBytes[offset + 1] = (byte) ((n >> 16) & 0xff);
+        dataBytes[offset + 2] = (byte) ((n >> 8) & 0xff);
+        dataBytes[offset + 3] = (byte) (n & 0xff);
+        return offset + 4;
+    }
+
+    /**
+     * Write a single byte into the pngBytes array at a given position.
+     *
+     * @param b The integer to be written into pngBytes.
+     * @param offset The starting point to write to.
+     * @return The next place to be written to in the pngBytes array.
+     */
+    protected int writeByte(int b, int offset)
+    {
+        maxPos = Math.max(maxPos, offset + 1);
+        ensureCapacity(offset + 1);
+        dataBytes[offset] = (byte) b;
+        return offset + 1;
+    }
+
+    /**
+     * Get the number of frames whose colors are taken into account when the color type and bit depth are picked.
+     *
+     * @return The number of frames, 1 for a still image.
+     * @since BBX 1.3.0
+     */
+    protected int getFrameCount()
+    {
+        return 1;
+    }
+
+    /**
+     * Get a frame whose colors are taken into account when the color type and bit depth are picked.
+     *
+     * @param index The index of the frame.
+     * @param region Set to the region of the frame that is written.
+     * @return The frame.
+     * @since BBX 1.3.0
+     */
+    protected Bitmap getFrame(int index, XYRect region)
+    {
+        region.set(0, 0, width, height);
+        return image;
+    }
+
+    /**
+     * Get rows of ARGB pixels of the image data being written. This can be called from multiple threads at once
+     * when compressing on multiple threads.
+     *
+     * @param pixels The array to write the pixels to, each row is {@link #width} pixels long.
+     * @param offset The offset to write the first pixel to.
+     * @param y The first row to get.
+     * @param rows The number of rows to get.
+     * @since BBX 1.3.0
+     */
+    protected void getPixels(int[] pixels, int offset, int y, int rows)
+    {
+        image.getARGB(pixels, offset, width, 0, y, width, rows);
+    }
+
+    /**
+     * Create the stream that the compressed image data is written to.
+     *
+     * @return A stream that writes "IDAT" chunks to the PNG stream.
+     * @since BBX 1.3.0
+     */
+    protected ChunkOutputStream openImageData()
+    {
+        return new ChunkOutputStream(pngStream, IDAT, idatSize);
+    }
+
+    /**
+     * Write a PNG "IHDR" chunk to the PNG stream.
+     */
+    protected void writeHeader() throws IOException
+    {
+        maxPos = 0;
+        bytePos = writeInt4(width, 0);
+        bytePos = writeInt4(height, bytePos);
+        bytePos = writeByte(bitDepth, bytePos); // bit depth
+        bytePos = writeByte(colorType, bytePos); // color type
+        bytePos = writeByte(0, bytePos); // compression method
+        bytePos = writeByte(0, bytePos); // filter method
+        bytePos = writeByte((interlaced) ? 1 : 0, bytePos); // interlace method
+        writeChunk(IHDR, dataBytes, 0, bytePos);
+    }
+
+    /**
+     * Pick the color type and bit depth of the image and build the palette, if one is needed.
+     */
+    protected void selectFormat()
+    {
+        palette = null;
+        quantizer = null;
+        indexMap = null;
+        clearTransparent = indexed;
+        if (indexed)
+        {
+            selectIndexedFormat();
+        }
+        else if (reduceColors)
+        {
+            selectReducedFormat();
+        }
+        else
+        {
+            setFormat((encodeAlpha) ? COLOR_TYPE_RGB_ALPHA : COLOR_TYPE_RGB, 8);
+        }
+    }
+
+    /**
+     * Build the palette of an explicitly indexed color image, quantizing the colors if needed.
+     */
+    private void selectIndexedFormat()
+    {
+        int[] pixels = getPixelBuffer(width);
+        XYRect region = new XYRect();
+        int frames = getFrameCount();
+        palette = new Palette(maxColors);
+        for (int f = 0; f < frames && palette != null; f++)
+        {
+            Bitmap frame = getFrame(f, region);
+            for (int y = 0; y < region.height && palette != null; y++)
+            {
+                frame.getARGB(pixels, 0, region.width, region.x, region.y + y, region.width, 1);
+                for (int x = 0; x < region.width; x++)
+                {
+                    if (palette.add(indexedColor(pixels[x])) < 0)
+                    {
+                        palette = null;
+                        break;
+                    }
+                }
+            }
+        }
+        if (palette == null)
+        {
+            quantizer = new OctreeQuantizer(maxColors);
+            for (int f = 0; f < frames; f++)
+            {
+                Bitmap frame = getFrame(f, region);
+                for (int y = 0; y < region.height; y++)
+                {
+                    frame.getARGB(pixels, 0, region.width, region.x, region.y + y, region.width, 1);
+                    for (int x = 0; x < region.width; x++)
+                    {
+                        pixels[x] = indexedColor(pixels[x]);
+                    }
+                    quantizer.add(pixels, 0, region.width);
+                }
+            }
+            palette = quantizer.getPalette();
+            if (dither)
+            {
+                ditherImage();
+            }
+        }
+        else
+        {
+            palette.sortByAlpha();
+        }
+        setFormat(COLOR_TYPE_INDEXED, paletteDepth(palette.getSize()));
+    }
+
+    /**
+     * Scan the image once to find the smallest color type and bit depth that can hold it without loss.
+     */
+    private void selectReducedFormat()
+    {
+        int[] pixels = getPixelBuffer(width);
+        boolean opaque = true;
+        boolean gray = true;
+        int grayDepth = 1;
+        Palette colors = new Palette(256);
+        XYRect region = new XYRect();
+        int frames = getFrameCount();
+        for (int f = 0; f < frames && (opaque || gray || colors != null); f++)
+        {
+            Bitmap frame = getFrame(f, region);
+            for (int y = 0; y < region.height && (opaque || gray || colors != null); y++)
+            {
+                frame.getARGB(pixels, 0, region.width, region.x, region.y + y, region.width, 1);
+                int last = ~indexedColor(pixels[0]);
+                for (int x = 0; x < region.width; x++)
+                {
+                    int argb = indexedColor(pixels[x]);
+                    if (argb == last)
+                    {
+                        continue;
+                    }
+                    last = argb;
+                    if ((argb >>> 24) != 0xff)
+                    {
+                        opaque = false;
+                    }
+                    if (gray)
+                    {
+                        int v = argb & 0xff;
+                        if (((argb >> 16) & 0xff) != v || ((argb >> 8) & 0xff) != v)
+                        {
+                            gray = false;
+                        }
+                        else if (grayDepth < 8)
+                        {
+                            /*
+                             * A gray value fits in a lower bit depth if it is a multiple of 255 / (2^depth - 1)
+                             */
+                            grayDepth = Math.max(grayDepth, (v % 17 != 0) ? 8 : ((v % 85 != 0) ? 4 : ((v % 255 != 0) ? 2 : 1)));
+                        }
+                    }
+                    if (colors != null && colors.add(argb) < 0)
+                    {
+                        colors = null;
+                    }
+                }
+            }
+        }
+        
+        int indexedDepth = 16;
+        if (colors != null)
+        {
+            /*
+             * Only use the palette if the pixel data it saves outweighs the size of the palette
+             */
+            int samples = (gray) ? ((opaque) ? 1 : 2) : ((opaque) ? 3 : 4);
+            int size = colors.getSize();
+            indexedDepth = paletteDepth(size);
+            if ((long) height * ((width * indexedDepth + 7) >> 3) + size * 4 + 24 >= (long) height * width * samples)
+            {
+                colors = null;
+                indexedDepth = 16;
+            }
+        }
+        if (gray && opaque && grayDepth <= indexedDepth)
+        {
+            setFormat(COLOR_TYPE_GRAY, grayDepth);
+        }
+        else if (colors != null)
+        {
+            palette = colors;
+            palette.sortByAlpha();
+            setFormat(COLOR_TYPE_INDEXED, indexedDepth);
+        }
+        else if (gray)
+        {
+            setFormat(COLOR_TYPE_GRAY_ALPHA, 8);
+        }
+        else
+        {
+            setFormat((opaque) ? COLOR_TYPE_RGB : COLOR_TYPE_RGB_ALPHA, 8);
+        }
+    }
+
+    private void setFormat(int colorType, int bitDepth)
+    {
+        this.colorType = colorType;
+        this.bitDepth = bitDepth;
+        int samples;
+        switch (colorType)
+        {
+            case COLOR_TYPE_RGB:
+                samples = 3;
+                break;
+            case COLOR_TYPE_GRAY_ALPHA:
+                samples = 2;
+                break;
+            case COLOR_TYPE_RGB_ALPHA:
+                samples = 4;
+                break;
+            default:
+                samples = 1;
+                break;
+        }
+        bitsPerPixel = samples * bitDepth;
+        bytesPerPixel = Math.max(bitsPerPixel >> 3, 1);
+        rowBytes = (width * bitsPerPixel + 7) >> 3;
+    }
+
+    /**
+     * Work out the size of each interlace pass. The rows of image data are numbered one after another
+     * through all the passes, passes with no pixels have no rows.
+     */
+    private void setupPasses()
+    {
+        rowBytes = (width * bitsPerPixel + 7) >> 3;
+        passes = (interlaced) ? ADAM7 : NO_INTERLACE;
+        passRows = new int[passes.length + 1];
+        passBytes = new int[passes.length];
+        for (int pass = 0; pass < passes.length; pass++)
+        {
+            int[] p = passes[pass];
+            int passWidth = (width - p[0] + p[2] - 1) / p[2];
+            int passHeight = (passWidth > 0) ? (height - p[1] + p[3] - 1) / p[3] : 0;
+            passBytes[pass] = (passWidth * bitsPerPixel + 7) >> 3;
+            passRows[pass + 1] = passRows[pass] + Math.max(passHeight, 0);
+        }
+    }
+
+    /**
+     * Get the row of the image that a row of image data comes from.
+     *
+     * @param pass The pass the row of image data is in.
+     * @param row The row of image data.
+     * @return The row of the image.
+     */
+    private int sourceRow(int pass, int row)
+    {
+        return passes[pass][1] + (row - passRows[pass]) * passes[pass][3];
+    }
+
+    /**
+     * Convert a row of image data into the bytes of an unfiltered scanline.
+     *
+     * @param pixels The ARGB pixels of the row of the image the row of image data comes from.
+     * @param offset The offset of the first pixel of the row of the image.
+     * @param pass The pass the row of image data is in.
+     * @param row The row of image data.
+     * @param scanline The array to write the scanline to.
+     */
+    private void packPassRow(int[] pixels, int offset, int pass, int row, byte[] scanline)
+    {
+        int[] p = passes[pass];
+        packRow(pixels, offset, sourceRow(pass, row), p[0], p[2], (width - p[0] + p[2] - 1) / p[2], scanline);
+    }
+
+    private static int paletteDepth(int size)
+    {
+        return (size <= 2) ? 1 : ((size <= 4) ? 2 : ((size <= 16) ? 4 : 8));
+    }
+
+    /**
+     * Get the color a pixel is given in an indexed color image. Alpha is dropped if it isn't encoded,
+     * and fully transparent pixels all become the same color if the image is explicitly indexed.
+     *
+     * @param argb The ARGB pixel.
+     * @return The color of the pixel.
+     */
+    private int indexedColor(int argb)
+    {
+        if (!encodeAlpha)
+        {
+            return argb | 0xff000000;
+        }
+        return (clearTransparent && (argb >>> 24) == 0) ? 0 : argb;
+    }
+
+    /**
+     * Map the image to the palette with Floyd-Steinberg dithering, filling in the index map.
+     * Dithering carries error from row to row so it is done once, up front, for the whole image.
+     */
+    private void ditherImage()
+    {
+        indexMap = new byte[width * height];
+        int[] pixels = getPixelBuffer(width);
+        int[] errors = new int[(width + 2) * 4 * 2];  // two rows of ARGB error, with a pixel of padding on each side
+        int cur = 0;
+        int next = (width + 2) * 4;
+        int[] cacheKeys = new int[4096];
+        byte[] cacheValues = new byte[4096];
+        boolean[] cacheUsed = new boolean[4096];
+        int pos = 0;
+        for (int y = 0; y < height; y++)
+        {
+            image.getARGB(pixels, 0, width, 0, y, width, 1);
+            for (int i = 0; i < (width + 2) * 4; i++)
+            {
+                errors[next + i] = 0;
+            }
+            for (int x = 0; x < width; x++)
+            {
+                int argb = indexedColor(pixels[x]);
+                int e = cur + (x + 1) * 4;
+                int a = clamp(((argb >>> 24) & 0xff) + (errors[e] >> 4));
+                int r = clamp(((argb >> 16) & 0xff) + (errors[e + 1] >> 4));
+                int g = clamp(((argb >> 8) & 0xff) + (errors[e + 2] >> 4));
+                int b = clamp((argb & 0xff) + (errors[e + 3] >> 4));
+                if (!encodeAlpha)
+                {
+                    a = 0xff;
+                }
+                int color = (a << 24) | (r << 16) | (g << 8) | b;
+                
+                int slot = ((color >>> 20) ^ (color >>> 8) ^ color) & 4095;
+                int index;
+                if (cacheUsed[slot] && cacheKeys[slot] == color)
+                {
+                    index = cacheValues[slot] & 0xff;
+                }
+                else
+                {
+                    index = quantizer.map(color);
+                    cacheUsed[slot] = true;
+                    cacheKeys[slot] = color;
+                    cacheValues[slot] = (byte) index;
+                }
+                indexMap[pos++] = (byte) index;
+                
+                int mapped = palette.getColor(index);
+                diffuse(errors, cur + (x + 2) * 4, next + x * 4, next + (x + 1) * 4, next + (x + 2) * 4, 0, a - ((mapped >>> 24) & 0xff));
+                diffuse(errors, cur + (x + 2) * 4, next + x * 4, next + (x + 1) * 4, next + (x + 2) * 4, 1, r - ((mapped >> 16) & 0xff));
+                diffuse(errors, cur + (x + 2) * 4, next + x * 4, next + (x + 1) * 4, next + (x + 2) * 4, 2, g - ((mapped >> 8) & 0xff));
+                diffuse(errors, cur + (x + 2) * 4, next + x * 4, next + (x + 1) * 4, next + (x + 2) * 4, 3, b - (mapped & 0xff));
+            }
+            int temp = cur;
+            cur = next;
+            next = temp;
+        }
+    }
+
+    /**
+     * Spread the quantization error of a component to the neighboring pixels, in sixteenths.
+     */
+    private static void diffuse(int[] errors, int right, int belowLeft, int below, int belowRight, int component, int error)
+    {
+        errors[right + component] += error * 7;
+        errors[belowLeft + component] += error * 3;
+        errors[below + component] += error * 5;
+        errors[belowRight + component] += error;
+    }
+
+    private static int clamp(int value)
+    {
+        return (value < 0) ? 0 : ((value > 255) ? 255 : value);
+    }
+
+    /**
+     * Write the PNG "PLTE" chunk, and a "tRNS" chunk if the palette has transparency, to the PNG stream.
+     * Nothing is written if the image isn't an indexed color image.
+     */
+    protected void writePalette() throws IOException
+    {
+        if (colorType != COLOR_TYPE_INDEXED)
+        {
+            return;
+        }
+        int size = palette.getSize();
+        int alphaCount = palette.getAlphaCount();
+        ensureCapacity(size * 3 + alphaCount);
+        bytePos = 0;
+        for (int i = 0; i < size; i++)
+        {
+            int color = palette.getColor(i);
+            dataBytes[bytePos++] = (byte) (color >> 16);
+            dataBytes[bytePos++] = (byte) (color >> 8);
+            dataBytes[bytePos++] = (byte) color;
+        }
+        for (int i = 0; i < alphaCount; i++)
+        {
+            dataBytes[bytePos++] = (byte) (palette.getColor(i) >>> 24);
+        }
+        writeChunk(PLTE, dataBytes, 0, size * 3);
+        if (alphaCount > 0)
+        {
+            writeChunk(TRNS, dataBytes, size * 3, alphaCount);
+        }
+    }
+
+    /**
+     * Convert a row of ARGB pixels into the bytes of an unfiltered scanline.
+     *
+     * @param pixels The ARGB pixels.
+     * @param offset The offset of the first pixel of the row.
+     * @param y The row of the image being converted.
+     * @param row The array to write the scanline to.
+     */
+    protected void packRow(int[] pixels, int offset, int y, byte[] row)
+    {
+        packRow(pixels, offset, y, 0, 1, width, row);
+    }
+
+    /**
+     * Convert every nth pixel of a row of ARGB pixels into the bytes of an unfiltered scanline.
+     *
+     * @param pixels The ARGB pixels.
+     * @param offset The offset of the first pixel of the row.
+     * @param y The row of the image being converted.
+     * @param x The first column to convert.
+     * @param xStep The number of columns between each converted pixel.
+     * @param count The number of pixels to convert.
+     * @param row The array to write the scanline to.
+     * @since BBX 1.3.0
+     */
+    protected void packRow(int[] pixels, int offset, int y, int x, int xStep, int count, byte[] row)
+    {
+        int rowPos = 0;
+        int start = offset + x;
+        int end = start + count * xStep;
+        int i;
+        switch (colorType)
+        {
+            case COLOR_TYPE_GRAY:
+            case COLOR_TYPE_INDEXED:
+            {
+                int step = (colorType == COLOR_TYPE_GRAY) ? 255 / ((1 << bitDepth) - 1) : 0;
+                int bits = 0;
+                int acc = 0;
+                for (i = start; i < end; i += xStep)
+                {
+                    int value;
+                    if (step != 0)
+                    {
+                        value = (pixels[i] & 0xff) / step;
+                    }
+                    else if (indexMap != null)
+                    {
+                        value = indexMap[y * width + (i - offset)] & 0xff;
+                    }
+                    else if (quantizer != null)
+                    {
+                        value = quantizer.map(indexedColor(pixels[i]));
+                    }
+                    else
+                    {
+                        value = palette.indexOf(indexedColor(pixels[i]));
+                    }
+                    acc = (acc << bitDepth) | value;
+                    bits += bitDepth;
+                    if (bits == 8)
+                    {
+                        row[rowPos++] = (byte) acc;
+                        acc = 0;
+                        bits = 0;
+                    }
+                }
+                if (bits > 0)
+                {
+                    row[rowPos] = (byte) (acc << (8 - bits));
+                }
+                break;
+            }
+            case COLOR_TYPE_GRAY_ALPHA:
+                for (i = start; i < end; i += xStep)
+                {
+                    row[rowPos++] = (byte) ((pixels[i]) & 0xff);
+                    row[rowPos++] = (byte) ((pixels[i] >> 24) & 0xff);
+                }
+                break;
+            default:
+                boolean alpha = (colorType == COLOR_TYPE_RGB_ALPHA);
+                for (i = start; i < end; i += xStep)
+                {
+                    row[rowPos++] = (byte) ((pixels[i] >> 16) & 0xff);
+                    row[rowPos++] = (byte) ((pixels[i] >>  8) & 0xff);
+                    row[rowPos++] = (byte) ((pixels[i]) & 0xff);
+                    if (alpha)
+                    {
+                        row[rowPos++] = (byte) ((pixels[i] >> 24) & 0xff);
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Filter a row against the prior row and write it, with its filter type byte, into the given array.
+     * When the filter is {@link #FILTER_ADAPTIVE} the filter is picked per row.
+     *
+     * @param row The unfiltered row.
+     * @param prior The unfiltered prior row, all zeros for the first row of a pass.
+     * @param nBytes The number of bytes in the row.
+     * @param scanLines The array holding the scan lines being built
+     * @param startPos Position within scanLines to write the filter type byte.
+     * @return The next place to be written to in the scanLines array.
+     */
+    protected int filterRow(byte[] row, byte[] prior, int nBytes, byte[] scanLines, int startPos)
+    {
+        return filterRow(filter, row, prior, nBytes, scanLines, startPos);
+    }
+
+    /**
+     * Filter a row with a given filter, see {@link #filterRow(byte[], byte[], int, byte[], int)}.
+     */
+    private int filterRow(int rowFilter, byte[] row, byte[] prior, int nBytes, byte[] scanLines, int startPos)
+    {
+        if (rowFilter == FILTER_ADAPTIVE)
+        {
+            rowFilter = ScanlineFilter.select(row, prior, nBytes, bytesPerPixel);
+        }
+        scanLines[startPos++] = (byte) rowFilter;
+        ScanlineFilter.filter(rowFilter, row, prior, nBytes, bytesPerPixel, scanLines, startPos);
+        return startPos + nBytes;
+    }
+
+//    protected int[] blur(int[] src, int width, int height) {
+//       int[] blurred = new int[width * height];
+//        int scanPos = 0;            // where we are in the scan lines
+//     
+//     int boxw = 2;
+//        double mul = 1.0 / (double) (boxw * 2 + 1);
+//          System.out.println("mul = " + mul);
+//          
+//     for (int y = 0; y < height; y++) {
+//           int redChannel = 0;
+//          int greenChannel = 0;
+//                int blueChannel = 0;
+//
+//              for (int x = 0; x < boxw; x++) {
+//                     redChannel += (src[scanPos] >> 16) & 0xff;
+//                           greenChannel += (src[scanPos] >> 8) & 0xff;
+//                          blueChannel += src[scanPos] & 0xff;
+//                  }
+//                    System.out.println("Primed redChannel (" + scanPos + ") = " + redChannel);
+//                   System.out.println("Primed greenChannel = " + greenChannel);
+//                 System.out.println("Primed blueChannel = " + blueChannel);
+//                   
+//             for (int x = 0; x < width; x++) {
+//                            if (x > boxw) {
+//                              redChannel -= (src[scanPos - boxw - 1] >> 16) & 0xff;
+//                                greenChannel -= (src[scanPos - boxw - 1] >> 8) & 0xff;
+//                               blueChannel -= src[scanPos - boxw - 1] & 0xff;
+//                       }
+//
+//                         if (x + boxw < width) {
+//                              redChannel += (src[scanPos + boxw] >> 16) & 0xff;
+//                                    greenChannel += (src[scanPos + boxw] >> 8) & 0xff;
+//                                   blueChannel += src[scanPos + boxw] & 0xff;
+//                           }
+//
+//                         blurred[scanPos] |= (new Double(redChannel / (boxw + 1)).byteValue() << 16);
+//                         blurred[scanPos] |= (new Double(greenChannel / (boxw + 1)).byteValue() << 8);
+//                        blurred[scanPos] |= new Double(blueChannel / (boxw + 1)).byteValue();
+//
+//                     if (encodeAlpha) {
+//                           blurred[scanPos] |= (src[scanPos] & 0xff000000);
+//                     }
+//                    
+//                     scanPos++;
+//                   }
+//            }       
+//     
+//     return blurred;
+//    }
+
+    /**
+     * Write the image data to the PNG stream.
+     * This will write one or more PNG "IDAT" chunks, each no larger
+     * than the IDAT size. In order to conserve memory, this method
+     * grabs the rows per batch, or by default as many rows as will
+     * fit into 32K bytes, or the whole image; whichever is less.
+     * The pixel and scan line buffers and the compressor are reused between encodes.
+     * Interlaced images are written pass by pass, each row of a pass
+     * is taken from the image as it is needed.
+     *
+     * @return true if no errors; false if error grabbing pixels
+     */
+    protected boolean writeImageData() throws IOException
+    {
+        int rowsLeft;           // number of rows of image data remaining to write
+        int row = 0;            // the row of image data being written
+        int pass = -1;          // the interlace pass being written
+        int nRows;              // how many rows to grab at a time
+
+        byte[] scanLines;       // the scan lines to be compressed
+        int scanPos;            // where we are in the scan lines
+        int nBytes;             // the number of bytes in a row
+        byte[] temp;
+
+        setupPasses();
+        nBytes = rowBytes;
+        rowsLeft = passRows[passes.length];
+        
+        if (optimize)
+        {
+            return writeImageDataOptimized();
+        }
+        if (threadCount > 1)
+        {
+            return writeImageDataParallel();
+        }
+        
+        if (priorRow == null || priorRow.length != nBytes)
+        {
+            priorRow = new byte[nBytes];
+            currentRow = new byte[nBytes];
+        }
+        
+        /*
+         * Interlaced rows come from all over the image, so they are grabbed one at a time
+         */
+        int batchRows = (rowsPerBatch > 0) ? rowsPerBatch : Math.max(32767 / (nBytes + 1), 1);
+        int[] pixels = getPixelBuffer(width * ((interlaced) ? 1 : Math.min(batchRows, height)));
+        scanLines = getScanBuffer((nBytes + 1) * Math.min(batchRows, rowsLeft));
+
+        ChunkOutputStream idat = openImageData();
+        Deflater compBytes = deflater;
+        if (compBytes == null)
+        {
+            compBytes = deflater = createDeflater(idat, activeStrategy, false);
+        }
+        else
+        {
+            compBytes.reset(idat);
+            compBytes.setLevel(strategyLevel(activeStrategy));
+            compBytes.setStrategy(deflaterStrategy(activeStrategy));
+        }
+        long strategyStart = System.currentTimeMillis();
+        int strategyRows = 0;
 
         while (rowsLeft > 0)
         {
-            nRows = Math.min(32767 / (width * (bytesPerPixel + 1)), rowsLeft);
-            nRows = Math.max( nRows, 1 );
+            nRows = Math.min(batchRows, rowsLeft);
             
-            int[] pixels = new int[width * nRows];
-            image.getARGB(pixels, 0, width, 0, startRow, width, nRows);
+            if (!interlaced)
+            {
+                getPixels(pixels, 0, row, nRows);
+            }
             
-            /*
-             * Create a data chunk. scanLines adds "nRows" for
-             * the filter bytes.
-             */
-             scanLines = new byte[width * nRows * bytesPerPixel + nRows];
-             
-             if (filter == FILTER_SUB)
-             {
-                 leftBytes = new byte[16];
-             }
-             if (filter == FILTER_UP)
-             {
-                 priorRow = new byte[width * bytesPerPixel];
-             }
-             
              scanPos = 0;
-             startPos = 1;
-             for (int i = 0; i < width * nRows; i++)
+             for (int i = 0; i < nRows; i++, row++)
              {
-                 if (i % width == 0)
-                 {
-                     scanLines[scanPos++] = (byte) filter;
-                     startPos = scanPos;
-                 }
-                 scanLines[scanPos++] = (byte) ((pixels[i] >> 16) & 0xff);
-                 scanLines[scanPos++] = (byte) ((pixels[i] >>  8) & 0xff);
-                 scanLines[scanPos++] = (byte) ((pixels[i]) & 0xff);
-                 if (encodeAlpha)
-                 {
-                     scanLines[scanPos++] = (byte) ((pixels[i] >> 24) & 0xff);
-                 }
-                 if ((i % width == width - 1) && (filter != FILTER_NONE))
+                 /*
+                  * The prior row of the first row of each pass is all zeros
+                  */
+                 if (row == passRows[pass + 1])
                  {
-                     if (filter == FILTER_SUB)
+                     while (row == passRows[pass + 1])
                      {
-                         filterSub(scanLines, startPos, width);
+                         pass++;
                      }
-                     if (filter == FILTER_UP)
+                     for (int j = 0; j < nBytes; j++)
                      {
-                         filterUp(scanLines, startPos, width);
+                         priorRow[j] = 0;
                      }
                  }
+                 
+                 int offset = i * width;
+                 if (interlaced)
+                 {
+                     getPixels(pixels, 0, sourceRow(pass, row), 1);
+                     offset = 0;
+                 }
+                 packPassRow(pixels, offset, pass, row, currentRow);
+                 scanPos = filterRow(currentRow, priorRow, passBytes[pass], scanLines, scanPos);
+                 
+                 /*
+                  * The current row becomes the prior row of the next one
+                  */
+                 temp = priorRow;
+                 priorRow = currentRow;
+                 currentRow = temp;
              }
 
              /*
@@ -576,37 +1770,507 @@ public class PNGEncoder extends ImageEncoder
               */
               compBytes.write(scanLines, 0, scanPos);
               
-              startRow += nRows;
               rowsLeft -= nRows;
+              strategyRows += nRows;
+              if (checkBudget(strategyStart, strategyRows, rowsLeft))
+              {
+                  compBytes.setLevel(strategyLevel(activeStrategy));
+                  compBytes.setStrategy(deflaterStrategy(activeStrategy));
+                  strategyStart = System.currentTimeMillis();
+                  strategyRows = 0;
+              }
         }
-        compBytes.close();
-
+        compBytes.finish();
+        
         /*
-         * Write the compressed bytes
+         * Write out the last, partial, IDAT chunk
          */
-        compressedLines = outBytes.toByteArray();
-        nCompressed = compressedLines.length;
+        idat.close();
+        return true;
+    }
+
+    /**
+     * Write the image data to the PNG stream, compressing bands of rows on multiple threads.
+     * Each band is compressed as raw DEFLATE data ending in a sync flush, using the last 32K of
+     * the previous band as its dictionary, so the bands can simply be joined into one zlib stream.
+     * At most two bands per thread are in progress at a time to limit memory use.
+     *
+     * @return true if no errors; false if error grabbing pixels
+     */
+    protected boolean writeImageDataParallel() throws IOException
+    {
+        int bandRows = Math.max(BAND_SIZE / (rowBytes + 1), 1);
+        int totalRows = passRows[passes.length];
+        int startRow = 0;
+        int adler = Adler32.INITIAL_VALUE;
+        Vector bands = new Vector();
+
+        ChunkOutputStream idat = openImageData();
+        int header = Deflater.getZLibHeader(strategyLevel(activeStrategy));
+        long strategyStart = System.currentTimeMillis();
+        int strategyRows = 0;
+        int rowsLeft = totalRows;
+        idat.write(header >> 8);
+        idat.write(header);
+
+        WorkerPool pool = new WorkerPool(threadCount);
+        try
+        {
+            while (startRow < totalRows || !bands.isEmpty())
+            {
+                while (startRow < totalRows && bands.size() < threadCount * 2)
+                {
+                    int nRows = Math.min(bandRows, totalRows - startRow);
+                    Band band = new Band(startRow, nRows, activeStrategy);
+                    band.task = pool.submit(band);
+                    bands.addElement(band);
+                    startRow += nRows;
+                }
+                
+                Band band = (Band) bands.elementAt(0);
+                bands.removeElementAt(0);
+                join(band.task);
+                if (band.error != null)
+                {
+                    throw band.error;
+                }
+                idat.write(band.data.getBuffer(), 0, band.data.size());
+                adler = Adler32.combine(adler, band.adler, band.length);
+                
+                /*
+                 * Bands that have already started keep their strategy, only new bands are sped up
+                 */
+                rowsLeft -= band.nRows;
+                strategyRows += band.nRows;
+                if (checkBudget(strategyStart, strategyRows, rowsLeft))
+                {
+                    strategyStart = System.currentTimeMillis();
+                    strategyRows = 0;
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        idat.write(adler >> 24);
+        idat.write(adler >> 16);
+        idat.write(adler >> 8);
+        idat.write(adler);
+        idat.close();
+        return true;
+    }
+
+    /**
+     * Write the image data to the PNG stream, trying every filter with a number of compression levels and strategies
+     * and writing the smallest result. Each combination is a trial encode run on the worker threads. Only the compressed
+     * data of the smallest finished trial is kept, a trial is stopped as soon as it is larger than that.
+     *
+     * @return true if no errors; false if error grabbing pixels
+     */
+    protected boolean writeImageDataOptimized() throws IOException
+    {
+        int count = OPTIMIZE_FILTERS.length * OPTIMIZE_MODES.length;
+        if (maxTrials > 0)
+        {
+            count = Math.min(count, maxTrials);
+        }
+        Optimizer optimizer = new Optimizer();
+        if (optimizeBudget > 0)
+        {
+            optimizer.deadline = System.currentTimeMillis() + optimizeBudget;
+        }
+        if (deadline != 0 && (optimizer.deadline == 0 || deadline < optimizer.deadline))
+        {
+            optimizer.deadline = deadline;
+        }
+        
+        Trial[] trials = new Trial[count];
+        WorkerPool pool = new WorkerPool(Math.min(threadCount, count));
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                int[] mode = OPTIMIZE_MODES[i / OPTIMIZE_FILTERS.length];
+                trials[i] = new Trial(optimizer, i, OPTIMIZE_FILTERS[i % OPTIMIZE_FILTERS.length], mode[0], mode[1]);
+                trials[i].task = pool.submit(trials[i]);
+            }
+            for (int i = 0; i < count; i++)
+            {
+                join(trials[i].task);
+                if (trials[i].error != null)
+                {
+                    throw trials[i].error;
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        
+        Trial best = optimizer.best;
+        optimizedFilter = best.filter;
+        optimizedStrategy = best.strategy;
+        optimizedLevel = (best.level > 0) ? best.level : compressionLevel;
+        
+        ChunkOutputStream idat = openImageData();
+        idat.write(best.data.getBuffer(), 0, best.data.size());
+        idat.close();
+        return true;
+    }
+
+    /**
+     * Wait for a task run on a worker thread, passing on any runtime exception or error it threw.
+     *
+     * @param task The task to wait for.
+     */
+    private static void join(Task task) throws IOException
+    {
+        try
+        {
+            task.join();
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException();
+        }
+        Throwable error = task.getError();
+        if (error instanceof RuntimeException)
+        {
+            throw (RuntimeException) error;
+        }
+        else if (error instanceof Error)
+        {
+            throw (Error) error;
+        }
+    }
 
-        bytePos = writeInt4(nCompressed, bytePos);
-        bytePos = writeBytes(IDAT, bytePos);
-        crcValue = CRC32.update(CRC32.INITIAL_VALUE, IDAT);
+    /**
+     * Create a compressor for a compression strategy.
+     *
+     * @param out The stream to write the compressed data to.
+     * @param strategy The compression strategy.
+     * @param nowrap true to produce raw DEFLATE data, false to produce the zlib format.
+     * @return The compressor.
+     */
+    private Deflater createDeflater(OutputStream out, int strategy, boolean nowrap) throws IOException
+    {
+        Deflater deflater = new Deflater(out, strategyLevel(strategy), nowrap);
+        deflater.setStrategy(deflaterStrategy(strategy));
+        return deflater;
+    }
+
+    /**
+     * Get the compression level used by a compression strategy.
+     */
+    private int strategyLevel(int strategy)
+    {
+        switch (strategy)
+        {
+            case STRATEGY_STORED:
+                return Deflater.NO_COMPRESSION;
+            case STRATEGY_HUFFMAN_ONLY:
+            case STRATEGY_RLE:
+                return Deflater.BEST_SPEED;
+            case STRATEGY_BEST:
+                return Deflater.BEST_COMPRESSION;
+            default:
+                return (compressionLevel == 0) ? Deflater.DEFAULT_COMPRESSION : compressionLevel;
+        }
+    }
 
-        bytePos = writeBytes(compressedLines, nCompressed, bytePos);
-        crcValue = CRC32.update(crcValue, compressedLines, 0, nCompressed);
+    /**
+     * Get the {@link Deflater} strategy used by a compression strategy.
+     */
+    private static int deflaterStrategy(int strategy)
+    {
+        switch (strategy)
+        {
+            case STRATEGY_HUFFMAN_ONLY:
+                return Deflater.HUFFMAN_ONLY;
+            case STRATEGY_RLE:
+                return Deflater.RLE;
+            default:
+                return Deflater.DEFAULT_STRATEGY;
+        }
+    }
 
-        bytePos = writeInt4(crcValue, bytePos);
+    /**
+     * Check if the encode will finish within the time budget, going by how long the rows compressed with the
+     * current strategy took. If it won't, the strategy in use is lowered to the next faster one.
+     *
+     * @param start The time the current strategy was started.
+     * @param rowsDone The number of rows compressed with the current strategy.
+     * @param rowsLeft The number of rows left to compress.
+     * @return true if the strategy was lowered.
+     */
+    private boolean checkBudget(long start, int rowsDone, int rowsLeft)
+    {
+        if (deadline == 0 || activeStrategy == STRATEGY_STORED || rowsDone == 0 || rowsLeft == 0)
+        {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now + (now - start) * rowsLeft / rowsDone <= deadline)
+        {
+            return false;
+        }
+        activeStrategy--;
         return true;
     }
 
     /**
-     * Write a PNG "IEND" chunk into the pngBytes array.
+     * Write a PNG "IEND" chunk to the PNG stream.
      */
-    protected void writeEnd()
+    protected void writeEnd() throws IOException
     {
-        bytePos = writeInt4(0, bytePos);
-        bytePos = writeBytes(IEND, bytePos);
-        crcValue = CRC32.update(CRC32.INITIAL_VALUE, IEND);
+        writeChunk(IEND, null, 0, 0);
+    }
 
-        bytePos = writeInt4(crcValue, bytePos);
+    /**
+     * A band of rows that is filtered and compressed on a worker thread.
+     */
+    private final class Band implements Runnable
+    {
+        private int startRow, nRows, strategy;
+        Task task;
+        BandBuffer data;
+        int adler;
+        long length;
+        IOException error;
+        
+        Band(int startRow, int nRows, int strategy)
+        {
+            this.startRow = startRow;
+            this.nRows = nRows;
+            this.strategy = strategy;
+        }
+        
+        public void run()
+        {
+            int nBytes = rowBytes;
+            
+            /*
+             * The rows before the band are filtered again, it's cheaper than waiting
+             * for the previous band, to get the dictionary.
+             */
+            int pass = 0;
+            while (startRow >= passRows[pass + 1])
+            {
+                pass++;
+            }
+            int firstRow = startRow;
+            int dictLength = 0;
+            while (firstRow > 0 && dictLength < DICTIONARY_SIZE)
+            {
+                firstRow--;
+                while (firstRow < passRows[pass])
+                {
+                    pass--;
+                }
+                dictLength += passBytes[pass] + 1;
+            }
+            
+            int[] pixels = new int[width];
+            byte[] prior = new byte[nBytes];
+            byte[] current = new byte[nBytes];
+            byte[] temp;
+            if (firstRow > passRows[pass])
+            {
+                getPixels(pixels, 0, sourceRow(pass, firstRow - 1), 1);
+                packPassRow(pixels, 0, pass, firstRow - 1, prior);
+            }
+            byte[] scanLines = new byte[dictLength + nRows * (nBytes + 1)];
+            int scanPos = 0;
+            for (int row = firstRow; row < startRow + nRows; row++)
+            {
+                if (row == passRows[pass + 1])
+                {
+                    while (row == passRows[pass + 1])
+                    {
+                        pass++;
+                    }
+                    for (int i = 0; i < nBytes; i++)
+                    {
+                        prior[i] = 0;
+                    }
+                }
+                getPixels(pixels, 0, sourceRow(pass, row), 1);
+                packPassRow(pixels, 0, pass, row, current);
+                scanPos = filterRow(current, prior, passBytes[pass], scanLines, scanPos);
+                temp = prior;
+                prior = current;
+                current = temp;
+            }
+            
+            data = new BandBuffer(Math.max((scanPos - dictLength) >> 1, 64));
+            try
+            {
+                Deflater deflater = createDeflater(data, strategy, true);
+                if (dictLength > 0)
+                {
+                    int dictSize = Math.min(dictLength, DICTIONARY_SIZE);
+                    deflater.setDictionary(scanLines, dictLength - dictSize, dictSize);
+                }
+                deflater.write(scanLines, dictLength, scanPos - dictLength);
+                if (startRow + nRows == passRows[passes.length])
+                {
+                    deflater.finish();
+                }
+                else
+                {
+                    deflater.flush(Deflater.SYNC_FLUSH);
+                }
+                adler = deflater.getAdler();
+                length = deflater.getTotalIn();
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+        }
+    }
+    
+    /**
+     * The state shared by the trial encodes of an optimized encode.
+     */
+    private static final class Optimizer
+    {
+        long deadline;
+        Trial best;
+        
+        boolean expired()
+        {
+            return deadline != 0 && System.currentTimeMillis() > deadline;
+        }
+        
+        synchronized int bestSize()
+        {
+            return (best == null) ? Integer.MAX_VALUE : best.data.size();
+        }
+        
+        /**
+         * Keep a finished trial if it's the smallest so far, ties go to the trial that comes first so the result doesn't depend on timing.
+         */
+        synchronized void offer(Trial trial)
+        {
+            int size = trial.data.size();
+            if (best == null || size < best.data.size() || (size == best.data.size() && trial.index < best.index))
+            {
+                if (best != null)
+                {
+                    best.data = null;
+                }
+                best = trial;
+            }
+            else
+            {
+                trial.data = null;
+            }
+        }
+    }
+    
+    /**
+     * A trial encode of the image data with one filter, compression level and strategy, run on a worker thread.
+     */
+    private final class Trial implements Runnable
+    {
+        private Optimizer optimizer;
+        int index, filter, strategy, level;
+        Task task;
+        BandBuffer data;
+        IOException error;
+        
+        Trial(Optimizer optimizer, int index, int filter, int strategy, int level)
+        {
+            this.optimizer = optimizer;
+            this.index = index;
+            this.filter = filter;
+            this.strategy = strategy;
+            this.level = level;
+        }
+        
+        public void run()
+        {
+            /*
+             * The first trial always runs to the end so there is image data to write
+             */
+            boolean required = (index == 0);
+            if (!required && optimizer.expired())
+            {
+                return;
+            }
+            
+            int nBytes = rowBytes;
+            int totalRows = passRows[passes.length];
+            int[] pixels = new int[width];
+            byte[] prior = new byte[nBytes];
+            byte[] current = new byte[nBytes];
+            byte[] temp;
+            byte[] scanLines = new byte[Math.min(Math.max(32767 / (nBytes + 1), 1), totalRows) * (nBytes + 1)];
+            int scanPos = 0;
+            int pass = -1;
+            BandBuffer out = new BandBuffer(Math.max((totalRows * nBytes) >> 2, 64));
+            try
+            {
+                Deflater deflater = new Deflater(out, (level > 0) ? level : strategyLevel(strategy), false);
+                deflater.setStrategy(deflaterStrategy(strategy));
+                for (int row = 0; row < totalRows; row++)
+                {
+                    if (row == passRows[pass + 1])
+                    {
+                        while (row == passRows[pass + 1])
+                        {
+                            pass++;
+                        }
+                        for (int i = 0; i < nBytes; i++)
+                        {
+                            prior[i] = 0;
+                        }
+                    }
+                    getPixels(pixels, 0, sourceRow(pass, row), 1);
+                    packPassRow(pixels, 0, pass, row, current);
+                    scanPos = filterRow(filter, current, prior, passBytes[pass], scanLines, scanPos);
+                    temp = prior;
+                    prior = current;
+                    current = temp;
+                    
+                    if (scanPos + nBytes + 1 > scanLines.length || row == totalRows - 1)
+                    {
+                        deflater.write(scanLines, 0, scanPos);
+                        scanPos = 0;
+                        if (!required && (out.size() > optimizer.bestSize() || optimizer.expired()))
+                        {
+                            return;
+                        }
+                    }
+                }
+                deflater.finish();
+                data = out;
+                optimizer.offer(this);
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+        }
+    }
+    
+    /**
+     * A {@link ByteArrayOutputStream} whose buffer can be written out without being copied.
+     */
+    private static final class BandBuffer extends ByteArrayOutputStream
+    {
+        BandBuffer(int size)
+        {
+            super(size);
+        }
+        
+        byte[] getBuffer()
+        {
+            return buf;
+        }
     }
 }
@@ -0,0 +1,880 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.rim.device.api.compress.ZLibInputStream;
+import net.rim.device.api.system.Bitmap;
+import rebuild.BBXResource;
+import rebuild.Resources;
+import rebuild.graphics.tiff.IFDEntry;
+import rebuild.graphics.tiff.LZWDecoder;
+import rebuild.graphics.tiff.PackBits;
+import rebuild.graphics.tiff.Reader;
+import rebuild.graphics.tiff.tags.BitsPerSampleTag;
+import rebuild.graphics.tiff.tags.CompressionTag;
+import rebuild.graphics.tiff.tags.ExtraSamplesTag;
+import rebuild.graphics.tiff.tags.ImageLengthTag;
+import rebuild.graphics.tiff.tags.ImageWidthTag;
+import rebuild.graphics.tiff.tags.PhotometricInterpretationTag;
+import rebuild.graphics.tiff.tags.PlanarConfigurationTag;
+import rebuild.graphics.tiff.tags.PredictorTag;
+import rebuild.graphics.tiff.tags.ReferenceBlackWhiteTag;
+import rebuild.graphics.tiff.tags.RowsPerStripTag;
+import rebuild.graphics.tiff.tags.SamplesPerPixelTag;
+import rebuild.graphics.tiff.tags.StripByteCountsTag;
+import rebuild.graphics.tiff.tags.StripOffsetsTag;
+import rebuild.graphics.tiff.tags.TileByteCountsTag;
+import rebuild.graphics.tiff.tags.TileLengthTag;
+import rebuild.graphics.tiff.tags.TileOffsetsTag;
+import rebuild.graphics.tiff.tags.TileWidthTag;
+import rebuild.graphics.tiff.tags.YCbCrCoefficientsTag;
+import rebuild.graphics.tiff.tags.YCbCrSubSamplingTag;
+import rebuild.util.io.Stream;
+
+/**
+ * A Tagged Image File Format (TIFF) and BigTIFF decoder that only reads what it needs. Opening a TIFF only reads the
+ * header, a page's IFD is read when the page is selected and tag values that don't fit in the IFD are read when they
+ * are asked for. Image data is decoded one strip or tile at a time, so a region of a very large image can be decoded
+ * without reading the rest of it.
+ * <p>Greyscale, palette, RGB and YCbCr images with or without alpha are supported, with 8 bits per sample 
+ * (greyscale and palette images can also have 1, 2 or 4 bits per sample), in strips or tiles, chunky or planar, 
+ * uncompressed or compressed with PackBits, LZW or Deflate, with or without the horizontal differencing predictor.
+ * YCbCr images can have subsampled chroma if they are chunky, without alpha and without a predictor.</p>
+ * <p>A decoder reads from its {@link Stream} and can only be used by one thread at a time.</p>
+ * @since BBX 1.3.0
+ */
+public class TIFFDecoder
+{
+	private static final int COLOR_MAP_TAG = 320;
+	private static final short DEFLATE_OLD = (short)32946;
+	
+	private Reader reader;
+	private boolean bigTiff;
+	private long length;
+	
+	//The IFD offset of every page found so far
+	private long[] pageOffsets;
+	private int pagesFound;
+	private boolean lastPageFound;
+	
+	//The current page
+	private int page;
+	private IFDEntry[] entries;
+	private int width, height;
+	private int samples, bitsPerSample;
+	private short compression, photometric, predictor;
+	private int alphaSample;
+	private boolean associatedAlpha;
+	private int[] palette;
+	//The number of pixels across and down for each chroma sample of a YCbCr image, and the YCbCr to RGB conversion
+	//of each code value in 16.16 fixed point
+	private int subSamplingH, subSamplingV;
+	private int[] lumaTable, cbBlueTable, cbGreenTable, crRedTable, crGreenTable;
+	private boolean tiled;
+	private int chunkWidth, chunkLength, chunksAcross, chunksPerPlane, planes;
+	private int rowBytes;
+	private IFDEntry offsets, byteCounts;
+	
+	//The last decoded strip or tile, one array per plane
+	private int decodedChunk;
+	private byte[][] planeData;
+	private byte[] compressed;
+	private LZWDecoder lzw;
+	
+	/**
+	 * Open a TIFF or BigTIFF and select the first page.
+	 * @param stream The stream to read the TIFF from, opened for reading. The stream is not closed by the decoder.
+	 * @throws IOException If the stream is not a TIFF or the first page can't be read.
+	 */
+	public TIFFDecoder(Stream stream) throws IOException
+	{
+		this.reader = new Reader(true, stream);
+		this.length = reader.getLength();
+		this.bigTiff = reader.readHeader();
+		long first = reader.readOffset(bigTiff);
+		if(first == 0L)
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		this.pageOffsets = new long[4];
+		this.pageOffsets[0] = first;
+		this.pagesFound = 1;
+		setPage(0);
+	}
+	
+	/**
+	 * Get if the TIFF is little-endian.
+	 * @return <code>true</code> if the TIFF is little-endian, <code>false</code> if it is big-endian.
+	 */
+	public final boolean getLittleEndian()
+	{
+		return reader.getLittleEndian();
+	}
+	
+	/**
+	 * Get if the TIFF is a BigTIFF.
+	 * @return <code>true</code> if the TIFF is a BigTIFF, <code>false</code> if otherwise.
+	 */
+	public final boolean getBigTIFF()
+	{
+		return bigTiff;
+	}
+	
+	/**
+	 * Get the number of pages in the TIFF. The first call follows the whole IFD chain.
+	 * @return The number of pages.
+	 * @throws IOException If the IFD chain can't be read.
+	 */
+	public int getPageCount() throws IOException
+	{
+		findPage(Integer.MAX_VALUE);
+		return pagesFound;
+	}
+	
+	/**
+	 * Get the current page.
+	 * @return The index of the current page.
+	 */
+	public int getPage()
+	{
+		return page;
+	}
+	
+	/**
+	 * Select the page to read. The IFD chain is only followed as far as the page.
+	 * @param page The index of the page.
+	 * @throws IOException If the page can't be read.
+	 * @throws IndexOutOfBoundsException If there is no such page.
+	 */
+	public void setPage(int page) throws IOException
+	{
+		if(page < 0)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		findPage(page);
+		if(page >= pagesFound)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		this.entries = reader.readEntries(pageOffsets[page], bigTiff);
+		this.page = page;
+		this.decodedChunk = -1;
+		readLayout();
+	}
+	
+	/**
+	 * Follow the IFD chain until a page is found or there are no more pages.
+	 */
+	private void findPage(int page) throws IOException
+	{
+		//An IFD is at least a count and a next offset, any more IFDs than could fit in the file means the chain loops
+		long maxPages = length / (bigTiff ? 16 : 6);
+		while(pagesFound <= page && !lastPageFound)
+		{
+			long next = reader.getNextOffsetPosition(pageOffsets[pagesFound - 1], bigTiff);
+			reader.seek(next);
+			next = reader.readOffset(bigTiff);
+			if(next == 0L)
+			{
+				lastPageFound = true;
+				break;
+			}
+			if(next < 0L || next >= length || pagesFound >= maxPages)
+			{
+				throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+			}
+			if(pagesFound == pageOffsets.length)
+			{
+				long[] temp = new long[pagesFound * 2];
+				System.arraycopy(pageOffsets, 0, temp, 0, pagesFound);
+				pageOffsets = temp;
+			}
+			pageOffsets[pagesFound++] = next;
+		}
+	}
+	
+	/**
+	 * Get the number of entries in the current page's IFD.
+	 * @return The number of entries.
+	 */
+	public int getEntryCount()
+	{
+		return entries.length;
+	}
+	
+	/**
+	 * Get an entry of the current page's IFD.
+	 * @param index The index of the entry.
+	 * @return The entry.
+	 */
+	public IFDEntry getEntryAt(int index)
+	{
+		return entries[index];
+	}
+	
+	/**
+	 * Get the entry of the current page's IFD with a tag code.
+	 * @param tag The tag code, such as {@link ImageWidthTag#getTagTypeValue()}.
+	 * @return The entry, or null if the IFD doesn't have the tag.
+	 */
+	public IFDEntry getEntry(int tag)
+	{
+		//Entries are sorted by tag
+		int low = 0;
+		int high = entries.length - 1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int t = entries[mid].getTag();
+			if(t < tag)
+			{
+				low = mid + 1;
+			}
+			else if(t > tag)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return entries[mid];
+			}
+		}
+		//Not every writer sorts the entries
+		for(int i = entries.length - 1; i >= 0; i--)
+		{
+			if(entries[i].getTag() == tag)
+			{
+				return entries[i];
+			}
+		}
+		return null;
+	}
+	
+	private long getValue(int tag, long def) throws IOException
+	{
+		IFDEntry entry = getEntry(tag);
+		return (entry == null || entry.getCount() == 0) ? def : entry.getLong(0);
+	}
+	
+	/**
+	 * Read the tags that describe the image of the current page.
+	 */
+	private void readLayout() throws IOException
+	{
+		long w = getValue(ImageWidthTag.getTagTypeValue(), 0);
+		long h = getValue(ImageLengthTag.getTagTypeValue(), 0);
+		if(w <= 0 || h <= 0 || w > Integer.MAX_VALUE || h > Integer.MAX_VALUE)
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		width = (int)w;
+		height = (int)h;
+		samples = (int)getValue(SamplesPerPixelTag.getTagTypeValue(), 1);
+		bitsPerSample = (int)getValue(BitsPerSampleTag.getTagTypeValue(), 1);
+		compression = (short)getValue(CompressionTag.getTagTypeValue(), CompressionTag.NO_COMPRESSION);
+		photometric = (short)getValue(PhotometricInterpretationTag.getTagTypeValue(), samples >= 3 ? PhotometricInterpretationTag.RGB : PhotometricInterpretationTag.BLACK_IS_ZERO);
+		predictor = (short)getValue(PredictorTag.getTagTypeValue(), PredictorTag.NONE);
+		int planarConfig = (int)getValue(PlanarConfigurationTag.getTagTypeValue(), PlanarConfigurationTag.CHUNKY);
+		if(samples <= 0)
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		
+		//-Color
+		int colorSamples;
+		switch(photometric)
+		{
+			case PhotometricInterpretationTag.WHITE_IS_ZERO:
+			case PhotometricInterpretationTag.BLACK_IS_ZERO:
+			case PhotometricInterpretationTag.PALETTE:
+				colorSamples = 1;
+				break;
+			case PhotometricInterpretationTag.RGB:
+			case PhotometricInterpretationTag.YCBCR:
+				colorSamples = 3;
+				break;
+			default:
+				throw new UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_PHOTOMETRIC));
+		}
+		if(samples < colorSamples)
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		IFDEntry bits = getEntry(BitsPerSampleTag.getTagTypeValue());
+		for(int i = 1; bits != null && i < bits.getCount() && i < samples; i++)
+		{
+			if(bits.getInt(i) != bitsPerSample)
+			{
+				throw new UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_BITS_PER_SAMPLE));
+			}
+		}
+		if(bitsPerSample != 8 && !(samples == 1 && (bitsPerSample == 1 || bitsPerSample == 2 || bitsPerSample == 4)))
+		{
+			throw new UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_BITS_PER_SAMPLE));
+		}
+		alphaSample = -1;
+		associatedAlpha = false;
+		if(samples > colorSamples)
+		{
+			int extra = (int)getValue(ExtraSamplesTag.getTagTypeValue(), ExtraSamplesTag.UNSPECIFIED);
+			if(extra == ExtraSamplesTag.ASSOCALPHA || extra == ExtraSamplesTag.UNASSALPHA)
+			{
+				alphaSample = colorSamples;
+				associatedAlpha = extra == ExtraSamplesTag.ASSOCALPHA;
+			}
+		}
+		palette = null;
+		if(photometric == PhotometricInterpretationTag.PALETTE)
+		{
+			IFDEntry map = getEntry(COLOR_MAP_TAG);
+			int colors = 1 << bitsPerSample;
+			if(map == null || map.getCount() < colors * 3)
+			{
+				throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+			}
+			palette = new int[colors];
+			for(int i = 0; i < colors; i++)
+			{
+				//Colors are 16 bit
+				palette[i] = 0xFF000000 | ((map.getInt(i) >> 8) << 16) | ((map.getInt(colors + i) >> 8) << 8) | (map.getInt(colors * 2 + i) >> 8);
+			}
+		}
+		
+		//-Compression and prediction
+		switch(compression)
+		{
+			case CompressionTag.NO_COMPRESSION:
+			case CompressionTag.PACKBITS:
+			case CompressionTag.LZW:
+			case CompressionTag.DEFLATE_ADOBE:
+			case DEFLATE_OLD:
+				break;
+			default:
+				throw new UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_COMPRESSION));
+		}
+		if(predictor != PredictorTag.NONE && (predictor != PredictorTag.HORIZONTAL || bitsPerSample != 8))
+		{
+			throw new UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_PREDICTOR));
+		}
+		subSamplingH = subSamplingV = 1;
+		if(photometric == PhotometricInterpretationTag.YCBCR)
+		{
+			readYCbCr(planarConfig);
+		}
+		
+		//-Strips or tiles
+		IFDEntry tileWidth = getEntry(TileWidthTag.getTagTypeValue());
+		tiled = tileWidth != null;
+		if(tiled)
+		{
+			chunkWidth = tileWidth.getInt(0);
+			chunkLength = (int)getValue(TileLengthTag.getTagTypeValue(), 0);
+			offsets = getEntry(TileOffsetsTag.getTagTypeValue());
+			byteCounts = getEntry(TileByteCountsTag.getTagTypeValue());
+		}
+		else
+		{
+			long rowsPerStrip = getValue(RowsPerStripTag.getTagTypeValue(), height);
+			chunkWidth = width;
+			chunkLength = (rowsPerStrip <= 0 || rowsPerStrip > height) ? height : (int)rowsPerStrip;
+			offsets = getEntry(StripOffsetsTag.getTagTypeValue());
+			byteCounts = getEntry(StripByteCountsTag.getTagTypeValue());
+		}
+		if(chunkWidth <= 0 || chunkLength <= 0 || (chunkLength < height && chunkLength % subSamplingV != 0))
+		{
+			//Strips and tiles hold whole rows of YCbCr data units
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		planes = (planarConfig == PlanarConfigurationTag.PLANAR) ? samples : 1;
+		chunksAcross = (int)(((long)width + chunkWidth - 1) / chunkWidth);
+		chunksPerPlane = chunksAcross * (int)(((long)height + chunkLength - 1) / chunkLength);
+		int planeSamples = (planes == 1) ? samples : 1;
+		long rowLength = ((long)chunkWidth * planeSamples * bitsPerSample + 7) / 8;
+		if(subSamplingH * subSamplingV != 1)
+		{
+			//A row of data units, each the luma of a block of pixels and one Cb and Cr
+			rowLength = (((long)chunkWidth + subSamplingH - 1) / subSamplingH) * (subSamplingH * subSamplingV + 2);
+		}
+		if(offsets == null || byteCounts == null || offsets.getCount() < (long)chunksPerPlane * planes || 
+				byteCounts.getCount() < (long)chunksPerPlane * planes || 
+				rowLength * ((chunkLength + subSamplingV - 1) / subSamplingV) > Integer.MAX_VALUE)
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		rowBytes = (int)rowLength;
+	}
+	
+	/**
+	 * Read the subsampling of a YCbCr image and work out how to convert it to RGB.
+	 */
+	private void readYCbCr(int planarConfig) throws IOException
+	{
+		IFDEntry subSampling = getEntry(YCbCrSubSamplingTag.getTagTypeValue());
+		subSamplingH = (subSampling == null || subSampling.getCount() < 1) ? 2 : subSampling.getInt(0);
+		subSamplingV = (subSampling == null || subSampling.getCount() < 2) ? 2 : subSampling.getInt(1);
+		if((subSamplingH != 1 && subSamplingH != 2 && subSamplingH != 4) || 
+				(subSamplingV != 1 && subSamplingV != 2 && subSamplingV != 4) || subSamplingV > subSamplingH)
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		if(subSamplingH * subSamplingV != 1)
+		{
+			if(planarConfig == PlanarConfigurationTag.PLANAR || samples != 3)
+			{
+				throw new UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_YCBCR_SUBSAMPLING));
+			}
+			if(predictor != PredictorTag.NONE)
+			{
+				//Differencing works on pixels, not data units
+				throw new UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_PREDICTOR));
+			}
+		}
+		
+		double lumaRed = 0.299;
+		double lumaGreen = 0.587;
+		double lumaBlue = 0.114;
+		IFDEntry coefficients = getEntry(YCbCrCoefficientsTag.getTagTypeValue());
+		if(coefficients != null && coefficients.getCount() >= 3)
+		{
+			lumaRed = coefficients.getDouble(0);
+			lumaGreen = coefficients.getDouble(1);
+			lumaBlue = coefficients.getDouble(2);
+		}
+		double[] reference = new double[]{ 0, 255, 128, 255, 128, 255 };
+		IFDEntry referenceBlackWhite = getEntry(ReferenceBlackWhiteTag.getTagTypeValue());
+		if(referenceBlackWhite != null && referenceBlackWhite.getCount() >= 6)
+		{
+			for(int i = 0; i < 6; i++)
+			{
+				reference[i] = referenceBlackWhite.getDouble(i);
+			}
+		}
+		if(lumaGreen <= 0 || reference[1] == reference[0] || reference[3] == reference[2] || reference[5] == reference[4])
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		
+		if(lumaTable == null)
+		{
+			lumaTable = new int[256];
+			cbBlueTable = new int[256];
+			cbGreenTable = new int[256];
+			crRedTable = new int[256];
+			crGreenTable = new int[256];
+		}
+		for(int code = 0; code < 256; code++)
+		{
+			//Scale the code values to full range luma and chroma, then convert with the luma coefficients
+			double luma = (code - reference[0]) * 255 / (reference[1] - reference[0]);
+			double cb = (code - reference[2]) * 127 / (reference[3] - reference[2]) * (2 - 2 * lumaBlue);
+			double cr = (code - reference[4]) * 127 / (reference[5] - reference[4]) * (2 - 2 * lumaRed);
+			lumaTable[code] = toFixed(luma);
+			cbBlueTable[code] = toFixed(cb);
+			cbGreenTable[code] = toFixed(cb * lumaBlue / lumaGreen);
+			crRedTable[code] = toFixed(cr);
+			crGreenTable[code] = toFixed(cr * lumaRed / lumaGreen);
+		}
+	}
+	
+	private static int toFixed(double value)
+	{
+		return (int)Math.floor(value * 65536 + 0.5);
+	}
+	
+	/**
+	 * Get the width of the current page.
+	 * @return The width in pixels.
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+	
+	/**
+	 * Get the height of the current page.
+	 * @return The height in pixels.
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+	
+	/**
+	 * Get if the current page is stored in tiles.
+	 * @return <code>true</code> if the page is stored in tiles, <code>false</code> if it is stored in strips.
+	 */
+	public boolean isTiled()
+	{
+		return tiled;
+	}
+	
+	/**
+	 * Get the width of a strip or tile of the current page.
+	 * @return The width of a tile, or the width of the image for strips.
+	 */
+	public int getChunkWidth()
+	{
+		return chunkWidth;
+	}
+	
+	/**
+	 * Get the length (height) of a strip or tile of the current page.
+	 * @return The length of a tile, or the rows per strip for strips.
+	 */
+	public int getChunkLength()
+	{
+		return chunkLength;
+	}
+	
+	/**
+	 * Get the number of strips or tiles of the current page. Planar images have this many for each sample, they are
+	 * decoded together.
+	 * @return The number of strips or tiles.
+	 */
+	public int getChunkCount()
+	{
+		return chunksPerPlane;
+	}
+	
+	/**
+	 * Decode the whole current page.
+	 * @return The image.
+	 * @throws IOException If the image can't be read.
+	 */
+	public Bitmap decode() throws IOException
+	{
+		Bitmap bitmap = new Bitmap(width, height);
+		if(alphaSample >= 0)
+		{
+			//Without an alpha channel the bitmap would drop the decoded alpha
+			bitmap.createAlpha(Bitmap.ALPHA_BITDEPTH_8BPP);
+		}
+		//Decode one row of strips or tiles at a time
+		int[] data = new int[width * chunkLength];
+		for(int y = 0; y < height; y += chunkLength)
+		{
+			int rows = Math.min(chunkLength, height - y);
+			getARGB(data, 0, width, 0, y, width, rows);
+			bitmap.setARGB(data, 0, width, 0, y, width, rows);
+		}
+		return bitmap;
+	}
+	
+	/**
+	 * Decode a strip or tile of the current page, the pixels past the edge of the image are not written.
+	 * @param chunk The strip or tile, strips are numbered from the top and tiles left to right and then top to bottom.
+	 * @param data The array to write the ARGB pixels to.
+	 * @param offset The index in <code>data</code> of the top left pixel of the strip or tile.
+	 * @param scanLength The number of elements between rows in <code>data</code>.
+	 * @throws IOException If the strip or tile can't be read.
+	 */
+	public void decodeChunk(int chunk, int[] data, int offset, int scanLength) throws IOException
+	{
+		if(chunk < 0 || chunk >= chunksPerPlane)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		int x = (chunk % chunksAcross) * chunkWidth;
+		int y = (chunk / chunksAcross) * chunkLength;
+		int w = Math.min(chunkWidth, width - x);
+		int h = Math.min(chunkLength, height - y);
+		readChunk(chunk);
+		convert(0, 0, w, h, data, offset, scanLength);
+	}
+	
+	/**
+	 * Decode a region of the current page. Only the strips or tiles the region covers are read.
+	 * @param data The array to write the ARGB pixels to.
+	 * @param offset The index in <code>data</code> of the top left pixel of the region.
+	 * @param scanLength The number of elements between rows in <code>data</code>.
+	 * @param x The left edge of the region.
+	 * @param y The top edge of the region.
+	 * @param width The width of the region.
+	 * @param height The height of the region.
+	 * @throws IOException If the image can't be read.
+	 */
+	public void getARGB(int[] data, int offset, int scanLength, int x, int y, int width, int height) throws IOException
+	{
+		if(x < 0 || y < 0 || width < 0 || height < 0 || x + width > this.width || y + height > this.height)
+		{
+			throw new IllegalArgumentException();
+		}
+		if(width == 0 || height == 0)
+		{
+			return;
+		}
+		int firstColumn = x / chunkWidth;
+		int lastColumn = (x + width - 1) / chunkWidth;
+		int firstRow = y / chunkLength;
+		int lastRow = (y + height - 1) / chunkLength;
+		for(int row = firstRow; row <= lastRow; row++)
+		{
+			for(int column = firstColumn; column <= lastColumn; column++)
+			{
+				int cx = column * chunkWidth;
+				int cy = row * chunkLength;
+				//The part of the region in this strip or tile
+				int left = Math.max(x, cx);
+				int top = Math.max(y, cy);
+				int right = Math.min(x + width, cx + chunkWidth);
+				int bottom = Math.min(y + height, cy + chunkLength);
+				readChunk(row * chunksAcross + column);
+				convert(left - cx, top - cy, right - left, bottom - top, data, offset + (top - y) * scanLength + (left - x), scanLength);
+			}
+		}
+	}
+	
+	/**
+	 * Read and decompress a strip or tile into {@link #planeData}, unless it is the last one read.
+	 */
+	private void readChunk(int chunk) throws IOException
+	{
+		if(chunk == decodedChunk)
+		{
+			return;
+		}
+		decodedChunk = -1;
+		int rows = tiled ? chunkLength : Math.min(chunkLength, height - (chunk / chunksAcross) * chunkLength);
+		int size = rowBytes * ((rows + subSamplingV - 1) / subSamplingV);
+		if(planeData == null || planeData.length < planes)
+		{
+			planeData = new byte[planes][];
+		}
+		for(int p = 0; p < planes; p++)
+		{
+			if(planeData[p] == null || planeData[p].length < size)
+			{
+				planeData[p] = new byte[size];
+			}
+			byte[] plane = planeData[p];
+			int index = p * chunksPerPlane + chunk;
+			long off = offsets.getLong(index);
+			long count = byteCounts.getLong(index);
+			if(off < 0 || count < 0 || off + count > length)
+			{
+				throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+			}
+			int end;
+			reader.seek(off);
+			if(compression == CompressionTag.NO_COMPRESSION)
+			{
+				end = (int)Math.min(count, size);
+				reader.read(plane, 0, end);
+			}
+			else
+			{
+				if(count > Integer.MAX_VALUE)
+				{
+					throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+				}
+				int n = (int)count;
+				if(compressed == null || compressed.length < n)
+				{
+					compressed = new byte[n];
+				}
+				reader.read(compressed, 0, n);
+				end = decompress(compressed, n, plane, size);
+			}
+			//A short strip or tile is padded
+			for(int i = end; i < size; i++)
+			{
+				plane[i] = 0;
+			}
+			if(predictor == PredictorTag.HORIZONTAL)
+			{
+				int step = (planes == 1) ? samples : 1;
+				for(int row = 0; row < size; row += rowBytes)
+				{
+					for(int i = row + step, rowEnd = row + rowBytes; i < rowEnd; i++)
+					{
+						plane[i] += plane[i - step];
+					}
+				}
+			}
+		}
+		decodedChunk = chunk;
+	}
+	
+	/**
+	 * Decompress a strip or tile.
+	 * @return The number of bytes decompressed.
+	 */
+	private int decompress(byte[] src, int length, byte[] dst, int size) throws IOException
+	{
+		switch(compression)
+		{
+			case CompressionTag.PACKBITS:
+				return PackBits.decode(src, 0, length, dst, 0, size);
+			case CompressionTag.LZW:
+				if(lzw == null)
+				{
+					lzw = new LZWDecoder();
+				}
+				return lzw.decode(src, 0, length, dst, 0, size);
+			default:
+				//Deflate
+				InputStream in = new ZLibInputStream(new ByteArrayInputStream(src, 0, length), false);
+				int pos = 0;
+				try
+				{
+					while(pos < size)
+					{
+						int n = in.read(dst, pos, size - pos);
+						if(n < 0)
+						{
+							break;
+						}
+						pos += n;
+					}
+				}
+				finally
+				{
+					in.close();
+				}
+				return pos;
+		}
+	}
+	
+	/**
+	 * Convert part of the decoded strip or tile to ARGB pixels.
+	 */
+	private void convert(int cx, int cy, int w, int h, int[] data, int offset, int scanLength)
+	{
+		int planeSamples = (planes == 1) ? samples : 1;
+		for(int r = 0; r < h; r++)
+		{
+			int rowStart = ((cy + r) / subSamplingV) * rowBytes;
+			int pos = offset + r * scanLength;
+			for(int c = cx, end = cx + w; c < end; c++)
+			{
+				int pixel;
+				if(bitsPerSample != 8)
+				{
+					//Packed greyscale or palette indexes
+					int bit = c * bitsPerSample;
+					int mask = (1 << bitsPerSample) - 1;
+					int v = (planeData[0][rowStart + (bit >> 3)] >> (8 - bitsPerSample - (bit & 7))) & mask;
+					if(palette != null)
+					{
+						pixel = palette[v];
+					}
+					else
+					{
+						v = v * 255 / mask;
+						if(photometric == PhotometricInterpretationTag.WHITE_IS_ZERO)
+						{
+							v = 255 - v;
+						}
+						pixel = 0xFF000000 | (v * 0x010101);
+					}
+				}
+				else
+				{
+					int i = rowStart + c * planeSamples;
+					int a = alphaSample < 0 ? 255 : getSample(i, alphaSample);
+					int red, green, blue;
+					if(photometric == PhotometricInterpretationTag.RGB)
+					{
+						red = getSample(i, 0);
+						green = getSample(i, 1);
+						blue = getSample(i, 2);
+					}
+					else if(photometric == PhotometricInterpretationTag.YCBCR)
+					{
+						int luma, cb, cr;
+						if(subSamplingH * subSamplingV == 1)
+						{
+							luma = getSample(i, 0);
+							cb = getSample(i, 1);
+							cr = getSample(i, 2);
+						}
+						else
+						{
+							//A data unit is the luma of a block of pixels, a row at a time, followed by the Cb and Cr of the block
+							byte[] plane = planeData[0];
+							int unit = rowStart + (c / subSamplingH) * (subSamplingH * subSamplingV + 2);
+							luma = plane[unit + ((cy + r) % subSamplingV) * subSamplingH + c % subSamplingH] & 0xFF;
+							cb = plane[unit + subSamplingH * subSamplingV] & 0xFF;
+							cr = plane[unit + subSamplingH * subSamplingV + 1] & 0xFF;
+						}
+						int y = lumaTable[luma] + 32768;
+						red = clamp((y + crRedTable[cr]) >> 16);
+						green = clamp((y - cbGreenTable[cb] - crGreenTable[cr]) >> 16);
+						blue = clamp((y + cbBlueTable[cb]) >> 16);
+					}
+					else if(palette != null)
+					{
+						int p = palette[getSample(i, 0)];
+						red = (p >> 16) & 0xFF;
+						green = (p >> 8) & 0xFF;
+						blue = p & 0xFF;
+					}
+					else
+					{
+						red = getSample(i, 0);
+						if(photometric == PhotometricInterpretationTag.WHITE_IS_ZERO)
+						{
+							red = 255 - red;
+						}
+						green = blue = red;
+					}
+					if(associatedAlpha && a != 255)
+					{
+						//Undo the premultiplication
+						if(a == 0)
+						{
+							red = green = blue = 0;
+						}
+						else
+						{
+							red = Math.min(255, red * 255 / a);
+							green = Math.min(255, green * 255 / a);
+							blue = Math.min(255, blue * 255 / a);
+						}
+					}
+					pixel = (a << 24) | (red << 16) | (green << 8) | blue;
+				}
+				data[pos++] = pixel;
+			}
+		}
+	}
+	
+	/**
+	 * Get an 8 bit sample of a pixel.
+	 * @param index The index of the pixel in the plane.
+	 * @param sample The sample of the pixel.
+	 */
+	private int getSample(int index, int sample)
+	{
+		return (planes == 1 ? planeData[0][index + sample] : planeData[sample][index]) & 0xFF;
+	}
+	
+	private static int clamp(int value)
+	{
+		return value < 0 ? 0 : (value > 255 ? 255 : value);
+	}
+}
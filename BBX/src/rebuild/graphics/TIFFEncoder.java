@@ -24,30 +24,47 @@ package rebuild.graphics;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 
 import net.rim.device.api.system.Bitmap;
-import net.rim.device.api.ui.XYRect;
 import rebuild.BBXResource;
 import rebuild.Resources;
 import rebuild.graphics.tiff.IFD;
+import rebuild.graphics.tiff.LZWEncoder;
+import rebuild.graphics.tiff.PackBits;
 import rebuild.graphics.tiff.Tag;
 import rebuild.graphics.tiff.tags.BitsPerSampleTag;
 import rebuild.graphics.tiff.tags.CompressionTag;
 import rebuild.graphics.tiff.tags.ExtraSamplesTag;
+import rebuild.graphics.tiff.tags.ImageDataTag;
 import rebuild.graphics.tiff.tags.ImageLengthTag;
 import rebuild.graphics.tiff.tags.ImageWidthTag;
+import rebuild.graphics.tiff.tags.NewSubfileTypeTag;
 import rebuild.graphics.tiff.tags.PhotometricInterpretationTag;
 import rebuild.graphics.tiff.tags.PlanarConfigurationTag;
+import rebuild.graphics.tiff.tags.PredictorTag;
+import rebuild.graphics.tiff.tags.ReferenceBlackWhiteTag;
 import rebuild.graphics.tiff.tags.ResolutionUnitTag;
 import rebuild.graphics.tiff.tags.RowsPerStripTag;
 import rebuild.graphics.tiff.tags.SamplesPerPixelTag;
 import rebuild.graphics.tiff.tags.StripByteCountsTag;
 import rebuild.graphics.tiff.tags.StripOffsetsTag;
+import rebuild.graphics.tiff.tags.TileByteCountsTag;
+import rebuild.graphics.tiff.tags.TileLengthTag;
+import rebuild.graphics.tiff.tags.TileOffsetsTag;
+import rebuild.graphics.tiff.tags.TileWidthTag;
 import rebuild.graphics.tiff.tags.XResolutionTag;
+import rebuild.graphics.tiff.tags.YCbCrCoefficientsTag;
+import rebuild.graphics.tiff.tags.YCbCrPositioningTag;
+import rebuild.graphics.tiff.tags.YCbCrSubSamplingTag;
 import rebuild.graphics.tiff.tags.YResolutionTag;
 import rebuild.util.GraphicsUtilities;
-
-//TODO: When multiple image types (RGB, YCbCd, etc. are supported, remove the private tag on the constructors.
+import rebuild.util.concurrent.Task;
+import rebuild.util.concurrent.WorkerPool;
+import rebuild.util.io.Stream;
+import rebuild.util.io.StreamOutputStream;
+import rebuild.util.zip.Deflater;
 
 //Format: http://partners.adobe.com/public/developer/en/tiff/TIFF6.pdf
 //Info: http://www.awaresystems.be/imaging/tiff.html
@@ -55,8 +72,17 @@ import rebuild.util.GraphicsUtilities;
 /**
  * A Tagged Image File Format (TIFF) encoder.
  * <p>Currently only the Baseline TIFF is supported for writing (with the exception of alpha). Any tags that
- * modify the image format are not supported even if the variables are there. Only one image, non-compressed,
- * RGB/A, 8bits per sample is supported.</p>
+ * modify the image format are not supported even if the variables are there. Only one image, RGB/A or YCbCr, 8bits
+ * per sample is supported, uncompressed or compressed with PackBits, LZW or Deflate.</p>
+ * <p>YCbCr images are written with {@link #setPhotometric(int)} and can store the chroma at half the resolution
+ * across, or across and down, with {@link #setYCbCrSubSampling(int, int)}.</p>
+ * <p>Any number of images can be written to one TIFF as pages with {@link #encode(Bitmap[], OutputStream, boolean)},
+ * and a page can be added to the end of an existing TIFF with {@link #append(Stream, boolean)}.</p>
+ * <p>RGB/A images can be written with each sample in its own plane, with {@link #setPlanarConfiguration(int)}.</p>
+ * <p>Reduced resolution levels of every page can be written after it with {@link #setPyramidLevels(int)}, so a viewer
+ * can show a large image without reading it at full resolution.</p>
+ * <p>The image is written in strips unless a tile size is set with {@link #setTileSize(int, int)} (or the tile size
+ * tags are added to the IFD), in which case it is written in tiles.</p>
  * @since BBX 1.0.1
  */
 public class TIFFEncoder extends ImageEncoder
@@ -100,11 +126,47 @@ public class TIFFEncoder extends ImageEncoder
 	private static final int RESOLUTION_UNIT_TAG_NO_CENTIMETER = 3;
 	*/
 	
+	//RGB to YCbCr coefficients (CCIR 601-1, full range), fixed point with 16 fraction bits
+	private static final int Y_RED = 19595;
+	private static final int Y_GREEN = 38470;
+	private static final int Y_BLUE = 7471;
+	private static final int CB_RED = -11056;
+	private static final int CB_GREEN = -21712;
+	private static final int CB_BLUE = 32768;
+	private static final int CR_RED = 32768;
+	private static final int CR_GREEN = -27440;
+	private static final int CR_BLUE = -5328;
+	
 	private boolean littleEndian;
 	private IFD ifd;
 	//This is to determine what type of image to write.
 	private short type;
+	//If a BigTIFF was asked for, and if the file being written is a BigTIFF
+	private boolean forceBigTiff;
 	private boolean bigTiff;
+	private int threadCount;
+	private short predictor;
+	private short planarFormat;
+	//The number of pixels across and down for each chroma sample of a YCbCr image
+	private int subSamplingH;
+	private int subSamplingV;
+	//The number of reduced resolution levels written after each page, and if the page being written is one of them
+	private int pyramidLevels;
+	private boolean reduced;
+	private ChunkCompressor[] compressors;
+	private int nextChunk;
+	//The layout of the strips or tiles ("chunks") of the image being encoded, a strip is a tile as wide as the image.
+	private boolean tiled;
+	private int chunkWidth;
+	private int chunkLength;
+	private int chunksAcross;
+	private int chunksPerPlane;
+	private int chunkCount;
+	//Planar images have a plane of strips or tiles for each sample, chunky images have one plane with every sample
+	private int planes;
+	private int chunkSamples;
+	//The rows of the reduced resolution level being compressed, the strips or tiles are read from these instead of the image when set
+	private int[] levelPixels;
 	
 	/**
 	 * Get the MIME type of the image encoder.
@@ -125,12 +187,12 @@ public class TIFFEncoder extends ImageEncoder
     
     /**
      * Class constructor
-     * @param type The TIFF type to encode.
+     * @param type The color space to write, see {@link #setPhotometric(int)}.
+     * @since BBX 1.3.0
      */
-    private TIFFEncoder(int type)
+    public TIFFEncoder(int type)
     {
-    	//TODO: Replace RGB with type when more types are supported
-    	this(null, false, PhotometricInterpretationTag.RGB);
+    	this(null, false, type);
     }
     
     /**
@@ -145,12 +207,12 @@ public class TIFFEncoder extends ImageEncoder
     /**
      * Class constructor specifying {@link Bitmap} to encode, with no alpha channel encoding.
      * @param image A Java Image object which uses the DirectColorModel.
-     * @param type The TIFF type to encode.
+     * @param type The color space to write, see {@link #setPhotometric(int)}.
+     * @since BBX 1.3.0
      */
-    private TIFFEncoder(Bitmap image, int type)
+    public TIFFEncoder(Bitmap image, int type)
     {
-    	//TODO: Replace RGB with type when more types are supported
-    	this(image, false, PhotometricInterpretationTag.RGB);
+    	this(image, false, type);
     }
     
     /**
@@ -167,16 +229,25 @@ public class TIFFEncoder extends ImageEncoder
      * Class constructor specifying {@link Bitmap} to encode, with no alpha channel encoding.
      * @param image A Java Image object which uses the DirectColorModel.
      * @param encodeAlpha boolean false = no alpha, true = encode alpha
-     * @param type The TIFF type to encode.
+     * @param type The color space to write, see {@link #setPhotometric(int)}.
+     * @since BBX 1.3.0
      */
-    private TIFFEncoder(Bitmap image, boolean encodeAlpha, int type)
+    public TIFFEncoder(Bitmap image, boolean encodeAlpha, int type)
     {
     	super(image, encodeAlpha);
     	this.littleEndian = true;
     	this.ifd = new IFD();
     	this.type = (short)type;
+    	this.forceBigTiff = false;
     	this.bigTiff = false;
     	this.compressionLevel = CompressionTag.NO_COMPRESSION;
+    	this.threadCount = 1;
+    	this.predictor = PredictorTag.NONE;
+    	this.planarFormat = PlanarConfigurationTag.CHUNKY;
+    	this.subSamplingH = 2;
+    	this.subSamplingV = 2;
+    	this.pyramidLevels = 0;
+    	this.reduced = false;
     	try
     	{
     		//Test to make sure that "type" is a valid photometric
@@ -186,6 +257,7 @@ public class TIFFEncoder extends ImageEncoder
     	{
     		throw new IllegalArgumentException(Resources.getString(BBXResource.TIFF_INVALID_PHOTOMETRIC));
     	}
+    	setPhotometric(type);
     }
     
     /**
@@ -198,286 +270,1555 @@ public class TIFFEncoder extends ImageEncoder
     }
     
     /**
-     * Get if the TIFFEncoder should write a BigTIFF.
-     * @return <code>true</code> if the encoder will write a BigTIFF, <code>false</code> if otherwise.
+     * Get if the TIFFEncoder should always write a BigTIFF.
+     * @return <code>true</code> if the encoder will always write a BigTIFF, <code>false</code> if it only writes a
+     * BigTIFF when the image is too large for a TIFF.
      */
     public final boolean getWritingBigTIFF()
     {
-    	return bigTiff;
+    	return forceBigTiff;
     }
     
     /**
-     * Set if the TIFFEncoder should write a BigTIFF.
-     * @param bTiff <code>true</code> if the encoder should write a BigTIFF, <code>false</code> if otherwise.
+     * Set if the TIFFEncoder should always write a BigTIFF. A TIFF can't be larger than 4GB, so even if this is
+     * <code>false</code> a BigTIFF is written when the encoded image would be larger than that. Before anything is
+     * written the size of the TIFF is worked out, exactly for uncompressed images and for the first page, and from the
+     * largest size the strips or tiles can compress to for the other pages.
+     * @param bTiff <code>true</code> if the encoder should always write a BigTIFF, <code>false</code> if it should
+     * only write a BigTIFF when needed.
      */
     public final void setWritingBigTIFF(boolean bTiff)
     {
-    	bigTiff = bTiff;
+    	forceBigTiff = bTiff;
     }
     
     /**
-     * Set the compression level to use.
-     * @param The compression level to set.
+     * Set the compression to use. For TIFF the "level" is the compression scheme.
+     * @param The compression to use, one of {@link CompressionTag#NO_COMPRESSION}, {@link CompressionTag#PACKBITS}, 
+     * {@link CompressionTag#LZW} or {@link CompressionTag#DEFLATE_ADOBE}.
      */
     public void setCompressionLevel(int level)
     {
-    	if(level != CompressionTag.NO_COMPRESSION)
+    	switch((short)level)
     	{
-    		throw new IllegalArgumentException("level != CompressionTag.NO_COMPRESSION");
+    		case CompressionTag.NO_COMPRESSION:
+    		case CompressionTag.PACKBITS:
+    		case CompressionTag.LZW:
+    		case CompressionTag.DEFLATE_ADOBE:
+    			break;
+    		default:
+    			throw new IllegalArgumentException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_COMPRESSION));
     	}
-    	this.compressionLevel = level;
+    	this.compressionLevel = (short)level;
     }
     
-    private long initializeIFD(boolean encodeAlpha) throws IOException
+    /**
+     * Set the predictor applied to the image before it is compressed. {@link PredictorTag#HORIZONTAL} stores each 
+     * sample as the difference from the same sample of the pixel to its left, which makes continuous-tone images 
+     * compress much better. The predictor is only used with {@link CompressionTag#LZW} and 
+     * {@link CompressionTag#DEFLATE_ADOBE} compression, other compressions ignore it.
+     * @param predictor The predictor to use, {@link PredictorTag#NONE} or {@link PredictorTag#HORIZONTAL}.
+     * @since BBX 1.3.0
+     */
+    public void setPredictor(int predictor)
     {
-    	//Make sure that all required tags are present and get information to aid in modifying certain tags for encoding.
-    	ensureRequiredTags(encodeAlpha);
-    	
-    	//-Write tags and data to their buffers
-    	ByteArrayOutputStream temp = new ByteArrayOutputStream();
-    	rebuild.graphics.tiff.Writer dat = new rebuild.graphics.tiff.Writer(littleEndian, temp);
-    	long dataOff = bigTiff ? ifd.getOptBigLength() : ifd.getOptLength(); //Get the length of the tags only
-    	dataOff += bigTiff ? 16L : 8L; //Add the header length
-    	dataOff += bigTiff ? 16L : 6L; //Add the tag count and IFD offset
-    	
-    	//Make sure that all tags have the proper values.
-    	//-Get the offset to the end of the IFD (including extra data) so that the correct image offsets can be added.
-    	long nLength = 0L;
-    	if(bigTiff)
+    	switch(predictor)
     	{
-    		nLength = ifd.writeBig(dat, dataOff);
+    		case PredictorTag.NONE:
+    		case PredictorTag.HORIZONTAL:
+    			break;
+    		default:
+    			throw new IllegalArgumentException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_PREDICTOR));
     	}
-    	else
+    	this.predictor = (short)predictor;
+    }
+    
+    /**
+     * Get the predictor applied to the image before it is compressed.
+     * @return The predictor.
+     * @since BBX 1.3.0
+     */
+    public int getPredictor()
+    {
+    	return predictor;
+    }
+    
+    /**
+     * Set the color space the image is written in. {@link PhotometricInterpretationTag#YCBCR} stores the luma and the
+     * chroma of each pixel, which lets the chroma be stored at a lower resolution (see 
+     * {@link #setYCbCrSubSampling(int, int)}). YCbCr images are always written without alpha.
+     * @param photometric The color space, {@link PhotometricInterpretationTag#RGB} or 
+     * {@link PhotometricInterpretationTag#YCBCR}.
+     * @since BBX 1.3.0
+     */
+    public void setPhotometric(int photometric)
+    {
+    	switch(photometric)
     	{
-    		nLength = ifd.write(dat, (int)(dataOff & 0x00000000FFFFFFFFL));
+    		case PhotometricInterpretationTag.RGB:
+    		case PhotometricInterpretationTag.YCBCR:
+    			break;
+    		default:
+    			throw new IllegalArgumentException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_PHOTOMETRIC));
     	}
-    	
-    	//-Setup Strip sizes with correct strip size
-    	short samples = ((SamplesPerPixelTag)ifd.getTagByType(SamplesPerPixelTag.getTagTypeValue())).getSamples();
-    	int totalByteCount = width * height * samples;
-    	int maxStripCount = (((RowsPerStripTag)ifd.getTagByType(RowsPerStripTag.getTagTypeValue())).getRowsPerStrip() * width) * samples;
-    	
-    	StripByteCountsTag byteCountTag = (StripByteCountsTag)ifd.getTagByType(StripByteCountsTag.getTagTypeValue());
-    	int stripCount = byteCountTag.getCount();
-    	for(int i = 0; i < stripCount; i++)
+    	this.type = (short)photometric;
+    }
+    
+    /**
+     * Get the color space the image is written in.
+     * @return The photometric interpretation.
+     * @since BBX 1.3.0
+     */
+    public int getPhotometric()
+    {
+    	return type;
+    }
+    
+    /**
+     * Set the subsampling of the chroma of a YCbCr image, the number of pixels across and down that share one Cb and
+     * one Cr sample. The chroma of each block of pixels is averaged. Subsampled images are not used with a predictor.
+     * The default is 2 by 2 (4:2:0).
+     * @param horizontal The number of pixels across, 1 or 2.
+     * @param vertical The number of pixels down, 1 or 2. Must not be more than <code>horizontal</code>.
+     * @since BBX 1.3.0
+     */
+    public void setYCbCrSubSampling(int horizontal, int vertical)
+    {
+    	if(horizontal < 1 || horizontal > 2 || vertical < 1 || vertical > horizontal)
     	{
-    		//TODO-Figure out how to handle compression (don't know if compression resets for each strip)
-    		byteCountTag.setByteCount(i, maxStripCount > totalByteCount ? totalByteCount : maxStripCount);
-    		totalByteCount -= maxStripCount;
+    		throw new IllegalArgumentException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_YCBCR_SUBSAMPLING));
     	}
-    	
-    	//-Replace Strip offsets with correct offset
-    	StripOffsetsTag offsetTag = (StripOffsetsTag)ifd.getTagByType(StripOffsetsTag.getTagTypeValue());
-    	for(int i = 0; i < stripCount; i++)
+    	this.subSamplingH = horizontal;
+    	this.subSamplingV = vertical;
+    }
+    
+    /**
+     * Get the number of pixels across that share a chroma sample in a YCbCr image.
+     * @return The horizontal subsampling.
+     * @since BBX 1.3.0
+     */
+    public int getYCbCrSubSamplingHorizontal()
+    {
+    	return subSamplingH;
+    }
+    
+    /**
+     * Get the number of pixels down that share a chroma sample in a YCbCr image.
+     * @return The vertical subsampling.
+     * @since BBX 1.3.0
+     */
+    public int getYCbCrSubSamplingVertical()
+    {
+    	return subSamplingV;
+    }
+    
+    /**
+     * Set how the samples of each pixel are stored. {@link PlanarConfigurationTag#PLANAR} writes each sample (red, 
+     * green, blue and then alpha) in its own plane of strips or tiles, one plane after another. Each plane is made of 
+     * similar values so it often compresses better with LZW or Deflate, and the strips or tiles of every plane are 
+     * compressed on the threads together. YCbCr images are always written chunky.
+     * @param format The planar configuration, {@link PlanarConfigurationTag#CHUNKY} or 
+     * {@link PlanarConfigurationTag#PLANAR}.
+     * @since BBX 1.3.0
+     */
+    public void setPlanarConfiguration(int format)
+    {
+    	switch(format)
     	{
-    		offsetTag.setStripOffset(i, nLength);
-    		nLength += byteCountTag.getByteCount(i);
+    		case PlanarConfigurationTag.CHUNKY:
+    		case PlanarConfigurationTag.PLANAR:
+    			break;
+    		default:
+    			throw new IllegalArgumentException(Resources.getString(BBXResource.TIFF_INVALID_PLANAR_FORMAT));
     	}
-    	
-    	temp.close();
-    	return dataOff;
+    	this.planarFormat = (short)format;
     }
     
     /**
-     * Creates an array of bytes that is the TIFF equivalent of the current image, specifying whether to encode alpha or not.
-     * @param encodeAlpha boolean false = no alpha, true = encode alpha
-     * @return an array of bytes, or null if there was a problem
+     * Get how the samples of each pixel are stored.
+     * @return The planar configuration.
+     * @since BBX 1.3.0
      */
-    protected byte[] inEncode(boolean encodeAlpha) throws IOException
+    public int getPlanarConfiguration()
     {
-    	ByteArrayOutputStream stream = new ByteArrayOutputStream();
-    	ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream();
-    	ByteArrayOutputStream tagBuffer = new ByteArrayOutputStream();
-    	ByteArrayOutputStream imageBuffer = new ByteArrayOutputStream();
-    	rebuild.graphics.tiff.Writer dat = null;
-    	char tempChar = '\0';
-    	
-    	//Write the header-START
-    	dat = new rebuild.graphics.tiff.Writer(littleEndian, headerBuffer);
-    	if(littleEndian)
+    	return planarFormat;
+    }
+    
+    /**
+     * Set the number of reduced resolution levels written after every page, for viewers that show large images at a
+     * lower resolution. Each level is half the width and height of the one before it, made by averaging every 2 by 2
+     * block of pixels, and is written as its own IFD with the {@link NewSubfileTypeTag#REDUCED_RESOLUTION} flag right
+     * after the page. No more levels are written once a level is a single pixel. Values less than zero are ignored.
+     * @param levels The number of levels, 0 to only write the pages. 3 writes the 1/2, 1/4 and 1/8 levels.
+     * @since BBX 1.3.0
+     */
+    public void setPyramidLevels(int levels)
+    {
+    	if(levels >= 0)
     	{
-    		tempChar = (char)0x49; //I
+    		this.pyramidLevels = levels;
     	}
-    	else
+    }
+    
+    /**
+     * Get the number of reduced resolution levels written after every page.
+     * @return The number of levels.
+     * @since BBX 1.3.0
+     */
+    public int getPyramidLevels()
+    {
+    	return pyramidLevels;
+    }
+    
+    /**
+     * Set the number of threads used to compress the image. Every strip or tile is compressed on its own, so they are
+     * shared out between the threads and written in order once they are all done. Uncompressed images are always
+     * written on the calling thread. Values less than one are ignored.
+     * @param count The number of threads, 1 to compress on the calling thread.
+     * @since BBX 1.3.0
+     */
+    public void setThreadCount(int count)
+    {
+    	if(count >= 1)
     	{
-    		tempChar = (char)0x4D; //M
+    		this.threadCount = count;
     	}
-    	//-Write if this is little or big endian.
-    	dat.writeByte(tempChar);
-    	dat.writeByte(tempChar);
-    	//-Write the TIFF identifier
-    	if(bigTiff)
+    }
+    
+    /**
+     * Get the number of threads used to compress the image.
+     * @return The number of threads.
+     * @since BBX 1.3.0
+     */
+    public int getThreadCount()
+    {
+    	return threadCount;
+    }
+    
+    /**
+     * Set the size of the tiles the image is written in. Tiles that go past the edge of the image are padded, so
+     * large images can be written in small pieces that a reader can get without reading the whole image.
+     * @param tileWidth The width of a tile, must be a positive multiple of 16. If this or <code>tileLength</code> is 0 
+     * the image is written in strips.
+     * @param tileLength The length (height) of a tile, must be a positive multiple of 16.
+     * @since BBX 1.3.0
+     */
+    public void setTileSize(int tileWidth, int tileLength)
+    {
+    	if(tileWidth == 0 || tileLength == 0)
     	{
-    		dat.writeUShort(43);
-    		//-Write offset size
-    		dat.writeUShort(8); //For now it is 8 bytes (a long).
-    		//-Write unused value (always 0)
-    		dat.writeUShort(0);
-    		//-Write the offset to the first tag (located directly after the header [endian byte + endian byte + TIFF identifier (2 bytes) + offsetSize (2 bytes) + unused (2 bytes) + offset (8 bytes)])
-    		dat.writeULong(8);
+    		ifd.removeTags(TileWidthTag.getTagTypeValue());
+    		ifd.removeTags(TileLengthTag.getTagTypeValue());
+    		return;
     	}
-    	else
+    	//Create the tags first so nothing is changed if the size is invalid
+    	TileWidthTag widthTag = new TileWidthTag(tileWidth);
+    	TileLengthTag lengthTag = new TileLengthTag(tileLength);
+    	ifd.removeTags(TileWidthTag.getTagTypeValue());
+    	ifd.removeTags(TileLengthTag.getTagTypeValue());
+    	ifd.addTag(widthTag);
+    	ifd.addTag(lengthTag);
+    }
+    
+    /**
+     * Get the width of the tiles the image is written in.
+     * @return The width of a tile, or 0 if the image is written in strips.
+     * @since BBX 1.3.0
+     */
+    public int getTileWidth()
+    {
+    	TileWidthTag tag = (TileWidthTag)ifd.getTagByType(TileWidthTag.getTagTypeValue());
+    	return (tag == null || ifd.indexOf(TileLengthTag.getTagTypeValue()) == -1) ? 0 : tag.getWidth();
+    }
+    
+    /**
+     * Get the length (height) of the tiles the image is written in.
+     * @return The length of a tile, or 0 if the image is written in strips.
+     * @since BBX 1.3.0
+     */
+    public int getTileLength()
+    {
+    	TileLengthTag tag = (TileLengthTag)ifd.getTagByType(TileLengthTag.getTagTypeValue());
+    	return (tag == null || ifd.indexOf(TileWidthTag.getTagTypeValue()) == -1) ? 0 : tag.getLength();
+    }
+    
+    /**
+     * Work out where the image data goes and set the strip or tile offsets and byte counts to match. The size of the
+     * IFD depends on the data type of the offsets, which depends on the offsets, so the IFD is measured until the
+     * offsets stop changing.
+     * @param chunks The compressed strips or tiles, or null if they are not compressed or not compressed yet. Strips or
+     * tiles that are not compressed yet are laid out at the largest size they can compress to.
+     * @param dataOff The absolute position of the extra tag data, right after the tags.
+     * @return The absolute position right after the image data. When writing a TIFF this is more than 4GB (without
+     * the offsets being set) if the image data doesn't fit.
+     */
+    private long layoutIFD(byte[][] chunks, long dataOff) throws IOException
+    {
+    	//-Setup byte counts with the correct size
+    	ImageDataTag byteCountTag = (ImageDataTag)ifd.getTagByType(tiled ? TileByteCountsTag.getTagTypeValue() : StripByteCountsTag.getTagTypeValue());
+    	long maxByteCount = 0L;
+    	for(int i = 0; i < chunkCount; i++)
     	{
-    		dat.writeUShort(42);
-    		//-Write the offset to the first tag (located directly after the header [endian byte + endian byte + TIFF identifier (2 bytes) + offset (4 bytes)])
-        	dat.writeUInt(8);
+    		maxByteCount = Math.max(maxByteCount, getChunkLength(chunks, i));
+    	}
+    	byteCountTag.setEntry(-1, maxByteCount);
+    	long totalByteCount = 0L;
+    	for(int i = 0; i < chunkCount; i++)
+    	{
+    		long byteCount = getChunkLength(chunks, i);
+    		byteCountTag.setEntry(i, byteCount);
+    		totalByteCount += byteCount;
     	}
-    	//Write the header-END
-    	
-    	//Write the tags, anything that has a value greater then 4/8 bytes should be written to another buffer-START
-    	long dataOff = initializeIFD(encodeAlpha);
     	
-    	ifd.sort();
-    	dat = new rebuild.graphics.tiff.Writer(littleEndian, tagBuffer);
-    	//Write the tags and their data to a stream
-    	if(bigTiff)
+    	//-Replace offsets with correct offset, the offsets only grow so this always settles
+    	ImageDataTag offsetTag = (ImageDataTag)ifd.getTagByType(tiled ? TileOffsetsTag.getTagTypeValue() : StripOffsetsTag.getTagTypeValue());
+    	rebuild.graphics.tiff.Writer sink = new rebuild.graphics.tiff.Writer(littleEndian, new NullOutputStream());
+    	long imageOff = dataOff;
+    	while(true)
+    	{
+    		long nLength = imageOff;
+    		if(!bigTiff && imageOff + totalByteCount > 0xFFFFFFFFL)
+    		{
+    			//Too large for a TIFF, the offsets would need to be LONG8
+    			return imageOff + totalByteCount;
+    		}
+    		offsetTag.setEntry(-1, imageOff + totalByteCount - byteCountTag.getEntry(chunkCount - 1));
+    		for(int i = 0; i < chunkCount; i++)
+    		{
+    			offsetTag.setEntry(i, nLength);
+    			nLength += byteCountTag.getEntry(i);
+    		}
+    		
+    		//Only the length of the tag data is needed, measuring from 0 keeps the positions valid for a TIFF
+    		long end = dataOff + ifd.write(sink, 0L, 0L, bigTiff);
+    		if(end == imageOff)
+    		{
+    			break;
+    		}
+    		imageOff = end;
+    	}
+    	return imageOff + totalByteCount;
+    }
+    
+    /**
+     * Work out the size and number of the strips or tiles from the tags.
+     */
+    private void setupChunks()
+    {
+    	if(tiled)
     	{
-    		dataOff = ifd.writeBig(dat, dataOff);
+    		chunkWidth = ((TileWidthTag)ifd.getTagByType(TileWidthTag.getTagTypeValue())).getWidth();
+    		chunkLength = ((TileLengthTag)ifd.getTagByType(TileLengthTag.getTagTypeValue())).getLength();
+    		chunksAcross = (width + chunkWidth - 1) / chunkWidth;
     	}
     	else
     	{
-    		dataOff = ifd.write(dat, (int)(dataOff & 0x00000000FFFFFFFFL));
+    		int rowsPerStrip = ((RowsPerStripTag)ifd.getTagByType(RowsPerStripTag.getTagTypeValue())).getRowsPerStrip();
+    		chunkWidth = width;
+    		chunkLength = (rowsPerStrip <= 0 || rowsPerStrip > height) ? height : rowsPerStrip;
+    		chunksAcross = 1;
     	}
-    	
-    	//TODO: Later in life if I want to support multiple IFD's I should take the dataOff - start of the IFD and 
-    	//put it as offset, that way when the TIFF decoder looks at it, it will see another IFD is located after the 
-    	//first one, then second, etc. This is not needed but would be a nice addition.
-    	
-    	//Write the tags-END
-    	
-    	//Write image data-START
-    	dat = new rebuild.graphics.tiff.Writer(littleEndian, imageBuffer);
-    	
-    	//TODO: Later in life I want to support writing multiple images. This is so that layered/animated images can
-    	//be written to the TIFF.
-    	
-    	writeImageData(dat, encodeAlpha);
-    	//Write image data-END
-        
-    	//Write data to main stream
-    	stream.write(headerBuffer.toByteArray());
-    	stream.write(tagBuffer.toByteArray());
-    	stream.write(imageBuffer.toByteArray());
-    	
-    	//Get full data
-    	byte[] bdata = stream.toByteArray();
-    	
-    	//Close streams and return
-    	headerBuffer.close();
-    	tagBuffer.close();
-    	imageBuffer.close();
-        stream.close();
-        
-    	return bdata;
+    	chunksPerPlane = chunksAcross * ((height + chunkLength - 1) / chunkLength);
+    	short samples = ((SamplesPerPixelTag)ifd.getTagByType(SamplesPerPixelTag.getTagTypeValue())).getSamples();
+    	short format = ((PlanarConfigurationTag)ifd.getTagByType(PlanarConfigurationTag.getTagTypeValue())).getPlanarFormat();
+    	planes = format == PlanarConfigurationTag.PLANAR ? samples : 1;
+    	chunkSamples = samples / planes;
+    	chunkCount = chunksPerPlane * planes;
     }
     
-    /*
     /**
-     * Get the whole image data length. If -1 is returned than the image is has different length of data per row.
-     *
-    private long getImageDataLength()
+     * Get the size of a strip or tile as it will be written.
+     */
+    private long getChunkLength(byte[][] chunks, int chunk)
     {
-    	long row = getImageDataRowLength();
-    	if(row == -1L)
+    	if(chunks != null)
     	{
-    		return -1L;
+    		return chunks[chunk].length;
+    	}
+    	long length = getChunkByteCount(chunk);
+    	switch(compressionLevel)
+    	{
+    		case CompressionTag.PACKBITS:
+    			//Each row is packed on its own
+    			int rowLength = getRowLength();
+    			return (long)PackBits.getMaxEncodedLength(rowLength) * (length / rowLength);
+    		case CompressionTag.LZW:
+    			return LZWEncoder.getMaxEncodedLength((int)length);
+    		case CompressionTag.DEFLATE_ADOBE:
+    			//Blocks that don't compress are stored, which adds a few bytes per block
+    			return length + (length >> 11) + 64;
+    		default:
+    			return length;
     	}
-    	return row * height;
     }
     
     /**
-     * Get the whole image data length when image is compressed.
-     *
-    private long getImageDataComLength()
+     * Get the uncompressed size of a strip or tile. Tiles are always full size, the last strip of a plane only holds 
+     * the rows left in the image.
+     */
+    private long getChunkByteCount(int chunk)
     {
-    	long len = getImageDataRowLength(0);
-    	for(int i = 1; i < height; i++)
+    	int rows = tiled ? chunkLength : Math.min(chunkLength, height - (chunk % chunksPerPlane) * chunkLength);
+    	if(type == PhotometricInterpretationTag.YCBCR)
     	{
-    		len += getImageDataRowLength(i);
+    		//Whole data units, each the luma of a block of pixels and one Cb and Cr
+    		return (long)((chunkWidth + subSamplingH - 1) / subSamplingH) * ((rows + subSamplingV - 1) / subSamplingV) * 
+    			(subSamplingH * subSamplingV + 2);
     	}
-    	return len;
+    	return (long)chunkWidth * rows * chunkSamples;
     }
     
     /**
-     * Get the first row length.
-     *
-    private long getImageDataRowLength()
+     * Get the number of bytes in a row of a strip or tile. A row of YCbCr data units covers more than one row of
+     * pixels, so it is split evenly between them.
+     */
+    private int getRowLength()
     {
-    	return getImageDataRowLength(0);
+    	if(type == PhotometricInterpretationTag.YCBCR)
+    	{
+    		return ((chunkWidth + subSamplingH - 1) / subSamplingH) * (subSamplingH * subSamplingV + 2) / subSamplingV;
+    	}
+    	return chunkWidth * chunkSamples;
     }
     
     /**
-     * Get a row length when image is uncompressed.
-     *
-    private long getImageDataRowLength(int row)
+     * Creates an array of bytes that is the TIFF equivalent of the current image, specifying whether to encode alpha or not.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return an array of bytes, or null if there was a problem
+     */
+    protected byte[] inEncode(boolean encodeAlpha) throws IOException
     {
-    	return getImageDataRowLength(row, false);
+    	ByteArrayOutputStream stream = new ByteArrayOutputStream(Math.max(1024, width * height * (encodeAlpha ? 4 : 3) + 1024));
+    	if(inEncode(stream, encodeAlpha))
+    	{
+    		return stream.toByteArray();
+    	}
+    	return null;
     }
     
     /**
-     * Get a row length.
-     *
-    private long getImageDataRowLength(int row, boolean supportCom)
+     * Writes the TIFF equivalent of the current image to a stream, specifying whether to encode alpha or not. The
+     * offsets of the tag data and of every strip or tile are worked out before anything is written, so the header, 
+     * the IFD and then the strips or tiles are written straight to the stream. Uncompressed images only hold one strip
+     * or tile in memory at a time, compressed images hold all the compressed strips or tiles since their sizes have to
+     * be known to write the IFD. {@link #encode(Bitmap[], Stream, boolean)} doesn't hold them.
+     * @param out The stream to write the TIFF to.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return true if no errors; false if there was a problem
+     * @since BBX 1.3.0
+     */
+    protected boolean inEncode(OutputStream out, boolean encodeAlpha) throws IOException
     {
-    	if(!supportCom)
+    	return encode(new Bitmap[]{ this.image }, out, encodeAlpha);
+    }
+    
+    /**
+     * Encode images as the pages of one TIFF. Every page is written with the tags and settings of this encoder. 
+     * @param pages The images to write, in page order.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return The encoded TIFF, or null if there are no pages.
+     * @throws IOException If an error occurs.
+     * @since BBX 1.3.0
+     */
+    public byte[] encode(Bitmap[] pages, boolean encodeAlpha) throws IOException
+    {
+    	ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    	if(encode(pages, stream, encodeAlpha))
     	{
-    		if(((CompressionTag)ifd.getTagByType(CompressionTag.getTagTypeValue())).getCompression() != CompressionTag.NO_COMPRESSION)
+    		return stream.toByteArray();
+    	}
+    	return null;
+    }
+    
+    /**
+     * Encode images as the pages of one TIFF, writing the TIFF to a stream as it is produced. Every page is written 
+     * with the tags and settings of this encoder, each page's IFD points to the IFD of the next page. Only one page is
+     * encoded at a time, and the reduced resolution levels of a page are made together, a row at a time, while it is 
+     * written. An {@link OutputStream} can't go back to write the IFD after the strips or tiles, so the compressed
+     * strips or tiles of a page and its levels are held until the IFD is written, see 
+     * {@link #encode(Bitmap[], Stream, boolean)} to avoid this.
+     * @param pages The images to write, in page order.
+     * @param out The stream to write the TIFF to. The stream is not closed.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return <code>true</code> if the pages were written, <code>false</code> if there are no pages.
+     * @throws IOException If an error occurs.
+     * @since BBX 1.3.0
+     */
+    public boolean encode(Bitmap[] pages, OutputStream out, boolean encodeAlpha) throws IOException
+    {
+    	if(out == null)
+    	{
+    		throw new NullPointerException("out");
+    	}
+    	if(pages == null || pages.length == 0)
+    	{
+    		return false;
+    	}
+    	Bitmap current = this.image;
+    	try
+    	{
+    		//-Work out the size as a TIFF, the first page is compressed now so its size is known
+    		setPage(pages[0]);
+    		byte[][] chunks = preparePage(encodeAlpha, true);
+    		bigTiff = false;
+    		long end = layoutLevels(layoutPage(chunks, 8L), encodeAlpha);
+    		for(int i = 1; i < pages.length && end <= 0xFFFFFFFFL; i++)
     		{
-    			return -1L;
+    			setPage(pages[i]);
+    			preparePage(encodeAlpha, false);
+    			end = layoutLevels(layoutPage(null, (end + 1L) & ~1L), encodeAlpha);
+    		}
+    		bigTiff = forceBigTiff || end > 0xFFFFFFFFL;
+    		
+    		//-Write the pages
+    		rebuild.graphics.tiff.Writer dat = new rebuild.graphics.tiff.Writer(littleEndian, out);
+    		writeHeader(dat);
+    		long ifdOff = bigTiff ? 16L : 8L;
+    		for(int i = 0; i < pages.length; i++)
+    		{
+    			setPage(pages[i]);
+    			if(i == 0)
+    			{
+    				preparePage(encodeAlpha, false);
+    			}
+    			else
+    			{
+    				chunks = preparePage(encodeAlpha, true);
+    			}
+    			boolean last = i == pages.length - 1;
+    			ifdOff = writePage(dat, ifdOff, last && getLevelCount() == 0, encodeAlpha, chunks);
+    			chunks = null;
+    			ifdOff = writeLevels(dat, ifdOff, last, encodeAlpha);
+    		}
+    	}
+    	finally
+    	{
+    		this.image = current;
+    	}
+    	return true;
+    }
+    
+    /**
+     * Encode images as the pages of one TIFF, writing the TIFF to a stream that can seek. Every page is written with 
+     * the tags and settings of this encoder. The strips or tiles of a page, and of its reduced resolution levels, are
+     * written as soon as they are compressed and the IFDs are written after them, once the offsets are known. The 
+     * offset of each IFD is then written back to the header or to the IFD before it. Only the strips or tiles being 
+     * compressed are held in memory, unlike {@link #encode(Bitmap[], OutputStream, boolean)} which holds all the
+     * compressed strips or tiles of a page.
+     * <p>Since the sizes of the compressed strips or tiles aren't known until they are written, a BigTIFF is written if
+     * the pages would be larger than 4GB at the largest size the strips or tiles can compress to.</p>
+     * @param pages The images to write, in page order.
+     * @param stream The stream to write the TIFF to, from its current position. The stream is not closed.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return <code>true</code> if the pages were written, <code>false</code> if there are no pages.
+     * @throws IOException If an error occurs.
+     * @since BBX 1.3.0
+     */
+    public boolean encode(Bitmap[] pages, Stream stream, boolean encodeAlpha) throws IOException
+    {
+    	if(stream == null)
+    	{
+    		throw new NullPointerException("stream");
+    	}
+    	if(pages == null || pages.length == 0)
+    	{
+    		return false;
+    	}
+    	Bitmap current = this.image;
+    	try
+    	{
+    		//-Work out the size as a TIFF, with every strip or tile at the largest size it can compress to
+    		bigTiff = false;
+    		long end = 8L;
+    		for(int i = 0; i < pages.length && end <= 0xFFFFFFFFL; i++)
+    		{
+    			setPage(pages[i]);
+    			preparePage(encodeAlpha, false);
+    			end = layoutLevels(layoutPage(null, (end + 1L) & ~1L), encodeAlpha);
+    		}
+    		bigTiff = forceBigTiff || end > 0xFFFFFFFFL;
+    		
+    		//-Write the pages, the header's IFD offset is written again once the first IFD is written
+    		SeekableOutput output = new SeekableOutput(stream, stream.getPosition(), littleEndian);
+    		writeHeader(output.dat);
+    		long pointerPos = bigTiff ? 8L : 4L;
+    		for(int i = 0; i < pages.length; i++)
+    		{
+    			setPage(pages[i]);
+    			pointerPos = writePage(output, pointerPos, encodeAlpha);
+    		}
+    		output.out.flush();
+    	}
+    	finally
+    	{
+    		this.image = current;
+    	}
+    	return true;
+    }
+    
+    /**
+     * Add the current image as a new page at the end of an existing TIFF. Only the IFD chain of the TIFF is read, to 
+     * find the last IFD, the new page is written at the end of the file and the last IFD is changed to point to it. 
+     * The page is written with the byte order and format (TIFF or BigTIFF) of the existing file, followed by its 
+     * reduced resolution levels if any are set. The strips or tiles are written as they are compressed, before the 
+     * IFDs, as with {@link #encode(Bitmap[], Stream, boolean)}.
+     * <p>A TIFF that isn't a BigTIFF can't grow past 4GB, so before anything is written the page and its levels are laid
+     * out with every strip or tile at the largest size it can compress to, and the page is not added if that doesn't 
+     * fit. The last IFD is only changed once the whole page is written, so if writing fails the file is still a valid 
+     * TIFF without the new page, but whatever was written of the page is left at the end of the file since a 
+     * {@link Stream} can't be truncated.</p>
+     * @param stream The TIFF to add to, opened for reading and writing without truncating it (such as with "r+"). The
+     * stream is not closed.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return <code>true</code> if the page was added, <code>false</code> if there is no image.
+     * @throws IOException If an error occurs or the stream is not a TIFF.
+     * @since BBX 1.3.0
+     */
+    public boolean append(Stream stream, boolean encodeAlpha) throws IOException
+    {
+    	if(stream == null)
+    	{
+    		throw new NullPointerException("stream");
+    	}
+    	if(image == null)
+    	{
+    		return false;
+    	}
+    	width = image.getWidth();
+    	height = image.getHeight();
+    	
+    	//-Read the header
+    	rebuild.graphics.tiff.Reader reader = new rebuild.graphics.tiff.Reader(true, stream);
+    	long fileSize = reader.getLength();
+    	boolean big = reader.readHeader();
+    	boolean little = reader.getLittleEndian();
+    	
+    	//-Follow the IFD chain to the last next IFD offset
+    	long pointerPos = big ? 8L : 4L;
+    	long ifdOff = reader.readOffset(big);
+    	long ifdCount = 0L;
+    	while(ifdOff != 0L)
+    	{
+    		//An IFD is at least a count and a next offset, any more IFDs than could fit in the file means the chain loops
+    		if(ifdOff < 0L || ifdOff >= fileSize || ++ifdCount > fileSize / (big ? 16 : 6))
+    		{
+    			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+    		}
+    		pointerPos = reader.getNextOffsetPosition(ifdOff, big);
+    		reader.seek(pointerPos);
+    		ifdOff = reader.readOffset(big);
+    	}
+    	
+    	//-Write the page at the end of the file
+    	boolean oldLittleEndian = this.littleEndian;
+    	boolean oldBigTiff = this.bigTiff;
+    	this.littleEndian = little;
+    	this.bigTiff = big;
+    	try
+    	{
+    		if(!big)
+    		{
+    			//An existing TIFF can't be turned into a BigTIFF without rewriting it
+    			preparePage(encodeAlpha, false);
+    			if(layoutLevels(layoutPage(null, (fileSize + 1L) & ~1L), encodeAlpha) > 0xFFFFFFFFL)
+    			{
+    				throw new IOException(Resources.getString(BBXResource.TIFF_TOO_LARGE));
+    			}
+    			
+    			//Laying out the levels leaves the size of the last level
+    			setPage(image);
+    		}
+    		if(stream.seek(0, Stream.SEEK_END) != 0)
+    		{
+    			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+    		}
+    		//The offsets in the file are from the start of it
+    		SeekableOutput output = new SeekableOutput(stream, 0L, little);
+    		writePage(output, pointerPos, encodeAlpha);
+    		output.out.flush();
+    	}
+    	finally
+    	{
+    		this.littleEndian = oldLittleEndian;
+    		this.bigTiff = oldBigTiff;
+    	}
+    	return true;
+    }
+    
+    /**
+     * Set the image of the page being written.
+     */
+    private void setPage(Bitmap page)
+    {
+    	if(page == null)
+    	{
+    		throw new NullPointerException("page");
+    	}
+    	this.image = page;
+    	this.width = page.getWidth();
+    	this.height = page.getHeight();
+    }
+    
+    /**
+     * Get the tags ready for the current image.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @param compress If the strips or tiles should be compressed.
+     * @return The compressed strips or tiles, or null if the image is not compressed or <code>compress</code> is
+     * <code>false</code>.
+     */
+    private byte[][] preparePage(boolean encodeAlpha, boolean compress) throws IOException
+    {
+    	//Make sure that all required tags are present and get information to aid in modifying certain tags for encoding.
+    	ensureRequiredTags(encodeAlpha);
+    	setupChunks();
+    	if(compress && compressionLevel != CompressionTag.NO_COMPRESSION)
+    	{
+    		return compressChunks(getWritingAlpha(encodeAlpha));
+    	}
+    	return null;
+    }
+    
+    /**
+     * Lay out the prepared page with its IFD at a position.
+     * @param chunks The compressed strips or tiles, see {@link #layoutIFD(byte[][], long)}.
+     * @param ifdOff The absolute position of the IFD.
+     * @return The absolute position right after the page.
+     */
+    private long layoutPage(byte[][] chunks, long ifdOff) throws IOException
+    {
+    	return layoutIFD(chunks, getTagDataOffset(ifdOff));
+    }
+    
+    private long getTagDataOffset(long ifdOff)
+    {
+    	long dataOff = ifdOff + (bigTiff ? ifd.getOptBigLength() : ifd.getOptLength()); //Get the length of the tags only
+    	return dataOff + (bigTiff ? 16L : 6L); //Add the tag count and IFD offset
+    }
+    
+    /**
+     * Write the IFD and image data of the prepared page.
+     * @param dat The writer to write the page to, at <code>ifdOff</code>.
+     * @param ifdOff The absolute position of the IFD.
+     * @param last If this is the last page, the next IFD offset is 0 for the last page.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @param chunks The compressed strips or tiles from {@link #preparePage(boolean, boolean)}.
+     * @return The absolute position of the next page's IFD.
+     */
+    private long writePage(rebuild.graphics.tiff.Writer dat, long ifdOff, boolean last, boolean encodeAlpha, byte[][] chunks) throws IOException
+    {
+    	boolean alpha = getWritingAlpha(encodeAlpha);
+    	long dataOff = getTagDataOffset(ifdOff);
+    	long end = layoutIFD(chunks, dataOff);
+    	
+    	//The next IFD has to start on a word boundary
+    	long next = (end + 1L) & ~1L;
+    	
+    	//Write the tags and their data
+    	ifd.write(dat, last ? 0L : next, dataOff, bigTiff);
+    	
+    	if(chunks == null)
+    	{
+    		writeImageData(dat, alpha);
+    	}
+    	else
+    	{
+    		for(int i = 0; i < chunks.length; i++)
+    		{
+    			dat.writeBytes(chunks[i], 0, chunks[i].length);
+    			chunks[i] = null;
+    		}
+    	}
+    	if(!last && next != end)
+    	{
+    		dat.writeByte(0);
+    	}
+    	return next;
+    }
+    
+    /**
+     * Write the current page, and its reduced resolution levels, to a stream that can seek. The strips or tiles are
+     * written first and the IFDs after them, then the offset of the page's IFD is written at <code>pointerPos</code>.
+     * When writing a TIFF, nothing is written at <code>pointerPos</code> if the page doesn't fit.
+     * @param output The stream to write the page to, at its current position.
+     * @param pointerPos The position to write the offset of the page's IFD to.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return The position of the next IFD offset of the page's last IFD, which is 0.
+     */
+    private long writePage(SeekableOutput output, long pointerPos, boolean encodeAlpha) throws IOException
+    {
+    	preparePage(encodeAlpha, false);
+    	long[] offsets = new long[chunkCount];
+    	long[] byteCounts = new long[chunkCount];
+    	writeChunks(output, getWritingAlpha(encodeAlpha), offsets, byteCounts);
+    	Level[] levels = makeLevels(encodeAlpha, output);
+    	
+    	//-Write the IFDs of the page and its levels one after another
+    	long pageOff = (output.getPosition() + 1L) & ~1L;
+    	if(pageOff != output.getPosition())
+    	{
+    		output.dat.writeByte(0);
+    	}
+    	preparePage(encodeAlpha, false);
+    	long ifdOff = writeIFD(output.dat, pageOff, levels.length == 0, offsets, byteCounts);
+    	long lastOff = pageOff;
+    	reduced = true;
+    	try
+    	{
+    		for(int i = 0; i < levels.length; i++)
+    		{
+    			levels[i].select();
+    			preparePage(encodeAlpha, false);
+    			lastOff = ifdOff;
+    			ifdOff = writeIFD(output.dat, ifdOff, i == levels.length - 1, levels[i].offsets, levels[i].byteCounts);
+    		}
+    	}
+    	finally
+    	{
+    		reduced = false;
+    	}
+    	output.writeOffset(pointerPos, pageOff, bigTiff);
+    	
+    	//The IFD offset comes right before the tag data
+    	return getTagDataOffset(lastOff) - (bigTiff ? 8L : 4L);
+    }
+    
+    /**
+     * Compress and write every strip or tile of the prepared page, a few at a time.
+     * @param output The stream to write the strips or tiles to, at its current position.
+     * @param alpha If an alpha sample is written for each pixel.
+     * @param offsets The array to put the offset of each strip or tile in.
+     * @param byteCounts The array to put the size of each strip or tile in.
+     */
+    private void writeChunks(SeekableOutput output, boolean alpha, long[] offsets, long[] byteCounts) throws IOException
+    {
+    	long pos = output.getPosition();
+    	if(compressionLevel == CompressionTag.NO_COMPRESSION)
+    	{
+    		//Only one strip or tile is read and converted at a time
+    		int[] data = new int[chunkWidth * chunkLength];
+    		byte[] chunk = new byte[(int)getChunkByteCount(0)];
+    		for(int i = 0; i < chunkCount; i++)
+    		{
+    			pos = writeChunk(output, pos, chunk, readChunk(i, alpha, data, chunk), i, offsets, byteCounts);
+    		}
+    		return;
+    	}
+    	byte[][] chunks = new byte[chunkCount][];
+    	WorkerPool pool = createPool(chunkCount);
+    	try
+    	{
+    		//Twice as many as there are threads, so a thread that finishes early has more to compress
+    		int step = pool == null ? 1 : pool.getThreadCount() * 2;
+    		for(int first = 0; first < chunkCount; first += step)
+    		{
+    			int end = Math.min(first + step, chunkCount);
+    			compressChunks(pool, alpha, chunks, first, end);
+    			for(int i = first; i < end; i++)
+    			{
+    				pos = writeChunk(output, pos, chunks[i], chunks[i].length, i, offsets, byteCounts);
+    				chunks[i] = null;
+    			}
+    		}
+    	}
+    	finally
+    	{
+    		if(pool != null)
+    		{
+    			pool.shutdown();
+    		}
+    	}
+    }
+    
+    /**
+     * Write a strip or tile and keep where it was written.
+     * @return The position right after the strip or tile.
+     */
+    private long writeChunk(SeekableOutput output, long pos, byte[] chunk, int length, int index, long[] offsets, long[] byteCounts) throws IOException
+    {
+    	if(!bigTiff && pos + length > 0xFFFFFFFFL)
+    	{
+    		throw new IOException(Resources.getString(BBXResource.TIFF_TOO_LARGE));
+    	}
+    	output.dat.writeBytes(chunk, 0, length);
+    	offsets[index] = pos;
+    	byteCounts[index] = length;
+    	return pos + length;
+    }
+    
+    /**
+     * Write the IFD of the prepared page, after its strips or tiles have been written.
+     * @param dat The writer to write the IFD to, at <code>ifdOff</code>.
+     * @param ifdOff The absolute position of the IFD.
+     * @param last If this is the last IFD, its next IFD offset is 0. Otherwise the next IFD is written right after it.
+     * @param offsets The offset of each strip or tile.
+     * @param byteCounts The size of each strip or tile.
+     * @return The absolute position of the next IFD.
+     */
+    private long writeIFD(rebuild.graphics.tiff.Writer dat, long ifdOff, boolean last, long[] offsets, long[] byteCounts) throws IOException
+    {
+    	ImageDataTag offsetTag = (ImageDataTag)ifd.getTagByType(tiled ? TileOffsetsTag.getTagTypeValue() : StripOffsetsTag.getTagTypeValue());
+    	ImageDataTag byteCountTag = (ImageDataTag)ifd.getTagByType(tiled ? TileByteCountsTag.getTagTypeValue() : StripByteCountsTag.getTagTypeValue());
+    	long maxOffset = 0L;
+    	long maxByteCount = 0L;
+    	for(int i = 0; i < chunkCount; i++)
+    	{
+    		maxOffset = Math.max(maxOffset, offsets[i]);
+    		maxByteCount = Math.max(maxByteCount, byteCounts[i]);
+    	}
+    	offsetTag.setEntry(-1, maxOffset);
+    	byteCountTag.setEntry(-1, maxByteCount);
+    	for(int i = 0; i < chunkCount; i++)
+    	{
+    		offsetTag.setEntry(i, offsets[i]);
+    		byteCountTag.setEntry(i, byteCounts[i]);
+    	}
+    	
+    	//Only the length of the tag data is needed, measuring from 0 keeps the positions valid for a TIFF
+    	long dataOff = getTagDataOffset(ifdOff);
+    	long end = dataOff + ifd.write(new rebuild.graphics.tiff.Writer(littleEndian, new NullOutputStream()), 0L, 0L, bigTiff);
+    	if(!bigTiff && end > 0xFFFFFFFFL)
+    	{
+    		throw new IOException(Resources.getString(BBXResource.TIFF_TOO_LARGE));
+    	}
+    	
+    	//The next IFD has to start on a word boundary
+    	long next = (end + 1L) & ~1L;
+    	ifd.write(dat, last ? 0L : next, dataOff, bigTiff);
+    	if(!last && next != end)
+    	{
+    		dat.writeByte(0);
+    	}
+    	return next;
+    }
+    
+    /**
+     * Get the number of reduced resolution levels written after the current page.
+     */
+    private int getLevelCount()
+    {
+    	int count = 0;
+    	for(int w = width, h = height; count < pyramidLevels && (w > 1 || h > 1); count++)
+    	{
+    		w = (w + 1) >> 1;
+    		h = (h + 1) >> 1;
+    	}
+    	return count;
+    }
+    
+    /**
+     * Lay out the reduced resolution levels of the prepared page. Only the size of a level is needed to lay it out, so
+     * the levels are not made.
+     * @param end The absolute position right after the page.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return The absolute position right after the last level.
+     */
+    private long layoutLevels(long end, boolean encodeAlpha) throws IOException
+    {
+    	int levels = getLevelCount();
+    	reduced = true;
+    	try
+    	{
+    		for(int i = 0; i < levels && end <= 0xFFFFFFFFL; i++)
+    		{
+    			width = (width + 1) >> 1;
+    			height = (height + 1) >> 1;
+    			preparePage(encodeAlpha, false);
+    			end = layoutPage(null, (end + 1L) & ~1L);
+    		}
+    	}
+    	finally
+    	{
+    		reduced = false;
+    	}
+    	return end;
+    }
+    
+    /**
+     * Write the reduced resolution levels of the current page. The levels are all made, and their strips or tiles 
+     * compressed, before the first level is written, see {@link #makeLevels(boolean, SeekableOutput)}.
+     * @param dat The writer to write the levels to, at <code>ifdOff</code>.
+     * @param ifdOff The absolute position of the first level's IFD.
+     * @param last If the page is the last page.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @return The absolute position of the next page's IFD.
+     */
+    private long writeLevels(rebuild.graphics.tiff.Writer dat, long ifdOff, boolean last, boolean encodeAlpha) throws IOException
+    {
+    	Level[] levels = makeLevels(encodeAlpha, null);
+    	reduced = true;
+    	try
+    	{
+    		for(int i = 0; i < levels.length; i++)
+    		{
+    			levels[i].select();
+    			preparePage(encodeAlpha, false);
+    			ifdOff = writePage(dat, ifdOff, last && i == levels.length - 1, encodeAlpha, levels[i].chunks);
+    			levels[i] = null;
+    		}
+    	}
+    	finally
+    	{
+    		reduced = false;
+    	}
+    	return ifdOff;
+    }
+    
+    /**
+     * Make the reduced resolution levels of the current page. Every level is made at once: two rows of the page are
+     * read at a time and averaged into a row of the first level, every two rows of a level are averaged into a row of
+     * the next level, and a level's strips or tiles are compressed as soon as it has the rows for them. No level is 
+     * held as a whole image, each level only holds a row of strips or tiles and the row waiting for the row below it.
+     * @param encodeAlpha boolean false = no alpha, true = encode alpha
+     * @param output The stream to write the strips or tiles to as they are compressed, or null to keep them in the
+     * levels.
+     * @return The levels, with their compressed strips or tiles or where they were written.
+     */
+    private Level[] makeLevels(boolean encodeAlpha, SeekableOutput output) throws IOException
+    {
+    	int pageWidth = width;
+    	int pageHeight = height;
+    	Level[] levels = new Level[getLevelCount()];
+    	if(levels.length == 0)
+    	{
+    		return levels;
+    	}
+    	reduced = true;
+    	WorkerPool pool = null;
+    	try
+    	{
+    		for(int i = 0; i < levels.length; i++)
+    		{
+    			width = (width + 1) >> 1;
+    			height = (height + 1) >> 1;
+    			preparePage(encodeAlpha, false);
+    			levels[i] = new Level();
+    		}
+    		boolean alpha = getWritingAlpha(encodeAlpha);
+    		pool = createPool(levels[0].chunksAcross);
+    		
+    		int[] top = new int[pageWidth];
+    		int[] bottom = new int[pageWidth];
+    		for(int y = 0; y < pageHeight; y += 2)
+    		{
+    			image.getARGB(top, 0, pageWidth, 0, y, pageWidth, 1);
+    			if(y + 1 < pageHeight)
+    			{
+    				image.getARGB(bottom, 0, pageWidth, 0, y + 1, pageWidth, 1);
+    				reduce(top, bottom, pageWidth, levels[0].row);
+    			}
+    			else
+    			{
+    				reduce(top, top, pageWidth, levels[0].row);
+    			}
+    			addLevelRow(levels, 0, pool, alpha, output);
+    		}
+    	}
+    	finally
+    	{
+    		if(pool != null)
+    		{
+    			pool.shutdown();
+    		}
+    		reduced = false;
+    		width = pageWidth;
+    		height = pageHeight;
+    	}
+    	return levels;
+    }
+    
+    /**
+     * Add the row that has been made for a level, in {@link Level#row}. The level's strips or tiles are compressed 
+     * once it has the rows for them, and every second row makes a row of the next level with the row above it.
+     * @param levels The levels being made.
+     * @param index The level the row is for.
+     * @param pool The pool to compress on, or null to compress on the calling thread.
+     * @param alpha If an alpha sample is written for each pixel.
+     * @param output The stream to write the strips or tiles to, or null to keep them in the level.
+     */
+    private void addLevelRow(Level[] levels, int index, WorkerPool pool, boolean alpha, SeekableOutput output) throws IOException
+    {
+    	Level level = levels[index];
+    	System.arraycopy(level.row, 0, level.pixels, level.rows * level.width, level.width);
+    	level.rows++;
+    	level.y++;
+    	boolean lastRow = level.y == level.height;
+    	if(level.rows == level.chunkLength || lastRow)
+    	{
+    		compressLevelRows(level, pool, alpha, output);
+    	}
+    	if(index + 1 < levels.length)
+    	{
+    		if((level.y & 1) != 0 && !lastRow)
+    		{
+    			//Keep the row until the row below it is made
+    			int[] temp = level.above;
+    			level.above = level.row;
+    			level.row = temp;
+    		}
+    		else
+    		{
+    			//The last row of an odd height is repeated
+    			reduce((level.y & 1) != 0 ? level.row : level.above, level.row, level.width, levels[index + 1].row);
+    			addLevelRow(levels, index + 1, pool, alpha, output);
+    		}
+    	}
+    }
+    
+    /**
+     * Compress the row of strips or tiles that a level has the rows for, and write them if there is a stream to write 
+     * them to.
+     */
+    private void compressLevelRows(Level level, WorkerPool pool, boolean alpha, SeekableOutput output) throws IOException
+    {
+    	level.select();
+    	int first = ((level.y - 1) / chunkLength) * chunksAcross;
+    	levelPixels = level.pixels;
+    	try
+    	{
+    		for(int plane = 0; plane < planes; plane++)
+    		{
+    			compressChunks(pool, alpha, level.chunks, first, first + chunksAcross);
+    			if(output != null)
+    			{
+    				long pos = output.getPosition();
+    				for(int i = first; i < first + chunksAcross; i++)
+    				{
+    					pos = writeChunk(output, pos, level.chunks[i], level.chunks[i].length, i, level.offsets, level.byteCounts);
+    					level.chunks[i] = null;
+    				}
+    			}
+    			first += chunksPerPlane;
+    		}
+    	}
+    	finally
+    	{
+    		levelPixels = null;
+    	}
+    	level.rows = 0;
+    }
+    
+    /**
+     * Make a row half the width of two rows by averaging every 2 by 2 block of pixels, the last column is repeated for
+     * odd widths.
+     * @param top The upper row.
+     * @param bottom The lower row, which can be <code>top</code> to repeat it.
+     * @param width The number of pixels in a row.
+     * @param row The array to write the row to.
+     */
+    private static void reduce(int[] top, int[] bottom, int width, int[] row)
+    {
+    	int levelWidth = (width + 1) >> 1;
+    	for(int x = 0; x < levelWidth; x++)
+    	{
+    		int left = x << 1;
+    		int right = Math.min(left + 1, width - 1);
+    		int p0 = top[left];
+    		int p1 = top[right];
+    		int p2 = bottom[left];
+    		int p3 = bottom[right];
+    		
+    		//Two channels are summed at a time, each sum fits in 16 bits
+    		int redBlue = (p0 & 0x00FF00FF) + (p1 & 0x00FF00FF) + (p2 & 0x00FF00FF) + (p3 & 0x00FF00FF) + 0x00020002;
+    		int alphaGreen = ((p0 >>> 8) & 0x00FF00FF) + ((p1 >>> 8) & 0x00FF00FF) + ((p2 >>> 8) & 0x00FF00FF) + 
+    			((p3 >>> 8) & 0x00FF00FF) + 0x00020002;
+    		row[x] = ((alphaGreen << 6) & 0xFF00FF00) | ((redBlue >>> 2) & 0x00FF00FF);
+    	}
+    }
+    
+    private void writeHeader(rebuild.graphics.tiff.Writer dat) throws IOException
+    {
+    	char tempChar = '\0';
+    	if(littleEndian)
+    	{
+    		tempChar = (char)0x49; //I
+    	}
+    	else
+    	{
+    		tempChar = (char)0x4D; //M
+    	}
+    	//-Write if this is little or big endian.
+    	dat.writeByte(tempChar);
+    	dat.writeByte(tempChar);
+    	//-Write the TIFF identifier
+    	if(bigTiff)
+    	{
+    		dat.writeUShort(43);
+    		//-Write offset size
+    		dat.writeUShort(8); //For now it is 8 bytes (a long).
+    		//-Write unused value (always 0)
+    		dat.writeUShort(0);
+    		//-Write the offset to the first tag (located directly after the header [endian byte + endian byte + TIFF identifier (2 bytes) + offsetSize (2 bytes) + unused (2 bytes) + offset (8 bytes)])
+    		dat.writeULong(16);
+    	}
+    	else
+    	{
+    		dat.writeUShort(42);
+    		//-Write the offset to the first tag (located directly after the header [endian byte + endian byte + TIFF identifier (2 bytes) + offset (4 bytes)])
+        	dat.writeUInt(8);
+    	}
+    }
+    
+    /*
+    /**
+     * Get the whole image data length. If -1 is returned than the image is has different length of data per row.
+     *
+    private long getImageDataLength()
+    {
+    	long row = getImageDataRowLength();
+    	if(row == -1L)
+    	{
+    		return -1L;
+    	}
+    	return row * height;
+    }
+    
+    /**
+     * Get the whole image data length when image is compressed.
+     *
+    private long getImageDataComLength()
+    {
+    	long len = getImageDataRowLength(0);
+    	for(int i = 1; i < height; i++)
+    	{
+    		len += getImageDataRowLength(i);
+    	}
+    	return len;
+    }
+    
+    /**
+     * Get the first row length.
+     *
+    private long getImageDataRowLength()
+    {
+    	return getImageDataRowLength(0);
+    }
+    
+    /**
+     * Get a row length when image is uncompressed.
+     *
+    private long getImageDataRowLength(int row)
+    {
+    	return getImageDataRowLength(row, false);
+    }
+    
+    /**
+     * Get a row length.
+     *
+    private long getImageDataRowLength(int row, boolean supportCom)
+    {
+    	if(!supportCom)
+    	{
+    		if(((CompressionTag)ifd.getTagByType(CompressionTag.getTagTypeValue())).getCompression() != CompressionTag.NO_COMPRESSION)
+    		{
+    			return -1L;
+    		}
+    	}
+    	switch(((PhotometricInterpretationTag)ifd.getTagByType(PhotometricInterpretationTag.getTagTypeValue())).getImageType())
+    	{
+    		case PhotometricInterpretationTag.RGB:
+    			switch(((CompressionTag)ifd.getTagByType(CompressionTag.getTagTypeValue())).getCompression())
+    			{
+    				case CompressionTag.NO_COMPRESSION:
+    					int pixelLength = ifd.indexOf(EXTRA_SAMPLES_TAG) == -1 ? 3 : 4;
+    					return pixelLength * width;
+					default:
+						throw new java.lang.UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_COMPRESSION));
+    			}
+    		default:
+    			throw new java.lang.UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_PHOTOMETRIC));
+    	}
+    }
+    */
+    
+    /**
+     * Get if an alpha sample is written for each pixel, making sure the image type can be written.
+     */
+    private boolean getWritingAlpha(boolean encodeAlpha)
+    {
+    	switch(((PhotometricInterpretationTag)ifd.getTagByType(PhotometricInterpretationTag.getTagTypeValue())).getImageType())
+    	{
+    		case PhotometricInterpretationTag.RGB:
+    	    	ExtraSamplesTag extraSamples = (ExtraSamplesTag)ifd.getTagByType(ExtraSamplesTag.getTagTypeValue());
+    	    	boolean unassociatedAlpha = extraSamples == null ? false : extraSamples.getSample(0) == ExtraSamplesTag.UNASSALPHA; //Temp since extra samples only supports unassociated alpha
+    	    	return encodeAlpha && unassociatedAlpha; //TODO: Code the ability for a 5th byte to be written (associated alpha).
+    		case PhotometricInterpretationTag.YCBCR:
+    			return false;
+    		default:
+    			throw new java.lang.UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_PHOTOMETRIC));
+    	}
+    }
+    
+    private void writeImageData(rebuild.graphics.tiff.Writer dat, boolean alpha) throws IOException
+    {
+    	//Only one strip or tile is read and converted at a time
+    	int[] data = new int[chunkWidth * chunkLength];
+    	byte[] chunk = new byte[(int)getChunkByteCount(0)];
+    	for(int i = 0; i < chunkCount; i++)
+    	{
+    		dat.writeBytes(chunk, 0, readChunk(i, alpha, data, chunk));
+    	}
+    }
+    
+    /**
+     * Compress every strip or tile of the image, on as many threads as have been set.
+     * @param alpha If an alpha sample is written for each pixel.
+     * @return The compressed strips or tiles.
+     */
+    private byte[][] compressChunks(boolean alpha) throws IOException
+    {
+    	byte[][] chunks = new byte[chunkCount][];
+    	WorkerPool pool = createPool(chunkCount);
+    	try
+    	{
+    		compressChunks(pool, alpha, chunks, 0, chunkCount);
+    	}
+    	finally
+    	{
+    		if(pool != null)
+    		{
+    			pool.shutdown();
+    		}
+    	}
+    	return chunks;
+    }
+    
+    /**
+     * Make a pool to compress strips or tiles on, if more than one thread has been set.
+     * @param count The most strips or tiles that will be compressed at once.
+     * @return The pool, or null if the strips or tiles are compressed on the calling thread.
+     */
+    private WorkerPool createPool(int count)
+    {
+    	int workers = Math.min(threadCount, count);
+    	return workers > 1 ? new WorkerPool(workers) : null;
+    }
+    
+    /**
+     * Compress a run of strips or tiles.
+     * @param pool The pool to compress on, or null to compress on the calling thread.
+     * @param alpha If an alpha sample is written for each pixel.
+     * @param chunks The array to put the compressed strips or tiles in, at their index.
+     * @param first The first strip or tile to compress.
+     * @param end The strip or tile after the last one to compress.
+     */
+    private void compressChunks(WorkerPool pool, boolean alpha, byte[][] chunks, int first, int end) throws IOException
+    {
+    	int workers = pool == null ? 1 : Math.min(pool.getThreadCount(), end - first);
+    	if(workers <= 0)
+    	{
+    		return;
+    	}
+    	
+    	//The compressors are kept between encodes so their buffers and tables don't have to be made again
+    	if(compressors == null || compressors.length < workers)
+    	{
+    		ChunkCompressor[] temp = new ChunkCompressor[workers];
+    		if(compressors != null)
+    		{
+    			System.arraycopy(compressors, 0, temp, 0, compressors.length);
+    		}
+    		compressors = temp;
+    	}
+    	for(int i = 0; i < workers; i++)
+    	{
+    		if(compressors[i] == null)
+    		{
+    			compressors[i] = new ChunkCompressor();
+    		}
+    		compressors[i].setup(chunks, end, alpha);
+    	}
+    	nextChunk = first;
+    	
+    	try
+    	{
+    		if(workers == 1)
+    		{
+    			compressors[0].run();
+    		}
+    		else
+    		{
+    			for(int i = 0; i < workers; i++)
+    			{
+    				compressors[i].task = pool.submit(compressors[i]);
+    			}
+    			for(int i = 0; i < workers; i++)
+    			{
+    				join(compressors[i].task);
+    			}
+    		}
+    		for(int i = 0; i < workers; i++)
+    		{
+    			if(compressors[i].error != null)
+    			{
+    				throw compressors[i].error;
+    			}
+    		}
+    	}
+    	finally
+    	{
+    		for(int i = 0; i < workers; i++)
+    		{
+    			compressors[i].setup(null, 0, false);
+    		}
+    	}
+    }
+    
+    /**
+     * Get the next strip or tile to compress.
+     * @param count The number of strips or tiles.
+     * @return The strip or tile, or -1 if every one has been taken.
+     */
+    private synchronized int takeChunk(int count)
+    {
+    	return (nextChunk < count) ? nextChunk++ : -1;
+    }
+    
+    /**
+     * Wait for a task run on a worker thread, passing on any runtime exception or error it threw.
+     */
+    private static void join(Task task) throws IOException
+    {
+    	try
+    	{
+    		task.join();
+    	}
+    	catch(InterruptedException e)
+    	{
+    		throw new InterruptedIOException();
+    	}
+    	Throwable error = task.getError();
+    	if(error instanceof RuntimeException)
+    	{
+    		throw (RuntimeException)error;
+    	}
+    	else if(error instanceof Error)
+    	{
+    		throw (Error)error;
+    	}
+    }
+    
+    /**
+     * Read a strip or tile of the image and convert it to samples. Parts of a tile past the edge of the image are 
+     * filled with zeros.
+     * @param chunk The strip or tile to read, planar images have the strips or tiles of each plane in turn.
+     * @param alpha If an alpha sample is written for each pixel.
+     * @param data The array to read the pixels into, at least {@link #chunkWidth} by {@link #chunkLength}.
+     * @param buffer The array to write the samples to.
+     * @return The number of bytes written to <code>buffer</code>.
+     */
+    private int readChunk(int chunk, boolean alpha, int[] data, byte[] buffer)
+    {
+    	int plane = chunk / chunksPerPlane;
+    	chunk %= chunksPerPlane;
+    	int x = (chunk % chunksAcross) * chunkWidth;
+    	int y = (chunk / chunksAcross) * chunkLength;
+    	int columns = Math.min(chunkWidth, width - x);
+    	int rows = Math.min(chunkLength, height - y);
+    	
+    	//Extracted the image data writer because it could be greyscale/mono/rgb/lab/CMYK/YCbCr and can be compressed
+    	if(levelPixels != null)
+    	{
+    		//A level only holds the rows of the row of strips or tiles being compressed
+    		for(int r = 0; r < rows; r++)
+    		{
+    			System.arraycopy(levelPixels, r * width + x, data, r * chunkWidth, columns);
+    		}
+    	}
+    	else
+    	{
+    		image.getARGB(data, 0, chunkWidth, x, y, columns, rows);
+    	}
+    	if(type == PhotometricInterpretationTag.YCBCR)
+    	{
+    		return readYCbCr(data, columns, rows, tiled ? chunkLength : rows, buffer);
+    	}
+    	if(tiled)
+    	{
+    		//Clear the padding, it would otherwise hold pixels from the last tile
+    		for(int r = 0; r < rows; r++)
+    		{
+    			for(int c = r * chunkWidth + columns, end = (r + 1) * chunkWidth; c < end; c++)
+    			{
+    				data[c] = 0;
+    			}
+    		}
+    		for(int i = rows * chunkWidth, end = chunkLength * chunkWidth; i < end; i++)
+    		{
+    			data[i] = 0;
+    		}
+    		rows = chunkLength;
+    	}
+    	int count = rows * chunkWidth;
+    	if(planes > 1)
+    	{
+    		//Only one sample of each pixel, the planes are red, green, blue and then alpha
+    		int shift = plane == 3 ? 24 : 16 - (plane << 3);
+    		for(int i = 0; i < count; i++)
+    		{
+    			buffer[i] = (byte)(data[i] >> shift);
     		}
+    		return count;
     	}
-    	switch(((PhotometricInterpretationTag)ifd.getTagByType(PhotometricInterpretationTag.getTagTypeValue())).getImageType())
+    	int pos = 0;
+    	for(int i = 0; i < count; i++)
     	{
-    		case PhotometricInterpretationTag.RGB:
-    			switch(((CompressionTag)ifd.getTagByType(CompressionTag.getTagTypeValue())).getCompression())
-    			{
-    				case CompressionTag.NO_COMPRESSION:
-    					int pixelLength = ifd.indexOf(EXTRA_SAMPLES_TAG) == -1 ? 3 : 4;
-    					return pixelLength * width;
-					default:
-						throw new java.lang.UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_COMPRESSION));
-    			}
-    		default:
-    			throw new java.lang.UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_PHOTOMETRIC));
+    		int pixel = data[i];
+    		
+    		buffer[pos++] = (byte)GraphicsUtilities.colorGetRed(pixel);
+    		buffer[pos++] = (byte)GraphicsUtilities.colorGetGreen(pixel);
+    		buffer[pos++] = (byte)GraphicsUtilities.colorGetBlue(pixel);
+    		if(alpha)
+    		{
+    			buffer[pos++] = (byte)GraphicsUtilities.colorGetAlpha(pixel); //Unassociated alpha
+    		}
     	}
+    	return pos;
     }
-    */
     
-    private void writeImageData(rebuild.graphics.tiff.Writer dat, boolean encodeAlpha) throws IOException
+    /**
+     * Convert pixels to YCbCr data units. Each data unit is the luma of a block of pixels, a row at a time, followed by
+     * the average Cb and Cr of the block. Blocks that go past the pixels repeat the pixels at the edge.
+     * @param data The pixels, {@link #chunkWidth} to a row.
+     * @param columns The number of columns of pixels in <code>data</code>.
+     * @param rows The number of rows of pixels in <code>data</code>.
+     * @param outRows The number of rows to convert.
+     * @param buffer The array to write the data units to.
+     * @return The number of bytes written to <code>buffer</code>.
+     */
+    private int readYCbCr(int[] data, int columns, int rows, int outRows, byte[] buffer)
     {
-    	switch(((PhotometricInterpretationTag)ifd.getTagByType(PhotometricInterpretationTag.getTagTypeValue())).getImageType())
+    	int h = subSamplingH;
+    	int v = subSamplingV;
+    	//The chroma of a block is summed, so the shift also divides by the number of pixels in the block
+    	int shift = 16 + (h >> 1) + (v >> 1);
+    	int offset = (128 << shift) + (1 << (shift - 1));
+    	int pos = 0;
+    	for(int y = 0; y < outRows; y += v)
     	{
-    		case PhotometricInterpretationTag.RGB:
-    			//Extracted the image data writer because it could be greyscale/mono/rgb/lab/CMYK/YCbCr and can be compressed
-    	    	int[] data = super.getARGBInt(0, width, new XYRect(0, 0, width, height));
-    	    	ExtraSamplesTag extraSamples = (ExtraSamplesTag)ifd.getTagByType(ExtraSamplesTag.getTagTypeValue());
-    	    	boolean unassociatedAlpha = extraSamples == null ? false : extraSamples.getSample(0) == ExtraSamplesTag.UNASSALPHA; //Temp since extra samples only supports unassociated alpha
-    	    	for(int y = 0; y < height; y++)
-    	    	{
-    	    		for(int x = 0; x < width; x++)
-    	    		{
-    	    			int pixel = data[getIndex(x, y, 0)];
-    	    			
-    	    			dat.writeByte(GraphicsUtilities.colorGetRed(pixel));
-    	    			dat.writeByte(GraphicsUtilities.colorGetGreen(pixel));
-    	    			dat.writeByte(GraphicsUtilities.colorGetBlue(pixel));
-    	    			if(encodeAlpha)
-    	    			{
-    	    				if(unassociatedAlpha)
-    	    				{
-    	    					dat.writeByte(GraphicsUtilities.colorGetAlpha(pixel)); //Unassociated alpha
-    	    				}
-    	    				else
-    	    				{
-    	    					//TODO: Code the ability for a 5th byte to be written (associated alpha).
-    	    				}
-    	    			}
-    	    		}
-    	    	}
-    			break;
-    		default:
-    			throw new java.lang.UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_PHOTOMETRIC));
+    		for(int x = 0; x < chunkWidth; x += h)
+    		{
+    			int cb = offset;
+    			int cr = offset;
+    			for(int by = 0; by < v; by++)
+    			{
+    				int row = Math.min(y + by, rows - 1) * chunkWidth;
+    				for(int bx = 0; bx < h; bx++)
+    				{
+    					int pixel = data[row + Math.min(x + bx, columns - 1)];
+    					int red = GraphicsUtilities.colorGetRed(pixel);
+    					int green = GraphicsUtilities.colorGetGreen(pixel);
+    					int blue = GraphicsUtilities.colorGetBlue(pixel);
+    					
+    					buffer[pos++] = (byte)((Y_RED * red + Y_GREEN * green + Y_BLUE * blue + 32768) >> 16);
+    					cb += CB_RED * red + CB_GREEN * green + CB_BLUE * blue;
+    					cr += CR_RED * red + CR_GREEN * green + CR_BLUE * blue;
+    				}
+    			}
+    			buffer[pos++] = (byte)Math.min(cb >> shift, 255);
+    			buffer[pos++] = (byte)Math.min(cr >> shift, 255);
+    		}
     	}
+    	return pos;
     }
     
     private void ensureRequiredTags(boolean encodeAlpha)
@@ -508,138 +1849,109 @@ public class TIFFEncoder extends ImageEncoder
     	*/
     	Tag tag = null;
     	int ty = 0;
-    	int index = 0;
-    	int tCount;
+    	boolean ycbcr = type == PhotometricInterpretationTag.YCBCR;
+    	if(ycbcr)
+    	{
+    		//Alpha is only written with RGB
+    		encodeAlpha = false;
+    	}
     	
+    	//-New subfile type, reduced resolution levels are flagged
+    	ty = NewSubfileTypeTag.getTagTypeValue();
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
+    	{
+    		if(reduced)
+    		{
+    			ifd.addTag(new NewSubfileTypeTag(NewSubfileTypeTag.REDUCED_RESOLUTION));
+    		}
+    	}
+    	else
+    	{
+    		int subfileType = ((NewSubfileTypeTag)tag).getSubfileType();
+    		int newType = reduced ? subfileType | NewSubfileTypeTag.REDUCED_RESOLUTION : 
+    			subfileType & ~NewSubfileTypeTag.REDUCED_RESOLUTION;
+    		if(newType != subfileType)
+    		{
+    			((NewSubfileTypeTag)tag).setValue(newType);
+    		}
+    	}
+    
     	//-Image width
     	ty = ImageWidthTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		tag = new ImageWidthTag(width);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
 			if(((ImageWidthTag)tag).getWidth() != width)
 			{
 				((ImageWidthTag)tag).setValue(width);
 			}
-			ifd.addTag(tag);
     	}
     	
     	//-Image length (height)
     	ty = ImageLengthTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		tag = new ImageLengthTag(height);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
 			if(((ImageLengthTag)tag).getLength() != height)
 			{
 				((ImageLengthTag)tag).setValue(height);
 			}
-			ifd.addTag(tag);
     	}
     	
     	//-Photometric interpretation
     	ty = PhotometricInterpretationTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
-    		tag = new PhotometricInterpretationTag(PhotometricInterpretationTag.RGB);
+    		tag = new PhotometricInterpretationTag(type);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
-			if(((PhotometricInterpretationTag)tag).getImageType() != PhotometricInterpretationTag.RGB)
+			if(((PhotometricInterpretationTag)tag).getImageType() != type)
 			{
-				((PhotometricInterpretationTag)tag).setValue(PhotometricInterpretationTag.RGB);
+				((PhotometricInterpretationTag)tag).setValue(type);
 			}
-			ifd.addTag(tag);
     	}
     	
     	//-Samples per pixel
     	ty = SamplesPerPixelTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
+    	tag = keepFirstTag(ty);
     	short samples = (short)(encodeAlpha ? 4 : 3);
-    	if(tCount == 0)
+    	if(tag == null)
     	{
     		tag = new SamplesPerPixelTag(samples);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
 			if(((SamplesPerPixelTag)tag).getSamples() != samples)
 			{
 				((SamplesPerPixelTag)tag).setValue(samples);
 			}
-			ifd.addTag(tag);
     	}
     	
     	//-Bits per sample
     	ty = BitsPerSampleTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		tag = new BitsPerSampleTag(samples);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
 			if(((BitsPerSampleTag)tag).getCount() != samples)
 			{
 				((BitsPerSampleTag)tag).setCount(samples);
@@ -651,83 +1963,69 @@ public class TIFFEncoder extends ImageEncoder
 					((BitsPerSampleTag)tag).setSample(i, (short)8);
 				}
 			}
-			ifd.addTag(tag);
     	}
     	
     	//-Compression
     	ty = CompressionTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		tag = new CompressionTag((short)compressionLevel);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
 			if(((CompressionTag)tag).getCompression() != compressionLevel)
 			{
-				((CompressionTag)tag).setValue(compressionLevel);
+				((CompressionTag)tag).setValue(compressionLevel & 0xFFFF);
 			}
-			ifd.addTag(tag);
+    	}
+    	
+    	//-Predictor, only written when it is used
+    	ty = PredictorTag.getTagTypeValue();
+    	if(getPredictorInUse() == PredictorTag.NONE)
+    	{
+    		ifd.removeTags(ty);
+    	}
+    	else
+    	{
+    		tag = keepFirstTag(ty);
+    		if(tag == null)
+    		{
+    			ifd.addTag(new PredictorTag(predictor));
+    		}
+    		else if(((PredictorTag)tag).getPredictor() != predictor)
+    		{
+    			((PredictorTag)tag).setValue(predictor);
+    		}
     	}
     	
     	//-Resolution unit
     	ty = ResolutionUnitTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		tag = new ResolutionUnitTag(ResolutionUnitTag.INCH);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
 			if(((ResolutionUnitTag)tag).getResolutionUnit() != ResolutionUnitTag.INCH)
 			{
 				((ResolutionUnitTag)tag).setValue(ResolutionUnitTag.INCH);
 			}
-			ifd.addTag(tag);
     	}
     	
     	//-X resolution
     	ty = XResolutionTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		tag = new XResolutionTag(72, 1);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
 			if(((XResolutionTag)tag).getNumerator() != 72)
 			{
 				((XResolutionTag)tag).setNumerator(72);
@@ -736,29 +2034,18 @@ public class TIFFEncoder extends ImageEncoder
 			{
 				((XResolutionTag)tag).setDenominator(1);
 			}
-			ifd.addTag(tag);
     	}
     	
     	//-Y resolution
     	ty = YResolutionTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		tag = new YResolutionTag(72, 1);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
 			if(((YResolutionTag)tag).getNumerator() != 72)
 			{
 				((YResolutionTag)tag).setNumerator(72);
@@ -767,157 +2054,520 @@ public class TIFFEncoder extends ImageEncoder
 			{
 				((YResolutionTag)tag).setDenominator(1);
 			}
-			ifd.addTag(tag);
     	}
     	
+    	//-YCbCr, the default coefficients and the full range of samples are always used
+    	if(ycbcr)
+    	{
+    		ty = YCbCrCoefficientsTag.getTagTypeValue();
+    		tag = keepFirstTag(ty);
+    		if(tag != null && !((YCbCrCoefficientsTag)tag).isDefault())
+    		{
+    			((YCbCrCoefficientsTag)tag).setDefault();
+    		}
+    		
+    		ty = YCbCrSubSamplingTag.getTagTypeValue();
+    		tag = keepFirstTag(ty);
+    		if(tag == null)
+    		{
+    			ifd.addTag(new YCbCrSubSamplingTag(subSamplingH, subSamplingV));
+    		}
+    		else if(((YCbCrSubSamplingTag)tag).getHorizontal() != subSamplingH || 
+    			((YCbCrSubSamplingTag)tag).getVertical() != subSamplingV)
+    		{
+    			((YCbCrSubSamplingTag)tag).setSubSampling(subSamplingH, subSamplingV);
+    		}
+    		
+    		ty = YCbCrPositioningTag.getTagTypeValue();
+    		tag = keepFirstTag(ty);
+    		if(tag == null)
+    		{
+    			ifd.addTag(new YCbCrPositioningTag(YCbCrPositioningTag.CENTERED));
+    		}
+    		else if(((YCbCrPositioningTag)tag).getPositioning() != YCbCrPositioningTag.CENTERED)
+    		{
+    			((YCbCrPositioningTag)tag).setValue(YCbCrPositioningTag.CENTERED);
+    		}
+    		
+    		ty = ReferenceBlackWhiteTag.getTagTypeValue();
+    		tag = keepFirstTag(ty);
+    		if(tag == null)
+    		{
+    			tag = new ReferenceBlackWhiteTag();
+    			ifd.addTag(tag);
+    		}
+    		if(!((ReferenceBlackWhiteTag)tag).isYCbCrFullRange())
+    		{
+    			((ReferenceBlackWhiteTag)tag).setYCbCrFullRange();
+    		}
+    	}
+    	else
+    	{
+    		ifd.removeTags(YCbCrCoefficientsTag.getTagTypeValue());
+    		ifd.removeTags(YCbCrSubSamplingTag.getTagTypeValue());
+    		ifd.removeTags(YCbCrPositioningTag.getTagTypeValue());
+    		ifd.removeTags(ReferenceBlackWhiteTag.getTagTypeValue());
+    	}
+    
     	//-Add a alpha component-Tell ExtraSamples to include one more field of unassociated (non-premultiplied alpha)
 		ty = ExtraSamplesTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0 && encodeAlpha)
+    	if(!encodeAlpha)
     	{
-    		tag = new ExtraSamplesTag(ExtraSamplesTag.UNASSALPHA);
-    		ifd.addTag(tag);
+    		ifd.removeTags(ty);
     	}
-    	else if(encodeAlpha)
+    	else
     	{
-    		if(tCount > 1)
+    		tag = keepFirstTag(ty);
+    		if(tag == null)
     		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
+    			ifd.addTag(new ExtraSamplesTag(ExtraSamplesTag.UNASSALPHA));
+    		}
+    		else if(((ExtraSamplesTag)tag).getSample(0) != ExtraSamplesTag.UNASSALPHA)
+    		{
+    			((ExtraSamplesTag)tag).setValue(ExtraSamplesTag.UNASSALPHA);
     		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
-			if(((ExtraSamplesTag)tag).getSample(0) != ExtraSamplesTag.UNASSALPHA)
-			{
-				((ExtraSamplesTag)tag).setValue(ExtraSamplesTag.UNASSALPHA);
-			}
-			if(encodeAlpha) //All tags have been removed in case there was any but if alpha is going to be encoded then add the tag back in.
-			{
-				ifd.addTag(tag);
-			}
     	}
     	
-    	//Get the Planar configuration value
+    	//Get the Planar configuration value, YCbCr data units hold every sample so it is always chunky
+    	short planar = ycbcr ? PlanarConfigurationTag.CHUNKY : planarFormat;
     	ty = PlanarConfigurationTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
-    		tag = new PlanarConfigurationTag();
+    		tag = new PlanarConfigurationTag(planar);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			ifd.removeTag(index);
-			if(((PlanarConfigurationTag)tag).getPlanarFormat() != PlanarConfigurationTag.CHUNKY)
+			if(((PlanarConfigurationTag)tag).getPlanarFormat() != planar)
 			{
-				((PlanarConfigurationTag)tag).setValue(PlanarConfigurationTag.CHUNKY);
+				((PlanarConfigurationTag)tag).setValue(planar);
 			}
-			ifd.addTag(tag);
     	}
     	short planarConfig = ((PlanarConfigurationTag)tag).getPlanarFormat();
     	
+    	//-Tiles, used instead of strips if either tile size tag exists
+    	tiled = ifd.getTagCount(TileWidthTag.getTagTypeValue()) > 0 || ifd.getTagCount(TileLengthTag.getTagTypeValue()) > 0;
+    	if(tiled)
+    	{
+    		ensureTiledTags(planarConfig, samples);
+    		return;
+    	}
+    	ifd.removeTags(TileOffsetsTag.getTagTypeValue());
+    	ifd.removeTags(TileByteCountsTag.getTagTypeValue());
+    	
     	//-Rows per strip
     	int rowsPerStrip;
     	ty = RowsPerStripTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		//Recommended to have about 8K bytes per strip so need to do some math.
     		//TODO: Figure out how to handle compression (don't know if compression resets for each strip)
-    		int widthByteCount = width * samples;
-    		tag = new RowsPerStripTag(rowsPerStrip = height * widthByteCount > 8192 ? (widthByteCount >= 8192 ? 1 : (int)Math.floor(8192 / widthByteCount)) : height/*Math.max((int)Math.floor(byteCount / widthByteCount), 1)*/);
+    		int widthByteCount = planarConfig == PlanarConfigurationTag.PLANAR ? width : width * samples;
+    		tag = new RowsPerStripTag(rowsPerStrip = (long)height * widthByteCount > 8192 ? (widthByteCount >= 8192 ? 1 : (int)Math.floor(8192 / widthByteCount)) : height/*Math.max((int)Math.floor(byteCount / widthByteCount), 1)*/);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			//Make sure that only one tag exists
 			rowsPerStrip = ((RowsPerStripTag)tag).getRowsPerStrip();
     	}
+    	if(ycbcr && rowsPerStrip > 0 && rowsPerStrip < height && rowsPerStrip % subSamplingV != 0)
+    	{
+    		//Strips have to hold whole rows of data units
+    		rowsPerStrip += subSamplingV - rowsPerStrip % subSamplingV;
+    		((RowsPerStripTag)tag).setValue(rowsPerStrip);
+    	}
     	int stripsPerImage = ((RowsPerStripTag)tag).getStripsPerImage(height);
     	
     	//-Strip byte counts
     	ty = StripByteCountsTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		tag = new StripByteCountsTag(stripsPerImage, planarConfig, samples);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
-    		{
-    			for(int i = 1; i < tCount; i++)
-    			{
-    				ifd.removeTag(ifd.indexOf(ty));
-    			}
-    		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
 			((StripByteCountsTag)tag).setCount(stripsPerImage, planarConfig, samples);
-			//Make sure that only one tag exists
     	}
     	
     	//Figure out the largest length
-    	((StripByteCountsTag)tag).setByteCount(-1, (rowsPerStrip * width) * samples);
+    	((StripByteCountsTag)tag).setByteCount(-1, (long)rowsPerStrip * width * samples);
     	
     	//-Strip offsets
     	ty = StripOffsetsTag.getTagTypeValue();
-    	tCount = getTagCount(ty);
-    	if(tCount == 0)
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
     	{
     		tag = new StripOffsetsTag(stripsPerImage, planarConfig, samples);
     		ifd.addTag(tag);
     	}
     	else
     	{
-    		if(tCount > 1)
+			((StripOffsetsTag)tag).setCount(stripsPerImage, planarConfig, samples);
+    	}
+    }
+    
+    /**
+     * Make sure the tile tags are present and remove the strip tags, which can't be used at the same time.
+     */
+    private void ensureTiledTags(short planarConfig, short samples)
+    {
+    	Tag tag = null;
+    	int ty = 0;
+    	
+    	ifd.removeTags(RowsPerStripTag.getTagTypeValue());
+    	ifd.removeTags(StripByteCountsTag.getTagTypeValue());
+    	ifd.removeTags(StripOffsetsTag.getTagTypeValue());
+    	
+    	//-Tile width and length, if only one was added then the tiles are square
+    	int tileWidthType = TileWidthTag.getTagTypeValue();
+    	int tileLengthType = TileLengthTag.getTagTypeValue();
+    	keepFirstTag(tileWidthType);
+    	keepFirstTag(tileLengthType);
+    	if(ifd.indexOf(tileWidthType) == -1)
+    	{
+    		ifd.addTag(new TileWidthTag(((TileLengthTag)ifd.getTagByType(tileLengthType)).getLength()));
+    	}
+    	else if(ifd.indexOf(tileLengthType) == -1)
+    	{
+    		ifd.addTag(new TileLengthTag(((TileWidthTag)ifd.getTagByType(tileWidthType)).getWidth()));
+    	}
+    	int tileWidth = ((TileWidthTag)ifd.getTagByType(tileWidthType)).getWidth();
+    	int tileLength = ((TileLengthTag)ifd.getTagByType(tileLengthType)).getLength();
+    	int tilesPerImage = ((width + tileWidth - 1) / tileWidth) * ((height + tileLength - 1) / tileLength);
+    	
+    	//-Tile byte counts
+    	ty = TileByteCountsTag.getTagTypeValue();
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
+    	{
+    		tag = new TileByteCountsTag(tilesPerImage, planarConfig, samples);
+    		ifd.addTag(tag);
+    	}
+    	else
+    	{
+    		((TileByteCountsTag)tag).setCount(tilesPerImage, planarConfig, samples);
+    	}
+    	
+    	//Figure out the largest length
+    	((TileByteCountsTag)tag).setByteCount(-1, (long)tileWidth * tileLength * samples);
+    	
+    	//-Tile offsets
+    	ty = TileOffsetsTag.getTagTypeValue();
+    	tag = keepFirstTag(ty);
+    	if(tag == null)
+    	{
+    		tag = new TileOffsetsTag(tilesPerImage, planarConfig, samples);
+    		ifd.addTag(tag);
+    	}
+    	else
+    	{
+    		((TileOffsetsTag)tag).setCount(tilesPerImage, planarConfig, samples);
+    	}
+    }
+    
+    /**
+     * Remove all but the first tag of a type from the IFD.
+     * @return The first tag of the type, or null if there are none.
+     */
+    private Tag keepFirstTag(int type)
+    {
+    	ifd.removeTags(type, 1);
+    	return ifd.getTagByType(type);
+    }
+    
+    /**
+     * Get the predictor used with the current compression.
+     */
+    private short getPredictorInUse()
+    {
+    	switch(compressionLevel)
+    	{
+    		case CompressionTag.LZW:
+    		case CompressionTag.DEFLATE_ADOBE:
+    			if(type == PhotometricInterpretationTag.YCBCR && subSamplingH * subSamplingV != 1)
+    			{
+    				//Differencing works on pixels, not data units
+    				return PredictorTag.NONE;
+    			}
+    			return predictor;
+    		default:
+    			return PredictorTag.NONE;
+    	}
+    }
+    
+    /**
+     * Apply horizontal differencing to the rows of a strip or tile, in place. Each row is done from the end so the 
+     * sample to the left is still the original value when it is subtracted.
+     * @param chunk The uncompressed strip or tile.
+     * @param length The number of bytes in the strip or tile.
+     * @param rowLength The number of bytes in a row.
+     * @param samples The number of samples in a pixel.
+     */
+    private static void difference(byte[] chunk, int length, int rowLength, int samples)
+    {
+    	for(int row = 0; row < length; row += rowLength)
+    	{
+    		for(int i = row + rowLength - 1, first = row + samples; i >= first; i--)
+    		{
+    			chunk[i] -= chunk[i - samples];
+    		}
+    	}
+    }
+    
+    /**
+     * Takes strips or tiles, reads them from the image and compresses them until there are none left. Each compressor
+     * has its own buffers and codecs so any number of them can run at once.
+     */
+    private final class ChunkCompressor implements Runnable
+    {
+    	private byte[][] chunks;
+    	private int end;
+    	private boolean alpha;
+    	private int[] data;
+    	private byte[] chunk;
+    	private byte[] compressBuffer;
+    	private LZWEncoder lzw;
+    	private Deflater deflater;
+    	Task task;
+    	IOException error;
+    	
+    	void setup(byte[][] chunks, int end, boolean alpha)
+    	{
+    		this.chunks = chunks;
+    		this.end = end;
+    		this.alpha = alpha;
+    		this.task = null;
+    		this.error = null;
+    	}
+    	
+    	public void run()
+    	{
+    		int rowLength = getRowLength();
+    		int chunkSize = (int)getChunkByteCount(0);
+    		if(data == null || data.length < chunkWidth * chunkLength)
+    		{
+    			data = new int[chunkWidth * chunkLength];
+    		}
+    		if(chunk == null || chunk.length < chunkSize)
     		{
-    			for(int i = 1; i < tCount; i++)
+    			chunk = new byte[chunkSize];
+    		}
+    		try
+    		{
+    			int i;
+    			while((i = takeChunk(end)) != -1)
     			{
-    				ifd.removeTag(ifd.indexOf(ty));
+    				int length = readChunk(i, alpha, data, chunk);
+    				chunks[i] = compressChunk(chunk, length, rowLength);
     			}
     		}
-    		index = ifd.indexOf(ty);
-			tag = ifd.getTag(index);
-			((StripOffsetsTag)tag).setCount(stripsPerImage, planarConfig, samples);
-			//Make sure that only one tag exists
+    		catch(IOException e)
+    		{
+    			error = e;
+    		}
+    	}
+    	
+    	/**
+    	 * Compress a strip or tile with the compression in use.
+    	 * @param chunk The uncompressed strip or tile.
+    	 * @param length The number of bytes in the strip or tile.
+    	 * @param rowLength The number of bytes in a row of the strip or tile.
+    	 * @return The compressed strip or tile.
+    	 */
+    	private byte[] compressChunk(byte[] chunk, int length, int rowLength) throws IOException
+    	{
+    		int outLength = 0;
+    		if(getPredictorInUse() == PredictorTag.HORIZONTAL)
+    		{
+    			difference(chunk, length, rowLength, chunkSamples);
+    		}
+    		switch(compressionLevel)
+    		{
+    			case CompressionTag.PACKBITS:
+    				ensureCompressBuffer(PackBits.getMaxEncodedLength(rowLength) * (length / rowLength));
+    				for(int pos = 0; pos < length; pos += rowLength)
+    				{
+    					outLength = PackBits.encode(chunk, pos, rowLength, compressBuffer, outLength);
+    				}
+    				break;
+    			case CompressionTag.LZW:
+    				if(lzw == null)
+    				{
+    					lzw = new LZWEncoder();
+    				}
+    				ensureCompressBuffer(LZWEncoder.getMaxEncodedLength(length));
+    				outLength = lzw.encode(chunk, 0, length, compressBuffer, 0);
+    				break;
+    			case CompressionTag.DEFLATE_ADOBE:
+    				ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(length >> 1, 64));
+    				if(deflater == null)
+    				{
+    					deflater = new Deflater(out, Deflater.DEFAULT_COMPRESSION, false);
+    				}
+    				else
+    				{
+    					deflater.reset(out);
+    				}
+    				deflater.write(chunk, 0, length);
+    				deflater.finish();
+    				return out.toByteArray();
+    			case CompressionTag.NO_COMPRESSION:
+    				//The strip or tile buffer is used again for the next one, so it is copied
+    				byte[] copy = new byte[length];
+    				System.arraycopy(chunk, 0, copy, 0, length);
+    				return copy;
+    			default:
+    				throw new java.lang.UnsupportedOperationException(Resources.getString(BBXResource.TIFF_UNSUPPORTED_COMPRESSION));
+    		}
+    		byte[] compressed = new byte[outLength];
+    		System.arraycopy(compressBuffer, 0, compressed, 0, outLength);
+    		return compressed;
+    	}
+    	
+    	private void ensureCompressBuffer(int size)
+    	{
+    		if(compressBuffer == null || compressBuffer.length < size)
+    		{
+    			compressBuffer = new byte[size];
+    		}
     	}
     }
     
-    private int getTagCount(int type)
+    /**
+     * A reduced resolution level of the page being written, with the layout of its strips or tiles and the rows it is
+     * being made from.
+     */
+    private final class Level
     {
-    	int count = 0;
-    	int index = ifd.indexOf(type);
-    	if(index != -1)
+    	int width;
+    	int height;
+    	int chunkWidth;
+    	int chunkLength;
+    	int chunksAcross;
+    	int chunksPerPlane;
+    	int chunkCount;
+    	//The rows of the row of strips or tiles being made, the number of them and the number of rows made so far
+    	int[] pixels;
+    	int rows;
+    	int y;
+    	//The row being added, and the row above it that is waiting to make a row of the next level
+    	int[] row;
+    	int[] above;
+    	//The compressed strips or tiles, or where they were written and their sizes
+    	byte[][] chunks;
+    	long[] offsets;
+    	long[] byteCounts;
+    	
+    	/**
+    	 * Create a level with the size and layout of the prepared page.
+    	 */
+    	Level()
+    	{
+    		this.width = TIFFEncoder.this.width;
+    		this.height = TIFFEncoder.this.height;
+    		this.chunkWidth = TIFFEncoder.this.chunkWidth;
+    		this.chunkLength = TIFFEncoder.this.chunkLength;
+    		this.chunksAcross = TIFFEncoder.this.chunksAcross;
+    		this.chunksPerPlane = TIFFEncoder.this.chunksPerPlane;
+    		this.chunkCount = TIFFEncoder.this.chunkCount;
+    		this.pixels = new int[width * chunkLength];
+    		this.row = new int[width];
+    		this.above = new int[width];
+    		this.chunks = new byte[chunkCount][];
+    		this.offsets = new long[chunkCount];
+    		this.byteCounts = new long[chunkCount];
+    	}
+    	
+    	/**
+    	 * Make this level the page being written, the tags are not changed.
+    	 */
+    	void select()
     	{
-    		count++;
-    		while((index = ifd.indexOf(type, index + 1)) != -1)
+    		TIFFEncoder.this.width = width;
+    		TIFFEncoder.this.height = height;
+    		TIFFEncoder.this.chunkWidth = chunkWidth;
+    		TIFFEncoder.this.chunkLength = chunkLength;
+    		TIFFEncoder.this.chunksAcross = chunksAcross;
+    		TIFFEncoder.this.chunksPerPlane = chunksPerPlane;
+    		TIFFEncoder.this.chunkCount = chunkCount;
+    	}
+    }
+    
+    /**
+     * A {@link Stream} being written, that can go back to write an offset once it is known.
+     */
+    private static final class SeekableOutput
+    {
+    	final Stream stream;
+    	final StreamOutputStream out;
+    	final rebuild.graphics.tiff.Writer dat;
+    	//The position in the stream that offsets are from
+    	private final long base;
+    	
+    	SeekableOutput(Stream stream, long base, boolean littleEndian)
+    	{
+    		this.stream = stream;
+    		this.out = new StreamOutputStream(stream, false);
+    		this.dat = new rebuild.graphics.tiff.Writer(littleEndian, out);
+    		this.base = base;
+    	}
+    	
+    	/**
+    	 * Get the position that will be written to next, from {@link #base}.
+    	 */
+    	long getPosition() throws IOException
+    	{
+    		out.flush();
+    		return stream.getPosition() - base;
+    	}
+    	
+    	/**
+    	 * Write an offset over what was written at a position, then go back to where writing was.
+    	 * @param pos The position to write the offset at, from {@link #base}.
+    	 * @param offset The offset to write.
+    	 * @param big If the offset is 8 bytes (BigTIFF) instead of 4.
+    	 */
+    	void writeOffset(long pos, long offset, boolean big) throws IOException
+    	{
+    		out.flush();
+    		long current = stream.getPosition();
+    		seek(base + pos);
+    		if(big)
+    		{
+    			dat.writeULong(offset);
+    		}
+    		else
     		{
-    			count++;
+    			dat.writeUInt((int)offset);
     		}
+    		out.flush();
+    		seek(current);
+    	}
+    	
+    	private void seek(long pos) throws IOException
+    	{
+    		if(stream.seek(pos, Stream.SEEK_SET) != 0)
+    		{
+    			throw new IOException(Resources.getString(BBXResource.TIFF_SEEK_FAILED));
+    		}
+    	}
+    }
+    
+    /**
+     * An {@link OutputStream} that throws away everything written to it, used to measure the IFD.
+     */
+    private static final class NullOutputStream extends OutputStream
+    {
+    	public void write(int b)
+    	{
+    	}
+    	
+    	public void write(byte[] b, int off, int len)
+    	{
     	}
-    	return count;
     }
 }
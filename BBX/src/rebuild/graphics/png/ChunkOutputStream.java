@@ -0,0 +1,231 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.png;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import rebuild.util.checksum.CRC32;
+
+/**
+ * An {@link OutputStream} that packages everything written to it into PNG chunks of a single type. A chunk is emitted
+ * every time the internal buffer fills up, so the chunk data never has to be held in memory as a whole. The CRC of
+ * each chunk is computed as the data is written. The data of each chunk can start with a sequence number, as the fdAT
+ * chunks of an animated PNG do.
+ * @since BBX 1.3.0
+ */
+public final class ChunkOutputStream extends OutputStream
+{
+	private OutputStream out;
+	private byte[] type;
+	private byte[] buffer;
+	private int count;
+	private int crc;
+	private int sequence;
+	private int start;
+	private boolean closed;
+	
+	/**
+	 * Create a new {@link ChunkOutputStream}.
+	 * @param out The stream to write the chunks to.
+	 * @param type The four byte chunk type, such as IDAT.
+	 * @param chunkSize The maximum number of data bytes to put in each chunk.
+	 */
+	public ChunkOutputStream(OutputStream out, byte[] type, int chunkSize)
+	{
+		this(out, type, chunkSize, -1);
+	}
+	
+	/**
+	 * Create a new {@link ChunkOutputStream} that starts the data of each chunk with a four byte sequence number.
+	 * @param out The stream to write the chunks to.
+	 * @param type The four byte chunk type, such as fdAT.
+	 * @param chunkSize The maximum number of data bytes to put in each chunk, not counting the sequence number.
+	 * @param sequence The sequence number of the first chunk, each following chunk gets the next number. If negative 
+	 * no sequence numbers are written.
+	 */
+	public ChunkOutputStream(OutputStream out, byte[] type, int chunkSize, int sequence)
+	{
+		if(out == null)
+		{
+			throw new NullPointerException("out");
+		}
+		if(type == null || type.length != 4)
+		{
+			throw new IllegalArgumentException("type.length != 4");
+		}
+		if(chunkSize <= 0)
+		{
+			throw new IllegalArgumentException("chunkSize <= 0");
+		}
+		this.out = out;
+		this.type = type;
+		this.sequence = sequence;
+		this.start = (sequence >= 0) ? 4 : 0;
+		this.buffer = new byte[chunkSize + start];
+		startChunk();
+	}
+	
+	/**
+	 * Get the sequence number the next chunk will have.
+	 * @return The next sequence number, or -1 if sequence numbers aren't written.
+	 */
+	public int getSequenceNumber()
+	{
+		return sequence;
+	}
+	
+	/**
+	 * Write a single byte to the current chunk.
+	 * @param b The byte to write.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void write(int b) throws IOException
+	{
+		if(closed)
+		{
+			throw new IOException("closed");
+		}
+		if(count == buffer.length)
+		{
+			flushChunk();
+		}
+		buffer[count] = (byte)b;
+		crc = CRC32.update(crc, b);
+		count++;
+	}
+	
+	/**
+	 * Write an array of bytes to the current chunk, starting new chunks as needed.
+	 * @param b The data to write.
+	 * @param off The start offset in the data.
+	 * @param len The number of bytes to write.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if(closed)
+		{
+			throw new IOException("closed");
+		}
+		while(len > 0)
+		{
+			if(count == buffer.length)
+			{
+				flushChunk();
+			}
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			crc = CRC32.update(crc, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/**
+	 * Write out any buffered data as a chunk, even if the chunk is not full. Nothing is written if no data is buffered.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void flushChunk() throws IOException
+	{
+		if(count > start)
+		{
+			writeInt(out, count);
+			out.write(type);
+			out.write(buffer, 0, count);
+			writeInt(out, crc);
+			if(start > 0)
+			{
+				sequence++;
+			}
+			startChunk();
+		}
+	}
+	
+	private void startChunk()
+	{
+		count = start;
+		crc = CRC32.update(CRC32.INITIAL_VALUE, type);
+		if(start > 0)
+		{
+			buffer[0] = (byte)(sequence >> 24);
+			buffer[1] = (byte)(sequence >> 16);
+			buffer[2] = (byte)(sequence >> 8);
+			buffer[3] = (byte)sequence;
+			crc = CRC32.update(crc, buffer, 0, 4);
+		}
+	}
+	
+	/**
+	 * Flush the underlying stream. Buffered data is not written as a chunk until the buffer is full or the stream is
+	 * closed, this prevents small chunks from being created.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void flush() throws IOException
+	{
+		out.flush();
+	}
+	
+	/**
+	 * Write out any remaining data as the final chunk. The underlying stream is not closed.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void close() throws IOException
+	{
+		if(!closed)
+		{
+			flushChunk();
+			closed = true;
+		}
+	}
+	
+	/**
+	 * Write a complete chunk to a stream.
+	 * @param out The stream to write the chunk to.
+	 * @param type The four byte chunk type.
+	 * @param data The chunk data, can be <code>null</code> if <code>len</code> is zero.
+	 * @param off The start offset in the data.
+	 * @param len The number of bytes of data.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public static void writeChunk(OutputStream out, byte[] type, byte[] data, int off, int len) throws IOException
+	{
+		int crc = CRC32.update(CRC32.INITIAL_VALUE, type);
+		writeInt(out, len);
+		out.write(type);
+		if(len > 0)
+		{
+			crc = CRC32.update(crc, data, off, len);
+			out.write(data, off, len);
+		}
+		writeInt(out, crc);
+	}
+	
+	private static void writeInt(OutputStream out, int n) throws IOException
+	{
+		out.write((n >> 24) & 0xff);
+		out.write((n >> 16) & 0xff);
+		out.write((n >> 8) & 0xff);
+		out.write(n & 0xff);
+	}
+}
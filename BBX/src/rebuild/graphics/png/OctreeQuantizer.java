@@ -0,0 +1,415 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.png;
+
+/**
+ * Octree color quantizer. Colors are added to a tree that branches on one bit of each of the alpha, red, green and 
+ * blue components per level. While colors are added the number of leaves is kept bounded by merging the most 
+ * recently added deepest node, then when the palette is built the least used leaves of the deepest nodes are merged 
+ * two at a time until the leaves fit in the palette. The remaining leaves become the palette.
+ * @since BBX 1.3.0
+ */
+public final class OctreeQuantizer
+{
+	private static final int MAX_DEPTH = 8;
+	/** The number of leaves the tree can grow to while colors are being added. */
+	private static final int LEAF_LIMIT = 1024;
+	
+	private int maxColors;
+	private Node root;
+	private int leafCount;
+	//Nodes that have at least one child, by level
+	private Node[] reducible;
+	private Palette palette;
+	
+	private static final class Node
+	{
+		Node[] children;
+		Node nextReducible;
+		long a, r, g, b;
+		int count;
+		boolean leaf;
+		int index;
+	}
+	
+	/**
+	 * Create a new {@link OctreeQuantizer}.
+	 * @param maxColors The maximum number of colors in the palette, 1 to 256.
+	 */
+	public OctreeQuantizer(int maxColors)
+	{
+		if(maxColors < 1 || maxColors > 256)
+		{
+			throw new IllegalArgumentException("maxColors");
+		}
+		this.maxColors = maxColors;
+		this.root = new Node();
+		this.reducible = new Node[MAX_DEPTH];
+	}
+	
+	/**
+	 * Add colors to the quantizer. Colors can't be added once {@link #getPalette()} has been called.
+	 * @param pixels The ARGB colors.
+	 * @param offset The offset of the first color.
+	 * @param length The number of colors.
+	 */
+	public void add(int[] pixels, int offset, int length)
+	{
+		if(palette != null)
+		{
+			throw new IllegalStateException();
+		}
+		if(length <= 0)
+		{
+			return;
+		}
+		int end = offset + length;
+		int last = ~pixels[offset];
+		Node lastLeaf = null;
+		for(int i = offset; i < end; i++)
+		{
+			int argb = pixels[i];
+			if(argb == last)
+			{
+				//Runs of the same color are common, skip the tree walk
+				addColor(lastLeaf, argb);
+				continue;
+			}
+			last = argb;
+			lastLeaf = insert(argb);
+			while(leafCount > LEAF_LIMIT)
+			{
+				reduceNode();
+				//The leaf the last color went to may have been merged
+				lastLeaf = null;
+				last = ~argb;
+			}
+		}
+	}
+	
+	private Node insert(int argb)
+	{
+		Node node = root;
+		for(int level = 0; level < MAX_DEPTH; level++)
+		{
+			if(node.leaf)
+			{
+				break;
+			}
+			if(node.children == null)
+			{
+				node.children = new Node[16];
+				node.nextReducible = reducible[level];
+				reducible[level] = node;
+			}
+			int child = childIndex(argb, level);
+			Node next = node.children[child];
+			if(next == null)
+			{
+				next = new Node();
+				if(level == MAX_DEPTH - 1)
+				{
+					next.leaf = true;
+					leafCount++;
+				}
+				node.children[child] = next;
+			}
+			node = next;
+		}
+		addColor(node, argb);
+		return node;
+	}
+	
+	private static void addColor(Node node, int argb)
+	{
+		node.a += (argb >>> 24) & 0xFF;
+		node.r += (argb >> 16) & 0xFF;
+		node.g += (argb >> 8) & 0xFF;
+		node.b += argb & 0xFF;
+		node.count++;
+	}
+	
+	private static int childIndex(int argb, int level)
+	{
+		int shift = 7 - level;
+		return (((argb >>> (24 + shift)) & 1) << 3) | (((argb >> (16 + shift)) & 1) << 2) | (((argb >> (8 + shift)) & 1) << 1) | ((argb >> shift) & 1);
+	}
+	
+	private int deepestReducibleLevel()
+	{
+		int level = MAX_DEPTH - 1;
+		while(level > 0 && reducible[level] == null)
+		{
+			level--;
+		}
+		return level;
+	}
+	
+	/**
+	 * Merge all the children of the most recently added deepest node into it.
+	 */
+	private void reduceNode()
+	{
+		int level = deepestReducibleLevel();
+		Node node = reducible[level];
+		reducible[level] = node.nextReducible;
+		node.nextReducible = null;
+		
+		Node[] children = node.children;
+		for(int i = 0; i < 16; i++)
+		{
+			Node child = children[i];
+			if(child != null && !isDuplicate(children, i))
+			{
+				//Children of the deepest reducible level are always leaves
+				node.a += child.a;
+				node.r += child.r;
+				node.g += child.g;
+				node.b += child.b;
+				node.count += child.count;
+				leafCount--;
+			}
+		}
+		node.children = null;
+		node.leaf = true;
+		leafCount++;
+	}
+	
+	/**
+	 * Merge the two least used leaves of the deepest node with the fewest colors, reducing the number of leaves by one.
+	 */
+	private void reduceLeaves()
+	{
+		int level = deepestReducibleLevel();
+		Node best = null;
+		long bestCount = Long.MAX_VALUE;
+		for(Node node = reducible[level]; node != null; node = node.nextReducible)
+		{
+			long count = 0;
+			for(int i = 0; i < 16; i++)
+			{
+				Node child = node.children[i];
+				if(child != null && !isDuplicate(node.children, i))
+				{
+					count += child.count;
+				}
+			}
+			if(count < bestCount)
+			{
+				best = node;
+				bestCount = count;
+			}
+		}
+		
+		Node[] children = best.children;
+		Node first = null;
+		Node second = null;
+		int distinct = 0;
+		for(int i = 0; i < 16; i++)
+		{
+			Node child = children[i];
+			if(child != null && !isDuplicate(children, i))
+			{
+				distinct++;
+				if(first == null || child.count < first.count)
+				{
+					second = first;
+					first = child;
+				}
+				else if(second == null || child.count < second.count)
+				{
+					second = child;
+				}
+			}
+		}
+		if(distinct == 1)
+		{
+			//Only one leaf, the node just becomes that leaf
+			removeReducible(level, best);
+			best.a = first.a;
+			best.r = first.r;
+			best.g = first.g;
+			best.b = first.b;
+			best.count = first.count;
+			best.children = null;
+			best.leaf = true;
+			return;
+		}
+		second.a += first.a;
+		second.r += first.r;
+		second.g += first.g;
+		second.b += first.b;
+		second.count += first.count;
+		for(int i = 0; i < 16; i++)
+		{
+			if(children[i] == first)
+			{
+				children[i] = second;
+			}
+		}
+		leafCount--;
+		if(distinct == 2)
+		{
+			removeReducible(level, best);
+			best.a = second.a;
+			best.r = second.r;
+			best.g = second.g;
+			best.b = second.b;
+			best.count = second.count;
+			best.children = null;
+			best.leaf = true;
+		}
+	}
+	
+	private void removeReducible(int level, Node node)
+	{
+		Node prev = null;
+		for(Node n = reducible[level]; n != null; prev = n, n = n.nextReducible)
+		{
+			if(n == node)
+			{
+				if(prev == null)
+				{
+					reducible[level] = n.nextReducible;
+				}
+				else
+				{
+					prev.nextReducible = n.nextReducible;
+				}
+				n.nextReducible = null;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Leaves can be shared by several children once they have been merged, check if a child was already seen.
+	 */
+	private static boolean isDuplicate(Node[] children, int index)
+	{
+		Node child = children[index];
+		for(int i = 0; i < index; i++)
+		{
+			if(children[i] == child)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Get the palette. After this is called no more colors can be added.
+	 * @return The palette, with colors that are not fully opaque first.
+	 */
+	public Palette getPalette()
+	{
+		if(palette == null)
+		{
+			while(leafCount > maxColors)
+			{
+				reduceLeaves();
+			}
+			palette = new Palette(Math.max(leafCount, 1));
+			collect(root);
+			palette.sortByAlpha();
+			assign(root);
+		}
+		return palette;
+	}
+	
+	private void collect(Node node)
+	{
+		if(node.leaf)
+		{
+			if(node.count > 0)
+			{
+				node.index = palette.add(average(node));
+			}
+		}
+		else if(node.children != null)
+		{
+			for(int i = 0; i < 16; i++)
+			{
+				if(node.children[i] != null)
+				{
+					collect(node.children[i]);
+				}
+			}
+		}
+	}
+	
+	private void assign(Node node)
+	{
+		if(node.leaf)
+		{
+			if(node.count > 0)
+			{
+				node.index = palette.indexOf(average(node));
+			}
+		}
+		else if(node.children != null)
+		{
+			for(int i = 0; i < 16; i++)
+			{
+				if(node.children[i] != null)
+				{
+					assign(node.children[i]);
+				}
+			}
+		}
+	}
+	
+	private static int average(Node node)
+	{
+		long half = node.count >> 1;
+		int a = (int)((node.a + half) / node.count);
+		int r = (int)((node.r + half) / node.count);
+		int g = (int)((node.g + half) / node.count);
+		int b = (int)((node.b + half) / node.count);
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+	
+	/**
+	 * Get the palette index for a color. Colors that were added to the quantizer map to the leaf they were added to, 
+	 * other colors map to the nearest color in the palette. This can be called from multiple threads at once.
+	 * @param argb The ARGB color.
+	 * @return The palette index.
+	 */
+	public int map(int argb)
+	{
+		Palette palette = getPalette();
+		Node node = root;
+		for(int level = 0; level < MAX_DEPTH && !node.leaf; level++)
+		{
+			if(node.children == null || (node = node.children[childIndex(argb, level)]) == null)
+			{
+				return palette.nearest(argb);
+			}
+		}
+		if(!node.leaf || node.count == 0)
+		{
+			return palette.nearest(argb);
+		}
+		return node.index;
+	}
+}
@@ -0,0 +1,237 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.png;
+
+/**
+ * A palette of up to 256 ARGB colors, with a fast lookup from a color to its index.
+ * @since BBX 1.3.0
+ */
+public final class Palette
+{
+	private int[] colors;
+	private int size;
+	private short[] table;
+	private int mask;
+	
+	/**
+	 * Create a new, empty, {@link Palette}.
+	 * @param maxSize The maximum number of colors in the palette, 1 to 256.
+	 */
+	public Palette(int maxSize)
+	{
+		if(maxSize < 1 || maxSize > 256)
+		{
+			throw new IllegalArgumentException("maxSize");
+		}
+		this.colors = new int[maxSize];
+		int tableSize = 4;
+		while(tableSize < maxSize << 1)
+		{
+			tableSize <<= 1;
+		}
+		this.table = new short[tableSize];
+		this.mask = tableSize - 1;
+	}
+	
+	/**
+	 * Get the number of colors in the palette.
+	 * @return The number of colors.
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+	
+	/**
+	 * Get the maximum number of colors the palette can hold.
+	 * @return The maximum number of colors.
+	 */
+	public int getMaxSize()
+	{
+		return colors.length;
+	}
+	
+	/**
+	 * Get a color in the palette.
+	 * @param index The index of the color.
+	 * @return The ARGB color.
+	 */
+	public int getColor(int index)
+	{
+		if(index < 0 || index >= size)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		return colors[index];
+	}
+	
+	/**
+	 * Add a color to the palette if it isn't already in the palette.
+	 * @param argb The ARGB color to add.
+	 * @return The index of the color, or -1 if the color is not in the palette and the palette is full.
+	 */
+	public int add(int argb)
+	{
+		int slot = hash(argb) & mask;
+		int entry;
+		while((entry = table[slot]) != 0)
+		{
+			if(colors[entry - 1] == argb)
+			{
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if(size == colors.length)
+		{
+			return -1;
+		}
+		colors[size] = argb;
+		table[slot] = (short)++size;
+		return size - 1;
+	}
+	
+	/**
+	 * Get the index of a color.
+	 * @param argb The ARGB color to find.
+	 * @return The index of the color, or -1 if the color is not in the palette.
+	 */
+	public int indexOf(int argb)
+	{
+		int slot = hash(argb) & mask;
+		int entry;
+		while((entry = table[slot]) != 0)
+		{
+			if(colors[entry - 1] == argb)
+			{
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Get the index of the color in the palette that is closest to a color.
+	 * @param argb The ARGB color to find.
+	 * @return The index of the closest color, or -1 if the palette is empty.
+	 */
+	public int nearest(int argb)
+	{
+		int a = (argb >>> 24) & 0xFF;
+		int r = (argb >> 16) & 0xFF;
+		int g = (argb >> 8) & 0xFF;
+		int b = argb & 0xFF;
+		int best = -1;
+		int bestDist = Integer.MAX_VALUE;
+		for(int i = 0; i < size; i++)
+		{
+			int c = colors[i];
+			int d = ((c >>> 24) & 0xFF) - a;
+			int dist = d * d;
+			d = ((c >> 16) & 0xFF) - r;
+			dist += d * d;
+			d = ((c >> 8) & 0xFF) - g;
+			dist += d * d;
+			d = (c & 0xFF) - b;
+			dist += d * d;
+			if(dist < bestDist)
+			{
+				best = i;
+				bestDist = dist;
+				if(dist == 0)
+				{
+					break;
+				}
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Get if any color in the palette is not fully opaque.
+	 * @return <code>true</code> if the palette has transparency.
+	 */
+	public boolean hasAlpha()
+	{
+		return getAlphaCount() > 0;
+	}
+	
+	/**
+	 * Get the number of entries, from the start of the palette, that a PNG tRNS chunk needs to cover every color 
+	 * that is not fully opaque.
+	 * @return The number of entries.
+	 */
+	public int getAlphaCount()
+	{
+		for(int i = size - 1; i >= 0; i--)
+		{
+			if((colors[i] >>> 24) != 0xFF)
+			{
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Reorder the palette so colors that are not fully opaque come first, this keeps the PNG tRNS chunk as short as 
+	 * possible. Indices returned before calling this are no longer valid.
+	 */
+	public void sortByAlpha()
+	{
+		int[] sorted = new int[colors.length];
+		int count = 0;
+		int i;
+		for(i = 0; i < size; i++)
+		{
+			if((colors[i] >>> 24) != 0xFF)
+			{
+				sorted[count++] = colors[i];
+			}
+		}
+		for(i = 0; i < size; i++)
+		{
+			if((colors[i] >>> 24) == 0xFF)
+			{
+				sorted[count++] = colors[i];
+			}
+		}
+		int n = size;
+		colors = sorted;
+		size = 0;
+		for(i = 0; i < table.length; i++)
+		{
+			table[i] = 0;
+		}
+		for(i = 0; i < n; i++)
+		{
+			add(sorted[i]);
+		}
+	}
+	
+	private static int hash(int argb)
+	{
+		int h = argb * 0x9E3779B1;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,227 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.png;
+
+/**
+ * PNG scanline filters (filter method 0). All of the functions work on unfiltered rows of bytes and operate on bytes,
+ * not pixels, so they work for any color type and bit depth.
+ * @since BBX 1.3.0
+ */
+public final class ScanlineFilter
+{
+	/** No filter. */
+	public static final int NONE = 0;
+	/** The difference between a byte and the corresponding byte of the pixel to the left. */
+	public static final int SUB = 1;
+	/** The difference between a byte and the corresponding byte of the pixel above. */
+	public static final int UP = 2;
+	/** The difference between a byte and the average of the pixels to the left and above. */
+	public static final int AVERAGE = 3;
+	/** The difference between a byte and the Paeth predictor of the pixels to the left, above and upper left. */
+	public static final int PAETH = 4;
+	
+	private ScanlineFilter()
+	{
+	}
+	
+	/**
+	 * Filter a row.
+	 * @param type The filter type to use, one of {@link #NONE}, {@link #SUB}, {@link #UP}, {@link #AVERAGE}, {@link #PAETH}.
+	 * @param row The unfiltered row.
+	 * @param prior The unfiltered row above this one, all zeros for the first row.
+	 * @param length The number of bytes in the row.
+	 * @param bpp The number of bytes per complete pixel, rounded up to one.
+	 * @param out The array to write the filtered row to, can't be the same as <code>row</code> or <code>prior</code>.
+	 * @param outOffset The offset in <code>out</code> to start writing.
+	 */
+	public static void filter(int type, byte[] row, byte[] prior, int length, int bpp, byte[] out, int outOffset)
+	{
+		int i;
+		switch(type)
+		{
+			case SUB:
+				System.arraycopy(row, 0, out, outOffset, bpp);
+				for(i = bpp; i < length; i++)
+				{
+					out[outOffset + i] = (byte)(row[i] - row[i - bpp]);
+				}
+				break;
+			case UP:
+				for(i = 0; i < length; i++)
+				{
+					out[outOffset + i] = (byte)(row[i] - prior[i]);
+				}
+				break;
+			case AVERAGE:
+				for(i = 0; i < bpp; i++)
+				{
+					out[outOffset + i] = (byte)(row[i] - ((prior[i] & 0xFF) >> 1));
+				}
+				for(; i < length; i++)
+				{
+					out[outOffset + i] = (byte)(row[i] - (((row[i - bpp] & 0xFF) + (prior[i] & 0xFF)) >> 1));
+				}
+				break;
+			case PAETH:
+				for(i = 0; i < bpp; i++)
+				{
+					out[outOffset + i] = (byte)(row[i] - prior[i]);
+				}
+				for(; i < length; i++)
+				{
+					out[outOffset + i] = (byte)(row[i] - paeth(row[i - bpp] & 0xFF, prior[i] & 0xFF, prior[i - bpp] & 0xFF));
+				}
+				break;
+			default:
+				System.arraycopy(row, 0, out, outOffset, length);
+				break;
+		}
+	}
+	
+	/**
+	 * Select the filter for a row that gives the minimum sum of absolute differences, treating the filtered bytes as 
+	 * signed values. This is the heuristic recommended by the PNG specification for adaptive filtering.
+	 * @param row The unfiltered row.
+	 * @param prior The unfiltered row above this one, all zeros for the first row.
+	 * @param length The number of bytes in the row.
+	 * @param bpp The number of bytes per complete pixel, rounded up to one.
+	 * @return The filter type to use.
+	 */
+	public static int select(byte[] row, byte[] prior, int length, int bpp)
+	{
+		int best = NONE;
+		int bestCost = cost(NONE, row, prior, length, bpp, Integer.MAX_VALUE);
+		for(int type = SUB; type <= PAETH && bestCost > 0; type++)
+		{
+			int c = cost(type, row, prior, length, bpp, bestCost);
+			if(c < bestCost)
+			{
+				best = type;
+				bestCost = c;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Get the sum of absolute differences of a row if it was filtered with a specific filter.
+	 * @param type The filter type.
+	 * @param row The unfiltered row.
+	 * @param prior The unfiltered row above this one, all zeros for the first row.
+	 * @param length The number of bytes in the row.
+	 * @param bpp The number of bytes per complete pixel, rounded up to one.
+	 * @param limit Stop summing once this value is reached, the returned value will then be at least <code>limit</code>.
+	 * @return The sum of absolute differences.
+	 */
+	public static int cost(int type, byte[] row, byte[] prior, int length, int bpp, int limit)
+	{
+		int sum = 0;
+		int i = 0;
+		int v;
+		switch(type)
+		{
+			case SUB:
+				for(; i < bpp; i++)
+				{
+					sum += abs(row[i]);
+				}
+				for(; i < length && sum < limit; i++)
+				{
+					v = (byte)(row[i] - row[i - bpp]);
+					sum += v < 0 ? -v : v;
+				}
+				break;
+			case UP:
+				for(; i < length && sum < limit; i++)
+				{
+					v = (byte)(row[i] - prior[i]);
+					sum += v < 0 ? -v : v;
+				}
+				break;
+			case AVERAGE:
+				for(; i < bpp; i++)
+				{
+					sum += abs((byte)(row[i] - ((prior[i] & 0xFF) >> 1)));
+				}
+				for(; i < length && sum < limit; i++)
+				{
+					v = (byte)(row[i] - (((row[i - bpp] & 0xFF) + (prior[i] & 0xFF)) >> 1));
+					sum += v < 0 ? -v : v;
+				}
+				break;
+			case PAETH:
+				for(; i < bpp; i++)
+				{
+					sum += abs((byte)(row[i] - prior[i]));
+				}
+				for(; i < length && sum < limit; i++)
+				{
+					v = (byte)(row[i] - paeth(row[i - bpp] & 0xFF, prior[i] & 0xFF, prior[i - bpp] & 0xFF));
+					sum += v < 0 ? -v : v;
+				}
+				break;
+			default:
+				for(; i < length && sum < limit; i++)
+				{
+					sum += abs(row[i]);
+				}
+				break;
+		}
+		return sum;
+	}
+	
+	/**
+	 * The Paeth predictor.
+	 * @param a The byte to the left, unsigned.
+	 * @param b The byte above, unsigned.
+	 * @param c The byte to the upper left, unsigned.
+	 * @return Whichever of <code>a</code>, <code>b</code> or <code>c</code> is closest to <code>a + b - c</code>.
+	 */
+	public static int paeth(int a, int b, int c)
+	{
+		int pa = b - c;
+		int pb = a - c;
+		int pc = pa + pb;
+		if(pa < 0)
+		{
+			pa = -pa;
+		}
+		if(pb < 0)
+		{
+			pb = -pb;
+		}
+		if(pc < 0)
+		{
+			pc = -pc;
+		}
+		if(pa <= pb && pa <= pc)
+		{
+			return a;
+		}
+		return pb <= pc ? b : c;
+	}
+	
+	private static int abs(int v)
+	{
+		return v < 0 ? -v : v;
+	}
+}
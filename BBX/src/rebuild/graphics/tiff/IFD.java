@@ -25,7 +25,8 @@ package rebuild.graphics.tiff;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
-import net.rim.device.api.collection.util.BigVector;
+import rebuild.BBXResource;
+import rebuild.Resources;
 
 /**
  * An "Image File Directory" that defines characteristics about the TIFF image.
@@ -33,29 +34,41 @@ import net.rim.device.api.collection.util.BigVector;
  */
 public final class IFD
 {
-	private BigVector tagList;
+	//Tags are kept in ascending order of their (unsigned) type, tags of the same type are in the order they were added
+	private Tag[] tagList;
+	private int tagCount;
 	
 	/**
 	 * Create a new {@link IFD}.
 	 */
 	public IFD()
 	{
-		tagList = new BigVector();
+		tagList = new Tag[16];
 	}
 	
 	/**
-	 * Add a new {@link Tag} to the this {@link IFD}. It is recommended to only add a tag once.
+	 * Add a new {@link Tag} to the this {@link IFD}. It is recommended to only add a tag once. The tag is placed after
+	 * any tags with a lower type, and after any tags with the same type.
 	 * @param tag The {@link Tag} to add.
 	 */
 	public void addTag(Tag tag)
 	{
-		/*
-		if(indexOf(tag.getTagType()) == -1)
+		int type = tag.getTagType() & 0xFFFF;
+		//Tags are usually added in order, so check the end first
+		int index = tagCount;
+		if(index > 0 && (tagList[index - 1].getTagType() & 0xFFFF) > type)
 		{
-			tagList.addElement(tag);
+			index = search(type + 1);
 		}
-		*/
-		tagList.addElement(tag);
+		if(tagCount == tagList.length)
+		{
+			Tag[] temp = new Tag[tagCount * 2];
+			System.arraycopy(tagList, 0, temp, 0, tagCount);
+			tagList = temp;
+		}
+		System.arraycopy(tagList, index, tagList, index + 1, tagCount - index);
+		tagList[index] = tag;
+		tagCount++;
 	}
 	
 	/**
@@ -64,7 +77,53 @@ public final class IFD
 	 */
 	public void removeTag(int index)
 	{
-		tagList.removeElementAt(index);
+		if(index < 0 || index >= tagCount)
+		{
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		System.arraycopy(tagList, index + 1, tagList, index, tagCount - index - 1);
+		tagList[--tagCount] = null;
+	}
+	
+	/**
+	 * Remove every tag of the specified type.
+	 * @param type The type of tag to remove.
+	 * @return The number of tags removed.
+	 * @since BBX 1.3.0
+	 */
+	public int removeTags(int type)
+	{
+		return removeTags(type, 0);
+	}
+	
+	/**
+	 * Remove every tag of the specified type except the first few.
+	 * @param type The type of tag to remove.
+	 * @param keep The number of tags of the type to keep.
+	 * @return The number of tags removed.
+	 * @since BBX 1.3.0
+	 */
+	public int removeTags(int type, int keep)
+	{
+		int start = indexOf(type);
+		if(start == -1)
+		{
+			return 0;
+		}
+		int end = search((type & 0xFFFF) + 1);
+		start += keep;
+		if(start >= end)
+		{
+			return 0;
+		}
+		System.arraycopy(tagList, end, tagList, start, tagCount - end);
+		int removed = end - start;
+		for(int i = tagCount - removed; i < tagCount; i++)
+		{
+			tagList[i] = null;
+		}
+		tagCount -= removed;
+		return removed;
 	}
 	
 	/**
@@ -72,7 +131,11 @@ public final class IFD
 	 */
 	public void clear()
 	{
-		tagList.removeAll();
+		for(int i = 0; i < tagCount; i++)
+		{
+			tagList[i] = null;
+		}
+		tagCount = 0;
 	}
 	
 	/**
@@ -82,7 +145,11 @@ public final class IFD
 	 */
 	public Tag getTag(int index)
 	{
-		return (Tag)tagList.elementAt(index);
+		if(index < 0 || index >= tagCount)
+		{
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return tagList[index];
 	}
 	
 	/**
@@ -93,7 +160,19 @@ public final class IFD
 	public Tag getTagByType(int type)
 	{
 		int index = indexOf(type);
-		return (index == -1) ? null : (Tag)tagList.elementAt(index);
+		return (index == -1) ? null : tagList[index];
+	}
+	
+	/**
+	 * Get the number of tags of the specified type.
+	 * @param type The type of tag to count.
+	 * @return The number of tags of the specified type.
+	 * @since BBX 1.3.0
+	 */
+	public int getTagCount(int type)
+	{
+		int index = indexOf(type);
+		return (index == -1) ? 0 : search((type & 0xFFFF) + 1) - index;
 	}
 	
 	/**
@@ -103,7 +182,9 @@ public final class IFD
 	 */
 	public int indexOf(int type)
 	{
-		return indexOf(type, 0);
+		type &= 0xFFFF;
+		int index = search(type);
+		return (index < tagCount && (tagList[index].getTagType() & 0xFFFF) == type) ? index : -1;
 	}
 	
 	/**
@@ -114,19 +195,40 @@ public final class IFD
 	 */
 	public int indexOf(int type, int startingIndex)
 	{
-		int count = tagList.size();
-		for(int i = startingIndex; i < count; i++)
+		int index = indexOf(type);
+		if(index == -1 || startingIndex <= index)
 		{
-			if(((Tag)tagList.elementAt(i)).getTagType() == type)
+			return index;
+		}
+		//Tags of the same type are next to each other
+		return (startingIndex < tagCount && (tagList[startingIndex].getTagType() & 0xFFFF) == (type & 0xFFFF)) ? startingIndex : -1;
+	}
+	
+	/**
+	 * Get the index of the first tag with a type that is the same or greater than the specified type.
+	 */
+	private int search(int type)
+	{
+		int low = 0;
+		int high = tagCount;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if((tagList[mid].getTagType() & 0xFFFF) < type)
 			{
-				return i;
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
 			}
 		}
-		return -1;
+		return low;
 	}
 	
 	/**
-	 * Insert a tag at the specified index.
+	 * Insert a tag. Tags are always kept in the order required by the TIFF specification, so this is the same as
+	 * {@link #addTag(Tag)} and the index is ignored.
 	 * @param index The index to place the tag at.
 	 * @param tag The tag to place, if this is null then it will be ignored.
 	 */
@@ -134,7 +236,7 @@ public final class IFD
 	{
 		if(tag != null)
 		{
-			tagList.insertElementAt(tag, index);
+			addTag(tag);
 		}
 	}
 	
@@ -144,7 +246,7 @@ public final class IFD
 	 */
 	public int getCount()
 	{
-		return tagList.size();
+		return tagCount;
 	}
 	
 	/**
@@ -153,7 +255,7 @@ public final class IFD
 	 */
 	public int getLength()
 	{
-		return tagList.size() * 12;
+		return tagCount * 12;
 	}
 	
 	/**
@@ -162,7 +264,7 @@ public final class IFD
 	 */
 	public int getBigLength()
 	{
-		return tagList.size() * 20;
+		return tagCount * 20;
 	}
 	
 	/**
@@ -183,95 +285,33 @@ public final class IFD
 	
 	private int getIFDLength(int tagSize)
 	{
-		int tagCount = 0;
-		int count = tagList.size();
-    	for(int i = 0; i < count; i++)
-    	{
-    		Tag t = (Tag)tagList.elementAt(i);
-    		if(t.hasDefault() && t.isDefault())
-    		{
-    			continue;
-    		}
-    		tagCount++;
-    	}
-    	return tagCount * tagSize;
+		return getWrittenCount() * tagSize;
 	}
 	
 	/**
-	 * Sort the tags into a manner that is required by the TIFF specification. This is a time consuming operation and
-	 * should only be done when absolutely necessary.
+	 * Get the number of tags that don't have their default value, only those tags are written.
 	 */
-	public void sort()
+	private int getWrittenCount()
 	{
-		tagList.sort(new TagComparator());
-		/* Normal Vector
-		int size = tagList.size();
-		Object[] objs = new Object[size];
-		tagList.copyInto(objs);
-		net.rim.device.api.util.Arrays.sort(objs, 0, size, new TagComparator());
-		tagList.removeAllElements();
-		for(int i = 0; i < size; i++)
+		int count = 0;
+		for(int i = 0; i < tagCount; i++)
 		{
-			tagList.addElement(objs[i]);
+			Tag t = tagList[i];
+			if(t.hasDefault() && t.isDefault())
+			{
+				continue;
+			}
+			count++;
 		}
-		*/
+		return count;
 	}
 	
-	private final class TagComparator implements net.rim.device.api.util.Comparator
+	/**
+	 * Sort the tags into a manner that is required by the TIFF specification. Tags are kept in this order as they are
+	 * added so this does nothing, it is only kept for compatibility.
+	 */
+	public void sort()
 	{
-		public TagComparator()
-		{
-		}
-		
-		public int compare(Object o1, Object o2)
-		{
-			if(o1 == null || o2 == null)
-			{
-				if(o1 == null && o2 == null)
-				{
-					return 0;
-				}
-				else if(o1 == null)
-				{
-					return -1;
-				}
-				else
-				{
-					return 1;
-				}
-			}
-			if(o1 instanceof Tag && o2 instanceof Tag)
-			{
-				Tag o1t = (Tag)o1;
-				Tag o2t = (Tag)o2;
-				if (o1t.getTagType() < o2t.getTagType())
-			    {
-			        return -1;
-			    }
-			    if (o1t.getTagType() > o2t.getTagType())
-			    {
-			        return 1;
-			    }
-			    return 0;
-			}
-			else if(o1 instanceof Tag)
-			{
-				return 1;
-			}
-			else
-			{
-				return -1;
-			}
-		}
-		
-		public boolean equals(Object obj)
-		{
-			if(obj == null)
-			{
-				return false;
-			}
-			return obj instanceof TagComparator;
-		}
 	}
 	
 	/**
@@ -327,24 +367,8 @@ public final class IFD
     	rebuild.graphics.tiff.Writer tagDat = new rebuild.graphics.tiff.Writer(dat.getLittleEndian(), tagBuffer);
     	rebuild.graphics.tiff.Writer tagDataDat = new rebuild.graphics.tiff.Writer(dat.getLittleEndian(), tagDataBuffer);
     	
-    	//Find all tags that do not have a default value and skip them
-    	BigVector toWriteTags = new BigVector();
-    	long count = tagList.size();
-    	for(int i = 0; i < count; i++)
-    	{
-    		Tag t = (Tag)tagList.elementAt(i);
-    		if(t.hasDefault())
-    		{
-    			if(t.isDefault())
-    			{
-    				continue;
-    			}
-    		}
-    		toWriteTags.addElement(t);
-    	}
-    	
-    	//Write out tags
-    	count = toWriteTags.size(); //The number of tags
+    	//Tags that have their default value are skipped
+    	long count = getWrittenCount(); //The number of tags
     	if(big)
     	{
     		dat.writeULong(count);
@@ -355,24 +379,26 @@ public final class IFD
     	}
     	Tag tag;
     	boolean extra;
-    	for(int i = 0; i < count; i++) //Can't get element using long but shouldn't need to worry right now.
+    	for(int i = 0; i < tagCount; i++)
     	{
-    		tag = (Tag)toWriteTags.elementAt(i); //Get the tag
+    		tag = tagList[i]; //Get the tag
+    		if(tag.hasDefault() && tag.isDefault())
+    		{
+    			continue;
+    		}
     		if(big)
     		{
     			tag.setupForBigTIFF(true);
     		}
     		extra = tag.getIfExtraDataExists(big); //Figure out if it has extended data
     		long d = tagDataBuffer.size(); //Get the current size of the tag data
-    		//Write the tag, use value if no extra data exists
-    		if(big)
+    		if(!big && ((extra && dataOffset > 0xFFFFFFFFL) || tag.getDataType() == Writer.LONG8 || tag.getDataType() == Writer.SLONG8))
     		{
-    			tag.write(tagDat, extra ? dataOffset : -1);
-    		}
-    		else
-    		{
-    			tag.write(tagDat, extra ? (int)(dataOffset & 0x00000000FFFFFFFFL) : -1);
+    			//Offsets past 4GB and 8-byte values can only be written in a BigTIFF
+    			throw new IOException(Resources.getString(BBXResource.TIFF_TOO_LARGE));
     		}
+    		//Write the tag, use value if no extra data exists
+    		tag.write(tagDat, extra ? dataOffset : -1, big);
     		if(extra)
     		{
     			tag.writeData(tagDataDat);
@@ -394,6 +420,10 @@ public final class IFD
     	}
     	else
     	{
+    		if(offset > 0xFFFFFFFFL)
+    		{
+    			throw new IOException(Resources.getString(BBXResource.TIFF_TOO_LARGE));
+    		}
     		dat.writeUInt((int)(offset & 0x00000000FFFFFFFFL));
     	}
     	
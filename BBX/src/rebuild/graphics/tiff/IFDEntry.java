@@ -0,0 +1,261 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff;
+
+import java.io.IOException;
+
+/**
+ * An entry of an IFD read from a TIFF. Values that fit in the entry are kept with it, larger values are only read 
+ * from the file when they are asked for. Small arrays are read once and kept, large arrays (such as the strip offsets
+ * of a very large image) are read one value at a time so they never have to be held in memory.
+ * <p>An entry reads from the same {@link Reader} as the decoder that created it and can only be used by one thread at
+ * a time.</p>
+ * @since BBX 1.3.0
+ */
+public final class IFDEntry
+{
+	/** The largest number of bytes of values that are read and kept, larger arrays are read one value at a time. */
+	private static final int CACHE_LIMIT = 16 * 1024;
+	
+	private Reader reader;
+	private int tag;
+	private int dataType;
+	private long count;
+	private long offset;
+	private byte[] values;
+	private byte[] buffer;
+	
+	/**
+	 * Create a new {@link IFDEntry}.
+	 * @param reader The reader to read values with.
+	 * @param tag The tag code.
+	 * @param dataType The data type of the values.
+	 * @param count The number of values.
+	 * @param slot The bytes of the value slot of the entry, 4 bytes in a TIFF and 8 bytes in a BigTIFF.
+	 * @param big If the entry is from a BigTIFF.
+	 */
+	IFDEntry(Reader reader, int tag, int dataType, long count, byte[] slot, boolean big)
+	{
+		this.reader = reader;
+		this.tag = tag;
+		this.dataType = dataType;
+		this.count = count;
+		int size = Reader.getTypeSize(dataType);
+		long length = count * size;
+		if(size != 0 && length >= 0 && length <= slot.length)
+		{
+			//The values are in the entry
+			this.values = new byte[(int)length];
+			System.arraycopy(slot, 0, this.values, 0, (int)length);
+			this.offset = -1L;
+		}
+		else
+		{
+			this.offset = reader.getValue(slot, 0, big ? 8 : 4);
+			this.buffer = new byte[8];
+		}
+	}
+	
+	/**
+	 * Get the tag code of the entry.
+	 * @return The tag code.
+	 */
+	public int getTag()
+	{
+		return tag;
+	}
+	
+	/**
+	 * Get the data type of the entry's values.
+	 * @return The data type, one of the types in {@link Writer}.
+	 */
+	public int getDataType()
+	{
+		return dataType;
+	}
+	
+	/**
+	 * Get the number of values in the entry.
+	 * @return The number of values.
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+	
+	/**
+	 * Get the position in the file of the values.
+	 * @return The absolute position of the values, or -1 if the values are in the entry.
+	 */
+	public long getOffset()
+	{
+		return offset;
+	}
+	
+	/**
+	 * Get an integer value. Signed types are sign extended, unsigned types are not. For rationals this is the
+	 * numerator.
+	 * @param index The index of the value.
+	 * @return The value.
+	 * @throws IOException If the value can't be read.
+	 */
+	public long getLong(int index) throws IOException
+	{
+		switch(dataType)
+		{
+			case Writer.RATIONAL:
+			case Writer.SRATIONAL:
+				return getPart(index, 0);
+			case Writer.FLOAT:
+			case Writer.DOUBLE:
+				return (long)getDouble(index);
+		}
+		int size = Reader.getTypeSize(dataType);
+		long value = getRaw(index, size);
+		switch(dataType)
+		{
+			case Writer.SBYTE:
+				return (byte)value;
+			case Writer.SSHORT:
+				return (short)value;
+			case Writer.SLONG:
+				return (int)value;
+			default:
+				return value;
+		}
+	}
+	
+	/**
+	 * Get an integer value as an int, for values such as sizes that always fit.
+	 * @param index The index of the value.
+	 * @return The value.
+	 * @throws IOException If the value can't be read.
+	 */
+	public int getInt(int index) throws IOException
+	{
+		return (int)getLong(index);
+	}
+	
+	/**
+	 * Get a numeric value of any type as a double.
+	 * @param index The index of the value.
+	 * @return The value.
+	 * @throws IOException If the value can't be read.
+	 */
+	public double getDouble(int index) throws IOException
+	{
+		switch(dataType)
+		{
+			case Writer.RATIONAL:
+			{
+				long den = getPart(index, 1);
+				return den == 0 ? 0.0 : (double)getPart(index, 0) / den;
+			}
+			case Writer.SRATIONAL:
+			{
+				long den = (int)getPart(index, 1);
+				return den == 0 ? 0.0 : (double)(int)getPart(index, 0) / den;
+			}
+			case Writer.FLOAT:
+				return Float.intBitsToFloat((int)getRaw(index, 4));
+			case Writer.DOUBLE:
+				return Double.longBitsToDouble(getRaw(index, 8));
+			default:
+				return getLong(index);
+		}
+	}
+	
+	/**
+	 * Get the value of an {@link Writer#ASCII} entry. Multiple strings are separated with a new line.
+	 * @return The string.
+	 * @throws IOException If the value can't be read.
+	 */
+	public String getString() throws IOException
+	{
+		byte[] data = getBytes();
+		StringBuffer buf = new StringBuffer(data.length);
+		int len = data.length;
+		while(len > 0 && data[len - 1] == 0)
+		{
+			len--;
+		}
+		for(int i = 0; i < len; i++)
+		{
+			char c = (char)(data[i] & 0xFF);
+			buf.append(c == '\0' ? '\n' : c);
+		}
+		return buf.toString();
+	}
+	
+	/**
+	 * Get the bytes of all the values, in the byte order of the file.
+	 * @return The bytes of the values.
+	 * @throws IOException If the values can't be read.
+	 */
+	public byte[] getBytes() throws IOException
+	{
+		if(values == null)
+		{
+			long length = count * Reader.getTypeSize(dataType);
+			if(length < 0 || length > Integer.MAX_VALUE)
+			{
+				throw new IOException();
+			}
+			byte[] data = new byte[(int)length];
+			reader.seek(offset);
+			reader.read(data, 0, data.length);
+			if(length <= CACHE_LIMIT)
+			{
+				values = data;
+			}
+			return data;
+		}
+		return values;
+	}
+	
+	private long getPart(int index, int part) throws IOException
+	{
+		return getRaw(index * 2 + part, 4);
+	}
+	
+	/**
+	 * Get the bytes of a value as an unsigned number.
+	 */
+	private long getRaw(int index, int size) throws IOException
+	{
+		if(index < 0 || (long)index * size >= count * Reader.getTypeSize(dataType))
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		if(values == null && count * Reader.getTypeSize(dataType) <= CACHE_LIMIT)
+		{
+			getBytes();
+		}
+		if(values != null)
+		{
+			return reader.getValue(values, index * size, size);
+		}
+		reader.seek(offset + (long)index * size);
+		reader.read(buffer, 0, size);
+		return reader.getValue(buffer, 0, size);
+	}
+}
@@ -0,0 +1,193 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff;
+
+import java.io.IOException;
+
+import rebuild.BBXResource;
+import rebuild.Resources;
+
+/**
+ * LZW decompression (TIFF compression 5), reads what {@link LZWEncoder} and every other TIFF 6 writer produces. The
+ * string table is kept between calls so a decoder can be reused for every strip of an image, but a decoder can only
+ * be used by one thread at a time.
+ * @since BBX 1.3.0
+ */
+public final class LZWDecoder
+{
+	private static final int CODE_CLEAR = 256;
+	private static final int CODE_EOI = 257;
+	private static final int CODE_FIRST = 258;
+	private static final int BITS_MIN = 9;
+	private static final int BITS_MAX = 12;
+	private static final int TABLE_SIZE = 1 << BITS_MAX;
+	
+	private short[] prefix;
+	private byte[] suffix;
+	private byte[] first;
+	private short[] length;
+	
+	private byte[] data;
+	private int pos, end;
+	private int bitBuffer, bitCount;
+	private int nbits;
+	
+	/**
+	 * Create a new {@link LZWDecoder}.
+	 */
+	public LZWDecoder()
+	{
+		prefix = new short[TABLE_SIZE];
+		suffix = new byte[TABLE_SIZE];
+		first = new byte[TABLE_SIZE];
+		length = new short[TABLE_SIZE];
+		for(int i = 0; i < 256; i++)
+		{
+			prefix[i] = -1;
+			suffix[i] = (byte)i;
+			first[i] = (byte)i;
+			length[i] = 1;
+		}
+	}
+	
+	/**
+	 * Decompress a strip of bytes. Decompression stops at the end code, when the compressed bytes run out or when
+	 * <code>out</code> is full.
+	 * @param data The compressed bytes.
+	 * @param offset The offset in <code>data</code> of the strip.
+	 * @param len The number of compressed bytes.
+	 * @param out The array to write the decompressed bytes to.
+	 * @param outOffset The offset in <code>out</code> to start writing.
+	 * @param outLength The largest number of bytes to write to <code>out</code>.
+	 * @return The offset in <code>out</code> after the decompressed bytes.
+	 * @throws IOException If the compressed bytes are not valid LZW.
+	 */
+	public int decode(byte[] data, int offset, int len, byte[] out, int outOffset, int outLength) throws IOException
+	{
+		this.data = data;
+		this.pos = offset;
+		this.end = offset + len;
+		bitBuffer = 0;
+		bitCount = 0;
+		nbits = BITS_MIN;
+		
+		int outEnd = outOffset + outLength;
+		int freeEntry = CODE_FIRST;
+		int oldCode = -1;
+		try
+		{
+			while(outOffset < outEnd)
+			{
+				int code = getCode();
+				if(code == CODE_EOI || code < 0)
+				{
+					break;
+				}
+				if(code == CODE_CLEAR)
+				{
+					nbits = BITS_MIN;
+					freeEntry = CODE_FIRST;
+					oldCode = -1;
+					continue;
+				}
+				if(oldCode == -1)
+				{
+					//The first code after a clear is always a single byte
+					if(code > 255)
+					{
+						throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+					}
+					out[outOffset++] = (byte)code;
+					oldCode = code;
+					continue;
+				}
+				if(code > freeEntry)
+				{
+					throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+				}
+				if(freeEntry < TABLE_SIZE)
+				{
+					//The new entry is the old string and the first byte of this one, which is the old string's first byte if this is the new entry
+					prefix[freeEntry] = (short)oldCode;
+					suffix[freeEntry] = first[code == freeEntry ? oldCode : code];
+					first[freeEntry] = first[oldCode];
+					length[freeEntry] = (short)(length[oldCode] + 1);
+					freeEntry++;
+					//The code length grows one code early
+					if(freeEntry >= (1 << nbits) - 1 && nbits < BITS_MAX)
+					{
+						nbits++;
+					}
+				}
+				outOffset = putString(code, out, outOffset, outEnd);
+				oldCode = code;
+			}
+		}
+		finally
+		{
+			this.data = null;
+		}
+		return outOffset;
+	}
+	
+	/**
+	 * Write the string of a code, as much of it as fits.
+	 */
+	private int putString(int code, byte[] out, int outOffset, int outEnd)
+	{
+		int len = length[code];
+		int last = outOffset + len - 1;
+		//Skip the end of the string if it doesn't fit
+		while(last >= outEnd)
+		{
+			code = prefix[code];
+			last--;
+		}
+		for(int i = last; i >= outOffset; i--)
+		{
+			out[i] = suffix[code];
+			code = prefix[code];
+		}
+		return Math.min(outOffset + len, outEnd);
+	}
+	
+	/**
+	 * Get the next code.
+	 * @return The code, or -1 if there are no compressed bytes left.
+	 */
+	private int getCode()
+	{
+		while(bitCount < nbits)
+		{
+			if(pos >= end)
+			{
+				return -1;
+			}
+			bitBuffer = (bitBuffer << 8) | (data[pos++] & 0xFF);
+			bitCount += 8;
+		}
+		bitCount -= nbits;
+		int code = (bitBuffer >> bitCount) & ((1 << nbits) - 1);
+		bitBuffer &= (1 << bitCount) - 1;
+		return code;
+	}
+}
@@ -0,0 +1,188 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff;
+
+/**
+ * LZW compression (TIFF compression 5). Codes are 9 to 12 bits long and packed most significant bit first. The code
+ * length grows one code early, the way every TIFF reader expects. The string table is kept between calls so an
+ * encoder can be reused for every strip of an image, but an encoder can only be used by one thread at a time.
+ * @since BBX 1.3.0
+ */
+public final class LZWEncoder
+{
+	private static final int CODE_CLEAR = 256;
+	private static final int CODE_EOI = 257;
+	private static final int CODE_FIRST = 258;
+	private static final int BITS_MIN = 9;
+	private static final int BITS_MAX = 12;
+	private static final int CODE_MAX = (1 << BITS_MAX) - 1;
+	
+	/** Size of the hash table, a prime a little more than twice the number of codes. */
+	private static final int HASH_SIZE = 9001;
+	
+	private int[] hashKeys;
+	private short[] hashCodes;
+	
+	private byte[] out;
+	private int outPos;
+	private int bitBuffer, bitCount;
+	private int nbits, maxCode, freeEntry;
+	
+	/**
+	 * Create a new {@link LZWEncoder}.
+	 */
+	public LZWEncoder()
+	{
+		hashKeys = new int[HASH_SIZE];
+		hashCodes = new short[HASH_SIZE];
+	}
+	
+	/**
+	 * Get the largest number of bytes a strip can compress into.
+	 * @param length The number of bytes in the strip.
+	 * @return The largest compressed length.
+	 */
+	public static int getMaxEncodedLength(int length)
+	{
+		//Every byte can be a code of up to 12 bits, plus the clear codes and end code
+		return (length + length / 2048 + 4) * 3 / 2 + 2;
+	}
+	
+	/**
+	 * Compress a strip of bytes.
+	 * @param data The bytes to compress.
+	 * @param offset The offset in <code>data</code> of the strip.
+	 * @param length The number of bytes in the strip.
+	 * @param out The array to write the compressed bytes to, it must hold at least {@link #getMaxEncodedLength(int)} bytes from <code>outOffset</code>.
+	 * @param outOffset The offset in <code>out</code> to start writing.
+	 * @return The offset in <code>out</code> after the compressed bytes.
+	 */
+	public int encode(byte[] data, int offset, int length, byte[] out, int outOffset)
+	{
+		this.out = out;
+		this.outPos = outOffset;
+		bitBuffer = 0;
+		bitCount = 0;
+		clearTable();
+		putCode(CODE_CLEAR);
+		
+		int end = offset + length;
+		if(length > 0)
+		{
+			int ent = data[offset] & 0xFF;
+			for(int i = offset + 1; i < end; i++)
+			{
+				int c = data[i] & 0xFF;
+				int key = (c << BITS_MAX) | ent;
+				
+				//Double hashing on the (prefix, byte) pair
+				int h = ((c << 5) ^ ent) % HASH_SIZE;
+				int step = (h == 0) ? 1 : HASH_SIZE - h;
+				int code = -1;
+				while(hashKeys[h] != -1)
+				{
+					if(hashKeys[h] == key)
+					{
+						code = hashCodes[h];
+						break;
+					}
+					h -= step;
+					if(h < 0)
+					{
+						h += HASH_SIZE;
+					}
+				}
+				if(code != -1)
+				{
+					ent = code;
+					continue;
+				}
+				
+				putCode(ent);
+				ent = c;
+				hashKeys[h] = key;
+				hashCodes[h] = (short)freeEntry++;
+				if(!checkTable())
+				{
+					clearTable();
+				}
+			}
+			
+			//The reader adds an entry for the last code too, so the code length has to follow it
+			putCode(ent);
+			freeEntry++;
+			checkTable();
+		}
+		putCode(CODE_EOI);
+		if(bitCount > 0)
+		{
+			out[outPos++] = (byte)(bitBuffer << (8 - bitCount));
+		}
+		this.out = null;
+		return outPos;
+	}
+	
+	/**
+	 * Grow the code length if the table has outgrown it, or write a clear code if the table is full.
+	 * @return <code>false</code> if a clear code was written and the table has to be cleared.
+	 */
+	private boolean checkTable()
+	{
+		if(freeEntry == CODE_MAX - 1)
+		{
+			putCode(CODE_CLEAR);
+			nbits = BITS_MIN;
+			maxCode = (1 << BITS_MIN) - 1;
+			return false;
+		}
+		if(freeEntry > maxCode)
+		{
+			nbits++;
+			maxCode = (1 << nbits) - 1;
+		}
+		return true;
+	}
+	
+	private void clearTable()
+	{
+		int[] keys = hashKeys;
+		for(int i = HASH_SIZE - 1; i >= 0; i--)
+		{
+			keys[i] = -1;
+		}
+		nbits = BITS_MIN;
+		maxCode = (1 << BITS_MIN) - 1;
+		freeEntry = CODE_FIRST;
+	}
+	
+	private void putCode(int code)
+	{
+		bitBuffer = (bitBuffer << nbits) | code;
+		bitCount += nbits;
+		while(bitCount >= 8)
+		{
+			bitCount -= 8;
+			out[outPos++] = (byte)(bitBuffer >> bitCount);
+		}
+		bitBuffer &= (1 << bitCount) - 1;
+	}
+}
@@ -0,0 +1,133 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff;
+
+/**
+ * PackBits compression (TIFF compression 32773), a simple byte oriented run length encoding. Each row of an image
+ * is packed on its own, runs never cross from one row to the next.
+ * @since BBX 1.3.0
+ */
+public final class PackBits
+{
+	private PackBits()
+	{
+	}
+	
+	/**
+	 * Get the largest number of bytes a row can pack into.
+	 * @param length The number of bytes in the row.
+	 * @return The largest packed length.
+	 */
+	public static int getMaxEncodedLength(int length)
+	{
+		return length + (length + 127) / 128;
+	}
+	
+	/**
+	 * Pack a row of bytes.
+	 * @param data The bytes to pack.
+	 * @param offset The offset in <code>data</code> of the row.
+	 * @param length The number of bytes in the row.
+	 * @param out The array to write the packed bytes to, it must hold at least {@link #getMaxEncodedLength(int)} bytes from <code>outOffset</code>.
+	 * @param outOffset The offset in <code>out</code> to start writing.
+	 * @return The offset in <code>out</code> after the packed bytes.
+	 */
+	public static int encode(byte[] data, int offset, int length, byte[] out, int outOffset)
+	{
+		int end = offset + length;
+		int i = offset;
+		while(i < end)
+		{
+			byte b = data[i];
+			if(i + 1 < end && data[i + 1] == b)
+			{
+				//Replicate run, -1 to -127 means the next byte repeated 2 to 128 times
+				int run = 2;
+				while(i + run < end && run < 128 && data[i + run] == b)
+				{
+					run++;
+				}
+				out[outOffset++] = (byte)(1 - run);
+				out[outOffset++] = b;
+				i += run;
+			}
+			else
+			{
+				//Literal run, 0 to 127 means the next 1 to 128 bytes are copied. It ends where a run of 3 starts, shorter runs are cheaper left in.
+				int start = i++;
+				while(i < end && i - start < 128)
+				{
+					if(i + 2 < end && data[i] == data[i + 1] && data[i] == data[i + 2])
+					{
+						break;
+					}
+					i++;
+				}
+				int count = i - start;
+				out[outOffset++] = (byte)(count - 1);
+				System.arraycopy(data, start, out, outOffset, count);
+				outOffset += count;
+			}
+		}
+		return outOffset;
+	}
+	
+	/**
+	 * Unpack bytes. Unpacking stops when the packed bytes run out or <code>out</code> is full, so rows don't have to
+	 * be unpacked one at a time.
+	 * @param data The packed bytes.
+	 * @param offset The offset in <code>data</code> of the packed bytes.
+	 * @param length The number of packed bytes.
+	 * @param out The array to write the unpacked bytes to.
+	 * @param outOffset The offset in <code>out</code> to start writing.
+	 * @param outLength The largest number of bytes to write to <code>out</code>.
+	 * @return The offset in <code>out</code> after the unpacked bytes.
+	 */
+	public static int decode(byte[] data, int offset, int length, byte[] out, int outOffset, int outLength)
+	{
+		int end = offset + length;
+		int outEnd = outOffset + outLength;
+		int i = offset;
+		while(i < end && outOffset < outEnd)
+		{
+			int n = data[i++];
+			if(n >= 0)
+			{
+				//Literal run
+				int count = Math.min(Math.min(n + 1, end - i), outEnd - outOffset);
+				System.arraycopy(data, i, out, outOffset, count);
+				i += n + 1;
+				outOffset += count;
+			}
+			else if(n != -128 && i < end)
+			{
+				//Replicate run, -128 is a no-op
+				byte b = data[i++];
+				for(int count = Math.min(1 - n, outEnd - outOffset); count > 0; count--)
+				{
+					out[outOffset++] = b;
+				}
+			}
+		}
+		return outOffset;
+	}
+}
@@ -0,0 +1,307 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff;
+
+import java.io.IOException;
+
+import rebuild.BBXResource;
+import rebuild.Resources;
+import rebuild.util.io.Stream;
+
+/**
+ * Reads TIFF values from a {@link Stream} in either byte order, the reading side of {@link Writer}. Reads are done at 
+ * absolute positions so only the parts of the file that are needed are read.
+ * @since BBX 1.3.0
+ */
+public final class Reader
+{
+	private boolean littleEndian;
+	private Stream stream;
+	private byte[] buffer;
+	
+	/**
+	 * Create a new Reader.
+	 * @param littleEndian If the stream is little-endian (true) or big-endian (false).
+	 * @param stream The stream to read data from.
+	 */
+	public Reader(boolean littleEndian, Stream stream)
+	{
+		if(stream == null)
+		{
+			throw new NullPointerException("stream");
+		}
+		this.littleEndian = littleEndian;
+		this.stream = stream;
+		this.buffer = new byte[8];
+	}
+	
+	/**
+	 * Get if the stream is little-endian.
+	 * @return <code>true</code> if the stream is little-endian, <code>false</code> if it is big-endian.
+	 */
+	public boolean getLittleEndian()
+	{
+		return littleEndian;
+	}
+	
+	/**
+	 * Set if the stream is little-endian, used once the byte order has been read from the header.
+	 * @param littleEndian <code>true</code> if the stream is little-endian, <code>false</code> if it is big-endian.
+	 */
+	public void setLittleEndian(boolean littleEndian)
+	{
+		this.littleEndian = littleEndian;
+	}
+	
+	/**
+	 * Get the length of the stream.
+	 * @return The length of the stream.
+	 * @throws IOException If the length can't be found.
+	 */
+	public long getLength() throws IOException
+	{
+		long pos = stream.getPosition();
+		if(stream.seek(0, Stream.SEEK_END) != 0)
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		long length = stream.getPosition();
+		seek(pos);
+		return length;
+	}
+	
+	/**
+	 * Move to a position in the stream.
+	 * @param pos The absolute position.
+	 * @throws IOException If the position can't be reached.
+	 */
+	public void seek(long pos) throws IOException
+	{
+		if(pos < 0 || stream.seek(pos, Stream.SEEK_SET) != 0)
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+	}
+	
+	/**
+	 * Read bytes from the current position.
+	 * @param data The array to read the bytes into.
+	 * @param off The offset in <code>data</code>.
+	 * @param len The number of bytes to read.
+	 * @throws IOException If there aren't <code>len</code> bytes left.
+	 */
+	public void read(byte[] data, int off, int len) throws IOException
+	{
+		while(len > 0)
+		{
+			int n = (int)stream.read(data, off, 1, len);
+			if(n <= 0)
+			{
+				throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+			}
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/**
+	 * Read a {@link Writer#BYTE} from the current position.
+	 * @return The unsigned byte.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public int readByte() throws IOException
+	{
+		read(buffer, 0, 1);
+		return buffer[0] & 0xFF;
+	}
+	
+	/**
+	 * Read a {@link Writer#SHORT} from the current position.
+	 * @return The unsigned short.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public int readUShort() throws IOException
+	{
+		read(buffer, 0, 2);
+		return (int)getValue(buffer, 0, 2);
+	}
+	
+	/**
+	 * Read a {@link Writer#LONG} from the current position.
+	 * @return The unsigned int.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public long readUInt() throws IOException
+	{
+		read(buffer, 0, 4);
+		return getValue(buffer, 0, 4);
+	}
+	
+	/**
+	 * Read a {@link Writer#LONG8} from the current position.
+	 * @return The 8-byte integer.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public long readULong() throws IOException
+	{
+		read(buffer, 0, 8);
+		return getValue(buffer, 0, 8);
+	}
+	
+	/**
+	 * Read an offset from the current position, 4 bytes in a TIFF and 8 bytes in a BigTIFF.
+	 * @param big If the stream is a BigTIFF.
+	 * @return The offset.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public long readOffset(boolean big) throws IOException
+	{
+		return big ? readULong() : readUInt();
+	}
+	
+	/**
+	 * Read the header of a TIFF and set the byte order to the one it uses. Afterwards the stream is at the offset of
+	 * the first IFD.
+	 * @return <code>true</code> if the stream is a BigTIFF, <code>false</code> if it is a TIFF.
+	 * @throws IOException If the stream is not a TIFF.
+	 */
+	public boolean readHeader() throws IOException
+	{
+		seek(0);
+		read(buffer, 0, 4);
+		if(buffer[0] != buffer[1] || (buffer[0] != 0x49 && buffer[0] != 0x4D))
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		littleEndian = buffer[0] == 0x49;
+		switch((int)getValue(buffer, 2, 2))
+		{
+			case 42:
+				return false;
+			case 43:
+				//The offset size, which is always 8, and an unused value
+				if(readUShort() != 8)
+				{
+					throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+				}
+				readUShort();
+				return true;
+			default:
+				throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+	}
+	
+	/**
+	 * Read the entries of an IFD. Only the entries are read, values that don't fit in an entry are read when they are
+	 * asked for.
+	 * @param ifdOffset The absolute position of the IFD.
+	 * @param big If the stream is a BigTIFF.
+	 * @return The entries, in the order they are in the IFD.
+	 * @throws IOException If the IFD can't be read.
+	 */
+	public IFDEntry[] readEntries(long ifdOffset, boolean big) throws IOException
+	{
+		seek(ifdOffset);
+		long count = big ? readULong() : readUShort();
+		int entrySize = big ? 20 : 12;
+		if(count < 0 || count * entrySize > Integer.MAX_VALUE)
+		{
+			throw new IOException(Resources.getString(BBXResource.TIFF_INVALID_FILE));
+		}
+		byte[] data = new byte[(int)count * entrySize];
+		read(data, 0, data.length);
+		IFDEntry[] entries = new IFDEntry[(int)count];
+		int slotSize = big ? 8 : 4;
+		for(int i = 0, pos = 0; i < entries.length; i++, pos += entrySize)
+		{
+			byte[] slot = new byte[slotSize];
+			System.arraycopy(data, pos + entrySize - slotSize, slot, 0, slotSize);
+			entries[i] = new IFDEntry(this, (int)getValue(data, pos, 2), (int)getValue(data, pos + 2, 2), 
+					getValue(data, pos + 4, big ? 8 : 4), slot, big);
+		}
+		return entries;
+	}
+	
+	/**
+	 * Get the position of the next IFD offset of an IFD, the offset that points to the IFD after it.
+	 * @param ifdOffset The absolute position of the IFD.
+	 * @param big If the stream is a BigTIFF.
+	 * @return The absolute position of the next IFD offset.
+	 * @throws IOException If the IFD can't be read.
+	 */
+	public long getNextOffsetPosition(long ifdOffset, boolean big) throws IOException
+	{
+		seek(ifdOffset);
+		return big ? ifdOffset + 8L + readULong() * 20L : ifdOffset + 2L + readUShort() * 12L;
+	}
+	
+	/**
+	 * Get an unsigned value out of an array of bytes in the byte order of the stream.
+	 * @param data The bytes.
+	 * @param off The offset in <code>data</code> of the value.
+	 * @param size The number of bytes in the value, 1 to 8.
+	 * @return The value.
+	 */
+	public long getValue(byte[] data, int off, int size)
+	{
+		long value = 0L;
+		for(int i = 0; i < size; i++)
+		{
+			value |= (data[off + (littleEndian ? i : size - 1 - i)] & 0xFFL) << (i << 3);
+		}
+		return value;
+	}
+	
+	/**
+	 * Get the number of bytes in one value of a data type.
+	 * @param dataType The data type, one of the types in {@link Writer}.
+	 * @return The number of bytes, or 0 if the data type is not known.
+	 */
+	public static int getTypeSize(int dataType)
+	{
+		switch(dataType)
+		{
+			case Writer.BYTE:
+			case Writer.ASCII:
+			case Writer.SBYTE:
+			case Writer.UNDEFINED:
+				return 1;
+			case Writer.SHORT:
+			case Writer.SSHORT:
+				return 2;
+			case Writer.LONG:
+			case Writer.SLONG:
+			case Writer.FLOAT:
+			case 13: //IFD
+				return 4;
+			case Writer.RATIONAL:
+			case Writer.SRATIONAL:
+			case Writer.DOUBLE:
+			case Writer.LONG8:
+			case Writer.SLONG8:
+			case 18: //IFD8
+				return 8;
+			default:
+				return 0;
+		}
+	}
+}
@@ -96,8 +96,12 @@ public final class Writer
 	
 	private static final char NUL = ('\0' & 0x7F);
 	
+	//Values are put into the buffer in the right byte order and written out a buffer at a time
+	private static final int BUFFER_SIZE = 4096;
+	
 	private boolean littleEndian;
 	private OutputStream dat;
+	private byte[] buffer;
 	
 	/**
 	 * Create a new Writer.
@@ -132,6 +136,19 @@ public final class Writer
 		this.dat.write(data, off, len);
 	}
 	
+	/**
+	 * Write an array of {@link BYTE}s, {@link SBYTE}s or {@link UNDEFINED}s.
+	 * @param values The values to write.
+	 * @param off The index of the first value to write.
+	 * @param len The number of values to write.
+	 * @throws IOException If any IO exception occurs.
+	 * @since BBX 1.3.0
+	 */
+	public void writeBytes(byte[] values, int off, int len) throws IOException
+	{
+		this.dat.write(values, off, len);
+	}
+	
 	/**
 	 * Write a {@link BYTE} or {@link SBYTE}.
 	 * @param value The {@link BYTE}/{@link SBYTE} to write.
@@ -149,16 +166,18 @@ public final class Writer
 	 */
     public void writeUShort(int value) throws IOException
     {
+    	byte[] buf = getBuffer();
     	if(littleEndian)
     	{
-    		dat.write(value & 0x00FF);
-    		dat.write((value & 0xFF00) >> 8);
+    		buf[0] = (byte)value;
+    		buf[1] = (byte)(value >> 8);
     	}
     	else
     	{
-    		dat.write((value & 0xFF00) >> 8);
-    		dat.write(value & 0x00FF);
+    		buf[0] = (byte)(value >> 8);
+    		buf[1] = (byte)value;
     	}
+    	dat.write(buf, 0, 2);
     }
     
     /**
@@ -168,20 +187,9 @@ public final class Writer
 	 */
     public void writeUInt(int value) throws IOException
     {
-    	if(littleEndian)
-    	{
-    		dat.write(value & 0x000000FF);
-    		dat.write((value & 0x0000FF00) >> 8);
-    		dat.write((value & 0x00FF0000) >> 16);
-    		dat.write((value & 0xFF000000) >> 24);
-    	}
-    	else
-    	{
-    		dat.write((value & 0xFF000000) >> 24);
-    		dat.write((value & 0x00FF0000) >> 16);
-    		dat.write((value & 0x0000FF00) >> 8);
-    		dat.write(value & 0x000000FF);
-    	}
+    	byte[] buf = getBuffer();
+    	putUInt(buf, 0, value);
+    	dat.write(buf, 0, 4);
     }
     
     /**
@@ -200,28 +208,232 @@ public final class Writer
 	 * @throws IOException If any IO exception occurs.
 	 */
     public void writeULong(long value) throws IOException
+    {
+    	byte[] buf = getBuffer();
+    	putULong(buf, 0, value);
+    	dat.write(buf, 0, 8);
+    }
+    
+    /**
+	 * Write an array of {@link SHORT}s or {@link SSHORT}s.
+	 * @param values The values to write.
+	 * @param off The index of the first value to write.
+	 * @param len The number of values to write.
+	 * @throws IOException If any IO exception occurs.
+	 * @since BBX 1.3.0
+	 */
+    public void writeUShorts(short[] values, int off, int len) throws IOException
+    {
+    	checkRange(values.length, off, len);
+    	byte[] buf = getBuffer();
+    	while(len > 0)
+    	{
+    		int n = Math.min(len, BUFFER_SIZE / 2);
+    		int pos = 0;
+    		if(littleEndian)
+    		{
+    			for(int i = off, end = off + n; i < end; i++)
+    			{
+    				int v = values[i];
+    				buf[pos++] = (byte)v;
+    				buf[pos++] = (byte)(v >> 8);
+    			}
+    		}
+    		else
+    		{
+    			for(int i = off, end = off + n; i < end; i++)
+    			{
+    				int v = values[i];
+    				buf[pos++] = (byte)(v >> 8);
+    				buf[pos++] = (byte)v;
+    			}
+    		}
+    		dat.write(buf, 0, pos);
+    		off += n;
+    		len -= n;
+    	}
+    }
+    
+    /**
+	 * Write an array of {@link LONG}s or {@link SLONG}s.
+	 * @param values The values to write.
+	 * @param off The index of the first value to write.
+	 * @param len The number of values to write.
+	 * @throws IOException If any IO exception occurs.
+	 * @since BBX 1.3.0
+	 */
+    public void writeUInts(int[] values, int off, int len) throws IOException
+    {
+    	checkRange(values.length, off, len);
+    	byte[] buf = getBuffer();
+    	while(len > 0)
+    	{
+    		int n = Math.min(len, BUFFER_SIZE / 4);
+    		int pos = 0;
+    		for(int i = off, end = off + n; i < end; i++, pos += 4)
+    		{
+    			putUInt(buf, pos, values[i]);
+    		}
+    		dat.write(buf, 0, pos);
+    		off += n;
+    		len -= n;
+    	}
+    }
+    
+    /**
+	 * Write an array of 8-byte signed/unsigned integers.
+	 * @param values The values to write.
+	 * @param off The index of the first value to write.
+	 * @param len The number of values to write.
+	 * @throws IOException If any IO exception occurs.
+	 * @since BBX 1.3.0
+	 */
+    public void writeULongs(long[] values, int off, int len) throws IOException
+    {
+    	checkRange(values.length, off, len);
+    	byte[] buf = getBuffer();
+    	while(len > 0)
+    	{
+    		int n = Math.min(len, BUFFER_SIZE / 8);
+    		int pos = 0;
+    		for(int i = off, end = off + n; i < end; i++, pos += 8)
+    		{
+    			putULong(buf, pos, values[i]);
+    		}
+    		dat.write(buf, 0, pos);
+    		off += n;
+    		len -= n;
+    	}
+    }
+    
+    /**
+	 * Write an array of {@link FLOAT}s.
+	 * @param values The values to write.
+	 * @param off The index of the first value to write.
+	 * @param len The number of values to write.
+	 * @throws IOException If any IO exception occurs.
+	 * @since BBX 1.3.0
+	 */
+    public void writeFloats(float[] values, int off, int len) throws IOException
+    {
+    	checkRange(values.length, off, len);
+    	byte[] buf = getBuffer();
+    	while(len > 0)
+    	{
+    		int n = Math.min(len, BUFFER_SIZE / 4);
+    		int pos = 0;
+    		for(int i = off, end = off + n; i < end; i++, pos += 4)
+    		{
+    			putUInt(buf, pos, Float.floatToIntBits(values[i]));
+    		}
+    		dat.write(buf, 0, pos);
+    		off += n;
+    		len -= n;
+    	}
+    }
+    
+    /**
+	 * Write an array of {@link DOUBLE}s.
+	 * @param values The values to write.
+	 * @param off The index of the first value to write.
+	 * @param len The number of values to write.
+	 * @throws IOException If any IO exception occurs.
+	 * @since BBX 1.3.0
+	 */
+    public void writeDoubles(double[] values, int off, int len) throws IOException
+    {
+    	checkRange(values.length, off, len);
+    	byte[] buf = getBuffer();
+    	while(len > 0)
+    	{
+    		int n = Math.min(len, BUFFER_SIZE / 8);
+    		int pos = 0;
+    		for(int i = off, end = off + n; i < end; i++, pos += 8)
+    		{
+    			putULong(buf, pos, Double.doubleToLongBits(values[i]));
+    		}
+    		dat.write(buf, 0, pos);
+    		off += n;
+    		len -= n;
+    	}
+    }
+    
+    /**
+	 * Write an array of {@link RATIONAL}s or {@link SRATIONAL}s.
+	 * @param numerators The numerators to write.
+	 * @param denominators The denominators to write.
+	 * @param off The index of the first value to write.
+	 * @param len The number of values to write.
+	 * @throws IOException If any IO exception occurs.
+	 * @since BBX 1.3.0
+	 */
+    public void writeURationals(int[] numerators, int[] denominators, int off, int len) throws IOException
+    {
+    	checkRange(numerators.length, off, len);
+    	checkRange(denominators.length, off, len);
+    	byte[] buf = getBuffer();
+    	while(len > 0)
+    	{
+    		int n = Math.min(len, BUFFER_SIZE / 8);
+    		int pos = 0;
+    		for(int i = off, end = off + n; i < end; i++, pos += 8)
+    		{
+    			// Numerator first, then denominator
+    			putUInt(buf, pos, numerators[i]);
+    			putUInt(buf, pos + 4, denominators[i]);
+    		}
+    		dat.write(buf, 0, pos);
+    		off += n;
+    		len -= n;
+    	}
+    }
+    
+    private byte[] getBuffer()
+    {
+    	if(buffer == null)
+    	{
+    		buffer = new byte[BUFFER_SIZE];
+    	}
+    	return buffer;
+    }
+    
+    private static void checkRange(int length, int off, int len)
+    {
+    	if(off < 0 || len < 0 || off + len > length)
+    	{
+    		throw new IndexOutOfBoundsException();
+    	}
+    }
+    
+    private void putUInt(byte[] buf, int pos, int value)
+    {
+    	if(littleEndian)
+    	{
+    		buf[pos] = (byte)value;
+    		buf[pos + 1] = (byte)(value >> 8);
+    		buf[pos + 2] = (byte)(value >> 16);
+    		buf[pos + 3] = (byte)(value >> 24);
+    	}
+    	else
+    	{
+    		buf[pos] = (byte)(value >> 24);
+    		buf[pos + 1] = (byte)(value >> 16);
+    		buf[pos + 2] = (byte)(value >> 8);
+    		buf[pos + 3] = (byte)value;
+    	}
+    }
+    
+    private void putULong(byte[] buf, int pos, long value)
     {
     	if(littleEndian)
     	{
-    		dat.write((int)(value & 0x00000000000000FFL));
-    		dat.write((int)((value & 0x000000000000FF00L) >> 8));
-    		dat.write((int)((value & 0x0000000000FF0000L) >> 16));
-    		dat.write((int)((value & 0x00000000FF000000L) >> 24));
-    		dat.write((int)((value & 0x000000FF00000000L) >> 32));
-    		dat.write((int)((value & 0x0000FF0000000000L) >> 40));
-    		dat.write((int)((value & 0x00FF000000000000L) >> 48));
-    		dat.write((int)((value & 0xFF00000000000000L) >> 56));
+    		putUInt(buf, pos, (int)value);
+    		putUInt(buf, pos + 4, (int)(value >>> 32));
     	}
     	else
     	{
-    		dat.write((int)((value & 0xFF00000000000000L) >> 56));
-    		dat.write((int)((value & 0x00FF000000000000L) >> 48));
-    		dat.write((int)((value & 0x0000FF0000000000L) >> 40));
-    		dat.write((int)((value & 0x000000FF00000000L) >> 32));
-    		dat.write((int)((value & 0x00000000FF000000L) >> 24));
-    		dat.write((int)((value & 0x0000000000FF0000L) >> 16));
-    		dat.write((int)((value & 0x000000000000FF00L) >> 8));
-    		dat.write((int)(value & 0x00000000000000FFL));
+    		putUInt(buf, pos, (int)(value >>> 32));
+    		putUInt(buf, pos + 4, (int)value);
     	}
     }
     
@@ -291,12 +503,19 @@ public final class Writer
 	    	{
 	    		throw new IllegalArgumentException(Resources.getString(BBXResource.ARGUMENT_NULL_CHAR));
 	    	}
-	    	char[] chars = value.toCharArray();
-	    	int count = chars.length;
+	    	byte[] buf = getBuffer();
+	    	int count = value.length();
+	    	int pos = 0;
 	    	for(int i = 0; i < count; i++)
 	    	{
-	    		writeASCII(chars[i]);
+	    		if(pos == BUFFER_SIZE)
+	    		{
+	    			dat.write(buf, 0, pos);
+	    			pos = 0;
+	    		}
+	    		buf[pos++] = (byte)(value.charAt(i) & 0x7F);
 	    	}
+	    	dat.write(buf, 0, pos);
     	}
     	writeASCII(NUL);
     }
@@ -344,9 +563,10 @@ public final class Writer
 	    		case BYTE:
 	    		case SBYTE:
 	    		case ASCII:
+	    		case UNDEFINED:
 	    			if (littleEndian)
                     {
-	    				int v1 = (value & 0xFF000000) >> 24;
+	    				int v1 = (value & 0xFF000000) >>> 24;
 	    		    	int v2 = (value & 0x00FF0000) >> 16;
 	    		    	int v3 = (value & 0x0000FF00) >> 8;
 	    		    	int v4 = value & 0x000000FF;
@@ -361,7 +581,7 @@ public final class Writer
 	    		case SSHORT:
 	    			if(littleEndian)
 	    			{
-	    				val = ((value & 0xFFFF0000) >> 16) | ((value & 0x0000FFFF) << 16);
+	    				val = ((value & 0xFFFF0000) >>> 16) | ((value & 0x0000FFFF) << 16);
 	    			}
 	    			else
 	    			{
@@ -370,6 +590,7 @@ public final class Writer
 	    			break;
 	    		case LONG:
                 case SLONG:
+                case FLOAT:
                     val = value;
                     break;
     		}
@@ -397,16 +618,17 @@ public final class Writer
 	    		case BYTE:
 	    		case SBYTE:
 	    		case ASCII:
-	    			value = ((value & 0x00000000FFFFFFFFL) << 32) | ((value & 0xFFFFFFFF00000000L) >> 32);
+	    		case UNDEFINED:
+	    			value = ((value & 0x00000000FFFFFFFFL) << 32) | ((value & 0xFFFFFFFF00000000L) >>> 32);
 	    			if (littleEndian)
                     {
-	    				long v1 = (value & 0xFF00000000000000L) >> 56;
-	    		    	long v2 = (value & 0x00FF000000000000L) >> 48;
-	    		    	long v3 = (value & 0x0000FF0000000000L) >> 40;
-	    		    	long v4 = (value & 0x000000FF00000000L) >> 32;
-	    		    	long v5 = (value & 0x00000000FF000000L) >> 24;
-	    		    	long v6 = (value & 0x0000000000FF0000L) >> 16;
-	    		    	long v7 = (value & 0x000000000000FF00L) >> 8;
+	    				long v1 = (value & 0xFF00000000000000L) >>> 56;
+	    		    	long v2 = (value & 0x00FF000000000000L) >>> 48;
+	    		    	long v3 = (value & 0x0000FF0000000000L) >>> 40;
+	    		    	long v4 = (value & 0x000000FF00000000L) >>> 32;
+	    		    	long v5 = (value & 0x00000000FF000000L) >>> 24;
+	    		    	long v6 = (value & 0x0000000000FF0000L) >>> 16;
+	    		    	long v7 = (value & 0x000000000000FF00L) >>> 8;
 	    		    	long v8 = value & 0x00000000000000FFL;
 	    		    	val = (v8 << 56) | (v7 << 48) | (v6 << 40) | (v5 << 32) | (v4 << 24) | (v3 << 16) | (v2 << 8) | v1;
                     }
@@ -419,27 +641,31 @@ public final class Writer
 	    		case SSHORT:
 	    			if (littleEndian)
                     {
-                        val = ((value & 0xFFFF000000000000L) >> 16) | ((value & 0x0000FFFF00000000L) << 16) |
-                            ((value & 0x00000000FFFF0000L) >> 16) | ((value & 0x000000000000FFFFL) << 16);
+                        val = ((value & 0xFFFF000000000000L) >>> 16) | ((value & 0x0000FFFF00000000L) << 16) |
+                            ((value & 0x00000000FFFF0000L) >>> 16) | ((value & 0x000000000000FFFFL) << 16);
                     }
                     else
                     {
-                        val = ((value & 0x00000000FFFFFFFFL) << 32) | ((value & 0xFFFFFFFF00000000L) >> 32);
+                        val = ((value & 0x00000000FFFFFFFFL) << 32) | ((value & 0xFFFFFFFF00000000L) >>> 32);
                     }
 	    			break;
 	    		case LONG:
 	    		case SLONG:
+	    		case FLOAT:
+	    		case RATIONAL:
+	    		case SRATIONAL:
 	    			if (littleEndian)
                     {
                         val = value;
                     }
                     else
                     {
-                        val = ((value & 0x00000000FFFFFFFFL) << 32) | ((value & 0xFFFFFFFF00000000L) >> 32);
+                        val = ((value & 0x00000000FFFFFFFFL) << 32) | ((value & 0xFFFFFFFF00000000L) >>> 32);
                     }
 	    			break;
 	    		case LONG8:
                 case SLONG8:
+                case DOUBLE:
                     val = value;
                     break;
     		}
@@ -459,7 +685,7 @@ public final class Writer
     	{
     		throw new IllegalArgumentException("pos > 1, pos < 0");
     	}
-    	return pos == 1 ? (value & 0xFFFFFFFF) << 32 : (value & 0xFFFFFFFF);
+    	return pos == 1 ? (value & 0xFFFFFFFFL) << 32 : (value & 0xFFFFFFFFL);
     }
     
     /**
@@ -477,13 +703,13 @@ public final class Writer
     	switch(pos)
     	{
     		case 2:
-    			return (value & 0xFFFF) << 48;
+    			return (value & 0xFFFFL) << 48;
     		case 3:
-    			return (value & 0xFFFF) << 32;
+    			return (value & 0xFFFFL) << 32;
     		case 0:
-    			return (value & 0xFFFF) << 16;
+    			return (value & 0xFFFFL) << 16;
     		case 1:
-    			return (value & 0xFFFF);
+    			return (value & 0xFFFFL);
     	}
     	return 0;
     }
@@ -503,21 +729,21 @@ public final class Writer
     	switch(pos)
     	{
 	    	case 4:
-				return (value & 0xFF) << 56;
+				return (value & 0xFFL) << 56;
 			case 5:
-				return (value & 0xFF) << 48;
+				return (value & 0xFFL) << 48;
 			case 6:
-				return (value & 0xFF) << 40;
+				return (value & 0xFFL) << 40;
 			case 7:
-				return (value & 0xFF) << 32;
+				return (value & 0xFFL) << 32;
     		case 0:
-    			return (value & 0xFF) << 24;
+    			return (value & 0xFFL) << 24;
     		case 1:
-    			return (value & 0xFF) << 16;
+    			return (value & 0xFFL) << 16;
     		case 2:
-    			return (value & 0xFF) << 8;
+    			return (value & 0xFFL) << 8;
     		case 3:
-    			return (value & 0xFF);
+    			return (value & 0xFFL);
     	}
     	return 0;
     }
@@ -552,11 +778,11 @@ public final class Writer
     	switch(pos)
     	{
 	    	case 2:
-	    		return (short)((value & 0xFFFF000000000000L) >> 48);
+	    		return (short)((value & 0xFFFF000000000000L) >>> 48);
 			case 3:
-				return (short)((value & 0x0000FFFF00000000L) >> 32);
+				return (short)((value & 0x0000FFFF00000000L) >>> 32);
 			case 0:
-				return (short)((value & 0x00000000FFFF0000L) >> 16);
+				return (short)((value & 0x00000000FFFF0000L) >>> 16);
 			case 1:
 				return (short)(value & 0x000000000000FFFFL);
     	}
@@ -578,19 +804,19 @@ public final class Writer
     	switch(pos)
     	{
 	    	case 4:
-	    		return (byte)((value & 0xFF00000000000000L) << 56);
+	    		return (byte)((value & 0xFF00000000000000L) >>> 56);
 			case 5:
-				return (byte)((value & 0x00FF000000000000L) << 48);
+				return (byte)((value & 0x00FF000000000000L) >>> 48);
 			case 6:
-				return (byte)((value & 0x0000FF0000000000L) << 40);
+				return (byte)((value & 0x0000FF0000000000L) >>> 40);
 			case 7:
-				return (byte)((value & 0x000000FF00000000L) << 32);
+				return (byte)((value & 0x000000FF00000000L) >>> 32);
     		case 0:
-    			return (byte)((value & 0x00000000FF000000L) >> 24);
+    			return (byte)((value & 0x00000000FF000000L) >>> 24);
     		case 1:
-    			return (byte)((value & 0x0000000000FF0000L) >> 16);
+    			return (byte)((value & 0x0000000000FF0000L) >>> 16);
     		case 2:
-    			return (byte)((value & 0x000000000000FF00L) << 8);
+    			return (byte)((value & 0x000000000000FF00L) >>> 8);
     		case 3:
     			return (byte)(value & 0x00000000000000FFL);
     	}
@@ -189,7 +189,8 @@ public class ByteTag extends Tag
 	 */
 	public void writeData(Writer wr) throws IOException
 	{
-		wr.write((byte[])super.getExtraData());
+		byte[] dat = (byte[])super.getExtraData();
+		wr.writeBytes(dat, 0, dat.length);
 	}
 	
 	/**
@@ -93,10 +93,7 @@ public final class CompressionTag extends ShortTag
 	public CompressionTag(short compression)
 	{
 		super(getTagTypeValue(), compression);
-		if(compression < 0)
-		{
-			throw new IllegalArgumentException("compression < 0");
-		}
+		//The values are unsigned, PACKBITS is negative as a short
 		switch(compression)
 		{
 			case NO_COMPRESSION:
@@ -128,11 +125,12 @@ public final class CompressionTag extends ShortTag
 	 */
 	public void setValue(int compression)
 	{
-		if(compression < 0)
+		if(compression < 0 || compression > 0xFFFF)
 		{
 			throw new IllegalArgumentException("compression < 0");
 		}
-		switch(compression)
+		//The values are unsigned, PACKBITS is negative as a short
+		switch((short)compression)
 		{
 			case NO_COMPRESSION:
 			case CCITT_RLE:
@@ -175,11 +175,7 @@ public class DoubleTag extends Tag
 	 */
 	public void writeData(Writer wr) throws IOException
 	{
-		double[] dat = (double[])super.getExtraData();
-		for(int i = 0; i < super.count; i++)
-		{
-			wr.writeDouble(dat[i]);
-		}
+		wr.writeDoubles((double[])super.getExtraData(), 0, (int)super.count);
 	}
 	
 	/**
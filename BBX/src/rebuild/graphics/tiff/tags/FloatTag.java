@@ -178,11 +178,7 @@ public class FloatTag extends Tag
 	 */
 	public void writeData(Writer wr) throws IOException
 	{
-		float[] dat = (float[])super.getExtraData();
-		for(int i = 0; i < super.count; i++)
-		{
-			wr.writeFloat(dat[i]);
-		}
+		wr.writeFloats((float[])super.getExtraData(), 0, (int)super.count);
 	}
 	
 	/**
@@ -0,0 +1,425 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff.tags;
+
+import java.io.IOException;
+
+import rebuild.graphics.tiff.Tag;
+import rebuild.graphics.tiff.Writer;
+import rebuild.util.ref.RefULong;
+
+/**
+ * A tag with one unsigned value for each strip or tile of the image, such as the offsets or byte counts of the strips
+ * or tiles. The data type is the smallest of {@link Writer#SHORT}, {@link Writer#LONG} and {@link Writer#LONG8} that
+ * holds the values, but no smaller than the minimum data type of the tag.
+ * @since BBX 1.3.0
+ */
+public abstract class ImageDataTag extends Tag
+{
+	private short minDataType;
+	
+	/**
+	 * Create a new {@link ImageDataTag}.
+	 * @param tag The tag code for this tag.
+	 * @param minDataType The smallest data type the tag can be written with, {@link Writer#SHORT} or {@link Writer#LONG}.
+	 */
+	protected ImageDataTag(short tag, short minDataType)
+	{
+		super(tag, minDataType, 1, 0, null);
+		this.minDataType = minDataType;
+	}
+	
+	/**
+	 * Unused.
+	 * @see getValue
+	 */
+	public final void setValue(int value)
+	{
+	}
+	
+	/**
+	 * Data type is determined by the value.
+	 * @see setDataType
+	 */
+	public final void setDataType(short dataType)
+	{
+	}
+	
+	/**
+	 * Set the number of entries, existing entries are kept.
+	 * @see {@link Tag#setCount(int)}
+	 */
+	public final void setCount(int count)
+	{
+		setCount((long)count);
+	}
+	
+	/**
+	 * Set the number of entries, existing entries are kept.
+	 * @see {@link Tag#setCount(long)}
+	 */
+	public final void setCount(long count)
+	{
+		if(count <= 0)
+		{
+			throw new IllegalArgumentException("count <= 0");
+		}
+		Object obj = super.getExtraData();
+		int c = (int)count;
+		if(obj == null)
+		{
+			switch(super.dataType)
+			{
+				case Writer.SHORT:
+					super.setExtraData(new short[c]);
+					break;
+				case Writer.LONG:
+					super.setExtraData(new int[c]);
+					break;
+				case Writer.LONG8:
+					super.setExtraData(new long[c]);
+					break;
+			}
+		}
+		else
+		{
+			if(count != super.count)
+			{
+				if(count > super.count)
+				{
+					switch(super.dataType)
+					{
+						case Writer.SHORT:
+							short[] sDat = new short[c];
+							System.arraycopy((short[])super.getExtraData(), 0, sDat, 0, (int)super.count);
+							super.setExtraData(sDat);
+							break;
+						case Writer.LONG:
+							int[] iDat = new int[c];
+							System.arraycopy((int[])super.getExtraData(), 0, iDat, 0, (int)super.count);
+							super.setExtraData(iDat);
+							break;
+						case Writer.LONG8:
+							long[] lDat = new long[c];
+							System.arraycopy((long[])super.getExtraData(), 0, lDat, 0, (int)super.count);
+							super.setExtraData(lDat);
+							break;
+					}
+				}
+				else
+				{
+					switch(super.dataType)
+					{
+						case Writer.SHORT:
+							super.setExtraData(net.rim.device.api.util.Arrays.copy((short[])super.getExtraData(), 0, c));
+							break;
+						case Writer.LONG:
+							super.setExtraData(net.rim.device.api.util.Arrays.copy((int[])super.getExtraData(), 0, c));
+							break;
+						case Writer.LONG8:
+							super.setExtraData(net.rim.device.api.util.Arrays.copy((long[])super.getExtraData(), 0, c));
+							break;
+					}
+				}
+			}
+		}
+		super.count = count;
+	}
+	
+	private void changeValueTypes(short dataType)
+	{
+		long[] holding = null;
+		//Get the data
+		switch(super.dataType)
+		{
+			case Writer.SHORT:
+				holding = new long[(int)super.count];
+				short[] sh = (short[])super.getExtraData();
+				for(int i = 0; i < super.count; i++)
+				{
+					holding[i] = sh[i] & 0xFFFFL;
+				}
+				break;
+			case Writer.LONG:
+				holding = new long[(int)super.count];
+				int[] in = (int[])super.getExtraData();
+				for(int i = 0; i < super.count; i++)
+				{
+					holding[i] = in[i] & 0xFFFFFFFFL;
+				}
+				break;
+			case Writer.LONG8:
+				holding = (long[])super.getExtraData();
+				break;
+		}
+		super.dataType = dataType;
+		//Set the data
+		switch(super.dataType)
+		{
+			case Writer.SHORT:
+				short[] sh = new short[(int)super.count];
+				for(int i = 0; i < super.count; i++)
+				{
+					sh[i] = (short)holding[i];
+				}
+				super.setExtraData(sh);
+				break;
+			case Writer.LONG:
+				int[] in = new int[(int)super.count];
+				for(int i = 0; i < super.count; i++)
+				{
+					in[i] = (int)holding[i];
+				}
+				super.setExtraData(in);
+				break;
+			case Writer.LONG8:
+				super.setExtraData(holding);
+				break;
+		}
+	}
+	
+	/**
+	 * The extra data writer, if any extra data exists then this method will be called and (through internal methods) a offset to the data will be used in place of the <code>value</code> parameter.
+	 * @param wr The writer used to write the extra data.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public final void writeData(Writer wr) throws IOException
+	{
+		switch(super.dataType)
+		{
+			case Writer.SHORT:
+				wr.writeUShorts((short[])super.getExtraData(), 0, (int)super.count);
+				break;
+			case Writer.LONG:
+				wr.writeUInts((int[])super.getExtraData(), 0, (int)super.count);
+				break;
+			case Writer.LONG8:
+				wr.writeULongs((long[])super.getExtraData(), 0, (int)super.count);
+				break;
+		}
+	}
+	
+	/**
+	 * This method figures out if any extra data is exists, this method can search the data type, extra data, value, and count. It is called whenever one of these types change.
+	 * @param big <code>true</code> if the tag is being written to a BigTIFF, <code>false</code> if otherwise.
+	 * @return true if the tag contains extra data, false if otherwise.
+	 */
+	protected final boolean extraData(boolean big)
+	{
+		if(super.dataType == Writer.LONG8)
+		{
+			if(big)
+			{
+				return super.count > 1;
+			}
+			else
+			{
+				return true;
+			}
+		}
+		else if(super.dataType == Writer.LONG)
+		{
+			if(big)
+			{
+				return super.count > 2;
+			}
+			else
+			{
+				return super.count > 1;
+			}
+		}
+		else
+		{
+			if(big)
+			{
+				return super.count > 4;
+			}
+			else
+			{
+				return super.count > 2;
+			}
+		}
+	}
+	
+	/**
+	 * Setup the tag for writing in a BigTIFF.
+	 */
+	protected final void setupForBigTIFF(boolean set)
+	{
+		if(!extraData(set)) //If it had extra data then this would not be needed
+		{
+			switch(super.dataType)
+			{
+				case Writer.SHORT:
+					//Hack since the code for this is written already
+					ShortTag stag = new ShortTag((short)0, (short[])super.getExtraData());
+					stag.setupForBigTIFF(set);
+					this.value = stag.getBigValue();
+					break;
+				case Writer.LONG:
+					//Hack since the code for this is written already
+					LongTag ltag = new LongTag((short)0, (int[])super.getExtraData());
+					ltag.setupForBigTIFF(set);
+					this.value = ltag.getBigValue();
+					break;
+				case Writer.LONG8:
+					if(set)
+					{
+						this.value = ((long[])super.getExtraData())[0];
+					}
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * Get if this {@link Tag} can have a default value, often defined by a parameter-less constructor.
+	 * @return <code>true</code> if the {@link Tag} has a default value, <code>false</code> if otherwise. Default is <code>false</code>.
+	 */
+	public final boolean hasDefault()
+	{
+		return false;
+	}
+	
+	/**
+	 * Unused.
+	 */
+	public final boolean isDefault()
+	{
+		return false;
+	}
+	
+	/**
+	 * Get the value for a particular strip or tile.
+	 * @param index The strip or tile to get the value of.
+	 * @return The value for that strip or tile.
+	 */
+	public long getEntry(int index)
+	{
+		long val = 0L;
+		switch(super.dataType)
+		{
+			case Writer.SHORT:
+				val = ((short[])super.getExtraData())[index] & 0xFFFFL;
+				break;
+			case Writer.LONG:
+				val = ((int[])super.getExtraData())[index] & 0xFFFFFFFFL;
+				break;
+			case Writer.LONG8:
+				val = ((long[])super.getExtraData())[index];
+				break;
+		}
+		return val;
+	}
+	
+	/**
+	 * Set the value for a particular strip or tile. The data type is widened if the value needs it.
+	 * @param index The strip or tile to set the value for. If this is -1 no value is set, the data type is just set to the one the value needs, which can narrow it.
+	 * @param value The value to set for that strip or tile.
+	 */
+	public void setEntry(int index, long value)
+	{
+		short req = dataTypeRequired(value);
+		if(req < minDataType)
+		{
+			req = minDataType;
+		}
+		if(index < 0)
+		{
+			//This is just making sure the required size is implemented. So just set it and exit.
+			if(super.dataType != req)
+			{
+				changeValueTypes(req);
+			}
+			return;
+		}
+		//Only ever widen the data type here, narrowing it to fit a small value would truncate the larger values already set.
+		if(req > super.dataType)
+		{
+			changeValueTypes(req);
+		}
+		switch(super.dataType)
+		{
+			case Writer.SHORT:
+				((short[])super.getExtraData())[index] = (short)(value & 0x000000000000FFFFL);
+				break;
+			case Writer.LONG:
+				((int[])super.getExtraData())[index] = (int)(value & 0x00000000FFFFFFFFL);
+				break;
+			case Writer.LONG8:
+				((long[])super.getExtraData())[index] = value;
+				break;
+		}
+		//Setup for normal TIFF because if a BigTIFF is being created "setupForBigTIFF" will get called.
+		if(super.dataType == Writer.SHORT && super.count <= 2)
+		{
+			super.value = 0L;
+			for(int i = 0; i < super.count; i++)
+			{
+				super.value |= Writer.shiftValue(((short[])super.getExtraData())[i], i);
+			}
+		}
+		else if(super.dataType == Writer.LONG && super.count == 1)
+		{
+			super.value = Writer.shiftValue(((int[])super.getExtraData())[0], 0);
+		}
+		else
+		{
+			super.value = 0L;
+		}
+	}
+	
+	/**
+	 * Set the number of entries from the number of strips or tiles in each plane of the image.
+	 * @param perImage The number of strips or tiles per plane. Must be at least 1.
+	 * @param planarConfig The planar config to determine the number of planes.
+	 * @param sampleCount The number of samples per pixel.
+	 */
+	public void setCount(int perImage, short planarConfig, short sampleCount)
+	{
+		if(perImage < 1)
+		{
+			throw new IllegalArgumentException("perImage < 1");
+		}
+		new PlanarConfigurationTag(planarConfig); //Test to make sure that it uses a valid value.
+		if(sampleCount <= 0)
+		{
+			throw new IllegalArgumentException("sampleCount <= 0");
+		}
+		this.setCount(perImage * (planarConfig == PlanarConfigurationTag.CHUNKY ? 1 : sampleCount));
+	}
+	
+	private static short dataTypeRequired(long value)
+	{
+		RefULong ul = new RefULong(value);
+		//SHORT and LONG are unsigned
+		if(ul.greaterThan(0xFFFFL))
+		{
+			if(ul.greaterThan(0xFFFFFFFFL))
+			{
+				return Writer.LONG8;
+			}
+			return Writer.LONG;
+		}
+		return Writer.SHORT;
+	}
+}
@@ -124,14 +124,7 @@ public final class ImageWidthTag extends Tag
 	 */
 	protected void setupForBigTIFF(boolean set)
 	{
-		if(set)
-		{
-			this.value <<= 32;
-		}
-		else
-		{
-			this.value >>= 32;
-		}
+		//The value is already where the first value of a BigTIFF entry goes
 	}
 	
 	/**
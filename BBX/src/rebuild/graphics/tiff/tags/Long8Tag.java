@@ -186,11 +186,7 @@ public class Long8Tag extends Tag
 	 */
 	public void writeData(Writer wr) throws IOException
 	{
-		long[] dat = (long[])super.getExtraData();
-		for(int i = 0; i < super.count; i++)
-		{
-			wr.writeULong(dat[i]);
-		}
+		wr.writeULongs((long[])super.getExtraData(), 0, (int)super.count);
 	}
 	
 	/**
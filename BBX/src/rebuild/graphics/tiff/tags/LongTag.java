@@ -189,11 +189,7 @@ public class LongTag extends Tag
 	 */
 	public void writeData(Writer wr) throws IOException
 	{
-		int[] dat = (int[])super.getExtraData();
-		for(int i = 0; i < super.count; i++)
-		{
-			wr.writeUInt(dat[i]);
-		}
+		wr.writeUInts((int[])super.getExtraData(), 0, (int)super.count);
 	}
 	
 	/**
@@ -0,0 +1,117 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff.tags;
+
+import rebuild.graphics.tiff.Tag;
+
+/**
+ * What kind of image an IFD holds, as a set of flags. If this tag is not present the image is a full resolution 
+ * image with no flags set.
+ * @since BBX 1.3.0
+ */
+public final class NewSubfileTypeTag extends LongTag
+{
+	/**
+	 * Get the {@link Tag}'s type.
+	 * @return The {@link Tag}'s type.
+	 */
+	public static short getTagTypeValue()
+	{
+		return 254;
+	}
+	
+	/**
+	 * The image is a reduced resolution version of another image in the TIFF.
+	 */
+	public static final int REDUCED_RESOLUTION = 1;
+	/**
+	 * The image is a single page of a multi-page image.
+	 */
+	public static final int PAGE = 2;
+	/**
+	 * The image is a transparency mask for another image in the TIFF.
+	 */
+	public static final int TRANSPARENCY_MASK = 4;
+	
+	/**
+	 * Create a new NewSubfileType tag with no flags set.
+	 */
+	public NewSubfileTypeTag()
+	{
+		this(0);
+	}
+	
+	/**
+	 * Create a new NewSubfileType tag.
+	 * @param flags The flags of the image, any of {@link #REDUCED_RESOLUTION}, {@link #PAGE} and 
+	 * {@link #TRANSPARENCY_MASK}.
+	 */
+	public NewSubfileTypeTag(int flags)
+	{
+		super(getTagTypeValue(), flags);
+	}
+	
+	/**
+	 * There is always only 1 element.
+	 * @see setCount
+	 */
+	public void setCount(int count)
+	{
+	}
+	
+	/**
+	 * Set the flags of the image.
+	 * @param flags The flags of the image, any of {@link #REDUCED_RESOLUTION}, {@link #PAGE} and 
+	 * {@link #TRANSPARENCY_MASK}.
+	 */
+	public void setValue(int flags)
+	{
+		super.setLong(0, flags);
+	}
+	
+	/**
+	 * Get the flags of the image.
+	 * @return The flags of the image.
+	 */
+	public int getSubfileType()
+	{
+		return super.getLong(0);
+	}
+	
+	/**
+	 * Get if this {@link Tag} can have a default value, often defined by a parameter-less constructor.
+	 * @return <code>true</code> if the {@link Tag} has a default value, <code>false</code> if otherwise. Default is <code>false</code>.
+	 */
+	public boolean hasDefault()
+	{
+		return true;
+	}
+	
+	/**
+	 * Get if this {@link Tag}'s current value is the default value. This is ignored if {@link Tag#hasDefault()} returns <code>false</code>.
+	 * @return <code>true</code> if the {@link Tag}'s value is the default value, <code>false</code> if otherwise.
+	 */
+	public boolean isDefault()
+	{
+		return getSubfileType() == 0;
+	}
+}
@@ -0,0 +1,135 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff.tags;
+
+import rebuild.BBXResource;
+import rebuild.Resources;
+import rebuild.graphics.tiff.Tag;
+
+/**
+ * A mathematical operator that is applied to the image data before an encoding scheme is applied.
+ * @since BBX 1.3.0
+ */
+public final class PredictorTag extends ShortTag
+{
+	/**
+	 * Get the {@link Tag}'s type.
+	 * @return The {@link Tag}'s type.
+	 */
+	public static short getTagTypeValue()
+	{
+		return 317;
+	}
+	
+	/**
+	 * No prediction scheme used before coding.
+	 */
+	public static final short NONE = 1;
+	/**
+	 * Horizontal differencing. Each sample is stored as the difference from the same sample of the pixel to its left,
+	 * the first pixel of each row is stored as is.
+	 */
+	public static final short HORIZONTAL = 2;
+	/**
+	 * Floating point horizontal differencing.
+	 */
+	public static final short FLOATING_POINT = 3;
+	
+	/**
+	 * Create a new Predictor tag.
+	 */
+	public PredictorTag()
+	{
+		this(NONE);
+	}
+	
+	/**
+	 * Create a new Predictor tag.
+	 * @param predictor The predictor value to use.
+	 */
+	public PredictorTag(short predictor)
+	{
+		super(getTagTypeValue(), predictor);
+		switch(predictor)
+		{
+			case NONE:
+			case HORIZONTAL:
+			case FLOATING_POINT:
+				break;
+			default:
+				throw new IllegalArgumentException(Resources.getString(BBXResource.TIFF_INVALID_PREDICTOR));
+		}
+	}
+	
+	/**
+	 * There is always only 1 element.
+	 * @see setCount
+	 */
+	public void setCount(int count)
+	{
+	}
+	
+	/**
+	 * Set the predictor value to use.
+	 * @param predictor The predictor to use.
+	 */
+	public void setValue(int predictor)
+	{
+		switch(predictor)
+		{
+			case NONE:
+			case HORIZONTAL:
+			case FLOATING_POINT:
+				break;
+			default:
+				throw new IllegalArgumentException(Resources.getString(BBXResource.TIFF_INVALID_PREDICTOR));
+		}
+		super.setShort(0, (short)predictor);
+	}
+	
+	/**
+	 * Get the current predictor value.
+	 * @return The predictor that this tag is set to.
+	 */
+	public short getPredictor()
+	{
+		return super.getShort(0);
+	}
+	
+	/**
+	 * Get if this {@link Tag} can have a default value, often defined by a parameter-less constructor.
+	 * @return <code>true</code> if the {@link Tag} has a default value, <code>false</code> if otherwise. Default is <code>false</code>.
+	 */
+	public boolean hasDefault()
+	{
+		return true;
+	}
+	
+	/**
+	 * Get if this {@link Tag}'s current value is the default value. This is ignored if {@link Tag#hasDefault()} returns <code>false</code>.
+	 * @return <code>true</code> if the {@link Tag}'s value is the default value, <code>false</code> if otherwise.
+	 */
+	public boolean isDefault()
+	{
+		return getPredictor() == NONE;
+	}
+}
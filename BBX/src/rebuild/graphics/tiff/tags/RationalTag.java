@@ -226,11 +226,7 @@ public class RationalTag extends Tag
 	public void writeData(Writer wr) throws IOException
 	{
 		int[][] dat = (int[][])super.getExtraData();
-		for(int i = 0; i < super.count; i++)
-		{
-			wr.writeUInt(dat[0][i]);
-			wr.writeUInt(dat[1][i]);
-		}
+		wr.writeURationals(dat[0], dat[1], 0, (int)super.count);
 	}
 	
 	/**
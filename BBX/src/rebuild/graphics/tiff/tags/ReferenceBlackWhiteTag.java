@@ -0,0 +1,107 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff.tags;
+
+import rebuild.graphics.tiff.Tag;
+
+/**
+ * The sample values of the black and white points of each component, as a pair (black, white) for each of the 3 
+ * color components. For YCbCr the "black" of Cb and Cr is the value for no chroma.
+ * @since BBX 1.3.0
+ */
+public final class ReferenceBlackWhiteTag extends RationalTag
+{
+	/**
+	 * Get the {@link Tag}'s type.
+	 * @return The {@link Tag}'s type.
+	 */
+	public static short getTagTypeValue()
+	{
+		return 532;
+	}
+	
+	/**
+	 * Create a new {@link ReferenceBlackWhiteTag} for full range 8 bit YCbCr, where luma goes from 0 to 255 and chroma
+	 * is centered on 128.
+	 */
+	public ReferenceBlackWhiteTag()
+	{
+		super(getTagTypeValue(), new int[6], new int[6]);
+		setYCbCrFullRange();
+	}
+	
+	/**
+	 * Set the reference values to full range 8 bit YCbCr, where luma goes from 0 to 255 and chroma is centered on 128.
+	 */
+	public void setYCbCrFullRange()
+	{
+		setReference(0, 0, 255);
+		setReference(1, 128, 255);
+		setReference(2, 128, 255);
+	}
+	
+	/**
+	 * Get if the reference values are full range 8 bit YCbCr.
+	 * @return <code>true</code> if the values are the ones set by {@link #setYCbCrFullRange()}, <code>false</code> if
+	 * otherwise.
+	 */
+	public boolean isYCbCrFullRange()
+	{
+		return isReference(0, 0, 255) && isReference(1, 128, 255) && isReference(2, 128, 255);
+	}
+	
+	/**
+	 * Set the reference black and white of a component.
+	 * @param component The component, 0 to 2.
+	 * @param black The reference black.
+	 * @param white The reference white.
+	 */
+	public void setReference(int component, int black, int white)
+	{
+		super.setNumerator(component * 2, black);
+		super.setDenominator(component * 2, 1);
+		super.setNumerator(component * 2 + 1, white);
+		super.setDenominator(component * 2 + 1, 1);
+	}
+	
+	private boolean isReference(int component, int black, int white)
+	{
+		return super.getNumerator(component * 2) == black * super.getDenominator(component * 2) && 
+			super.getNumerator(component * 2 + 1) == white * super.getDenominator(component * 2 + 1);
+	}
+	
+	/**
+	 * There are always 6 elements.
+	 * @see setCount
+	 */
+	public void setCount(int count)
+	{
+	}
+	
+	/**
+	 * Unused
+	 * @see setValue
+	 */
+	public void setValue(int value)
+	{
+	}
+}
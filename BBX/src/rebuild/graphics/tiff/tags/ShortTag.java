@@ -189,11 +189,7 @@ public class ShortTag extends Tag
 	 */
 	public void writeData(Writer wr) throws IOException
 	{
-		short[] dat = (short[])super.getExtraData();
-		for(int i = 0; i < super.count; i++)
-		{
-			wr.writeUShort(dat[i]);
-		}
+		wr.writeUShorts((short[])super.getExtraData(), 0, (int)super.count);
 	}
 	
 	/**
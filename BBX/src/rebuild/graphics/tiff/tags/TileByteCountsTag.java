@@ -0,0 +1,73 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff.tags;
+
+import rebuild.graphics.tiff.Tag;
+import rebuild.graphics.tiff.Writer;
+
+/**
+ * For each tile, the number of bytes in the tile after compression.
+ * @since BBX 1.3.0
+ */
+public final class TileByteCountsTag extends ImageDataTag
+{
+	/**
+	 * Get the {@link Tag}'s type.
+	 * @return The {@link Tag}'s type.
+	 */
+	public static short getTagTypeValue()
+	{
+		return 325;
+	}
+	
+	/**
+	 * Create a new TileByteCounts tag.
+	 * @param tilesPerImage The number of tiles per image. Must be at least 1.
+	 * @param planarConfig The planar config to determine the number of tile planes needed.
+	 * @param sampleCount The number of samples per pixel.
+	 */
+	public TileByteCountsTag(int tilesPerImage, short planarConfig, short sampleCount)
+	{
+		super(getTagTypeValue(), Writer.SHORT);
+		setCount(tilesPerImage, planarConfig, sampleCount);
+	}
+	
+	/**
+	 * Get the byte count for a particular tile.
+	 * @param tile The tile to get the byte count of.
+	 * @return The byte count for that tile.
+	 */
+	public long getByteCount(int tile)
+	{
+		return getEntry(tile);
+	}
+	
+	/**
+	 * Set the byte count for a particular tile.
+	 * @param tile The tile to set the byte count for.
+	 * @param byteCount The byte count to set for that tile.
+	 */
+	public void setByteCount(int tile, long byteCount)
+	{
+		setEntry(tile, byteCount);
+	}
+}
@@ -0,0 +1,107 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff.tags;
+
+import rebuild.graphics.tiff.Tag;
+
+/**
+ * The coefficients used to convert RGB to the luma of a YCbCr image. The default is the coefficients of 
+ * CCIR Recommendation 601-1: 0.299, 0.587 and 0.114.
+ * @since BBX 1.3.0
+ */
+public final class YCbCrCoefficientsTag extends RationalTag
+{
+	private static final int[] DEFAULT = { 299, 587, 114 };
+	private static final int DEFAULT_DENOMINATOR = 1000;
+	
+	/**
+	 * Get the {@link Tag}'s type.
+	 * @return The {@link Tag}'s type.
+	 */
+	public static short getTagTypeValue()
+	{
+		return 529;
+	}
+	
+	/**
+	 * Create a new {@link YCbCrCoefficientsTag} with the default coefficients.
+	 */
+	public YCbCrCoefficientsTag()
+	{
+		super(getTagTypeValue(), new int[3], new int[3]);
+		setDefault();
+	}
+	
+	/**
+	 * Set the coefficients to the default.
+	 */
+	public void setDefault()
+	{
+		for(int i = 0; i < 3; i++)
+		{
+			super.setNumerator(i, DEFAULT[i]);
+			super.setDenominator(i, DEFAULT_DENOMINATOR);
+		}
+	}
+	
+	/**
+	 * There are always 3 elements, the coefficients of red, green and blue.
+	 * @see setCount
+	 */
+	public void setCount(int count)
+	{
+	}
+	
+	/**
+	 * Unused
+	 * @see setValue
+	 */
+	public void setValue(int value)
+	{
+	}
+	
+	/**
+	 * Get if this {@link Tag} can have a default value, often defined by a parameter-less constructor.
+	 * @return <code>true</code> if the {@link Tag} has a default value, <code>false</code> if otherwise. Default is <code>false</code>.
+	 */
+	public boolean hasDefault()
+	{
+		return true;
+	}
+	
+	/**
+	 * Get if this {@link Tag}'s current value is the default value. This is ignored if {@link Tag#hasDefault()} returns <code>false</code>.
+	 * @return <code>true</code> if the {@link Tag}'s value is the default value, <code>false</code> if otherwise.
+	 */
+	public boolean isDefault()
+	{
+		for(int i = 0; i < 3; i++)
+		{
+			//Compare the fractions without dividing
+			if((long)super.getNumerator(i) * DEFAULT_DENOMINATOR != (long)DEFAULT[i] * super.getDenominator(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,101 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff.tags;
+
+import rebuild.graphics.tiff.Tag;
+
+/**
+ * Where the chroma samples of a subsampled YCbCr image are in relation to the luma samples. If this tag is not
+ * present the samples are {@link #CENTERED}.
+ * @since BBX 1.3.0
+ */
+public final class YCbCrPositioningTag extends ShortTag
+{
+	/**
+	 * Get the {@link Tag}'s type.
+	 * @return The {@link Tag}'s type.
+	 */
+	public static short getTagTypeValue()
+	{
+		return 531;
+	}
+	
+	/**
+	 * The chroma sample is at the center of the block of luma samples it covers.
+	 */
+	public static final short CENTERED = 1;
+	/**
+	 * The chroma sample is at the same place as the top left luma sample of the block it covers.
+	 */
+	public static final short COSITED = 2;
+	
+	/**
+	 * Create a new YCbCrPositioning tag.
+	 */
+	public YCbCrPositioningTag()
+	{
+		this(CENTERED);
+	}
+	
+	/**
+	 * Create a new YCbCrPositioning tag.
+	 * @param positioning The positioning of the chroma samples.
+	 */
+	public YCbCrPositioningTag(short positioning)
+	{
+		super(getTagTypeValue(), positioning);
+		if(positioning < CENTERED || positioning > COSITED)
+		{
+			throw new IllegalArgumentException("positioning < CENTERED || positioning > COSITED");
+		}
+	}
+	
+	/**
+	 * There is always only 1 element.
+	 * @see setCount
+	 */
+	public void setCount(int count)
+	{
+	}
+	
+	/**
+	 * Set the positioning of the chroma samples.
+	 * @param positioning The positioning to use.
+	 */
+	public void setValue(int positioning)
+	{
+		if(positioning < CENTERED || positioning > COSITED)
+		{
+			throw new IllegalArgumentException("positioning < CENTERED || positioning > COSITED");
+		}
+		super.setShort(0, (short)positioning);
+	}
+	
+	/**
+	 * Get the positioning of the chroma samples.
+	 * @return The positioning used.
+	 */
+	public short getPositioning()
+	{
+		return super.getShort(0);
+	}
+}
@@ -0,0 +1,120 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.graphics.tiff.tags;
+
+import rebuild.BBXResource;
+import rebuild.Resources;
+import rebuild.graphics.tiff.Tag;
+
+/**
+ * The subsampling of the chroma (Cb and Cr) samples of a YCbCr image, as the number of luma samples across and down
+ * for every chroma sample.
+ * @since BBX 1.3.0
+ */
+public final class YCbCrSubSamplingTag extends ShortTag
+{
+	private static final short DEFAULT = 2;
+	
+	/**
+	 * Get the {@link Tag}'s type.
+	 * @return The {@link Tag}'s type.
+	 */
+	public static short getTagTypeValue()
+	{
+		return 530;
+	}
+	
+	/**
+	 * Create a new YCbCrSubSampling tag, with the chroma sampled once for every 2 by 2 pixels (4:2:0).
+	 */
+	public YCbCrSubSamplingTag()
+	{
+		this(DEFAULT, DEFAULT);
+	}
+	
+	/**
+	 * Create a new YCbCrSubSampling tag.
+	 * @param horizontal The number of pixels across for each chroma sample, 1, 2 or 4.
+	 * @param vertical The number of pixels down for each chroma sample, 1, 2 or 4. Must not be more than
+	 * <code>horizontal</code>.
+	 */
+	public YCbCrSubSamplingTag(int horizontal, int vertical)
+	{
+		super(getTagTypeValue(), new short[2]);
+		setSubSampling(horizontal, vertical);
+	}
+	
+	/**
+	 * There are always 2 elements.
+	 * @see setCount
+	 */
+	public void setCount(int count)
+	{
+	}
+	
+	/**
+	 * Unused
+	 * @see setValue
+	 */
+	public void setValue(int value)
+	{
+	}
+	
+	/**
+	 * Set the subsampling.
+	 * @param horizontal The number of pixels across for each chroma sample, 1, 2 or 4.
+	 * @param vertical The number of pixels down for each chroma sample, 1, 2 or 4. Must not be more than
+	 * <code>horizontal</code>.
+	 */
+	public void setSubSampling(int horizontal, int vertical)
+	{
+		if(!isValid(horizontal) || !isValid(vertical) || vertical > horizontal)
+		{
+			throw new IllegalArgumentException(Resources.getString(BBXResource.TIFF_INVALID_YCBCR_SUBSAMPLING));
+		}
+		super.setShort(0, (short)horizontal);
+		super.setShort(1, (short)vertical);
+	}
+	
+	private static boolean isValid(int subSampling)
+	{
+		return subSampling == 1 || subSampling == 2 || subSampling == 4;
+	}
+	
+	/**
+	 * Get the number of pixels across for each chroma sample.
+	 * @return The horizontal subsampling.
+	 */
+	public int getHorizontal()
+	{
+		return super.getShort(0);
+	}
+	
+	/**
+	 * Get the number of pixels down for each chroma sample.
+	 * @return The vertical subsampling.
+	 */
+	public int getVertical()
+	{
+		return super.getShort(1);
+	}
+}
@@ -0,0 +1,133 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.util.checksum;
+
+/**
+ * Adler-32 checksum, as used by the zlib format.
+ * @since BBX 1.3.0
+ */
+public final class Adler32
+{
+	/** The initial value of an Adler-32 checksum. */
+	public static final int INITIAL_VALUE = 1;
+	
+	private static final int BASE = 65521;
+	/** The largest number of bytes that can be summed before the sums have to be reduced to prevent signed overflow. */
+	private static final int NMAX = 3854;
+	
+	private Adler32()
+	{
+	}
+	
+	/**
+	 * Update an Adler-32 checksum.
+	 * @param adler The current checksum, {@link #INITIAL_VALUE} to start a new checksum.
+	 * @param data The data to add to the checksum.
+	 * @return The updated checksum.
+	 */
+	public static int update(int adler, byte[] data)
+	{
+		return update(adler, data, 0, data.length);
+	}
+	
+	/**
+	 * Update an Adler-32 checksum.
+	 * @param adler The current checksum, {@link #INITIAL_VALUE} to start a new checksum.
+	 * @param data The data to add to the checksum.
+	 * @param offset The offset in the data to start at.
+	 * @param length The number of bytes to add to the checksum.
+	 * @return The updated checksum.
+	 */
+	public static int update(int adler, byte[] data, int offset, int length)
+	{
+		int s1 = adler & 0xFFFF;
+		int s2 = (adler >>> 16) & 0xFFFF;
+		while(length > 0)
+		{
+			int n = Math.min(length, NMAX);
+			length -= n;
+			//Unrolled by eight, the sums only need reducing once per block
+			while(n >= 8)
+			{
+				s1 += data[offset] & 0xFF;
+				s2 += s1;
+				s1 += data[offset + 1] & 0xFF;
+				s2 += s1;
+				s1 += data[offset + 2] & 0xFF;
+				s2 += s1;
+				s1 += data[offset + 3] & 0xFF;
+				s2 += s1;
+				s1 += data[offset + 4] & 0xFF;
+				s2 += s1;
+				s1 += data[offset + 5] & 0xFF;
+				s2 += s1;
+				s1 += data[offset + 6] & 0xFF;
+				s2 += s1;
+				s1 += data[offset + 7] & 0xFF;
+				s2 += s1;
+				offset += 8;
+				n -= 8;
+			}
+			while(n-- > 0)
+			{
+				s1 += data[offset++] & 0xFF;
+				s2 += s1;
+			}
+			s1 %= BASE;
+			s2 %= BASE;
+		}
+		return (s2 << 16) | s1;
+	}
+	
+	/**
+	 * Combine two Adler-32 checksums into the checksum of the concatenated data.
+	 * @param adler1 The checksum of the first block of data.
+	 * @param adler2 The checksum of the second block of data.
+	 * @param length2 The length of the second block of data.
+	 * @return The checksum of the first block of data followed by the second block of data.
+	 */
+	public static int combine(int adler1, int adler2, long length2)
+	{
+		int rem = (int)(length2 % BASE);
+		long s1 = adler1 & 0xFFFF;
+		long s2 = (rem * s1) % BASE;
+		s1 += (adler2 & 0xFFFF) + BASE - 1;
+		s2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + BASE - rem;
+		if(s1 >= BASE)
+		{
+			s1 -= BASE;
+		}
+		if(s1 >= BASE)
+		{
+			s1 -= BASE;
+		}
+		if(s2 >= (BASE << 1))
+		{
+			s2 -= (BASE << 1);
+		}
+		if(s2 >= BASE)
+		{
+			s2 -= BASE;
+		}
+		return (int)((s2 << 16) | s1);
+	}
+}
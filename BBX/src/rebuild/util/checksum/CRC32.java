@@ -0,0 +1,199 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.util.checksum;
+
+/**
+ * CRC-32 checksum, as used by PNG, zlib's gzip format and ZIP. The checksum is computed eight bytes at a time using 
+ * the slicing-by-8 method, and checksums of separate blocks of data can be combined.
+ * @since BBX 1.3.0
+ */
+public final class CRC32
+{
+	/** The initial value of a CRC-32 checksum. */
+	public static final int INITIAL_VALUE = 0;
+	
+	private static final int POLYNOMIAL = 0xEDB88320;
+	
+	private static final int[] T0, T1, T2, T3, T4, T5, T6, T7;
+	
+	static
+	{
+		int[][] t = new int[8][256];
+		for(int i = 0; i < 256; i++)
+		{
+			int c = i;
+			for(int k = 0; k < 8; k++)
+			{
+				c = ((c & 1) != 0) ? (c >>> 1) ^ POLYNOMIAL : c >>> 1;
+			}
+			t[0][i] = c;
+		}
+		for(int i = 0; i < 256; i++)
+		{
+			int c = t[0][i];
+			for(int k = 1; k < 8; k++)
+			{
+				c = t[0][c & 0xFF] ^ (c >>> 8);
+				t[k][i] = c;
+			}
+		}
+		T0 = t[0];
+		T1 = t[1];
+		T2 = t[2];
+		T3 = t[3];
+		T4 = t[4];
+		T5 = t[5];
+		T6 = t[6];
+		T7 = t[7];
+	}
+	
+	private CRC32()
+	{
+	}
+	
+	/**
+	 * Update a CRC-32 checksum.
+	 * @param crc The current checksum, {@link #INITIAL_VALUE} to start a new checksum.
+	 * @param data The data to add to the checksum.
+	 * @return The updated checksum.
+	 */
+	public static int update(int crc, byte[] data)
+	{
+		return update(crc, data, 0, data.length);
+	}
+	
+	/**
+	 * Update a CRC-32 checksum.
+	 * @param crc The current checksum, {@link #INITIAL_VALUE} to start a new checksum.
+	 * @param data The data to add to the checksum.
+	 * @param offset The offset in the data to start at.
+	 * @param length The number of bytes to add to the checksum.
+	 * @return The updated checksum.
+	 */
+	public static int update(int crc, byte[] data, int offset, int length)
+	{
+		int c = ~crc;
+		int end = offset + length;
+		int fastEnd = end - 8;
+		while(offset <= fastEnd)
+		{
+			int one = ((data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16) | (data[offset + 3] << 24)) ^ c;
+			int two = (data[offset + 4] & 0xFF) | ((data[offset + 5] & 0xFF) << 8) | ((data[offset + 6] & 0xFF) << 16) | (data[offset + 7] << 24);
+			c = T7[one & 0xFF] ^ T6[(one >>> 8) & 0xFF] ^ T5[(one >>> 16) & 0xFF] ^ T4[one >>> 24] ^ 
+				T3[two & 0xFF] ^ T2[(two >>> 8) & 0xFF] ^ T1[(two >>> 16) & 0xFF] ^ T0[two >>> 24];
+			offset += 8;
+		}
+		while(offset < end)
+		{
+			c = T0[(c ^ data[offset++]) & 0xFF] ^ (c >>> 8);
+		}
+		return ~c;
+	}
+	
+	/**
+	 * Update a CRC-32 checksum with a single byte.
+	 * @param crc The current checksum, {@link #INITIAL_VALUE} to start a new checksum.
+	 * @param b The byte to add to the checksum.
+	 * @return The updated checksum.
+	 */
+	public static int update(int crc, int b)
+	{
+		int c = ~crc;
+		c = T0[(c ^ b) & 0xFF] ^ (c >>> 8);
+		return ~c;
+	}
+	
+	/**
+	 * Combine two CRC-32 checksums into the checksum of the concatenated data.
+	 * @param crc1 The checksum of the first block of data.
+	 * @param crc2 The checksum of the second block of data.
+	 * @param length2 The length of the second block of data.
+	 * @return The checksum of the first block of data followed by the second block of data.
+	 */
+	public static int combine(int crc1, int crc2, long length2)
+	{
+		if(length2 <= 0)
+		{
+			return crc1;
+		}
+		int[] even = new int[32];
+		int[] odd = new int[32];
+		
+		//Operator for one zero bit in odd
+		odd[0] = POLYNOMIAL;
+		int row = 1;
+		for(int n = 1; n < 32; n++)
+		{
+			odd[n] = row;
+			row <<= 1;
+		}
+		//Operator for two zero bits in even, then four zero bits in odd
+		gf2MatrixSquare(even, odd);
+		gf2MatrixSquare(odd, even);
+		
+		//Apply length2 zeros to crc1, the first square puts the operator for one zero byte in even
+		do
+		{
+			gf2MatrixSquare(even, odd);
+			if((length2 & 1) != 0)
+			{
+				crc1 = gf2MatrixTimes(even, crc1);
+			}
+			length2 >>= 1;
+			if(length2 == 0)
+			{
+				break;
+			}
+			gf2MatrixSquare(odd, even);
+			if((length2 & 1) != 0)
+			{
+				crc1 = gf2MatrixTimes(odd, crc1);
+			}
+			length2 >>= 1;
+		} while(length2 != 0);
+		return crc1 ^ crc2;
+	}
+	
+	private static int gf2MatrixTimes(int[] mat, int vec)
+	{
+		int sum = 0;
+		int i = 0;
+		while(vec != 0)
+		{
+			if((vec & 1) != 0)
+			{
+				sum ^= mat[i];
+			}
+			vec >>>= 1;
+			i++;
+		}
+		return sum;
+	}
+	
+	private static void gf2MatrixSquare(int[] square, int[] mat)
+	{
+		for(int n = 0; n < 32; n++)
+		{
+			square[n] = gf2MatrixTimes(mat, mat[n]);
+		}
+	}
+}
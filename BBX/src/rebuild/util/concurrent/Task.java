@@ -0,0 +1,89 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.util.concurrent;
+
+/**
+ * A unit of work submitted to a {@link WorkerPool}, used to wait for the work to complete and to get any error that 
+ * occurred while running it.
+ * @since BBX 1.3.0
+ */
+public final class Task
+{
+	private Runnable runnable;
+	private boolean done;
+	private Throwable error;
+	
+	Task(Runnable runnable)
+	{
+		this.runnable = runnable;
+	}
+	
+	void run()
+	{
+		Throwable t = null;
+		try
+		{
+			runnable.run();
+		}
+		catch(Throwable e)
+		{
+			t = e;
+		}
+		synchronized(this)
+		{
+			this.error = t;
+			this.done = true;
+			this.runnable = null;
+			this.notifyAll();
+		}
+	}
+	
+	/**
+	 * Get if the task has finished running.
+	 * @return <code>true</code> if the task has finished, either normally or with an error.
+	 */
+	public synchronized boolean isDone()
+	{
+		return done;
+	}
+	
+	/**
+	 * Wait for the task to finish running.
+	 * @throws InterruptedException If the current thread is interrupted while waiting.
+	 */
+	public synchronized void join() throws InterruptedException
+	{
+		while(!done)
+		{
+			this.wait();
+		}
+	}
+	
+	/**
+	 * Get the error that was thrown while running the task.
+	 * @return The error thrown by the task or <code>null</code> if the task has not finished or finished normally.
+	 */
+	public synchronized Throwable getError()
+	{
+		return error;
+	}
+}
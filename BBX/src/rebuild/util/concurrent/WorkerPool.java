@@ -0,0 +1,135 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.util.concurrent;
+
+import java.util.Vector;
+
+/**
+ * A fixed size pool of worker threads that run submitted work in the order it was submitted. Worker threads keep 
+ * running until {@link #shutdown()} is called, so every pool must be shut down when it is no longer needed.
+ * @since BBX 1.3.0
+ */
+public final class WorkerPool
+{
+	private Vector queue;
+	private Thread[] workers;
+	private boolean shutdown;
+	
+	/**
+	 * Create a new {@link WorkerPool}.
+	 * @param threadCount The number of worker threads, must be at least one.
+	 */
+	public WorkerPool(int threadCount)
+	{
+		if(threadCount <= 0)
+		{
+			throw new IllegalArgumentException("threadCount <= 0");
+		}
+		this.queue = new Vector();
+		this.workers = new Thread[threadCount];
+		for(int i = 0; i < threadCount; i++)
+		{
+			this.workers[i] = new Thread()
+			{
+				public void run()
+				{
+					work();
+				}
+			};
+			this.workers[i].start();
+		}
+	}
+	
+	/**
+	 * Get the number of worker threads in the pool.
+	 * @return The number of worker threads.
+	 */
+	public int getThreadCount()
+	{
+		return workers.length;
+	}
+	
+	/**
+	 * Submit work to be run on a worker thread.
+	 * @param work The work to run.
+	 * @return The {@link Task} representing the submitted work.
+	 */
+	public Task submit(Runnable work)
+	{
+		if(work == null)
+		{
+			throw new NullPointerException("work");
+		}
+		Task task = new Task(work);
+		synchronized(queue)
+		{
+			if(shutdown)
+			{
+				throw new IllegalStateException();
+			}
+			queue.addElement(task);
+			queue.notify();
+		}
+		return task;
+	}
+	
+	/**
+	 * Shut down the pool. Work that has already been submitted is still run, after which the worker threads exit. No 
+	 * more work can be submitted.
+	 */
+	public void shutdown()
+	{
+		synchronized(queue)
+		{
+			shutdown = true;
+			queue.notifyAll();
+		}
+	}
+	
+	private void work()
+	{
+		while(true)
+		{
+			Task task;
+			synchronized(queue)
+			{
+				while(queue.isEmpty() && !shutdown)
+				{
+					try
+					{
+						queue.wait();
+					}
+					catch(InterruptedException e)
+					{
+					}
+				}
+				if(queue.isEmpty())
+				{
+					return;
+				}
+				task = (Task)queue.elementAt(0);
+				queue.removeElementAt(0);
+			}
+			task.run();
+		}
+	}
+}
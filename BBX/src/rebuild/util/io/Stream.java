@@ -149,6 +149,7 @@ public abstract class Stream
 			int iMode = 0;
 			int len = mode.length();
 			boolean startAtBeginning = true;
+			boolean truncate = false;
 		END_BAD:
 			for(int i = 0; i < len; i++)
 			{
@@ -160,6 +161,7 @@ public abstract class Stream
 						break;
 					case 'w':
 						iMode |= Connector.WRITE;
+						truncate = true;
 						break;
 					case 'b':
 						//Just in case extra (valid but not needed) parameters are entered
@@ -202,8 +204,11 @@ public abstract class Stream
 				{
 					if(file.exists())
 					{
-						//Make sure that none of the previous data exists in the file once processed.
-						file.truncate(0);
+						if(truncate)
+						{
+							//Make sure that none of the previous data exists in the file once processed. Only 'w' does this, "r+" keeps the data to update it.
+							file.truncate(0);
+						}
 					}
 					else
 					{
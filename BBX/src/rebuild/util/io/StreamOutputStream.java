@@ -0,0 +1,129 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.util.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that writes to a {@link Stream} at its current position. Writes are buffered, the buffer is
+ * written to the {@link Stream} when it is full, on {@link #flush()} and on {@link #close()}.
+ * @since BBX 1.3.0
+ */
+public final class StreamOutputStream extends OutputStream
+{
+	private Stream stream;
+	private byte[] buffer;
+	private int count;
+	private boolean closeStream;
+	
+	/**
+	 * Create a new {@link StreamOutputStream}.
+	 * @param stream The {@link Stream} to write to.
+	 * @param closeStream <code>true</code> if the {@link Stream} should be closed when this is closed, <code>false</code> if otherwise.
+	 */
+	public StreamOutputStream(Stream stream, boolean closeStream)
+	{
+		if(stream == null)
+		{
+			throw new NullPointerException("stream");
+		}
+		this.stream = stream;
+		this.closeStream = closeStream;
+		this.buffer = new byte[4096];
+	}
+	
+	public void write(int b) throws IOException
+	{
+		if(count == buffer.length)
+		{
+			flushBuffer();
+		}
+		buffer[count++] = (byte)b;
+	}
+	
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if(off < 0 || len < 0 || off + len > b.length)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		if(len >= buffer.length)
+		{
+			//Large writes go straight to the stream
+			flushBuffer();
+			writeStream(b, off, len);
+			return;
+		}
+		if(len > buffer.length - count)
+		{
+			flushBuffer();
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+	
+	public void flush() throws IOException
+	{
+		flushBuffer();
+	}
+	
+	public void close() throws IOException
+	{
+		if(stream != null)
+		{
+			try
+			{
+				flushBuffer();
+			}
+			finally
+			{
+				if(closeStream)
+				{
+					stream.close();
+				}
+				stream = null;
+			}
+		}
+	}
+	
+	private void flushBuffer() throws IOException
+	{
+		if(count > 0)
+		{
+			writeStream(buffer, 0, count);
+			count = 0;
+		}
+	}
+	
+	private void writeStream(byte[] b, int off, int len) throws IOException
+	{
+		if(stream == null)
+		{
+			throw new IOException("closed");
+		}
+		if(stream.write(b, off, 1, len) != len)
+		{
+			throw new IOException();
+		}
+	}
+}
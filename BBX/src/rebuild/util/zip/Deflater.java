@@ -0,0 +1,1415 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.util.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import rebuild.util.checksum.Adler32;
+
+/**
+ * A DEFLATE (RFC 1951) compressor that can also produce the zlib (RFC 1950) format. Data is pushed into the 
+ * compressor with {@link #write(byte[], int, int)} and compressed data is written to the output stream as it is 
+ * produced. Matches are found with hash chains, levels 1 to 3 take the first good match and levels 4 to 9 use lazy 
+ * matching, checking if the next position has a longer match first. The compressor can be {@link #reset(OutputStream) reset} 
+ * to compress another stream without allocating its buffers again. Unlike the platform compressor this supports preset dictionaries and sync flushes, which allows 
+ * independently compressed pieces of data to be joined into one stream, and the compression level and strategy can 
+ * be changed while compressing.
+ * @since BBX 1.3.0
+ */
+public final class Deflater
+{
+	/** Compression level for no compression, only stored blocks are produced. */
+	public static final int NO_COMPRESSION = 0;
+	/** Compression level for the fastest compression. */
+	public static final int BEST_SPEED = 1;
+	/** Compression level for the best compression. */
+	public static final int BEST_COMPRESSION = 9;
+	/** The default compression level. */
+	public static final int DEFAULT_COMPRESSION = -1;
+	
+	/** Compression strategy that looks for matches anywhere in the window. */
+	public static final int DEFAULT_STRATEGY = 0;
+	/** Compression strategy that doesn't look for matches at all, only Huffman coding is done. */
+	public static final int HUFFMAN_ONLY = 2;
+	/** Compression strategy that only looks for runs of the same byte, matches with a distance of one. */
+	public static final int RLE = 3;
+	
+	/** Flush mode that only writes out what is needed. */
+	public static final int NO_FLUSH = 0;
+	/** Flush mode that writes out all pending data and aligns the output to a byte boundary with an empty stored block. */
+	public static final int SYNC_FLUSH = 2;
+	/** Flush mode that does a {@link #SYNC_FLUSH} and forgets all previous data, so decompression can start again from this point. */
+	public static final int FULL_FLUSH = 3;
+	
+	private static final int WSIZE = 1 << 15;
+	private static final int WMASK = WSIZE - 1;
+	private static final int HASH_BITS = 15;
+	private static final int HASH_SIZE = 1 << HASH_BITS;
+	private static final int HASH_MASK = HASH_SIZE - 1;
+	private static final int MIN_MATCH = 3;
+	private static final int MAX_MATCH = 258;
+	private static final int MIN_LOOKAHEAD = MAX_MATCH + MIN_MATCH + 1;
+	private static final int MAX_DIST = WSIZE - MIN_LOOKAHEAD;
+	private static final int LIT_BUFSIZE = 1 << 14;
+	private static final int MAX_STORED = 65535;
+	private static final int TOO_FAR = 4096;
+	
+	private static final int LITERALS = 256;
+	private static final int END_BLOCK = 256;
+	private static final int LENGTH_CODES = 29;
+	private static final int L_CODES = LITERALS + 1 + LENGTH_CODES;
+	private static final int D_CODES = 30;
+	private static final int BL_CODES = 19;
+	private static final int MAX_BITS = 15;
+	private static final int MAX_BL_BITS = 7;
+	private static final int REP_3_6 = 16;
+	private static final int REPZ_3_10 = 17;
+	private static final int REPZ_11_138 = 18;
+	
+	private static final int STORED_BLOCK = 0;
+	private static final int STATIC_TREES = 1;
+	private static final int DYN_TREES = 2;
+	
+	private static final int[] EXTRA_LBITS = {0,0,0,0,0,0,0,0,1,1,1,1,2,2,2,2,3,3,3,3,4,4,4,4,5,5,5,5,0};
+	private static final int[] EXTRA_DBITS = {0,0,0,0,1,1,2,2,3,3,4,4,5,5,6,6,7,7,8,8,9,9,10,10,11,11,12,12,13,13};
+	private static final int[] EXTRA_BLBITS = {0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,2,3,7};
+	private static final int[] BL_ORDER = {16,17,18,0,8,7,9,6,10,5,11,4,12,3,13,2,14,1,15};
+	
+	/*
+	 * Configuration for each compression level, the same as zlib: the length of a match that cuts the hash chain search 
+	 * to a quarter for a lazy match, the longest match that has its strings inserted into the hash table (levels 1 to 3) 
+	 * or that is checked for a longer match at the next position (levels 4 to 9), the length of a match that stops 
+	 * searching, and the maximum hash chain length.
+	 */
+	private static final int[] CONFIG_GOOD = {0, 4, 4, 4, 4, 8, 8, 8, 32, 32};
+	private static final int[] CONFIG_LAZY = {0, 4, 5, 6, 4, 16, 16, 32, 128, 258};
+	private static final int[] CONFIG_NICE = {0, 8, 16, 32, 16, 32, 128, 128, 258, 258};
+	private static final int[] CONFIG_CHAIN = {0, 4, 8, 32, 16, 32, 128, 256, 1024, 4096};
+	
+	private static final byte[] LENGTH_CODE;
+	private static final int[] BASE_LENGTH;
+	private static final byte[] DIST_CODE;
+	private static final int[] BASE_DIST;
+	private static final short[] STATIC_LCODES;
+	private static final byte[] STATIC_LLENS;
+	private static final short[] STATIC_DCODES;
+	private static final byte[] STATIC_DLENS;
+	
+	static
+	{
+		int code, n, length, dist;
+		LENGTH_CODE = new byte[256];
+		BASE_LENGTH = new int[LENGTH_CODES];
+		length = 0;
+		for(code = 0; code < LENGTH_CODES - 1; code++)
+		{
+			BASE_LENGTH[code] = length;
+			for(n = 0; n < (1 << EXTRA_LBITS[code]); n++)
+			{
+				LENGTH_CODE[length++] = (byte)code;
+			}
+		}
+		//Length 258 gets its own code, overwriting the last entry of code 27
+		LENGTH_CODE[length - 1] = (byte)code;
+		BASE_LENGTH[code] = length - 1;
+		
+		DIST_CODE = new byte[512];
+		BASE_DIST = new int[D_CODES];
+		dist = 0;
+		for(code = 0; code < 16; code++)
+		{
+			BASE_DIST[code] = dist;
+			for(n = 0; n < (1 << EXTRA_DBITS[code]); n++)
+			{
+				DIST_CODE[dist++] = (byte)code;
+			}
+		}
+		dist >>= 7;
+		for(; code < D_CODES; code++)
+		{
+			BASE_DIST[code] = dist << 7;
+			for(n = 0; n < (1 << (EXTRA_DBITS[code] - 7)); n++)
+			{
+				DIST_CODE[256 + dist++] = (byte)code;
+			}
+		}
+		
+		STATIC_LLENS = new byte[L_CODES + 2];
+		for(n = 0; n < STATIC_LLENS.length; n++)
+		{
+			STATIC_LLENS[n] = (byte)(n < 144 ? 8 : (n < 256 ? 9 : (n < 280 ? 7 : 8)));
+		}
+		STATIC_LCODES = new short[L_CODES + 2];
+		generateCodes(STATIC_LLENS, STATIC_LLENS.length, STATIC_LCODES, new int[MAX_BITS + 1], new int[MAX_BITS + 1]);
+		STATIC_DLENS = new byte[D_CODES];
+		for(n = 0; n < D_CODES; n++)
+		{
+			STATIC_DLENS[n] = 5;
+		}
+		STATIC_DCODES = new short[D_CODES];
+		generateCodes(STATIC_DLENS, D_CODES, STATIC_DCODES, new int[MAX_BITS + 1], new int[MAX_BITS + 1]);
+	}
+	
+	private OutputStream out;
+	private boolean nowrap;
+	private int level;
+	private int strategy;
+	private int goodLength, maxLazy, niceLength, maxChain;
+	private boolean started, finished;
+	private int adler;
+	private long totalIn;
+	
+	//Sliding window
+	private byte[] window;
+	private char[] head;
+	private char[] prev;
+	private int strstart;
+	private int lookahead;
+	private int blockStart;
+	private int matchStart;
+	private int windowStart;
+	
+	//Lazy matching
+	private int matchLength;
+	private int prevLength;
+	private int prevMatch;
+	private boolean matchAvailable;
+	
+	//Pending symbols
+	private byte[] lBuf;
+	private char[] dBuf;
+	private int lastLit;
+	private int[] lFreq;
+	private int[] dFreq;
+	private int[] blFreq;
+	
+	//Tree construction
+	private byte[] lLens, dLens, blLens;
+	private short[] lCodes, dCodes, blCodes;
+	private int[] blCount, nextCode;
+	private int[] hFreq, hOrder, hNode, hParent, hDepth;
+	
+	//Bit output
+	private byte[] pending;
+	private int pendingCount;
+	private int bitBuf;
+	private int bitCount;
+	
+	/**
+	 * Create a new {@link Deflater}.
+	 * @param out The stream to write the compressed data to. The stream is not closed when compression is finished.
+	 * @param level The compression level, {@link #DEFAULT_COMPRESSION} or {@link #NO_COMPRESSION} through {@link #BEST_COMPRESSION}.
+	 * @param nowrap <code>true</code> to produce raw DEFLATE data, <code>false</code> to produce the zlib format.
+	 */
+	public Deflater(OutputStream out, int level, boolean nowrap)
+	{
+		if(out == null)
+		{
+			throw new NullPointerException("out");
+		}
+		if(level == DEFAULT_COMPRESSION)
+		{
+			level = 6;
+		}
+		else if(level < NO_COMPRESSION || level > BEST_COMPRESSION)
+		{
+			throw new IllegalArgumentException("level");
+		}
+		this.out = out;
+		this.nowrap = nowrap;
+		this.adler = Adler32.INITIAL_VALUE;
+		
+		this.window = new byte[WSIZE << 1];
+		this.matchLength = MIN_MATCH - 1;
+		configure(level);
+		this.lBuf = new byte[LIT_BUFSIZE];
+		this.dBuf = new char[LIT_BUFSIZE];
+		this.lFreq = new int[L_CODES + 2];
+		this.dFreq = new int[D_CODES];
+		this.blFreq = new int[BL_CODES];
+		this.lLens = new byte[L_CODES + 2];
+		this.dLens = new byte[D_CODES];
+		this.blLens = new byte[BL_CODES];
+		this.lCodes = new short[L_CODES + 2];
+		this.dCodes = new short[D_CODES];
+		this.blCodes = new short[BL_CODES];
+		this.blCount = new int[MAX_BITS + 1];
+		this.nextCode = new int[MAX_BITS + 1];
+		this.hFreq = new int[L_CODES + 2];
+		this.hOrder = new int[L_CODES + 2];
+		this.hNode = new int[(L_CODES + 2) << 1];
+		this.hParent = new int[(L_CODES + 2) << 1];
+		this.hDepth = new int[(L_CODES + 2) << 1];
+		this.pending = new byte[8192];
+	}
+	
+	/**
+	 * Create a new {@link Deflater} that produces the zlib format.
+	 * @param out The stream to write the compressed data to. The stream is not closed when compression is finished.
+	 * @param level The compression level, {@link #DEFAULT_COMPRESSION} or {@link #NO_COMPRESSION} through {@link #BEST_COMPRESSION}.
+	 */
+	public Deflater(OutputStream out, int level)
+	{
+		this(out, level, false);
+	}
+	
+	/**
+	 * Change the compression level. Data that has already been written is compressed with the old level, so this can 
+	 * be used to speed up or slow down compression part way through the data.
+	 * @param level The compression level, {@link #DEFAULT_COMPRESSION} or {@link #NO_COMPRESSION} through {@link #BEST_COMPRESSION}.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void setLevel(int level) throws IOException
+	{
+		if(finished)
+		{
+			throw new IllegalStateException();
+		}
+		if(level == DEFAULT_COMPRESSION)
+		{
+			level = 6;
+		}
+		else if(level < NO_COMPRESSION || level > BEST_COMPRESSION)
+		{
+			throw new IllegalArgumentException("level");
+		}
+		if(level == this.level)
+		{
+			return;
+		}
+		if(started && (level == NO_COMPRESSION || this.level == NO_COMPRESSION))
+		{
+			//Stored blocks are taken straight from the window, so everything before the switch has to be written out
+			deflate(true);
+			flushBlock(false);
+		}
+		else
+		{
+			endLazy();
+		}
+		configure(level);
+	}
+	
+	/**
+	 * Get the compression level.
+	 * @return The compression level, {@link #NO_COMPRESSION} through {@link #BEST_COMPRESSION}.
+	 */
+	public int getLevel()
+	{
+		return level;
+	}
+	
+	/**
+	 * Change the compression strategy. Data that has already been written is compressed with the old strategy. The 
+	 * strategy has no effect when the level is {@link #NO_COMPRESSION}.
+	 * @param strategy The compression strategy, {@link #DEFAULT_STRATEGY}, {@link #HUFFMAN_ONLY} or {@link #RLE}.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void setStrategy(int strategy) throws IOException
+	{
+		if(strategy != DEFAULT_STRATEGY && strategy != HUFFMAN_ONLY && strategy != RLE)
+		{
+			throw new IllegalArgumentException("strategy");
+		}
+		if(finished)
+		{
+			throw new IllegalStateException();
+		}
+		endLazy();
+		this.strategy = strategy;
+	}
+	
+	/**
+	 * Get the compression strategy.
+	 * @return The compression strategy.
+	 */
+	public int getStrategy()
+	{
+		return strategy;
+	}
+	
+	private void configure(int level)
+	{
+		this.level = level;
+		this.goodLength = CONFIG_GOOD[level];
+		this.maxLazy = CONFIG_LAZY[level];
+		this.niceLength = CONFIG_NICE[level];
+		this.maxChain = CONFIG_CHAIN[level];
+		if(level != NO_COMPRESSION && head == null)
+		{
+			this.head = new char[HASH_SIZE];
+			this.prev = new char[WSIZE];
+		}
+	}
+	
+	/**
+	 * Reset the compressor so it can compress a new stream. The level, strategy and format are kept, and so are the 
+	 * internal buffers.
+	 * @param out The stream to write the compressed data of the new stream to, can be the same stream as before.
+	 */
+	public void reset(OutputStream out)
+	{
+		if(out == null)
+		{
+			throw new NullPointerException("out");
+		}
+		this.out = out;
+		started = false;
+		finished = false;
+		adler = Adler32.INITIAL_VALUE;
+		totalIn = 0;
+		strstart = 0;
+		lookahead = 0;
+		blockStart = 0;
+		matchStart = 0;
+		windowStart = 0;
+		matchLength = MIN_MATCH - 1;
+		matchAvailable = false;
+		clearHash();
+		lastLit = 0;
+		clearFrequencies();
+		pendingCount = 0;
+		bitBuf = 0;
+		bitCount = 0;
+	}
+	
+	/**
+	 * Reset the compressor so it can compress a new stream to the same output stream.
+	 */
+	public void reset()
+	{
+		reset(out);
+	}
+	
+	private void clearHash()
+	{
+		if(head != null)
+		{
+			char[] h = head;
+			for(int i = 0; i < HASH_SIZE; i++)
+			{
+				h[i] = 0;
+			}
+		}
+	}
+	
+	private void clearFrequencies()
+	{
+		int i;
+		for(i = 0; i < L_CODES; i++)
+		{
+			lFreq[i] = 0;
+		}
+		for(i = 0; i < D_CODES; i++)
+		{
+			dFreq[i] = 0;
+		}
+	}
+	
+	/**
+	 * Get the two byte zlib header for a compression level, without a preset dictionary.
+	 * @param level The compression level.
+	 * @return The zlib header, the first byte is in the upper 8 bits.
+	 */
+	public static int getZLibHeader(int level)
+	{
+		return getZLibHeader(level, false);
+	}
+	
+	private static int getZLibHeader(int level, boolean dictionary)
+	{
+		int flevel;
+		if(level == DEFAULT_COMPRESSION || level == 6)
+		{
+			flevel = 2;
+		}
+		else if(level < 2)
+		{
+			flevel = 0;
+		}
+		else if(level < 6)
+		{
+			flevel = 1;
+		}
+		else
+		{
+			flevel = 3;
+		}
+		int header = (0x78 << 8) | (flevel << 6);
+		if(dictionary)
+		{
+			header |= 0x20;
+		}
+		return header + (31 - (header % 31));
+	}
+	
+	/**
+	 * Set the preset dictionary. This must be called before any data is written. Only the last 32 KB of the 
+	 * dictionary are used.
+	 * @param dictionary The dictionary data.
+	 * @param offset The offset in the dictionary data.
+	 * @param length The length of the dictionary data.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void setDictionary(byte[] dictionary, int offset, int length) throws IOException
+	{
+		if(started)
+		{
+			throw new IllegalStateException();
+		}
+		if(!nowrap)
+		{
+			writeHeader(true, Adler32.update(Adler32.INITIAL_VALUE, dictionary, offset, length));
+		}
+		started = true;
+		if(length > WSIZE)
+		{
+			offset += length - WSIZE;
+			length = WSIZE;
+		}
+		System.arraycopy(dictionary, offset, window, 0, length);
+		if(level != NO_COMPRESSION)
+		{
+			for(int i = 0; i <= length - MIN_MATCH; i++)
+			{
+				insertString(i);
+			}
+		}
+		strstart = length;
+		blockStart = length;
+	}
+	
+	/**
+	 * Get the Adler-32 checksum of all the data written so far, not including any preset dictionary.
+	 * @return The Adler-32 checksum.
+	 */
+	public int getAdler()
+	{
+		return adler;
+	}
+	
+	/**
+	 * Get the total number of bytes written to the compressor, not including any preset dictionary.
+	 * @return The total number of uncompressed bytes.
+	 */
+	public long getTotalIn()
+	{
+		return totalIn;
+	}
+	
+	/**
+	 * Get if {@link #finish()} has been called.
+	 * @return <code>true</code> if compression has finished.
+	 */
+	public boolean finished()
+	{
+		return finished;
+	}
+	
+	/**
+	 * Compress data.
+	 * @param data The data to compress.
+	 * @param offset The offset in the data.
+	 * @param length The number of bytes to compress.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void write(byte[] data, int offset, int length) throws IOException
+	{
+		if(finished)
+		{
+			throw new IllegalStateException();
+		}
+		start();
+		adler = Adler32.update(adler, data, offset, length);
+		totalIn += length;
+		while(length > 0)
+		{
+			if(strstart >= WSIZE + MAX_DIST)
+			{
+				slideWindow();
+			}
+			int n = Math.min(length, window.length - strstart - lookahead);
+			System.arraycopy(data, offset, window, strstart + lookahead, n);
+			lookahead += n;
+			offset += n;
+			length -= n;
+			deflate(false);
+		}
+	}
+	
+	/**
+	 * Flush the compressor.
+	 * @param mode The flush mode, {@link #NO_FLUSH}, {@link #SYNC_FLUSH} or {@link #FULL_FLUSH}.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void flush(int mode) throws IOException
+	{
+		if(finished)
+		{
+			throw new IllegalStateException();
+		}
+		start();
+		if(mode == SYNC_FLUSH || mode == FULL_FLUSH)
+		{
+			deflate(true);
+			flushBlock(false);
+			
+			//Empty stored block
+			sendBits(STORED_BLOCK << 1, 3);
+			alignBits();
+			putShort(0x0000);
+			putShort(0xFFFF);
+			
+			if(mode == FULL_FLUSH)
+			{
+				clearHash();
+				windowStart = strstart;
+			}
+		}
+		flushPending();
+	}
+	
+	/**
+	 * Compress any remaining data and write the end of the compressed stream.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void finish() throws IOException
+	{
+		if(finished)
+		{
+			return;
+		}
+		start();
+		deflate(true);
+		flushBlock(true);
+		alignBits();
+		if(!nowrap)
+		{
+			putShort(adler >>> 16);
+			putShort(adler);
+		}
+		flushPending();
+		finished = true;
+	}
+	
+	private void start() throws IOException
+	{
+		if(!started)
+		{
+			if(!nowrap)
+			{
+				writeHeader(false, 0);
+			}
+			started = true;
+		}
+	}
+	
+	private void writeHeader(boolean dictionary, int dictId) throws IOException
+	{
+		putShort(getZLibHeader(level, dictionary));
+		if(dictionary)
+		{
+			putShort(dictId >>> 16);
+			putShort(dictId);
+		}
+	}
+	
+	private void slideWindow() throws IOException
+	{
+		if(level == NO_COMPRESSION && strstart > blockStart)
+		{
+			flushStored(false);
+		}
+		System.arraycopy(window, WSIZE, window, 0, WSIZE);
+		matchStart -= WSIZE;
+		prevMatch -= WSIZE;
+		windowStart = Math.max(windowStart - WSIZE, 0);
+		strstart -= WSIZE;
+		blockStart -= WSIZE;
+		if(head != null)
+		{
+			int i, m;
+			for(i = 0; i < HASH_SIZE; i++)
+			{
+				m = head[i];
+				head[i] = (char)(m >= WSIZE ? m - WSIZE : 0);
+			}
+			for(i = 0; i < WSIZE; i++)
+			{
+				m = prev[i];
+				prev[i] = (char)(m >= WSIZE ? m - WSIZE : 0);
+			}
+		}
+	}
+	
+	private int insertString(int pos)
+	{
+		byte[] w = window;
+		int h = (((w[pos] & 0xFF) << 10) ^ ((w[pos + 1] & 0xFF) << 5) ^ (w[pos + 2] & 0xFF)) & HASH_MASK;
+		int match = head[h];
+		prev[pos & WMASK] = (char)match;
+		head[h] = (char)pos;
+		return match;
+	}
+	
+	/**
+	 * Process the data in the window.
+	 * @param flush <code>true</code> if all the data should be processed, <code>false</code> to stop when there 
+	 * isn't enough lookahead to find the longest match.
+	 */
+	private void deflate(boolean flush) throws IOException
+	{
+		if(level == NO_COMPRESSION)
+		{
+			strstart += lookahead;
+			lookahead = 0;
+		}
+		else if(level > 3 && strategy == DEFAULT_STRATEGY)
+		{
+			deflateSlow(flush);
+		}
+		else
+		{
+			deflateFast(flush);
+		}
+	}
+	
+	/**
+	 * Process the data in the window, taking the first match found at each position.
+	 */
+	private void deflateFast(boolean flush) throws IOException
+	{
+		int minLookahead = flush ? 1 : MIN_LOOKAHEAD;
+		while(lookahead >= minLookahead)
+		{
+			int hashHead = 0;
+			int matchLength = 0;
+			if(strategy == RLE)
+			{
+				if(lookahead >= MIN_MATCH && strstart > windowStart)
+				{
+					matchLength = runLength();
+				}
+			}
+			else if(strategy == DEFAULT_STRATEGY && lookahead >= MIN_MATCH)
+			{
+				hashHead = insertString(strstart);
+				if(hashHead != 0 && strstart - hashHead <= MAX_DIST)
+				{
+					matchLength = longestMatch(hashHead, MIN_MATCH - 1);
+				}
+			}
+			boolean full;
+			if(matchLength >= MIN_MATCH)
+			{
+				full = tally(strstart - matchStart, matchLength - MIN_MATCH);
+				int end = strstart + matchLength;
+				if(matchLength <= maxLazy && strategy == DEFAULT_STRATEGY)
+				{
+					int last = Math.min(end, strstart + lookahead - MIN_MATCH + 1);
+					for(int pos = strstart + 1; pos < last; pos++)
+					{
+						insertString(pos);
+					}
+				}
+				lookahead -= matchLength;
+				strstart = end;
+			}
+			else
+			{
+				full = tally(0, window[strstart] & 0xFF);
+				lookahead--;
+				strstart++;
+			}
+			if(full)
+			{
+				flushBlock(false);
+			}
+		}
+	}
+	
+	/**
+	 * Process the data in the window with lazy matching. A match is only used if the next position doesn't have a 
+	 * longer one, otherwise a literal is written and the longer match is used.
+	 */
+	private void deflateSlow(boolean flush) throws IOException
+	{
+		int minLookahead = flush ? 1 : MIN_LOOKAHEAD;
+		while(lookahead >= minLookahead)
+		{
+			int hashHead = 0;
+			if(lookahead >= MIN_MATCH)
+			{
+				hashHead = insertString(strstart);
+			}
+			prevLength = matchLength;
+			prevMatch = matchStart;
+			matchLength = MIN_MATCH - 1;
+			if(hashHead != 0 && prevLength < maxLazy && strstart - hashHead <= MAX_DIST)
+			{
+				matchLength = longestMatch(hashHead, prevLength);
+				if(matchLength == MIN_MATCH && strstart - matchStart > TOO_FAR)
+				{
+					//A short far away match costs more than the literals
+					matchLength = MIN_MATCH - 1;
+				}
+			}
+			if(prevLength >= MIN_MATCH && matchLength <= prevLength)
+			{
+				//The match at the previous position is the better one
+				int maxInsert = strstart + lookahead - MIN_MATCH;
+				boolean full = tally(strstart - 1 - prevMatch, prevLength - MIN_MATCH);
+				lookahead -= prevLength - 1;
+				for(int n = prevLength - 2; n > 0; n--)
+				{
+					if(++strstart <= maxInsert)
+					{
+						insertString(strstart);
+					}
+				}
+				matchAvailable = false;
+				matchLength = MIN_MATCH - 1;
+				strstart++;
+				if(full)
+				{
+					flushBlock(false);
+				}
+			}
+			else if(matchAvailable)
+			{
+				//No better match at this position, the previous byte is a literal
+				boolean full = tally(0, window[strstart - 1] & 0xFF);
+				if(full)
+				{
+					flushBlock(false);
+				}
+				strstart++;
+				lookahead--;
+			}
+			else
+			{
+				matchAvailable = true;
+				strstart++;
+				lookahead--;
+			}
+		}
+		if(flush)
+		{
+			endLazy();
+		}
+	}
+	
+	/**
+	 * Write out the literal that is waiting to see if the next position has a better match, if there is one.
+	 */
+	private void endLazy() throws IOException
+	{
+		if(matchAvailable)
+		{
+			matchAvailable = false;
+			if(tally(0, window[strstart - 1] & 0xFF))
+			{
+				flushBlock(false);
+			}
+		}
+		matchLength = MIN_MATCH - 1;
+	}
+	
+	/**
+	 * Find the length of the run of the byte before the current position.
+	 */
+	private int runLength()
+	{
+		byte[] w = window;
+		int scan = strstart;
+		byte b = w[scan - 1];
+		int maxLen = Math.min(MAX_MATCH, lookahead);
+		int len = 0;
+		while(len < maxLen && w[scan + len] == b)
+		{
+			len++;
+		}
+		matchStart = scan - 1;
+		return len >= MIN_MATCH ? len : 0;
+	}
+	
+	/**
+	 * Find the longest match at the current position.
+	 * @param curMatch The first position in the hash chain.
+	 * @param prevLength The length of the match at the previous position, only longer matches are looked for.
+	 * @return The length of the longest match, no more than <code>prevLength</code> if there isn't a longer one.
+	 */
+	private int longestMatch(int curMatch, int prevLength)
+	{
+		byte[] w = window;
+		int scan = strstart;
+		int maxLen = Math.min(MAX_MATCH, lookahead);
+		int nice = Math.min(niceLength, maxLen);
+		int limit = strstart > MAX_DIST ? strstart - MAX_DIST : 0;
+		int chain = maxChain;
+		int best = Math.max(prevLength, MIN_MATCH - 1);
+		if(prevLength >= goodLength)
+		{
+			//Already have a good match, don't search as hard
+			chain >>= 2;
+		}
+		if(best >= maxLen)
+		{
+			//Near the end of the input there isn't enough left for a longer match, and the window may end here
+			return best;
+		}
+		byte scanEnd1 = w[scan + best - 1];
+		byte scanEnd = w[scan + best];
+		byte scan0 = w[scan];
+		byte scan1 = w[scan + 1];
+		do
+		{
+			int match = curMatch;
+			if(w[match + best] != scanEnd || w[match + best - 1] != scanEnd1 || w[match] != scan0 || w[match + 1] != scan1)
+			{
+				continue;
+			}
+			int len = 2;
+			while(len < maxLen && w[match + len] == w[scan + len])
+			{
+				len++;
+			}
+			if(len > best)
+			{
+				matchStart = curMatch;
+				best = len;
+				if(len >= nice)
+				{
+					break;
+				}
+				scanEnd1 = w[scan + best - 1];
+				scanEnd = w[scan + best];
+			}
+		} while((curMatch = prev[curMatch & WMASK]) > limit && --chain != 0);
+		return best;
+	}
+	
+	/**
+	 * Save a literal or match.
+	 * @param dist The distance of the match, zero for a literal.
+	 * @param lc The literal byte or the match length minus {@link #MIN_MATCH}.
+	 * @return <code>true</code> if the symbol buffer is full and the block has to be written.
+	 */
+	private boolean tally(int dist, int lc)
+	{
+		dBuf[lastLit] = (char)dist;
+		lBuf[lastLit++] = (byte)lc;
+		if(dist == 0)
+		{
+			lFreq[lc]++;
+		}
+		else
+		{
+			lFreq[(LENGTH_CODE[lc] & 0xFF) + LITERALS + 1]++;
+			dFreq[dCode(dist - 1)]++;
+		}
+		return lastLit == LIT_BUFSIZE - 1;
+	}
+	
+	private static int dCode(int dist)
+	{
+		return dist < 256 ? DIST_CODE[dist] : DIST_CODE[256 + (dist >>> 7)];
+	}
+	
+	private void flushStored(boolean last) throws IOException
+	{
+		int storedLen = strstart - blockStart;
+		int pos = blockStart;
+		do
+		{
+			int n = Math.min(storedLen, MAX_STORED);
+			storedLen -= n;
+			sendBits((STORED_BLOCK << 1) + (last && storedLen == 0 ? 1 : 0), 3);
+			alignBits();
+			putByte(n);
+			putByte(n >>> 8);
+			putByte(~n);
+			putByte(~n >>> 8);
+			putBytes(window, pos, n);
+			pos += n;
+		} while(storedLen > 0);
+		blockStart = strstart;
+	}
+	
+	/**
+	 * Write out the pending symbols as a block, using whichever of stored, static or dynamic trees is smallest.
+	 */
+	private void flushBlock(boolean last) throws IOException
+	{
+		if(level == NO_COMPRESSION)
+		{
+			if(last || strstart > blockStart)
+			{
+				flushStored(last);
+			}
+			return;
+		}
+		if(lastLit == 0 && !last)
+		{
+			return;
+		}
+		lFreq[END_BLOCK] = 1;
+		
+		buildLengths(lFreq, L_CODES, MAX_BITS, lLens);
+		buildLengths(dFreq, D_CODES, MAX_BITS, dLens);
+		
+		int lcodes = L_CODES;
+		while(lcodes > 257 && lLens[lcodes - 1] == 0)
+		{
+			lcodes--;
+		}
+		int dcodes = D_CODES;
+		while(dcodes > 1 && dLens[dcodes - 1] == 0)
+		{
+			dcodes--;
+		}
+		for(int i = 0; i < BL_CODES; i++)
+		{
+			blFreq[i] = 0;
+		}
+		scanTree(lLens, lcodes, false);
+		scanTree(dLens, dcodes, false);
+		buildLengths(blFreq, BL_CODES, MAX_BL_BITS, blLens);
+		int blcodes = BL_CODES;
+		while(blcodes > 4 && blLens[BL_ORDER[blcodes - 1]] == 0)
+		{
+			blcodes--;
+		}
+		
+		//Compute the size of each kind of block, in bits
+		long optLen = 3 + 5 + 5 + 4 + 3 * blcodes;
+		long staticLen = 3;
+		int i;
+		for(i = 0; i < BL_CODES; i++)
+		{
+			optLen += (long)blFreq[i] * (blLens[i] + EXTRA_BLBITS[i]);
+		}
+		for(i = 0; i < L_CODES; i++)
+		{
+			int f = lFreq[i];
+			if(f != 0)
+			{
+				int extra = i > LITERALS ? EXTRA_LBITS[i - LITERALS - 1] : 0;
+				optLen += (long)f * (lLens[i] + extra);
+				staticLen += (long)f * (STATIC_LLENS[i] + extra);
+			}
+		}
+		for(i = 0; i < D_CODES; i++)
+		{
+			int f = dFreq[i];
+			if(f != 0)
+			{
+				optLen += (long)f * (dLens[i] + EXTRA_DBITS[i]);
+				staticLen += (long)f * (STATIC_DLENS[i] + EXTRA_DBITS[i]);
+			}
+		}
+		int storedLen = strstart - blockStart;
+		long optLenb = (optLen + 3 + 7) >> 3;
+		long staticLenb = (staticLen + 3 + 7) >> 3;
+		
+		if(blockStart >= 0 && storedLen + 4 <= Math.min(optLenb, staticLenb))
+		{
+			flushStored(last);
+		}
+		else if(staticLenb <= optLenb)
+		{
+			sendBits((STATIC_TREES << 1) + (last ? 1 : 0), 3);
+			compressBlock(STATIC_LCODES, STATIC_LLENS, STATIC_DCODES, STATIC_DLENS);
+		}
+		else
+		{
+			generateCodes(lLens, lcodes, lCodes, blCount, nextCode);
+			generateCodes(dLens, dcodes, dCodes, blCount, nextCode);
+			generateCodes(blLens, BL_CODES, blCodes, blCount, nextCode);
+			sendBits((DYN_TREES << 1) + (last ? 1 : 0), 3);
+			sendBits(lcodes - 257, 5);
+			sendBits(dcodes - 1, 5);
+			sendBits(blcodes - 4, 4);
+			for(i = 0; i < blcodes; i++)
+			{
+				sendBits(blLens[BL_ORDER[i]], 3);
+			}
+			scanTree(lLens, lcodes, true);
+			scanTree(dLens, dcodes, true);
+			compressBlock(lCodes, lLens, dCodes, dLens);
+		}
+		
+		clearFrequencies();
+		lastLit = 0;
+		blockStart = strstart;
+	}
+	
+	private void compressBlock(short[] lc, byte[] ll, short[] dc, byte[] dl) throws IOException
+	{
+		for(int i = 0; i < lastLit; i++)
+		{
+			int dist = dBuf[i];
+			int l = lBuf[i] & 0xFF;
+			if(dist == 0)
+			{
+				sendBits(lc[l] & 0xFFFF, ll[l]);
+			}
+			else
+			{
+				int code = LENGTH_CODE[l] & 0xFF;
+				sendBits(lc[code + LITERALS + 1] & 0xFFFF, ll[code + LITERALS + 1]);
+				int extra = EXTRA_LBITS[code];
+				if(extra != 0)
+				{
+					sendBits(l - BASE_LENGTH[code], extra);
+				}
+				dist--;
+				code = dCode(dist);
+				sendBits(dc[code] & 0xFFFF, dl[code]);
+				extra = EXTRA_DBITS[code];
+				if(extra != 0)
+				{
+					sendBits(dist - BASE_DIST[code], extra);
+				}
+			}
+		}
+		sendBits(lc[END_BLOCK] & 0xFFFF, ll[END_BLOCK]);
+	}
+	
+	/**
+	 * Run length encode a set of code lengths with the code length alphabet, either counting the frequencies of the 
+	 * code length codes or writing them out.
+	 */
+	private void scanTree(byte[] lens, int count, boolean send) throws IOException
+	{
+		int prevLen = -1;
+		int nextLen = lens[0];
+		int run = 0;
+		int maxCount = 7;
+		int minCount = 4;
+		if(nextLen == 0)
+		{
+			maxCount = 138;
+			minCount = 3;
+		}
+		for(int n = 0; n < count; n++)
+		{
+			int curLen = nextLen;
+			nextLen = n + 1 < count ? lens[n + 1] : -1;
+			if(++run < maxCount && curLen == nextLen)
+			{
+				continue;
+			}
+			else if(run < minCount)
+			{
+				if(send)
+				{
+					while(run-- > 0)
+					{
+						sendBits(blCodes[curLen] & 0xFFFF, blLens[curLen]);
+					}
+				}
+				else
+				{
+					blFreq[curLen] += run;
+				}
+			}
+			else if(curLen != 0)
+			{
+				if(curLen != prevLen)
+				{
+					if(send)
+					{
+						sendBits(blCodes[curLen] & 0xFFFF, blLens[curLen]);
+					}
+					else
+					{
+						blFreq[curLen]++;
+					}
+					run--;
+				}
+				if(send)
+				{
+					sendBits(blCodes[REP_3_6] & 0xFFFF, blLens[REP_3_6]);
+					sendBits(run - 3, 2);
+				}
+				else
+				{
+					blFreq[REP_3_6]++;
+				}
+			}
+			else if(run <= 10)
+			{
+				if(send)
+				{
+					sendBits(blCodes[REPZ_3_10] & 0xFFFF, blLens[REPZ_3_10]);
+					sendBits(run - 3, 3);
+				}
+				else
+				{
+					blFreq[REPZ_3_10]++;
+				}
+			}
+			else
+			{
+				if(send)
+				{
+					sendBits(blCodes[REPZ_11_138] & 0xFFFF, blLens[REPZ_11_138]);
+					sendBits(run - 11, 7);
+				}
+				else
+				{
+					blFreq[REPZ_11_138]++;
+				}
+			}
+			run = 0;
+			prevLen = curLen;
+			if(nextLen == 0)
+			{
+				maxCount = 138;
+				minCount = 3;
+			}
+			else if(curLen == nextLen)
+			{
+				maxCount = 6;
+				minCount = 3;
+			}
+			else
+			{
+				maxCount = 7;
+				minCount = 4;
+			}
+		}
+	}
+	
+	/**
+	 * Build length limited Huffman code lengths. If the tree is too deep the frequencies are scaled down and the tree 
+	 * is rebuilt, this is slightly less optimal than package-merge but much simpler.
+	 */
+	private void buildLengths(int[] freq, int count, int maxBits, byte[] lens)
+	{
+		int[] f = hFreq;
+		int[] order = hOrder;
+		int[] node = hNode;
+		int[] parent = hParent;
+		int[] depth = hDepth;
+		int i, used = 0;
+		for(i = 0; i < count; i++)
+		{
+			f[i] = freq[i];
+			lens[i] = 0;
+			if(f[i] != 0)
+			{
+				used++;
+			}
+		}
+		//At least two codes are needed so that every code is at least one bit long
+		for(i = 0; i < count && used < 2; i++)
+		{
+			if(f[i] == 0)
+			{
+				f[i] = 1;
+				used++;
+			}
+		}
+		while(true)
+		{
+			//Sort the used symbols by frequency
+			int m = 0;
+			for(i = 0; i < count; i++)
+			{
+				if(f[i] != 0)
+				{
+					int j = m++;
+					while(j > 0 && f[order[j - 1]] > f[i])
+					{
+						order[j] = order[j - 1];
+						j--;
+					}
+					order[j] = i;
+				}
+			}
+			for(i = 0; i < m; i++)
+			{
+				node[i] = f[order[i]];
+			}
+			
+			//Two queue merge, leaves are 0 to m - 1 and internal nodes are created from m onwards in increasing weight
+			int leaf = 0;
+			int inner = m;
+			int next = m;
+			while(next < (m << 1) - 1)
+			{
+				int a, b;
+				if(leaf < m && (inner == next || node[leaf] <= node[inner]))
+				{
+					a = leaf++;
+				}
+				else
+				{
+					a = inner++;
+				}
+				if(leaf < m && (inner == next || node[leaf] <= node[inner]))
+				{
+					b = leaf++;
+				}
+				else
+				{
+					b = inner++;
+				}
+				node[next] = node[a] + node[b];
+				parent[a] = next;
+				parent[b] = next;
+				next++;
+			}
+			int root = next - 1;
+			depth[root] = 0;
+			int maxDepth = 0;
+			for(i = root - 1; i >= 0; i--)
+			{
+				depth[i] = depth[parent[i]] + 1;
+				if(i < m && depth[i] > maxDepth)
+				{
+					maxDepth = depth[i];
+				}
+			}
+			if(maxDepth <= maxBits)
+			{
+				for(i = 0; i < m; i++)
+				{
+					lens[order[i]] = (byte)depth[i];
+				}
+				return;
+			}
+			for(i = 0; i < count; i++)
+			{
+				if(f[i] != 0)
+				{
+					f[i] = (f[i] + 1) >> 1;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Generate canonical Huffman codes from code lengths. The codes are bit reversed since bits are written least 
+	 * significant bit first.
+	 */
+	private static void generateCodes(byte[] lens, int count, short[] codes, int[] blCount, int[] nextCode)
+	{
+		int i, bits;
+		for(i = 0; i <= MAX_BITS; i++)
+		{
+			blCount[i] = 0;
+		}
+		for(i = 0; i < count; i++)
+		{
+			blCount[lens[i]]++;
+		}
+		blCount[0] = 0;
+		int code = 0;
+		for(bits = 1; bits <= MAX_BITS; bits++)
+		{
+			code = (code + blCount[bits - 1]) << 1;
+			nextCode[bits] = code;
+		}
+		for(i = 0; i < count; i++)
+		{
+			int len = lens[i];
+			if(len != 0)
+			{
+				int c = nextCode[len]++;
+				int r = 0;
+				for(bits = 0; bits < len; bits++)
+				{
+					r = (r << 1) | (c & 1);
+					c >>>= 1;
+				}
+				codes[i] = (short)r;
+			}
+		}
+	}
+	
+	private void sendBits(int value, int length) throws IOException
+	{
+		bitBuf |= value << bitCount;
+		bitCount += length;
+		while(bitCount >= 8)
+		{
+			putByte(bitBuf);
+			bitBuf >>>= 8;
+			bitCount -= 8;
+		}
+	}
+	
+	private void alignBits() throws IOException
+	{
+		if(bitCount > 0)
+		{
+			putByte(bitBuf);
+		}
+		bitBuf = 0;
+		bitCount = 0;
+	}
+	
+	private void putByte(int b) throws IOException
+	{
+		if(pendingCount == pending.length)
+		{
+			flushPending();
+		}
+		pending[pendingCount++] = (byte)b;
+	}
+	
+	/** Write a two byte value, most significant byte first. */
+	private void putShort(int s) throws IOException
+	{
+		putByte(s >>> 8);
+		putByte(s);
+	}
+	
+	private void putBytes(byte[] b, int offset, int length) throws IOException
+	{
+		while(length > 0)
+		{
+			if(pendingCount == pending.length)
+			{
+				flushPending();
+			}
+			int n = Math.min(length, pending.length - pendingCount);
+			System.arraycopy(b, offset, pending, pendingCount, n);
+			pendingCount += n;
+			offset += n;
+			length -= n;
+		}
+	}
+	
+	private void flushPending() throws IOException
+	{
+		if(pendingCount > 0)
+		{
+			out.write(pending, 0, pendingCount);
+			pendingCount = 0;
+		}
+	}
+}
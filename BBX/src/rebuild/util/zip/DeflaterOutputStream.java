@@ -0,0 +1,161 @@
+//---------------------------------------------------------------------------------
+//
+// BlackBerry Extensions
+// Copyright (c) 2008-2012 Vincent Simonetti
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated 
+// documentation files (the "Software"), to deal in the Software without restriction, including without limitation 
+// the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and 
+// to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+// INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR 
+// PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE 
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+// OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+// DEALINGS IN THE SOFTWARE.
+//
+//---------------------------------------------------------------------------------
+//
+package rebuild.util.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that compresses everything written to it with a {@link Deflater}.
+ * @since BBX 1.3.0
+ */
+public class DeflaterOutputStream extends OutputStream
+{
+	/** The compressor. */
+	protected Deflater def;
+	/** The stream the compressed data is written to. */
+	protected OutputStream out;
+	
+	private boolean syncFlush;
+	private boolean closed;
+	private byte[] single;
+	
+	/**
+	 * Create a new {@link DeflaterOutputStream} that produces the zlib format with the default compression level.
+	 * @param out The stream to write the compressed data to.
+	 */
+	public DeflaterOutputStream(OutputStream out)
+	{
+		this(out, Deflater.DEFAULT_COMPRESSION, false, false);
+	}
+	
+	/**
+	 * Create a new {@link DeflaterOutputStream}.
+	 * @param out The stream to write the compressed data to.
+	 * @param level The compression level, {@link Deflater#DEFAULT_COMPRESSION} or {@link Deflater#NO_COMPRESSION} through {@link Deflater#BEST_COMPRESSION}.
+	 * @param nowrap <code>true</code> to produce raw DEFLATE data, <code>false</code> to produce the zlib format.
+	 * @param syncFlush <code>true</code> if {@link #flush()} should do a {@link Deflater#SYNC_FLUSH} so everything written so far 
+	 * can be decompressed, <code>false</code> if it should only flush what has already been compressed.
+	 */
+	public DeflaterOutputStream(OutputStream out, int level, boolean nowrap, boolean syncFlush)
+	{
+		this(out, new Deflater(out, level, nowrap), syncFlush);
+	}
+	
+	/**
+	 * Create a new {@link DeflaterOutputStream} using an existing compressor.
+	 * @param out The stream the compressor writes to, closed when this stream is closed.
+	 * @param def The compressor.
+	 * @param syncFlush <code>true</code> if {@link #flush()} should do a {@link Deflater#SYNC_FLUSH}.
+	 */
+	public DeflaterOutputStream(OutputStream out, Deflater def, boolean syncFlush)
+	{
+		if(out == null)
+		{
+			throw new NullPointerException("out");
+		}
+		if(def == null)
+		{
+			throw new NullPointerException("def");
+		}
+		this.out = out;
+		this.def = def;
+		this.syncFlush = syncFlush;
+	}
+	
+	/**
+	 * Get the compressor used by the stream.
+	 * @return The compressor.
+	 */
+	public Deflater getDeflater()
+	{
+		return def;
+	}
+	
+	/**
+	 * Compress a single byte.
+	 * @param b The byte to write.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void write(int b) throws IOException
+	{
+		if(single == null)
+		{
+			single = new byte[1];
+		}
+		single[0] = (byte)b;
+		write(single, 0, 1);
+	}
+	
+	/**
+	 * Compress an array of bytes.
+	 * @param b The data to write.
+	 * @param off The start offset in the data.
+	 * @param len The number of bytes to write.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if(closed)
+		{
+			throw new IOException("closed");
+		}
+		def.write(b, off, len);
+	}
+	
+	/**
+	 * Flush the stream. If the stream was created with sync flushing everything written so far is compressed and 
+	 * written out, otherwise only the data that has already been compressed is.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void flush() throws IOException
+	{
+		if(!closed && !def.finished())
+		{
+			def.flush(syncFlush ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH);
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Finish compressing without closing the underlying stream.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void finish() throws IOException
+	{
+		def.finish();
+	}
+	
+	/**
+	 * Finish compressing and close the underlying stream.
+	 * @throws IOException If any IO exception occurs.
+	 */
+	public void close() throws IOException
+	{
+		if(!closed)
+		{
+			finish();
+			closed = true;
+			out.close();
+		}
+	}
+}
@@ -33,6 +33,7 @@ import java.util.Hashtable;
 //#ifndef NO_FORMATTERS
 import rebuild.util.text.StringUtilities;
 //#endif
+import rebuild.util.zip.Deflater;
 
 import net.rim.device.api.util.Arrays;
 
@@ -414,36 +415,34 @@ final class PDFWriters
         
         ByteArrayOutputStream mem = new ByteArrayOutputStream();
         
-        //Process stream
-        StringBuffer sb = new StringBuffer();
-        
         byte[] valueData = value.toByteArray();
         int valueLen = value.size();
-        for(int i = 0; i < valueLen; i++)
+        
+        //Compress stream, if that isn't smaller than the hex form (two characters a byte) it is written as hex
+        ByteArrayOutputStream comp = new ByteArrayOutputStream((valueLen >> 1) + 16);
+        Deflater def = new Deflater(comp, Deflater.DEFAULT_COMPRESSION);
+        def.write(valueData, 0, valueLen);
+        def.finish();
+        
+        byte[] sMem;
+        String filter;
+        if(comp.size() < (long)valueLen * 2)
         {
-            String line = Integer.toHexString(valueData[i] & 0xFF);
-            if(valueData[i] != 0)
-            {
-            	sb.append(' ');
-            	sb.deleteCharAt(sb.length() - 1);
-            }
-            if (line.length() < 2)
-            {
-            	sb.append('0');
-            }
-            sb.append(line.toCharArray());
+        	sMem = comp.toByteArray();
+        	filter = "FlateDecode";
         }
+        else
+        {
+        	sMem = EncodeHex(valueData, valueLen);
+        	filter = "ASCIIHexDecode";
+        }
+        comp = null;
         valueData = null;
         
-        sb.append('>'); //EOD
-        valueLen = sb.length();
-        byte[] sMem = encodeString(sb.toString(), "US-ASCII");
-        sb = null;
-        
         Hashtable stTable = new Hashtable();
         stTable.put("Length", new Integer(sMem.length)); //Get the length of the encoded string
-        stTable.put("Filter", new PDFName("ASCIIHexDecode")); //For easier management
-        stTable.put("DL", new Integer(value.size())); //Not needed, but potentially useful
+        stTable.put("Filter", new PDFName(filter)); //For easier management
+        stTable.put("DL", new Integer(valueLen)); //Not needed, but potentially useful
         if (additionalTable != null)
         {
             //Copy dictionary
@@ -477,4 +476,26 @@ final class PDFWriters
         
         return mem.size();
     }
+	
+	private static byte[] EncodeHex(byte[] valueData, int valueLen)
+    {
+        StringBuffer sb = new StringBuffer();
+        for(int i = 0; i < valueLen; i++)
+        {
+            String line = Integer.toHexString(valueData[i] & 0xFF);
+            if(valueData[i] != 0)
+            {
+            	sb.append(' ');
+            	sb.deleteCharAt(sb.length() - 1);
+            }
+            if (line.length() < 2)
+            {
+            	sb.append('0');
+            }
+            sb.append(line.toCharArray());
+        }
+        
+        sb.append('>'); //EOD
+        return encodeString(sb.toString(), "US-ASCII");
+    }
 }